@@ -20,10 +20,12 @@ package org.apache.cassandra.cache;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.cliffc.high_scale_lib.NonBlockingHashSet;
 import org.slf4j.Logger;
@@ -33,6 +35,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
 import org.apache.cassandra.concurrent.ScheduledExecutors;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.DatabaseDescriptor;
@@ -46,6 +49,7 @@ import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.io.FSWriteError;
 import org.apache.cassandra.io.util.*;
 import org.apache.cassandra.service.CacheService;
+import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.JVMStabilityInspector;
 import org.apache.cassandra.utils.Pair;
 
@@ -67,6 +71,9 @@ public class AutoSavingCache<K extends CacheKey, V> extends InstrumentingCache<K
 
     private CacheSerializer<K, V> cacheLoader;
 
+    // loads and saves the segments of the cache, one per table, in parallel; its threads stop once it is idle
+    private final ExecutorService segmentExecutor;
+
     /*
      * CASSANDRA-10155 required a format change to fix 2i indexes and caching.
      * 2.2 is already at version "c" and 3.0 is at "d".
@@ -100,6 +107,10 @@ public class AutoSavingCache<K extends CacheKey, V> extends InstrumentingCache<K
         super(cacheType.toString(), cache);
         this.cacheType = cacheType;
         this.cacheLoader = cacheloader;
+        this.segmentExecutor = DebuggableThreadPoolExecutor.createWithMaximumPoolSize(cacheType + "SegmentTasks",
+                                                                                      FBUtilities.getAvailableProcessors(),
+                                                                                      60,
+                                                                                      TimeUnit.SECONDS);
     }
 
     public File getCachePath(String version)
@@ -107,6 +118,33 @@ public class AutoSavingCache<K extends CacheKey, V> extends InstrumentingCache<K
         return DatabaseDescriptor.getSerializedCachePath(cacheType, version);
     }
 
+    /**
+     * The cache is saved in one segment per table, named after the table and the cache file name, so the segments
+     * can be written and loaded in parallel.
+     */
+    public File getSegmentPath(Pair<String, String> ksAndCFName)
+    {
+        File path = getCachePath(CURRENT_VERSION);
+        return new File(path.getParentFile(), ksAndCFName.left + "-" + ksAndCFName.right + "-" + path.getName());
+    }
+
+    /**
+     * @return the saved segments of the cache, which include the single file the cache was saved to before it was
+     * saved in segments, as they share the same format.
+     */
+    private File[] getSavedSegments()
+    {
+        final String name = getCachePath(CURRENT_VERSION).getName();
+        File[] segments = new File(DatabaseDescriptor.getSavedCachesLocation()).listFiles(new FileFilter()
+        {
+            public boolean accept(File file)
+            {
+                return file.isFile() && file.getName().endsWith(name);
+            }
+        });
+        return segments == null ? new File[0] : segments;
+    }
+
     public Writer getWriter(int keysToSave)
     {
         return new Writer(keysToSave);
@@ -165,85 +203,116 @@ public class AutoSavingCache<K extends CacheKey, V> extends InstrumentingCache<K
     }
 
     public int loadSaved()
+    {
+        long start = System.nanoTime();
+        File[] segments = getSavedSegments();
+        if (segments.length == 0)
+            return 0;
+
+        int count = 0;
+        try
+        {
+            List<Future<Integer>> futures = new ArrayList<>(segments.length);
+            for (final File segment : segments)
+            {
+                futures.add(segmentExecutor.submit(new Callable<Integer>()
+                {
+                    public Integer call()
+                    {
+                        return loadSegment(segment);
+                    }
+                }));
+            }
+            for (Integer segmentCount : FBUtilities.waitOnFutures(futures))
+                count += segmentCount;
+        }
+        finally
+        {
+            cacheLoader.cleanupAfterDeserialize();
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("completed reading ({} ms; {} keys) {} saved cache segments of {}",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), count, segments.length, cacheType);
+        return count;
+    }
+
+    private int loadSegment(File path)
     {
         int count = 0;
         long start = System.nanoTime();
 
         // modern format, allows both key and value (so key cache load can be purely sequential)
-        File path = getCachePath(CURRENT_VERSION);
-        if (path.exists())
+        DataInputStream in = null;
+        try
         {
-            DataInputStream in = null;
-            try
-            {
-                logger.info(String.format("reading saved cache %s", path));
-                in = new DataInputStream(new LengthAvailableInputStream(new BufferedInputStream(streamFactory.getInputStream(path)), path.length()));
+            logger.info(String.format("reading saved cache %s", path));
+            in = new DataInputStream(new LengthAvailableInputStream(new BufferedInputStream(streamFactory.getInputStream(path)), path.length()));
 
-                //Check the schema has not changed since CFs are looked up by name which is ambiguous
-                UUID schemaVersion = new UUID(in.readLong(), in.readLong());
-                if (!schemaVersion.equals(Schema.instance.getVersion()))
-                    throw new RuntimeException("Cache schema version "
-                                              + schemaVersion.toString()
-                                              + " does not match current schema version "
-                                              + Schema.instance.getVersion());
+            //Check the schema has not changed since CFs are looked up by name which is ambiguous
+            UUID schemaVersion = new UUID(in.readLong(), in.readLong());
+            if (!schemaVersion.equals(Schema.instance.getVersion()))
+                throw new RuntimeException("Cache schema version "
+                                          + schemaVersion.toString()
+                                          + " does not match current schema version "
+                                          + Schema.instance.getVersion());
 
-                ArrayDeque<Future<Pair<K, V>>> futures = new ArrayDeque<Future<Pair<K, V>>>();
+            ArrayDeque<Future<Pair<K, V>>> futures = new ArrayDeque<Future<Pair<K, V>>>();
 
-                while (in.available() > 0)
+            while (in.available() > 0)
+            {
+                //ksname and cfname are serialized by the serializers in CacheService
+                //That is delegated there because there are serializer specific conditions
+                //where a cache key is skipped and not written
+                String ksname = in.readUTF();
+                String cfname = in.readUTF();
+
+                ColumnFamilyStore cfs = Schema.instance.getColumnFamilyStoreIncludingIndexes(Pair.create(ksname, cfname));
+
+                Future<Pair<K, V>> entryFuture = cacheLoader.deserialize(in, cfs);
+                // Key cache entry can return null, if the SSTable doesn't exist.
+                if (entryFuture == null)
+                    continue;
+
+                futures.offer(entryFuture);
+                count++;
+
+                /*
+                 * Kind of unwise to accrue an unbounded number of pending futures
+                 * So now there is this loop to keep a bounded number pending.
+                 */
+                do
                 {
-                    //ksname and cfname are serialized by the serializers in CacheService
-                    //That is delegated there because there are serializer specific conditions
-                    //where a cache key is skipped and not written
-                    String ksname = in.readUTF();
-                    String cfname = in.readUTF();
-
-                    ColumnFamilyStore cfs = Schema.instance.getColumnFamilyStoreIncludingIndexes(Pair.create(ksname, cfname));
-
-                    Future<Pair<K, V>> entryFuture = cacheLoader.deserialize(in, cfs);
-                    // Key cache entry can return null, if the SSTable doesn't exist.
-                    if (entryFuture == null)
-                        continue;
-
-                    futures.offer(entryFuture);
-                    count++;
-
-                    /*
-                     * Kind of unwise to accrue an unbounded number of pending futures
-                     * So now there is this loop to keep a bounded number pending.
-                     */
-                    do
+                    while (futures.peek() != null && futures.peek().isDone())
                     {
-                        while (futures.peek() != null && futures.peek().isDone())
-                        {
-                            Future<Pair<K, V>> future = futures.poll();
-                            Pair<K, V> entry = future.get();
-                            if (entry != null && entry.right != null)
-                                put(entry.left, entry.right);
-                        }
-
-                        if (futures.size() > 1000)
-                            Thread.yield();
-                    } while(futures.size() > 1000);
-                }
+                        Future<Pair<K, V>> future = futures.poll();
+                        Pair<K, V> entry = future.get();
+                        if (entry != null && entry.right != null)
+                            put(entry.left, entry.right);
+                    }
 
-                Future<Pair<K, V>> future = null;
-                while ((future = futures.poll()) != null)
-                {
-                    Pair<K, V> entry = future.get();
-                    if (entry != null && entry.right != null)
-                        put(entry.left, entry.right);
-                }
-            }
-            catch (Throwable t)
-            {
-                JVMStabilityInspector.inspectThrowable(t);
-                logger.info(String.format("Harmless error reading saved cache %s", path.getAbsolutePath()), t);
+                    if (futures.size() > 1000)
+                        Thread.yield();
+                } while(futures.size() > 1000);
             }
-            finally
+
+            Future<Pair<K, V>> future = null;
+            while ((future = futures.poll()) != null)
             {
-                FileUtils.closeQuietly(in);
+                Pair<K, V> entry = future.get();
+                if (entry != null && entry.right != null)
+                    put(entry.left, entry.right);
             }
         }
+        catch (Throwable t)
+        {
+            JVMStabilityInspector.inspectThrowable(t);
+            logger.info(String.format("Harmless error reading saved cache %s", path.getAbsolutePath()), t);
+        }
+        finally
+        {
+            FileUtils.closeQuietly(in);
+        }
         if (logger.isDebugEnabled())
             logger.debug("completed reading ({} ms; {} keys) saved cache {}",
                     TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), count, path);
@@ -259,7 +328,7 @@ public class AutoSavingCache<K extends CacheKey, V> extends InstrumentingCache<K
     {
         private final Set<K> keys;
         private final CompactionInfo info;
-        private long keysWritten;
+        private final AtomicLong keysWritten = new AtomicLong();
 
         protected Writer(int keysToSave)
         {
@@ -293,7 +362,8 @@ public class AutoSavingCache<K extends CacheKey, V> extends InstrumentingCache<K
         public CompactionInfo getCompactionInfo()
         {
             // keyset can change in size, thus total can too
-            return info.forProgress(keysWritten, Math.max(keysWritten, keys.size()));
+            long written = keysWritten.get();
+            return info.forProgress(written, Math.max(written, keys.size()));
         }
 
         public void saveCache()
@@ -309,13 +379,59 @@ public class AutoSavingCache<K extends CacheKey, V> extends InstrumentingCache<K
 
             long start = System.nanoTime();
 
+            //Need to be able to check schema version because CF names are ambiguous
+            UUID schemaVersion = Schema.instance.getVersion();
+            if (schemaVersion == null)
+            {
+                Schema.instance.updateVersion();
+                schemaVersion = Schema.instance.getVersion();
+            }
+
+            Map<Pair<String, String>, List<K>> keysByTable = new HashMap<>();
+            for (K key : keys)
+            {
+                List<K> tableKeys = keysByTable.get(key.ksAndCFName);
+                if (tableKeys == null)
+                {
+                    tableKeys = new ArrayList<>();
+                    keysByTable.put(key.ksAndCFName, tableKeys);
+                }
+                tableKeys.add(key);
+            }
+
+            int segments = 0;
+            List<Future<?>> futures = new ArrayList<>(keysByTable.size());
+            for (final Map.Entry<Pair<String, String>, List<K>> entry : keysByTable.entrySet())
+            {
+                final ColumnFamilyStore cfs = Schema.instance.getColumnFamilyStoreIncludingIndexes(entry.getKey());
+                if (cfs == null)
+                    continue; // the table or 2i has been dropped.
+
+                final UUID segmentSchemaVersion = schemaVersion;
+                futures.add(segmentExecutor.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        saveSegment(cfs, entry.getValue(), segmentSchemaVersion);
+                    }
+                }));
+                segments++;
+            }
+            FBUtilities.waitOnFutures(futures);
+
+            logger.info("Saved {} ({} items in {} segments) in {} ms", cacheType, keys.size(), segments, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        private void saveSegment(ColumnFamilyStore cfs, List<K> tableKeys, UUID schemaVersion)
+        {
+            File segmentFile = getSegmentPath(cfs.metadata.ksAndCFName);
+            File tempSegmentFile = FileUtils.createTempFile(segmentFile.getName(), null, segmentFile.getParentFile());
             DataOutputStreamPlus writer = null;
-            File tempCacheFile = tempCacheFile();
             try
             {
                 try
                 {
-                    writer = new DataOutputStreamPlus(streamFactory.getOutputStream(tempCacheFile));
+                    writer = new DataOutputStreamPlus(streamFactory.getOutputStream(tempSegmentFile));
                 }
                 catch (FileNotFoundException e)
                 {
@@ -324,31 +440,18 @@ public class AutoSavingCache<K extends CacheKey, V> extends InstrumentingCache<K
 
                 try
                 {
-                    //Need to be able to check schema version because CF names are ambiguous
-                    UUID schemaVersion = Schema.instance.getVersion();
-                    if (schemaVersion == null)
-                    {
-                        Schema.instance.updateVersion();
-                        schemaVersion = Schema.instance.getVersion();
-                    }
                     writer.writeLong(schemaVersion.getMostSignificantBits());
                     writer.writeLong(schemaVersion.getLeastSignificantBits());
 
-                    for (K key : keys)
+                    for (K key : tableKeys)
                     {
-
-                        ColumnFamilyStore cfs = Schema.instance.getColumnFamilyStoreIncludingIndexes(key.ksAndCFName);
-                        if (cfs == null)
-                            continue; // the table or 2i has been dropped.
-
                         cacheLoader.serialize(key, writer, cfs);
-
-                        keysWritten++;
+                        keysWritten.incrementAndGet();
                     }
                 }
                 catch (IOException e)
                 {
-                    throw new FSWriteError(e, tempCacheFile);
+                    throw new FSWriteError(e, tempSegmentFile);
                 }
             }
             finally
@@ -357,20 +460,10 @@ public class AutoSavingCache<K extends CacheKey, V> extends InstrumentingCache<K
                     FileUtils.closeQuietly(writer);
             }
 
-            File cacheFile = getCachePath(CURRENT_VERSION);
-
-            cacheFile.delete(); // ignore error if it didn't exist
-
-            if (!tempCacheFile.renameTo(cacheFile))
-                logger.error("Unable to rename {} to {}", tempCacheFile, cacheFile);
+            segmentFile.delete(); // ignore error if it didn't exist
 
-            logger.info("Saved {} ({} items) in {} ms", cacheType, keys.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
-        }
-
-        private File tempCacheFile()
-        {
-            File path = getCachePath(CURRENT_VERSION);
-            return FileUtils.createTempFile(path.getName(), null, path.getParentFile());
+            if (!tempSegmentFile.renameTo(segmentFile))
+                logger.error("Unable to rename {} to {}", tempSegmentFile, segmentFile);
         }
 
         private void deleteOldCacheFiles()
@@ -405,5 +498,10 @@ public class AutoSavingCache<K extends CacheKey, V> extends InstrumentingCache<K
         void serialize(K key, DataOutputPlus out, ColumnFamilyStore cfs) throws IOException;
 
         Future<Pair<K, V>> deserialize(DataInputStream in, ColumnFamilyStore cfs) throws IOException;
+
+        /**
+         * Releases the state built up while deserializing the entries of a saved cache, once they all have been.
+         */
+        void cleanupAfterDeserialize();
     }
 }
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.metrics.CacheMetrics;
+
+/**
+ * A node-wide cache of the decompressed chunks of compressed sstables, kept off-heap, so that the readers of a hot
+ * chunk don't each read and decompress it again.
+ *
+ * The values are reference counted: the cache holds a reference to each of them, and get() returns a new one, which
+ * the caller must release once it has copied the chunk out. The chunks of an sstable are invalidated once all its
+ * readers are released.
+ */
+public class ChunkCache implements ICache<ChunkCache.Key, RefCountedMemory>
+{
+    private static final int DEFAULT_CONCURENCY_LEVEL = 64;
+
+    /** The chunk cache, or null if chunk_cache_size_in_mb is 0 */
+    public static final ChunkCache instance = DatabaseDescriptor.getChunkCacheSizeInMB() > 0
+                                            ? new ChunkCache(DatabaseDescriptor.getChunkCacheSizeInMB() * 1024L * 1024L)
+                                            : null;
+
+    private final ConcurrentLinkedHashMap<Key, RefCountedMemory> map;
+    // the keys of the map ordered by file, so that the chunks of a file are found without going through the others.
+    // A key is added before its chunk, and removed along with it.
+    private final NavigableSet<Key> keysByFile = new ConcurrentSkipListSet<>();
+    public final CacheMetrics metrics;
+
+    ChunkCache(long capacity)
+    {
+        EvictionListener<Key, RefCountedMemory> listener = new EvictionListener<Key, RefCountedMemory>()
+        {
+            public void onEviction(Key key, RefCountedMemory mem)
+            {
+                unindex(key);
+                mem.unreference();
+            }
+        };
+
+        map = new ConcurrentLinkedHashMap.Builder<Key, RefCountedMemory>()
+              .weigher(new Weigher<RefCountedMemory>()
+              {
+                  public int weightOf(RefCountedMemory value)
+                  {
+                      return (int) value.size();
+                  }
+              })
+              .maximumWeightedCapacity(capacity)
+              .concurrencyLevel(DEFAULT_CONCURENCY_LEVEL)
+              .listener(listener)
+              .build();
+        metrics = new CacheMetrics("ChunkCache", this);
+    }
+
+    /**
+     * Drops the cached chunks of a data file, once it isn't read anymore.
+     */
+    public void invalidateFile(String path)
+    {
+        for (Key key : keysByFile.subSet(new Key(path, Long.MIN_VALUE), true, new Key(path, Long.MAX_VALUE), true))
+            remove(key);
+    }
+
+    // the chunk of the key may have been put again since it was evicted or removed
+    private void unindex(Key key)
+    {
+        keysByFile.remove(key);
+        if (map.containsKey(key))
+            keysByFile.add(key);
+    }
+
+    public long capacity()
+    {
+        return map.capacity();
+    }
+
+    public void setCapacity(long capacity)
+    {
+        map.setCapacity(capacity);
+    }
+
+    /**
+     * Takes ownership of the reference to {@code value}.
+     */
+    public void put(Key key, RefCountedMemory value)
+    {
+        RefCountedMemory old;
+        try
+        {
+            keysByFile.add(key);
+            old = map.put(key, value);
+        }
+        catch (Throwable t)
+        {
+            unindex(key);
+            value.unreference();
+            throw t;
+        }
+
+        if (old != null)
+            old.unreference();
+    }
+
+    /**
+     * Takes ownership of the reference to {@code value}, which is released if it isn't added.
+     */
+    public boolean putIfAbsent(Key key, RefCountedMemory value)
+    {
+        RefCountedMemory old;
+        try
+        {
+            keysByFile.add(key);
+            old = map.putIfAbsent(key, value);
+        }
+        catch (Throwable t)
+        {
+            unindex(key);
+            value.unreference();
+            throw t;
+        }
+
+        if (old != null)
+            value.unreference();
+        return old == null;
+    }
+
+    public boolean replace(Key key, RefCountedMemory old, RefCountedMemory value)
+    {
+        boolean success;
+        try
+        {
+            success = map.replace(key, old, value);
+        }
+        catch (Throwable t)
+        {
+            value.unreference();
+            throw t;
+        }
+
+        if (success)
+            old.unreference();
+        else
+            value.unreference();
+        return success;
+    }
+
+    /**
+     * @return the chunk with a new reference, which the caller must release, or null if it isn't cached.
+     */
+    public RefCountedMemory get(Key key)
+    {
+        metrics.requests.mark();
+        RefCountedMemory mem = map.get(key);
+        // the chunk may have been evicted and freed in the meantime
+        if (mem == null || !mem.reference())
+            return null;
+        metrics.hits.mark();
+        return mem;
+    }
+
+    public void remove(Key key)
+    {
+        RefCountedMemory mem = map.remove(key);
+        if (mem != null)
+        {
+            unindex(key);
+            mem.unreference();
+        }
+    }
+
+    public int size()
+    {
+        return map.size();
+    }
+
+    public long weightedSize()
+    {
+        return map.weightedSize();
+    }
+
+    public void clear()
+    {
+        for (Key key : map.keySet())
+            remove(key);
+    }
+
+    public Set<Key> keySet()
+    {
+        return map.keySet();
+    }
+
+    public Set<Key> hotKeySet(int n)
+    {
+        return map.descendingKeySetWithLimit(n);
+    }
+
+    public boolean containsKey(Key key)
+    {
+        return map.containsKey(key);
+    }
+
+    /**
+     * A chunk, by the path of its data file and its position in it.
+     */
+    public static final class Key implements Comparable<Key>
+    {
+        public final String path;
+        public final long position;
+
+        public Key(String path, long position)
+        {
+            this.path = path;
+            this.position = position;
+        }
+
+        public int compareTo(Key that)
+        {
+            int cmp = path.compareTo(that.path);
+            return cmp != 0 ? cmp : Long.compare(position, that.position);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            Key that = (Key) o;
+            return position == that.position && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * path.hashCode() + (int) (position ^ (position >>> 32));
+        }
+
+        @Override
+        public String toString()
+        {
+            return path + '@' + position;
+        }
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.util.IAllocator;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.memory.MemoryUtil;
+import org.apache.cassandra.utils.vint.EncodedDataInputStream;
+import org.apache.cassandra.utils.vint.EncodedDataOutputStream;
+
+/**
+ * A key cache keeping its entries off-heap, so that a large cache is not made of tens of millions of small objects
+ * for the garbage collector to go through.
+ *
+ * The entries are split between segments by the hash of their key, each guarded by its own lock. A segment is an open
+ * addressing hash table, with linear probing, whose slots hold the address of an entry in native memory along with
+ * its hash and a reference bit for the CLOCK eviction policy. An entry is laid out as:
+ * <pre>
+ *   sstable id (int), key length (unsigned short), value length (int), key, value
+ * </pre>
+ * where the sstable id stands for the table and sstable of the key, and the value is the RowIndexEntry serialized
+ * with variable length integers.
+ *
+ * The weight of the cache is the size of its entries in native memory.
+ */
+public class OffHeapKeyCache implements ICache<KeyCacheKey, RowIndexEntry>
+{
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapKeyCache.class);
+
+    private static final int SEGMENT_COUNT = 64;
+    private static final int INITIAL_SEGMENT_SLOTS = 16;
+    private static final int HEADER_SIZE = 4 + 2 + 4;
+    private static final IAllocator allocator = DatabaseDescriptor.getoffHeapMemoryAllocator();
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private volatile long capacity;
+
+    private final ConcurrentMap<Pair<Pair<String, String>, Descriptor>, SSTableId> sstableIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, SSTableId> sstablesById = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSSTableId = new AtomicInteger();
+
+    private OffHeapKeyCache(long capacity)
+    {
+        this.capacity = capacity;
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = new Segment();
+    }
+
+    public static OffHeapKeyCache create(long capacity)
+    {
+        return new OffHeapKeyCache(capacity);
+    }
+
+    public long capacity()
+    {
+        return capacity;
+    }
+
+    public void setCapacity(long capacity)
+    {
+        this.capacity = capacity;
+        for (Segment segment : segments)
+            segment.evict();
+    }
+
+    private long segmentCapacity()
+    {
+        return capacity / SEGMENT_COUNT;
+    }
+
+    public void put(KeyCacheKey key, RowIndexEntry value)
+    {
+        put(key, value, true);
+    }
+
+    public boolean putIfAbsent(KeyCacheKey key, RowIndexEntry value)
+    {
+        return put(key, value, false);
+    }
+
+    private boolean put(KeyCacheKey key, RowIndexEntry value, boolean overwrite)
+    {
+        SSTableId sstableId = getOrCreateId(key);
+        if (sstableId == null)
+            return false;
+
+        if (key.key.length > FBUtilities.MAX_UNSIGNED_SHORT)
+            return false;
+
+        byte[] serialized = serialize(sstableId, value);
+        long size = HEADER_SIZE + key.key.length + serialized.length;
+        if (size > segmentCapacity())
+            return false;
+
+        long address;
+        try
+        {
+            address = allocator.allocate(size);
+        }
+        catch (OutOfMemoryError e)
+        {
+            return false; // never mind
+        }
+        MemoryUtil.setInt(address, sstableId.id);
+        MemoryUtil.setShort(address + 4, (short) key.key.length);
+        MemoryUtil.setInt(address + 6, serialized.length);
+        MemoryUtil.setBytes(address + HEADER_SIZE, key.key, 0, key.key.length);
+        MemoryUtil.setBytes(address + HEADER_SIZE + key.key.length, serialized, 0, serialized.length);
+
+        int hash = hash(sstableId, key.key);
+        return segmentFor(hash).put(hash, sstableId.id, key.key, address, size, overwrite);
+    }
+
+    public boolean replace(KeyCacheKey key, RowIndexEntry old, RowIndexEntry value)
+    {
+        SSTableId sstableId = sstableIds.get(Pair.create(key.ksAndCFName, key.desc));
+        if (sstableId == null)
+            return false;
+
+        int hash = hash(sstableId, key.key);
+        byte[] current = segmentFor(hash).get(hash, sstableId.id, key.key, false);
+        if (current == null || !Arrays.equals(current, serialize(sstableId, old)))
+            return false;
+
+        // unlike the comparison, the put is not atomic with the check, which the key cache does not rely on
+        put(key, value);
+        return true;
+    }
+
+    public RowIndexEntry get(KeyCacheKey key)
+    {
+        SSTableId sstableId = sstableIds.get(Pair.create(key.ksAndCFName, key.desc));
+        if (sstableId == null)
+            return null;
+
+        int hash = hash(sstableId, key.key);
+        byte[] serialized = segmentFor(hash).get(hash, sstableId.id, key.key, true);
+        return serialized == null ? null : deserialize(sstableId, serialized);
+    }
+
+    public void remove(KeyCacheKey key)
+    {
+        SSTableId sstableId = sstableIds.get(Pair.create(key.ksAndCFName, key.desc));
+        if (sstableId == null)
+            return;
+
+        int hash = hash(sstableId, key.key);
+        segmentFor(hash).remove(hash, sstableId.id, key.key);
+    }
+
+    public boolean containsKey(KeyCacheKey key)
+    {
+        SSTableId sstableId = sstableIds.get(Pair.create(key.ksAndCFName, key.desc));
+        if (sstableId == null)
+            return false;
+
+        int hash = hash(sstableId, key.key);
+        return segmentFor(hash).get(hash, sstableId.id, key.key, false) != null;
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.size;
+        return size;
+    }
+
+    public long weightedSize()
+    {
+        long weight = 0;
+        for (Segment segment : segments)
+            weight += segment.weight;
+        return weight;
+    }
+
+    public void clear()
+    {
+        for (Segment segment : segments)
+            segment.clear();
+        // The entries added concurrently with the clearing may be left without an id, which only means they can't be
+        // read until evicted.
+        sstableIds.clear();
+        sstablesById.clear();
+    }
+
+    /**
+     * Forgets the id of an sstable that has been released. Its entries can't be read anymore, and as they are not
+     * referenced either they are the first ones to be evicted.
+     */
+    public void releaseSSTable(Pair<String, String> ksAndCFName, Descriptor desc)
+    {
+        SSTableId sstableId = sstableIds.remove(Pair.create(ksAndCFName, desc));
+        if (sstableId != null)
+            sstablesById.remove(sstableId.id);
+    }
+
+    public Set<KeyCacheKey> keySet()
+    {
+        Set<KeyCacheKey> keys = new HashSet<>(size());
+        for (Segment segment : segments)
+            segment.collectKeys(keys, Integer.MAX_VALUE, false);
+        return keys;
+    }
+
+    /**
+     * CLOCK does not order the entries by recency, so the hottest keys are taken to be the ones that have been read
+     * since the clock hand last went over them.
+     */
+    public Set<KeyCacheKey> hotKeySet(int n)
+    {
+        Set<KeyCacheKey> keys = new LinkedHashSet<>();
+        for (Segment segment : segments)
+            segment.collectKeys(keys, n, true);
+        for (Segment segment : segments)
+            segment.collectKeys(keys, n, false);
+        return keys;
+    }
+
+    private SSTableId getOrCreateId(KeyCacheKey key)
+    {
+        Pair<Pair<String, String>, Descriptor> sstable = Pair.create(key.ksAndCFName, key.desc);
+        SSTableId sstableId = sstableIds.get(sstable);
+        if (sstableId != null)
+            return sstableId;
+
+        CFMetaData metadata = Schema.instance.getCFMetaData(key.ksAndCFName.left, key.ksAndCFName.right);
+        if (metadata == null)
+            return null;
+
+        SSTableId created = new SSTableId(nextSSTableId.getAndIncrement(), key.ksAndCFName, key.desc, metadata.comparator.rowIndexEntrySerializer());
+        sstablesById.put(created.id, created);
+        sstableId = sstableIds.putIfAbsent(sstable, created);
+        if (sstableId != null)
+        {
+            sstablesById.remove(created.id);
+            return sstableId;
+        }
+        return created;
+    }
+
+    private static int hash(SSTableId sstableId, byte[] key)
+    {
+        int h = 31 * sstableId.id + Arrays.hashCode(key);
+        // spread the bits, as both the segment and the slot are taken from the low ones
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private Segment segmentFor(int hash)
+    {
+        return segments[(hash >>> 16) & (SEGMENT_COUNT - 1)];
+    }
+
+    private static byte[] serialize(SSTableId sstableId, RowIndexEntry value)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            sstableId.serializer.serialize(value, new EncodedDataOutputStream(bytes));
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static RowIndexEntry deserialize(SSTableId sstableId, byte[] serialized)
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(serialized));
+            return sstableId.serializer.deserialize(new EncodedDataInputStream(in), sstableId.desc.version);
+        }
+        catch (IOException e)
+        {
+            logger.debug("Cannot fetch in memory data, we will fallback to read from disk ", e);
+            return null;
+        }
+    }
+
+    private static int keyLength(long address)
+    {
+        return MemoryUtil.getShort(address + 4) & FBUtilities.MAX_UNSIGNED_SHORT;
+    }
+
+    private static int valueLength(long address)
+    {
+        return MemoryUtil.getInt(address + 6);
+    }
+
+    private static long entrySize(long address)
+    {
+        return HEADER_SIZE + keyLength(address) + valueLength(address);
+    }
+
+    private static boolean matches(long address, int sstableId, byte[] key)
+    {
+        if (MemoryUtil.getInt(address) != sstableId || keyLength(address) != key.length)
+            return false;
+        for (int i = 0; i < key.length; i++)
+            if (MemoryUtil.getByte(address + HEADER_SIZE + i) != key[i])
+                return false;
+        return true;
+    }
+
+    private static class SSTableId
+    {
+        private final int id;
+        private final Pair<String, String> ksAndCFName;
+        private final Descriptor desc;
+        private final RowIndexEntry.Serializer serializer;
+
+        private SSTableId(int id, Pair<String, String> ksAndCFName, Descriptor desc, RowIndexEntry.Serializer serializer)
+        {
+            this.id = id;
+            this.ksAndCFName = ksAndCFName;
+            this.desc = desc;
+            this.serializer = serializer;
+        }
+    }
+
+    private final class Segment
+    {
+        // an address of 0 marks an empty slot
+        private long[] addresses = new long[INITIAL_SEGMENT_SLOTS];
+        private int[] hashes = new int[INITIAL_SEGMENT_SLOTS];
+        private boolean[] referenced = new boolean[INITIAL_SEGMENT_SLOTS];
+        private int hand;
+
+        private volatile int size;
+        private volatile long weight;
+
+        private int find(int hash, int sstableId, byte[] key)
+        {
+            int mask = addresses.length - 1;
+            for (int i = hash & mask; addresses[i] != 0; i = (i + 1) & mask)
+            {
+                if (hashes[i] == hash && matches(addresses[i], sstableId, key))
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * @return a copy of the serialized value of the entry, or null if there is none.
+         */
+        synchronized byte[] get(int hash, int sstableId, byte[] key, boolean reference)
+        {
+            int i = find(hash, sstableId, key);
+            if (i < 0)
+                return null;
+
+            if (reference)
+                referenced[i] = true;
+            long address = addresses[i];
+            byte[] value = new byte[valueLength(address)];
+            MemoryUtil.getBytes(address + HEADER_SIZE + key.length, value, 0, value.length);
+            return value;
+        }
+
+        /**
+         * Takes ownership of the entry at {@code address}, which is freed if it is not added.
+         */
+        synchronized boolean put(int hash, int sstableId, byte[] key, long address, long bytes, boolean overwrite)
+        {
+            int i = find(hash, sstableId, key);
+            if (i >= 0)
+            {
+                if (!overwrite)
+                {
+                    allocator.free(address);
+                    return false;
+                }
+                weight += bytes - entrySize(addresses[i]);
+                allocator.free(addresses[i]);
+                addresses[i] = address;
+                referenced[i] = true;
+            }
+            else
+            {
+                if ((size + 1) * 4L > addresses.length * 3L)
+                    resize(addresses.length * 2);
+                int mask = addresses.length - 1;
+                i = hash & mask;
+                while (addresses[i] != 0)
+                    i = (i + 1) & mask;
+                addresses[i] = address;
+                hashes[i] = hash;
+                referenced[i] = false;
+                size++;
+                weight += bytes;
+            }
+            evict();
+            return true;
+        }
+
+        synchronized void remove(int hash, int sstableId, byte[] key)
+        {
+            int i = find(hash, sstableId, key);
+            if (i >= 0)
+                removeAt(i);
+        }
+
+        /**
+         * Evicts entries until the segment is within its capacity, going round the slots and giving a second chance
+         * to the entries that have been read since the hand last went over them.
+         */
+        synchronized void evict()
+        {
+            long capacity = segmentCapacity();
+            int mask = addresses.length - 1;
+            while (weight > capacity && size > 0)
+            {
+                if (addresses[hand] != 0)
+                {
+                    if (referenced[hand])
+                    {
+                        referenced[hand] = false;
+                    }
+                    else
+                    {
+                        // removing may move another entry in that slot, which the hand goes over next
+                        removeAt(hand);
+                        continue;
+                    }
+                }
+                hand = (hand + 1) & mask;
+            }
+        }
+
+        /**
+         * Frees the entry of slot {@code i}, and moves back the entries that follow it in their probe sequences so
+         * that no tombstones are needed.
+         */
+        private void removeAt(int i)
+        {
+            weight -= entrySize(addresses[i]);
+            allocator.free(addresses[i]);
+            size--;
+
+            int mask = addresses.length - 1;
+            int j = i;
+            while (true)
+            {
+                j = (j + 1) & mask;
+                if (addresses[j] == 0)
+                    break;
+
+                // the entry in j stays if its home slot is cyclically within (i, j]
+                int home = hashes[j] & mask;
+                if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+                    continue;
+
+                addresses[i] = addresses[j];
+                hashes[i] = hashes[j];
+                referenced[i] = referenced[j];
+                i = j;
+            }
+            addresses[i] = 0;
+            referenced[i] = false;
+        }
+
+        private void resize(int slots)
+        {
+            long[] oldAddresses = addresses;
+            int[] oldHashes = hashes;
+            boolean[] oldReferenced = referenced;
+            addresses = new long[slots];
+            hashes = new int[slots];
+            referenced = new boolean[slots];
+            hand = 0;
+
+            int mask = slots - 1;
+            for (int j = 0; j < oldAddresses.length; j++)
+            {
+                if (oldAddresses[j] == 0)
+                    continue;
+                int i = oldHashes[j] & mask;
+                while (addresses[i] != 0)
+                    i = (i + 1) & mask;
+                addresses[i] = oldAddresses[j];
+                hashes[i] = oldHashes[j];
+                referenced[i] = oldReferenced[j];
+            }
+        }
+
+        synchronized void clear()
+        {
+            for (long address : addresses)
+                if (address != 0)
+                    allocator.free(address);
+            addresses = new long[INITIAL_SEGMENT_SLOTS];
+            hashes = new int[INITIAL_SEGMENT_SLOTS];
+            referenced = new boolean[INITIAL_SEGMENT_SLOTS];
+            hand = 0;
+            size = 0;
+            weight = 0;
+        }
+
+        synchronized void collectKeys(Set<KeyCacheKey> keys, int limit, boolean referencedOnly)
+        {
+            for (int i = 0; i < addresses.length && keys.size() < limit; i++)
+            {
+                long address = addresses[i];
+                if (address == 0 || (referencedOnly && !referenced[i]))
+                    continue;
+
+                SSTableId sstableId = sstablesById.get(MemoryUtil.getInt(address));
+                if (sstableId == null)
+                    continue;
+
+                byte[] key = new byte[keyLength(address)];
+                MemoryUtil.getBytes(address + HEADER_SIZE, key, 0, key.length);
+                keys.add(new KeyCacheKey(sstableId.ksAndCFName, sstableId.desc, ByteBuffer.wrap(key)));
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Objects;
+
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.composites.CellNameType;
+import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.db.filter.ColumnSlice;
+
+/**
+ * A row cache entry holding some disjoint slices of a partition, rather than its head.
+ *
+ * The slices are sorted in the partition order, and the entry has all the data of the partition within each of
+ * them, so a query can be served from the entry as long as all the names it selects before reaching its limit
+ * lie within them. As for the other entries, the partition is invalidated on write, so they never get stale.
+ */
+public class RowCacheSlices implements IRowCacheEntry
+{
+    private static final AtomicLong generator = new AtomicLong();
+
+    // distinguishes the successive entries of a partition, so replacing one fails if it has been invalidated since
+    final long entryId;
+
+    public final ColumnFamily data;
+    public final ColumnSlice[] slices;
+
+    public RowCacheSlices(ColumnFamily data, ColumnSlice[] slices)
+    {
+        this(generator.getAndIncrement(), data, slices);
+    }
+
+    RowCacheSlices(long entryId, ColumnFamily data, ColumnSlice[] slices)
+    {
+        this.entryId = entryId;
+        this.data = data;
+        this.slices = slices;
+    }
+
+    /**
+     * @return whether the entry has all the data selected by {@code slice}, a slice of a query of the given order.
+     */
+    public boolean covers(ColumnSlice slice, boolean reversed)
+    {
+        CellNameType type = data.getComparator();
+        ColumnSlice forward = forward(slice, reversed);
+        for (ColumnSlice cached : slices)
+        {
+            if (compareStarts(type, cached.start, forward.start) <= 0 && compareFinishes(type, cached.finish, forward.finish) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the part of {@code slice}, a slice of a query of the given order, which is within the cached slice
+     * including its first selected names, or null if there is none.
+     */
+    public ColumnSlice clip(ColumnSlice slice, boolean reversed)
+    {
+        CellNameType type = data.getComparator();
+        for (ColumnSlice cached : slices)
+        {
+            if (reversed)
+            {
+                // slice.start is the upper bound of a reversed slice
+                if (compareFinishes(type, cached.finish, slice.start) >= 0
+                    && (slice.start.isEmpty() || cached.start.isEmpty() || type.compare(slice.start, cached.start) >= 0))
+                    return new ColumnSlice(slice.start, cached.start);
+            }
+            else
+            {
+                if (compareStarts(type, cached.start, slice.start) <= 0
+                    && (slice.start.isEmpty() || cached.finish.isEmpty() || type.compare(slice.start, cached.finish) <= 0))
+                    return new ColumnSlice(slice.start, cached.finish);
+            }
+        }
+        return null;
+    }
+
+    public boolean includes(Composite name)
+    {
+        for (ColumnSlice cached : slices)
+        {
+            if (cached.includes(data.getComparator(), name))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return a new entry with both the slices of this entry and {@code newSlices}, which must be sorted in the
+     * partition order, {@code newData} having the data of the partition within the latter.
+     */
+    public RowCacheSlices merge(ColumnFamily newData, ColumnSlice[] newSlices)
+    {
+        final CellNameType type = data.getComparator();
+        List<ColumnSlice> all = new ArrayList<>(slices.length + newSlices.length);
+        all.addAll(Arrays.asList(slices));
+        all.addAll(Arrays.asList(newSlices));
+        Collections.sort(all, new Comparator<ColumnSlice>()
+        {
+            public int compare(ColumnSlice s1, ColumnSlice s2)
+            {
+                return compareStarts(type, s1.start, s2.start);
+            }
+        });
+
+        List<ColumnSlice> merged = new ArrayList<>(all.size());
+        ColumnSlice current = all.get(0);
+        for (int i = 1; i < all.size(); i++)
+        {
+            ColumnSlice next = all.get(i);
+            if (current.finish.isEmpty() || next.start.isEmpty() || type.compare(next.start, current.finish) <= 0)
+            {
+                Composite finish = compareFinishes(type, current.finish, next.finish) >= 0 ? current.finish : next.finish;
+                current = new ColumnSlice(current.start, finish);
+            }
+            else
+            {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+
+        ColumnFamily mergedData = data.cloneMe();
+        mergedData.addAll(newData);
+        return new RowCacheSlices(mergedData, merged.toArray(new ColumnSlice[merged.size()]));
+    }
+
+    /**
+     * @return {@code slice}, a slice of a query of the given order, with its bounds in the partition order.
+     */
+    public static ColumnSlice forward(ColumnSlice slice, boolean reversed)
+    {
+        return reversed ? new ColumnSlice(slice.finish, slice.start) : slice;
+    }
+
+    // compares two start bounds, an empty one sorting before everything
+    private static int compareStarts(CellNameType type, Composite s1, Composite s2)
+    {
+        if (s1.isEmpty())
+            return s2.isEmpty() ? 0 : -1;
+        return s2.isEmpty() ? 1 : type.compare(s1, s2);
+    }
+
+    // compares two finish bounds, an empty one sorting after everything
+    private static int compareFinishes(CellNameType type, Composite f1, Composite f2)
+    {
+        if (f1.isEmpty())
+            return f2.isEmpty() ? 0 : 1;
+        return f2.isEmpty() ? -1 : type.compare(f1, f2);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof RowCacheSlices)) return false;
+
+        RowCacheSlices other = (RowCacheSlices) o;
+        return this.entryId == other.entryId;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(entryId);
+    }
+}
@@ -22,7 +22,9 @@ import java.io.IOException;
 
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.db.filter.ColumnSlice;
 import org.apache.cassandra.io.ISerializer;
+import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.net.MessagingService;
 
@@ -36,32 +38,76 @@ public class SerializingCacheProvider
     // Package protected for tests
     static class RowCacheSerializer implements ISerializer<IRowCacheEntry>
     {
+        private static final byte PARTITION = 0;
+        private static final byte SENTINEL = 1;
+        private static final byte SLICES = 2;
+
         public void serialize(IRowCacheEntry entry, DataOutputPlus out) throws IOException
         {
             assert entry != null; // unlike CFS we don't support nulls, since there is no need for that in the cache
-            boolean isSentinel = entry instanceof RowCacheSentinel;
-            out.writeBoolean(isSentinel);
-            if (isSentinel)
+            if (entry instanceof RowCacheSentinel)
+            {
+                out.writeByte(SENTINEL);
                 out.writeLong(((RowCacheSentinel) entry).sentinelId);
+            }
+            else if (entry instanceof RowCacheSlices)
+            {
+                RowCacheSlices slices = (RowCacheSlices) entry;
+                out.writeByte(SLICES);
+                out.writeLong(slices.entryId);
+                ColumnFamily.serializer.serialize(slices.data, out, MessagingService.current_version);
+                out.writeInt(slices.slices.length);
+                IVersionedSerializer<ColumnSlice> sliceSerializer = slices.data.getComparator().sliceSerializer();
+                for (ColumnSlice slice : slices.slices)
+                    sliceSerializer.serialize(slice, out, MessagingService.current_version);
+            }
             else
+            {
+                out.writeByte(PARTITION);
                 ColumnFamily.serializer.serialize((ColumnFamily) entry, out, MessagingService.current_version);
+            }
         }
 
         public IRowCacheEntry deserialize(DataInput in) throws IOException
         {
-            boolean isSentinel = in.readBoolean();
-            if (isSentinel)
-                return new RowCacheSentinel(in.readLong());
-            return ColumnFamily.serializer.deserialize(in, MessagingService.current_version);
+            switch (in.readByte())
+            {
+                case SENTINEL:
+                    return new RowCacheSentinel(in.readLong());
+                case SLICES:
+                    long entryId = in.readLong();
+                    ColumnFamily data = ColumnFamily.serializer.deserialize(in, MessagingService.current_version);
+                    ColumnSlice[] slices = new ColumnSlice[in.readInt()];
+                    IVersionedSerializer<ColumnSlice> sliceSerializer = data.getComparator().sliceSerializer();
+                    for (int i = 0; i < slices.length; i++)
+                        slices[i] = sliceSerializer.deserialize(in, MessagingService.current_version);
+                    return new RowCacheSlices(entryId, data, slices);
+                default:
+                    return ColumnFamily.serializer.deserialize(in, MessagingService.current_version);
+            }
         }
 
         public long serializedSize(IRowCacheEntry entry, TypeSizes typeSizes)
         {
-            int size = typeSizes.sizeof(true);
+            long size = 1; // the entry kind
             if (entry instanceof RowCacheSentinel)
+            {
                 size += typeSizes.sizeof(((RowCacheSentinel) entry).sentinelId);
+            }
+            else if (entry instanceof RowCacheSlices)
+            {
+                RowCacheSlices slices = (RowCacheSlices) entry;
+                size += typeSizes.sizeof(slices.entryId);
+                size += ColumnFamily.serializer.serializedSize(slices.data, typeSizes, MessagingService.current_version);
+                size += typeSizes.sizeof(slices.slices.length);
+                IVersionedSerializer<ColumnSlice> sliceSerializer = slices.data.getComparator().sliceSerializer();
+                for (ColumnSlice slice : slices.slices)
+                    size += sliceSerializer.serializedSize(slice, MessagingService.current_version);
+            }
             else
+            {
                 size += ColumnFamily.serializer.serializedSize((ColumnFamily) entry, typeSizes, MessagingService.current_version);
+            }
             return size;
         }
     }
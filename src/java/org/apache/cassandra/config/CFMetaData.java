@@ -102,6 +102,16 @@ public final class CFMetaData
                                                      + "PRIMARY KEY (table_name, index_name)"
                                                      + ") WITH COMPACT STORAGE AND COMMENT='indexes that have been completed'");
 
+    public static final CFMetaData IndexBuildProgressCf = compile("CREATE TABLE " + SystemKeyspace.INDEX_BUILD_PROGRESS_CF + " ("
+                                                                  + "keyspace_name text,"
+                                                                  + "index_name text,"
+                                                                  + "range_start blob,"
+                                                                  + "range_end blob,"
+                                                                  + "completed boolean,"
+                                                                  + "PRIMARY KEY ((keyspace_name, index_name), range_start, range_end)"
+                                                                  + ") WITH COMMENT='token ranges of the index builds in progress' "
+                                                                  + "AND gc_grace_seconds=0");
+
     public static final CFMetaData SchemaKeyspacesCf = compile("CREATE TABLE " + SystemKeyspace.SCHEMA_KEYSPACES_CF + " ("
                                                                + "keyspace_name text PRIMARY KEY,"
                                                                + "durable_writes boolean,"
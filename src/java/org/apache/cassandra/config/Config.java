@@ -77,6 +77,8 @@ public class Config
 
     public volatile Long range_request_timeout_in_ms = 10000L;
 
+    public volatile int index_scan_max_concurrent_requests = 32;
+
     public volatile Long write_request_timeout_in_ms = 2000L;
 
     public volatile Long counter_write_request_timeout_in_ms = 5000L;
@@ -166,6 +168,7 @@ public class Config
     public Integer commitlog_sync_period_in_ms;
     public int commitlog_segment_size_in_mb = 32;
     public boolean commitlog_segment_recycling = false;
+    public String commitlog_compression;
 
     @Deprecated
     public int commitlog_periodic_queue_size = -1;
@@ -202,10 +205,14 @@ public class Config
     public Long key_cache_size_in_mb = null;
     public volatile int key_cache_save_period = 14400;
     public volatile int key_cache_keys_to_save = Integer.MAX_VALUE;
+    public boolean key_cache_off_heap = false;
 
     public long row_cache_size_in_mb = 0;
     public volatile int row_cache_save_period = 0;
     public volatile int row_cache_keys_to_save = Integer.MAX_VALUE;
+    public volatile boolean row_cache_async_population = false;
+    public int row_cache_population_threads = 2;
+    public int row_cache_max_pending_populations = 1024;
 
     public Long counter_cache_size_in_mb = null;
     public volatile int counter_cache_save_period = 7200;
@@ -216,11 +223,16 @@ public class Config
     private static boolean isClientMode = false;
 
     public Integer file_cache_size_in_mb;
+    public int chunk_cache_size_in_mb = 0;
 
     public boolean inter_dc_tcp_nodelay = true;
 
     public MemtableAllocationType memtable_allocation_type = MemtableAllocationType.heap_buffers;
 
+    public MemtablePartitionIndex memtable_partition_index = MemtablePartitionIndex.skiplist;
+
+    public int memtable_shards = 1;
+
     private static boolean outboundBindAny = false;
 
     public volatile int tombstone_warn_threshold = 1000;
@@ -305,7 +317,8 @@ public class Config
     public static enum CommitLogSync
     {
         periodic,
-        batch
+        batch,
+        group
     }
     public static enum InternodeCompression
     {
@@ -328,6 +341,12 @@ public class Config
         offheap_objects
     }
 
+    public static enum MemtablePartitionIndex
+    {
+        skiplist,
+        sharded_btree
+    }
+
     public static enum DiskFailurePolicy
     {
         best_effort,
@@ -59,6 +59,7 @@ import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.compress.CompressionParameters;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.io.util.IAllocator;
 import org.apache.cassandra.locator.DynamicEndpointSnitch;
@@ -309,6 +310,14 @@ public class DatabaseDescriptor
             }
             logger.debug("Syncing log with a batch window of {}", conf.commitlog_sync_batch_window_in_ms);
         }
+        else if (conf.commitlog_sync == Config.CommitLogSync.group)
+        {
+            if (conf.commitlog_sync_batch_window_in_ms != null || conf.commitlog_sync_period_in_ms != null)
+            {
+                throw new ConfigurationException("Group sync specified, but commitlog_sync_batch_window_in_ms or commitlog_sync_period_in_ms found. Neither is used with group sync.");
+            }
+            logger.debug("Syncing log as soon as the previous sync completes");
+        }
         else
         {
             if (conf.commitlog_sync_period_in_ms == null)
@@ -325,6 +334,14 @@ public class DatabaseDescriptor
         if (conf.commitlog_total_space_in_mb == null)
             conf.commitlog_total_space_in_mb = hasLargeAddressSpace() ? 8192 : 32;
 
+        if (conf.commitlog_compression != null)
+        {
+            if (conf.commitlog_compression.isEmpty())
+                conf.commitlog_compression = null;
+            else
+                new CompressionParameters(conf.commitlog_compression, null, Collections.<String, String>emptyMap());
+        }
+
         // Always force standard mode access on Windows - CASSANDRA-6993. Windows won't allow deletion of hard-links to files that
         // are memory-mapped which causes trouble with snapshots.
         if (FBUtilities.isWindows())
@@ -411,6 +428,21 @@ public class DatabaseDescriptor
             throw new ConfigurationException("concurrent_reads must be at least 2");
         }
 
+        if (conf.index_scan_max_concurrent_requests < 1)
+        {
+            throw new ConfigurationException("index_scan_max_concurrent_requests must be at least 1");
+        }
+
+        if (conf.row_cache_population_threads < 1)
+        {
+            throw new ConfigurationException("row_cache_population_threads must be at least 1");
+        }
+
+        if (conf.row_cache_max_pending_populations < 1)
+        {
+            throw new ConfigurationException("row_cache_max_pending_populations must be at least 1");
+        }
+
         if (conf.concurrent_writes != null && conf.concurrent_writes < 2)
         {
             throw new ConfigurationException("concurrent_writes must be at least 2");
@@ -425,6 +457,9 @@ public class DatabaseDescriptor
         if (conf.file_cache_size_in_mb == null)
             conf.file_cache_size_in_mb = Math.min(512, (int) (Runtime.getRuntime().maxMemory() / (4 * 1048576)));
 
+        if (conf.chunk_cache_size_in_mb < 0)
+            throw new ConfigurationException("chunk_cache_size_in_mb must not be negative");
+
         if (conf.memtable_offheap_space_in_mb == null)
             conf.memtable_offheap_space_in_mb = (int) (Runtime.getRuntime().maxMemory() / (4 * 1048576));
         if (conf.memtable_offheap_space_in_mb < 0)
@@ -558,6 +593,9 @@ public class DatabaseDescriptor
         if (conf.memtable_flush_writers < 1)
             throw new ConfigurationException("memtable_flush_writers must be at least 1");
 
+        if (conf.memtable_shards < 1)
+            throw new ConfigurationException("memtable_shards must be at least 1");
+
         if (conf.memtable_cleanup_threshold == null)
             conf.memtable_cleanup_threshold = (float) (1.0 / (1 + conf.memtable_flush_writers));
 
@@ -986,6 +1024,16 @@ public class DatabaseDescriptor
         conf.range_request_timeout_in_ms = timeOutInMillis;
     }
 
+    public static int getIndexScanMaxConcurrentRequests()
+    {
+        return conf.index_scan_max_concurrent_requests;
+    }
+
+    public static void setIndexScanMaxConcurrentRequests(int maxConcurrentRequests)
+    {
+        conf.index_scan_max_concurrent_requests = maxConcurrentRequests;
+    }
+
     public static long getWriteRpcTimeout()
     {
         return conf.write_request_timeout_in_ms;
@@ -1145,6 +1193,15 @@ public class DatabaseDescriptor
         return conf.data_file_directories;
     }
 
+    /**
+     * Only takes effect before the data directories are first used.
+     */
+    @VisibleForTesting
+    public static void setAllDataFileLocations(String[] locations)
+    {
+        conf.data_file_directories = locations;
+    }
+
     public static String getCommitLogLocation()
     {
         return conf.commitlog_directory;
@@ -1172,7 +1229,21 @@ public class DatabaseDescriptor
 
     public static boolean getCommitLogSegmentRecyclingEnabled()
     {
-        return conf.commitlog_segment_recycling;
+        // compressed segments are written from scratch, so there is nothing to gain from reusing their files
+        return conf.commitlog_segment_recycling && conf.commitlog_compression == null;
+    }
+
+    /**
+     * @return the compressor class of the commit log segments, or null if they are not compressed
+     */
+    public static String getCommitLogCompression()
+    {
+        return conf.commitlog_compression;
+    }
+
+    public static void setCommitLogCompression(String compression)
+    {
+        conf.commitlog_compression = compression;
     }
 
     /**
@@ -1522,6 +1593,20 @@ public class DatabaseDescriptor
         return conf.file_cache_size_in_mb;
     }
 
+    public static int getChunkCacheSizeInMB()
+    {
+        return conf.chunk_cache_size_in_mb;
+    }
+
+    /**
+     * Only takes effect before the chunk cache is first used, which sizes it.
+     */
+    @VisibleForTesting
+    public static void setChunkCacheSizeInMB(int sizeInMB)
+    {
+        conf.chunk_cache_size_in_mb = sizeInMB;
+    }
+
     public static long getTotalCommitlogSpaceInMB()
     {
         return conf.commitlog_total_space_in_mb;
@@ -1571,6 +1656,11 @@ public class DatabaseDescriptor
         return conf.key_cache_keys_to_save;
     }
 
+    public static boolean isKeyCacheOffHeap()
+    {
+        return conf.key_cache_off_heap;
+    }
+
     public static void setKeyCacheKeysToSave(int keyCacheKeysToSave)
     {
         conf.key_cache_keys_to_save = keyCacheKeysToSave;
@@ -1637,6 +1727,26 @@ public class DatabaseDescriptor
         conf.row_cache_keys_to_save = rowCacheKeysToSave;
     }
 
+    public static boolean isRowCacheAsyncPopulation()
+    {
+        return conf.row_cache_async_population;
+    }
+
+    public static void setRowCacheAsyncPopulation(boolean rowCacheAsyncPopulation)
+    {
+        conf.row_cache_async_population = rowCacheAsyncPopulation;
+    }
+
+    public static int getRowCachePopulationThreads()
+    {
+        return conf.row_cache_population_threads;
+    }
+
+    public static int getRowCacheMaxPendingPopulations()
+    {
+        return conf.row_cache_max_pending_populations;
+    }
+
     public static int getStreamingSocketTimeout()
     {
         return conf.streaming_socket_timeout_in_ms;
@@ -1686,6 +1796,22 @@ public class DatabaseDescriptor
         }
     }
 
+    public static Config.MemtablePartitionIndex getMemtablePartitionIndex()
+    {
+        return conf.memtable_partition_index;
+    }
+
+    public static int getMemtableShards()
+    {
+        return conf.memtable_shards;
+    }
+
+    @VisibleForTesting
+    public static void setMemtableShards(int shards)
+    {
+        conf.memtable_shards = shards;
+    }
+
     public static int getIndexSummaryResizeIntervalInMinutes()
     {
         return conf.index_summary_resize_interval_in_minutes;
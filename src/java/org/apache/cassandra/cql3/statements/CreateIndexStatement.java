@@ -18,9 +18,9 @@
 package org.apache.cassandra.cql3.statements;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
-import com.google.common.collect.ImmutableMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -118,6 +118,10 @@ public class CreateIndexStatement extends SchemaAlteringStatement
 
         properties.validate();
 
+        if (!properties.isCustom && !properties.getRawOptions().isEmpty() && !cfm.comparator.isCompound())
+            throw new InvalidRequestException(String.format("Option %s is only supported on tables with a compound primary key",
+                                                            SecondaryIndex.TOKEN_ORDERED_OPTION_NAME));
+
         // TODO: we could lift that limitation
         if ((cfm.comparator.isDense() || !cfm.comparator.isCompound()) && cd.isPrimaryKeyColumn())
             throw new InvalidRequestException("Secondary indexes are not supported on PRIMARY KEY columns in COMPACT STORAGE tables");
@@ -154,13 +158,13 @@ public class CreateIndexStatement extends SchemaAlteringStatement
         }
         else if (cfm.comparator.isCompound())
         {
-            Map<String, String> options = Collections.emptyMap();
+            Map<String, String> options = new HashMap<>(properties.getRawOptions());
             // For now, we only allow indexing values for collections, but we could later allow
             // to also index map keys, so we record that this is the values we index to make our
             // lives easier then.
             if (cd.type.isCollection() && cd.type.isMultiCell())
-                options = ImmutableMap.of(target.isCollectionKeys ? SecondaryIndex.INDEX_KEYS_OPTION_NAME
-                                                                  : SecondaryIndex.INDEX_VALUES_OPTION_NAME, "");
+                options.put(target.isCollectionKeys ? SecondaryIndex.INDEX_KEYS_OPTION_NAME
+                                                    : SecondaryIndex.INDEX_VALUES_OPTION_NAME, "");
             cd.setIndexType(IndexType.COMPOSITES, options);
         }
         else
@@ -47,8 +47,9 @@ public class IndexPropDefs extends PropertyDefinitions
         if (!isCustom && customClass != null)
             throw new InvalidRequestException("Cannot specify index class for a non-CUSTOM index");
 
-        if (!isCustom && !properties.isEmpty())
-            throw new InvalidRequestException("Cannot specify options for a non-CUSTOM index");
+        if (!isCustom && !Collections.singleton(SecondaryIndex.TOKEN_ORDERED_OPTION_NAME).containsAll(getRawOptions().keySet()))
+            throw new InvalidRequestException(String.format("Cannot specify options other than %s for a non-CUSTOM index",
+                                                            SecondaryIndex.TOKEN_ORDERED_OPTION_NAME));
 
         if (getRawOptions().containsKey(SecondaryIndex.CUSTOM_INDEX_OPTION_NAME))
             throw new InvalidRequestException(String.format("Cannot specify %s as a CUSTOM option",
@@ -25,6 +25,7 @@ import org.apache.cassandra.db.index.*;
 import org.apache.cassandra.dht.AbstractBounds;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.service.IReadCommand;
+import org.apache.cassandra.utils.CloseableIterator;
 
 public abstract class AbstractRangeCommand implements IReadCommand
 {
@@ -94,6 +95,12 @@ public abstract class AbstractRangeCommand implements IReadCommand
 
     public abstract List<Row> executeLocally();
 
+    /**
+     * Same as {@link #executeLocally} but returns the rows as they are read, so they don't have to be kept in memory
+     * all at once. The returned iterator must be closed.
+     */
+    public abstract CloseableIterator<Row> executeLocallyAsIterator();
+
     public long getTimeout()
     {
         return DatabaseDescriptor.getRangeRpcTimeout();
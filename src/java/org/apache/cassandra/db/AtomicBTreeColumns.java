@@ -112,7 +112,7 @@ public class AtomicBTreeColumns extends ColumnFamily
 
     private static final AtomicReferenceFieldUpdater<AtomicBTreeColumns, Holder> refUpdater = AtomicReferenceFieldUpdater.newUpdater(AtomicBTreeColumns.class, Holder.class, "ref");
 
-    private AtomicBTreeColumns(CFMetaData metadata)
+    AtomicBTreeColumns(CFMetaData metadata)
     {
         this(metadata, EMPTY);
     }
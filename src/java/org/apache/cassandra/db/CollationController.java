@@ -47,14 +47,22 @@ public class CollationController
     private final ColumnFamilyStore cfs;
     private final QueryFilter filter;
     private final int gcBefore;
+    // null unless the partition is read as part of a batch
+    private final PartitionReadBatch batch;
 
     private int sstablesIterated = 0;
 
     public CollationController(ColumnFamilyStore cfs, QueryFilter filter, int gcBefore)
+    {
+        this(cfs, filter, gcBefore, null);
+    }
+
+    public CollationController(ColumnFamilyStore cfs, QueryFilter filter, int gcBefore, PartitionReadBatch batch)
     {
         this.cfs = cfs;
         this.filter = filter;
         this.gcBefore = gcBefore;
+        this.batch = batch;
     }
 
     public ColumnFamily getTopLevelColumns(boolean copyOnHeap)
@@ -76,7 +84,7 @@ public class CollationController
         List<OnDiskAtomIterator> iterators = new ArrayList<>();
         boolean isEmpty = true;
         Tracing.trace("Acquiring sstable references");
-        ColumnFamilyStore.ViewFragment view = cfs.select(cfs.viewFilter(filter.key));
+        ColumnFamilyStore.ViewFragment view = select();
         DeletionInfo returnDeletionInfo = container.deletionInfo();
 
         try
@@ -126,7 +134,7 @@ public class CollationController
                     onlyUnrepaired = false;
                 Tracing.trace("Merging data from sstable {}", sstable.descriptor.generation);
                 sstable.incrementReadCount();
-                OnDiskAtomIterator iter = reducedFilter.getSSTableColumnIterator(sstable);
+                OnDiskAtomIterator iter = getSSTableColumnIterator(reducedFilter, sstable);
                 iterators.add(iter);
                 isEmpty = false;
                 if (iter.getColumnFamily() != null)
@@ -202,7 +210,7 @@ public class CollationController
     private ColumnFamily collectAllData(boolean copyOnHeap)
     {
         Tracing.trace("Acquiring sstable references");
-        ColumnFamilyStore.ViewFragment view = cfs.select(cfs.viewFilter(filter.key));
+        ColumnFamilyStore.ViewFragment view = select();
         List<Iterator<? extends OnDiskAtom>> iterators = new ArrayList<>(Iterables.size(view.memtables) + view.sstables.size());
         ColumnFamily returnCF = ArrayBackedSortedColumns.factory.create(cfs.metadata, filter.filter.isReversed());
         DeletionInfo returnDeletionInfo = returnCF.deletionInfo();
@@ -265,7 +273,7 @@ public class CollationController
                 }
 
                 sstable.incrementReadCount();
-                OnDiskAtomIterator iter = filter.getSSTableColumnIterator(sstable);
+                OnDiskAtomIterator iter = getSSTableColumnIterator(filter, sstable);
                 iterators.add(iter);
                 if (iter.getColumnFamily() != null)
                 {
@@ -285,7 +293,7 @@ public class CollationController
                         continue;
 
                     sstable.incrementReadCount();
-                    OnDiskAtomIterator iter = filter.getSSTableColumnIterator(sstable);
+                    OnDiskAtomIterator iter = getSSTableColumnIterator(filter, sstable);
                     ColumnFamily cf = iter.getColumnFamily();
                     // we are only interested in row-level tombstones here, and only if markedForDeleteAt is larger than minTimestamp
                     if (cf != null && cf.deletionInfo().getTopLevelDeletion().markedForDeleteAt > minTimestamp)
@@ -322,6 +330,16 @@ public class CollationController
         }
     }
 
+    private ColumnFamilyStore.ViewFragment select()
+    {
+        return batch == null ? cfs.select(cfs.viewFilter(filter.key)) : batch.select(filter.key);
+    }
+
+    private OnDiskAtomIterator getSSTableColumnIterator(QueryFilter filter, SSTableReader sstable)
+    {
+        return batch == null ? filter.getSSTableColumnIterator(sstable) : batch.getSSTableColumnIterator(filter, sstable);
+    }
+
     public int getSstablesIterated()
     {
         return sstablesIterated;
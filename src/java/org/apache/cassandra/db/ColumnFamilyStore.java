@@ -47,12 +47,15 @@ import org.apache.cassandra.config.CFMetaData.SpeculativeRetry;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.commitlog.ReplayPosition;
 import org.apache.cassandra.db.compaction.*;
+import org.apache.cassandra.db.composites.CBuilder;
 import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.db.filter.ColumnCounter;
 import org.apache.cassandra.db.filter.ColumnSlice;
 import org.apache.cassandra.db.filter.ExtendedFilter;
 import org.apache.cassandra.db.filter.IDiskAtomFilter;
+import org.apache.cassandra.db.filter.NamesQueryFilter;
 import org.apache.cassandra.db.filter.QueryFilter;
 import org.apache.cassandra.db.filter.SliceQueryFilter;
 import org.apache.cassandra.db.index.SecondaryIndex;
@@ -76,7 +79,6 @@ import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.utils.*;
 import org.apache.cassandra.utils.concurrent.*;
 import org.apache.cassandra.utils.TopKSampler.SamplerResult;
-import org.apache.cassandra.utils.memory.MemtableAllocator;
 
 import com.clearspring.analytics.stream.Counter;
 
@@ -103,6 +105,19 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     // to be able to show an error on following flushes instead of blindly continuing.
     private static volatile FSWriteError previousFlushFailure = null;
 
+    /**
+     * Loads the partitions to cache on row cache misses when row_cache_async_population is enabled. At most
+     * row_cache_max_pending_populations partitions are queued or being loaded at any time, and a partition is not
+     * queued again while it is.
+     */
+    private static final ExecutorService rowCachePopulationExecutor = new JMXEnabledThreadPoolExecutor(DatabaseDescriptor.getRowCachePopulationThreads(),
+                                                                                                       StageManager.KEEPALIVE,
+                                                                                                       TimeUnit.SECONDS,
+                                                                                                       new LinkedBlockingQueue<Runnable>(),
+                                                                                                       new NamedThreadFactory("RowCachePopulation"),
+                                                                                                       "internal");
+    private static final Set<RowCacheKey> pendingRowCachePopulations = Sets.newConcurrentHashSet();
+
     private static final ExecutorService reclaimExecutor = new JMXEnabledThreadPoolExecutor(1,
                                                                                             StageManager.KEEPALIVE,
                                                                                             TimeUnit.SECONDS,
@@ -821,7 +836,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         {
             cfs.indexManager.setIndexRemoved(indexes);
             logger.info(String.format("User Requested secondary index re-build for %s/%s indexes", ksName, cfName));
-            cfs.indexManager.maybeBuildSecondaryIndexes(sstables, indexes);
+            cfs.indexManager.buildIndexesBlocking(sstables, indexes, false);
             cfs.indexManager.setIndexBuilt(indexes);
         }
     }
@@ -897,20 +912,20 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         float onHeapRatio = 0, offHeapRatio = 0;
         long onHeapTotal = 0, offHeapTotal = 0;
         Memtable memtable = getDataTracker().getView().getCurrentMemtable();
-        onHeapRatio +=  memtable.getAllocator().onHeap().ownershipRatio();
-        offHeapRatio += memtable.getAllocator().offHeap().ownershipRatio();
-        onHeapTotal += memtable.getAllocator().onHeap().owns();
-        offHeapTotal += memtable.getAllocator().offHeap().owns();
+        onHeapRatio +=  memtable.getOnHeapOwnershipRatio();
+        offHeapRatio += memtable.getOffHeapOwnershipRatio();
+        onHeapTotal += memtable.getOnHeapOwns();
+        offHeapTotal += memtable.getOffHeapOwns();
 
         for (SecondaryIndex index : indexManager.getIndexes())
         {
             if (index.getIndexCfs() != null)
             {
-                MemtableAllocator allocator = index.getIndexCfs().getDataTracker().getView().getCurrentMemtable().getAllocator();
-                onHeapRatio += allocator.onHeap().ownershipRatio();
-                offHeapRatio += allocator.offHeap().ownershipRatio();
-                onHeapTotal += allocator.onHeap().owns();
-                offHeapTotal += allocator.offHeap().owns();
+                Memtable indexMemtable = index.getIndexCfs().getDataTracker().getView().getCurrentMemtable();
+                onHeapRatio += indexMemtable.getOnHeapOwnershipRatio();
+                offHeapRatio += indexMemtable.getOffHeapOwnershipRatio();
+                onHeapTotal += indexMemtable.getOnHeapOwns();
+                offHeapTotal += indexMemtable.getOffHeapOwns();
             }
         }
 
@@ -1112,7 +1127,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 memtable.cfs.data.markFlushing(memtable);
                 if (memtable.isClean() || truncate)
                 {
-                    memtable.cfs.replaceFlushed(memtable, null);
+                    memtable.cfs.replaceFlushed(memtable, Collections.<SSTableReader>emptyList());
                     reclaim(memtable);
                     iter.remove();
                 }
@@ -1195,16 +1210,16 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 // find the total ownership ratio for the memtable and all SecondaryIndexes owned by this CF,
                 // both on- and off-heap, and select the largest of the two ratios to weight this CF
                 float onHeap = 0f, offHeap = 0f;
-                onHeap += current.getAllocator().onHeap().ownershipRatio();
-                offHeap += current.getAllocator().offHeap().ownershipRatio();
+                onHeap += current.getOnHeapOwnershipRatio();
+                offHeap += current.getOffHeapOwnershipRatio();
 
                 for (SecondaryIndex index : cfs.indexManager.getIndexes())
                 {
                     if (index.getIndexCfs() != null)
                     {
-                        MemtableAllocator allocator = index.getIndexCfs().getDataTracker().getView().getCurrentMemtable().getAllocator();
-                        onHeap += allocator.onHeap().ownershipRatio();
-                        offHeap += allocator.offHeap().ownershipRatio();
+                        Memtable indexMemtable = index.getIndexCfs().getDataTracker().getView().getCurrentMemtable();
+                        onHeap += indexMemtable.getOnHeapOwnershipRatio();
+                        offHeap += indexMemtable.getOffHeapOwnershipRatio();
                     }
                 }
 
@@ -1225,8 +1240,8 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 float usedOffHeap = Memtable.MEMORY_POOL.offHeap.usedRatio();
                 float flushingOnHeap = Memtable.MEMORY_POOL.onHeap.reclaimingRatio();
                 float flushingOffHeap = Memtable.MEMORY_POOL.offHeap.reclaimingRatio();
-                float thisOnHeap = largest.getAllocator().onHeap().ownershipRatio();
-                float thisOffHeap = largest.getAllocator().onHeap().ownershipRatio();
+                float thisOnHeap = largest.getOnHeapOwnershipRatio();
+                float thisOffHeap = largest.getOffHeapOwnershipRatio();
                 logger.info("Flushing largest {} to free up room. Used total: {}, live: {}, flushing: {}, this: {}",
                             largest.cfs, ratio(usedOnHeap, usedOffHeap), ratio(liveOnHeap, liveOffHeap),
                             ratio(flushingOnHeap, flushingOffHeap), ratio(thisOnHeap, thisOffHeap));
@@ -1535,9 +1550,9 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         data.markObsolete(sstables, compactionType);
     }
 
-    void replaceFlushed(Memtable memtable, SSTableReader sstable)
+    void replaceFlushed(Memtable memtable, Collection<SSTableReader> sstables)
     {
-        compactionStrategyWrapper.replaceFlushed(memtable, sstable);
+        compactionStrategyWrapper.replaceFlushed(memtable, sstables);
     }
 
     public boolean isValid()
@@ -1711,6 +1726,9 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 return getTopLevelColumns(filter, Integer.MIN_VALUE);
             }
 
+            if (cached instanceof RowCacheSlices)
+                return getThroughCachedSlices(key, (RowCacheSlices)cached, filter);
+
             ColumnFamily cachedCf = (ColumnFamily)cached;
             if (isFilterFullyCoveredBy(filter.filter, cachedCf, filter.timestamp))
             {
@@ -1728,10 +1746,17 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
         metric.rowCacheMiss.inc();
         Tracing.trace("Row cache miss");
+        if (DatabaseDescriptor.isRowCacheAsyncPopulation() && isPopulatedFromHead(filter.filter))
+        {
+            populateRowCacheAsync(key, filter.key);
+            return getTopLevelColumns(filter, Integer.MIN_VALUE);
+        }
+
         RowCacheSentinel sentinel = new RowCacheSentinel();
         boolean sentinelSuccess = CacheService.instance.rowCache.putIfAbsent(key, sentinel);
         ColumnFamily data = null;
         ColumnFamily toCache = null;
+        RowCacheSlices slicesToCache = null;
         try
         {
             // If we are explicitely asked to fill the cache with full partitions, we go ahead and query the whole thing
@@ -1799,6 +1824,15 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                     CacheService.instance.rowCache.replace(key, sentinel, toCache);
                 return data;
             }
+            else if (isSliceCacheable(filter.filter))
+            {
+                // The query does not start from the head of the partition, so we only cache the slices it has read.
+                data = getTopLevelColumns(filter, Integer.MIN_VALUE);
+                slicesToCache = slicesToCache(filter, data, null);
+                if (sentinelSuccess && slicesToCache != null)
+                    CacheService.instance.rowCache.replace(key, sentinel, slicesToCache);
+                return data;
+            }
             else
             {
                 Tracing.trace("Fetching data but not populating cache as query does not query from the start of the partition");
@@ -1807,11 +1841,269 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
         finally
         {
-            if (sentinelSuccess && toCache == null)
+            if (sentinelSuccess && toCache == null && slicesToCache == null)
+                invalidateCachedRow(key);
+        }
+    }
+
+    // whether a miss of the query populates the row cache with the head of the partition (or all of it)
+    private boolean isPopulatedFromHead(IDiskAtomFilter filter)
+    {
+        return metadata.getCaching().rowCache.cacheFullPartitions()
+               || (filter.isHeadFilter() && filter.countCQL3Rows(metadata.comparator));
+    }
+
+    /**
+     * Queues the population of the row cache with the partition of {@code key}, unless it is already queued or
+     * too many populations are.
+     */
+    private void populateRowCacheAsync(final RowCacheKey key, final DecoratedKey partitionKey)
+    {
+        // the bound is not strict as several misses may check it concurrently, but that's harmless
+        if (pendingRowCachePopulations.size() >= DatabaseDescriptor.getRowCacheMaxPendingPopulations())
+        {
+            Tracing.trace("Not populating row cache, too many pending populations");
+            return;
+        }
+
+        if (!pendingRowCachePopulations.add(key))
+        {
+            Tracing.trace("Row cache population already pending");
+            return;
+        }
+
+        Tracing.trace("Queuing row cache population");
+        rowCachePopulationExecutor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    populateRowCache(key, partitionKey);
+                }
+                finally
+                {
+                    pendingRowCachePopulations.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Populates the row cache with the head of the partition of {@code key}, or all of it, going through the same
+     * sentinel-read-cache sequence as getThroughCache.
+     */
+    public void populateRowCache(RowCacheKey key, DecoratedKey partitionKey)
+    {
+        if (!isRowCacheEnabled())
+            return;
+
+        RowCacheSentinel sentinel = new RowCacheSentinel();
+        // the partition has been cached, or is being cached by a read, since it has been queued
+        if (!CacheService.instance.rowCache.putIfAbsent(key, sentinel))
+            return;
+
+        ColumnFamily toCache = null;
+        try
+        {
+            long now = System.currentTimeMillis();
+            QueryFilter cacheFilter = metadata.getCaching().rowCache.cacheFullPartitions()
+                                    ? QueryFilter.getIdentityFilter(partitionKey, name, now)
+                                    : new QueryFilter(partitionKey, name, readFilterForCache(), now);
+            toCache = getTopLevelColumns(cacheFilter, Integer.MIN_VALUE);
+            if (toCache != null)
+                CacheService.instance.rowCache.replace(key, sentinel, toCache);
+        }
+        finally
+        {
+            if (toCache == null)
                 invalidateCachedRow(key);
         }
     }
 
+    /**
+     * Serves a query from the cached slices of its partition if they cover it, and otherwise reads it and adds
+     * the slices it has read to the cached ones.
+     */
+    private ColumnFamily getThroughCachedSlices(RowCacheKey key, RowCacheSlices cached, QueryFilter filter)
+    {
+        if (isFilterCoveredBy(filter, cached))
+        {
+            metric.rowCacheHit.inc();
+            Tracing.trace("Row cache hit ({} cached slices)", cached.slices.length);
+            ColumnFamily result = filterColumnFamily(cached.data, filter);
+            metric.updateSSTableIterated(0);
+            return result;
+        }
+
+        metric.rowCacheHitOutOfRange.inc();
+        if (!isSliceCacheable(filter.filter))
+        {
+            Tracing.trace("Ignoring row cache as cached slices could not satisfy query");
+            return getTopLevelColumns(filter, Integer.MIN_VALUE);
+        }
+
+        Tracing.trace("Cached slices could not satisfy query, adding the ones read to the row cache");
+        ColumnFamily data = getTopLevelColumns(filter, Integer.MIN_VALUE);
+        RowCacheSlices toCache = slicesToCache(filter, data, cached);
+        // if the partition has been written to since we got the cached slices, they have been invalidated and
+        // replacing them fails
+        if (toCache != null)
+            CacheService.instance.rowCache.replace(key, cached, toCache);
+        return data;
+    }
+
+    private boolean isSliceCacheable(IDiskAtomFilter filter)
+    {
+        // Cached slices are bounded by the rows they hold, so we need queries that count rows. The static columns
+        // would be a slice of their own for all queries, so we simply don't bother for the tables having some.
+        return filter instanceof SliceQueryFilter
+               && filter.countCQL3Rows(metadata.comparator)
+               && !metadata.hasStaticColumns();
+    }
+
+    /**
+     * @return whether all the data {@code filter} selects is within {@code cached}.
+     */
+    private boolean isFilterCoveredBy(QueryFilter filter, RowCacheSlices cached)
+    {
+        if (filter.filter instanceof NamesQueryFilter)
+        {
+            for (CellName name : ((NamesQueryFilter)filter.filter).columns)
+            {
+                if (!cached.includes(name))
+                    return false;
+            }
+            return true;
+        }
+
+        SliceQueryFilter sliceFilter = (SliceQueryFilter)filter.filter;
+        ColumnSlice[] slices = sliceFilter.slices;
+        for (int i = 0; i < slices.length; i++)
+        {
+            if (cached.covers(slices[i], sliceFilter.reversed))
+                continue;
+
+            // The slice is only partly cached, but the query is still covered if it reaches its limit within the
+            // cached part, which it queries first. Note that we do want to count the live rows at the time of the
+            // query here, as some cached rows may have expired since they have been cached.
+            ColumnSlice clipped = cached.clip(slices[i], sliceFilter.reversed);
+            if (clipped == null)
+                return false;
+
+            ColumnSlice[] coveredSlices = Arrays.copyOf(slices, i + 1);
+            coveredSlices[i] = clipped;
+            SliceQueryFilter coveredFilter = sliceFilter.withUpdatedSlices(coveredSlices);
+            filterColumnFamily(cached.data, new QueryFilter(filter.key, name, coveredFilter, filter.timestamp));
+            return coveredFilter.lastCounted() >= sliceFilter.count;
+        }
+        return true;
+    }
+
+    /**
+     * @param data the result of {@code filter}, a query that has been read without the row cache.
+     * @param cached the slices of the partition that are already cached, if any.
+     * @return the slices to cache for the partition once {@code data} has been read, or null if they should not
+     * be cached.
+     */
+    private RowCacheSlices slicesToCache(QueryFilter filter, ColumnFamily data, RowCacheSlices cached)
+    {
+        SliceQueryFilter sliceFilter = (SliceQueryFilter)filter.filter;
+        ColumnSlice[] readSlices = readSlices(sliceFilter, data, filter.timestamp);
+        if (readSlices == null)
+            return null;
+
+        ColumnFamily readData = null;
+        if (data != null)
+        {
+            // drop what has been read past the slices, like the tombstones of the row following the last one counted
+            QueryFilter readFilter = new QueryFilter(filter.key, name, new SliceQueryFilter(readSlices, false, Integer.MAX_VALUE), filter.timestamp);
+            readData = filterColumnFamily(data, readFilter);
+        }
+        if (readData == null)
+            readData = ArrayBackedSortedColumns.factory.create(metadata);
+
+        // The slices cached for a partition are bounded by its rows to cache: the ones cached for previous queries
+        // are dropped if adding the new ones would exceed it, while the SerializingCache evicts whole partitions
+        // when it is full.
+        int rowsToCache = metadata.getCaching().rowCache.rowsToCache;
+        if (readData.liveCQL3RowCount(filter.timestamp) > rowsToCache)
+        {
+            Tracing.trace("Not populating row cache, too many rows read (more than {})", rowsToCache);
+            return null;
+        }
+
+        if (cached != null)
+        {
+            RowCacheSlices merged = cached.merge(readData, readSlices);
+            if (merged.data.liveCQL3RowCount(filter.timestamp) <= rowsToCache)
+            {
+                Tracing.trace("Adding {} slices to the row cache ({} cached slices)", readSlices.length, merged.slices.length);
+                return merged;
+            }
+            Tracing.trace("Replacing the {} cached slices to keep at most {} rows cached", cached.slices.length, rowsToCache);
+        }
+        else
+        {
+            Tracing.trace("Populating row cache with {} slices", readSlices.length);
+        }
+        return new RowCacheSlices(readData, readSlices);
+    }
+
+    /**
+     * @return the slices, in the partition order, whose data has all been read by {@code filter} once it has
+     * returned {@code data}. That is its own slices, unless it has reached its limit, in which case they end with
+     * its last counted row. Returns null if that row cannot be found.
+     */
+    private ColumnSlice[] readSlices(SliceQueryFilter filter, ColumnFamily data, long now)
+    {
+        Composite lastRow = null;
+        if (data != null && filter.lastCounted() >= filter.count)
+        {
+            ColumnCounter counter = filter.columnCounter(metadata.comparator, now);
+            DeletionInfo.InOrderTester tester = data.deletionInfo().inOrderTester(filter.reversed);
+            Iterator<Cell> cells = filter.reversed ? data.reverseIterator() : data.iterator();
+            while (lastRow == null && cells.hasNext())
+            {
+                Cell cell = cells.next();
+                counter.count(cell, tester);
+                if (counter.live() >= filter.count)
+                    lastRow = rowPrefix(cell.name());
+            }
+            if (lastRow == null)
+                return null;
+        }
+
+        List<ColumnSlice> slices = new ArrayList<>(filter.slices.length);
+        for (ColumnSlice slice : filter.slices)
+        {
+            ColumnSlice forward = RowCacheSlices.forward(slice, filter.reversed);
+            if (lastRow != null && forward.includes(metadata.comparator, lastRow))
+            {
+                slices.add(filter.reversed
+                           ? new ColumnSlice(lastRow.start(), forward.finish)
+                           : new ColumnSlice(forward.start, lastRow.end()));
+                break;
+            }
+            slices.add(forward);
+        }
+        if (filter.reversed)
+            Collections.reverse(slices);
+        return slices.toArray(new ColumnSlice[slices.size()]);
+    }
+
+    // the clustering prefix of the CQL3 row of a cell
+    private Composite rowPrefix(CellName name)
+    {
+        if (name.clusteringSize() == name.size())
+            return name;
+
+        CBuilder builder = metadata.comparator.prefixBuilder();
+        for (int i = 0; i < name.clusteringSize(); i++)
+            builder.add(name.get(i));
+        return builder.build();
+    }
+
     public SliceQueryFilter readFilterForCache()
     {
         // We create a new filter everytime before for now SliceQueryFilter is unfortunatly mutable.
@@ -1849,6 +2141,40 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
      * @return null if there is no data and no tombstones; otherwise a ColumnFamily
      */
     public ColumnFamily getColumnFamily(QueryFilter filter)
+    {
+        return getColumnFamily(filter, null);
+    }
+
+    /**
+     * Same as calling {@link #getColumnFamily(QueryFilter)} for each of {@code filters}, which must be sorted by
+     * partition key, but the reads share the work that doesn't depend on the partition: the sstables are selected
+     * once for the whole batch, and each data file is read through a single reader, reading neighbouring partitions
+     * from the same buffer rather than each opening and filling its own (see {@link PartitionReadBatch}).
+     *
+     * @return the result of each filter, in the same order.
+     */
+    public List<ColumnFamily> getColumnFamilies(List<QueryFilter> filters)
+    {
+        List<ColumnFamily> results = new ArrayList<>(filters.size());
+        // the row cache is checked partition by partition
+        if (filters.size() < 2 || isRowCacheEnabled())
+        {
+            for (QueryFilter filter : filters)
+                results.add(getColumnFamily(filter));
+            return results;
+        }
+
+        Tracing.trace("Executing batch of {} single-partition queries on {}", filters.size(), name);
+        try (OpOrder.Group op = readOrdering.start();
+             PartitionReadBatch batch = new PartitionReadBatch(this, filters.get(0).key, filters.get(filters.size() - 1).key))
+        {
+            for (QueryFilter filter : filters)
+                results.add(getColumnFamily(filter, batch));
+        }
+        return results;
+    }
+
+    private ColumnFamily getColumnFamily(QueryFilter filter, PartitionReadBatch batch)
     {
         assert name.equals(filter.getColumnFamilyName()) : filter.getColumnFamilyName();
 
@@ -1874,7 +2200,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             }
             else
             {
-                ColumnFamily cf = getTopLevelColumns(filter, gcBefore);
+                ColumnFamily cf = getTopLevelColumns(filter, gcBefore, batch);
 
                 if (cf == null)
                     return null;
@@ -2026,8 +2352,14 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
     public ColumnFamily getTopLevelColumns(QueryFilter filter, int gcBefore)
     {
-        Tracing.trace("Executing single-partition query on {}", name);
-        CollationController controller = new CollationController(this, filter, gcBefore);
+        return getTopLevelColumns(filter, gcBefore, null);
+    }
+
+    private ColumnFamily getTopLevelColumns(QueryFilter filter, int gcBefore, PartitionReadBatch batch)
+    {
+        if (batch == null)
+            Tracing.trace("Executing single-partition query on {}", name);
+        CollationController controller = new CollationController(this, filter, gcBefore, batch);
         ColumnFamily columns;
         try (OpOrder.Group op = readOrdering.start())
         {
@@ -2218,14 +2550,35 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
     public List<Row> getRangeSlice(ExtendedFilter filter)
     {
-        long start = System.nanoTime();
-        try (OpOrder.Group op = readOrdering.start())
+        try (FilteredRowIterator rows = getRangeSliceIterator(filter))
         {
-            return filter(getSequentialIterator(filter.dataRange, filter.timestamp), filter);
+            return Lists.newArrayList(rows);
         }
-        finally
+    }
+
+    /**
+     * Same as {@link #getRangeSlice(ExtendedFilter)} but returns the rows as they are read rather than all at once.
+     * The returned iterator must be closed.
+     */
+    public FilteredRowIterator getRangeSliceIterator(ExtendedFilter filter)
+    {
+        final long start = System.nanoTime();
+        OpOrder.Group op = readOrdering.start();
+        try
+        {
+            return new FilteredRowIterator(getSequentialIterator(filter.dataRange, filter.timestamp), filter, Collections.singletonList(op))
+            {
+                @Override
+                protected void onClose()
+                {
+                    metric.rangeLatency.addNano(System.nanoTime() - start);
+                }
+            };
+        }
+        catch (RuntimeException | Error e)
         {
-            metric.rangeLatency.addNano(System.nanoTime() - start);
+            op.close();
+            throw e;
         }
     }
 
@@ -2253,17 +2606,56 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return indexManager.search(filter);
     }
 
+    /**
+     * Same as {@link #search(ExtendedFilter)} but returns the rows as they are read rather than all at once.
+     * The returned iterator must be closed.
+     */
+    public CloseableIterator<Row> searchIterator(ExtendedFilter filter)
+    {
+        Tracing.trace("Executing indexed scan for {}", filter.dataRange.keyRange().getString(metadata.getKeyValidator()));
+        return indexManager.searchIterator(filter);
+    }
+
     public List<Row> filter(AbstractScanIterator rowIterator, ExtendedFilter filter)
     {
-        logger.trace("Filtering {} for rows matching {}", rowIterator, filter);
-        List<Row> rows = new ArrayList<Row>();
-        int columnsCount = 0;
-        int total = 0, matched = 0;
-        boolean ignoreTombstonedPartitions = filter.ignoreTombstonedPartitions();
+        try (FilteredRowIterator rows = new FilteredRowIterator(rowIterator, filter, Collections.<OpOrder.Group>emptyList()))
+        {
+            return Lists.newArrayList(rows);
+        }
+    }
 
-        try
+    /**
+     * Returns the rows of a scan that match a filter, up to the filter limits, as they are read from the scan.
+     *
+     * Closing this closes the scan and then the op order groups that were protecting it.
+     */
+    public class FilteredRowIterator extends AbstractIterator<Row> implements CloseableIterator<Row>
+    {
+        private final AbstractScanIterator rowIterator;
+        private final ExtendedFilter filter;
+        private final List<OpOrder.Group> opGroups;
+        private final boolean ignoreTombstonedPartitions;
+        // only measured if the query is traced
+        private final long allocatedBytesAtStart;
+
+        private int columnsCount = 0;
+        private int total = 0, matched = 0;
+        private boolean closed;
+
+        public FilteredRowIterator(AbstractScanIterator rowIterator, ExtendedFilter filter, List<OpOrder.Group> opGroups)
         {
-            while (rowIterator.hasNext() && matched < filter.maxRows() && columnsCount < filter.maxColumns())
+            logger.trace("Filtering {} for rows matching {}", rowIterator, filter);
+            this.rowIterator = rowIterator;
+            this.filter = filter;
+            this.opGroups = opGroups;
+            this.ignoreTombstonedPartitions = filter.ignoreTombstonedPartitions();
+            this.allocatedBytesAtStart = Tracing.isTracing() ? FBUtilities.currentThreadAllocatedBytes() : -1;
+        }
+
+        protected Row computeNext()
+        {
+            // check the limits first, so we don't read a row we won't return
+            while (matched < filter.maxRows() && columnsCount < filter.maxColumns() && rowIterator.hasNext())
             {
                 // get the raw columns requested, and additional columns for the expressions if necessary
                 Row rawRow = rowIterator.next();
@@ -2294,7 +2686,6 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                     removeDroppedColumns(data);
                 }
 
-                rows.add(new Row(rawRow.key, data));
                 if (!ignoreTombstonedPartitions || !data.hasOnlyTombstones(filter.timestamp))
                     matched++;
 
@@ -2302,21 +2693,44 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                     columnsCount += filter.lastCounted(data);
                 // Update the underlying filter to avoid querying more columns per slice than necessary and to handle paging
                 filter.updateFilter(columnsCount);
+                return new Row(rawRow.key, data);
             }
+            return endOfData();
+        }
 
-            return rows;
+        /**
+         * Called once the scan has been closed.
+         */
+        protected void onClose()
+        {
         }
-        finally
+
+        public void close()
         {
+            if (closed)
+                return;
+            closed = true;
+
             try
             {
                 rowIterator.close();
-                Tracing.trace("Scanned {} rows and matched {}", total, matched);
             }
             catch (IOException e)
             {
                 throw new RuntimeException(e);
             }
+            finally
+            {
+                for (OpOrder.Group opGroup : Lists.reverse(opGroups))
+                    opGroup.close();
+                onClose();
+            }
+
+            if (allocatedBytesAtStart >= 0)
+                Tracing.trace("Scanned {} rows and matched {}, allocating {} bytes",
+                              new Object[]{ total, matched, FBUtilities.currentThreadAllocatedBytes() - allocatedBytesAtStart });
+            else
+                Tracing.trace("Scanned {} rows and matched {}", total, matched);
         }
     }
 
@@ -2529,7 +2943,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             return null;
 
         IRowCacheEntry cached = CacheService.instance.rowCache.getInternal(new RowCacheKey(metadata.ksAndCFName, key));
-        return cached == null || cached instanceof RowCacheSentinel ? null : (ColumnFamily)cached;
+        return cached instanceof ColumnFamily ? (ColumnFamily)cached : null;
     }
 
     private void invalidateCaches()
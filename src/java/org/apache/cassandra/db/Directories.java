@@ -321,6 +321,30 @@ public class Directories
         return pickWriteableDirectory(candidates);
     }
 
+    /**
+     * Returns the non-blacklisted data directories that _currently_ have {@code writeSize} bytes as usable space,
+     * in the order they are configured.
+     *
+     * @throws IOError if all directories are blacklisted.
+     */
+    public List<DataDirectory> getWriteableLocations(long writeSize)
+    {
+        List<DataDirectory> locations = new ArrayList<>(dataDirectories.length);
+        boolean blacklisted = true;
+        for (DataDirectory dataDir : dataDirectories)
+        {
+            if (BlacklistedDirectories.isUnwritable(getLocationForDisk(dataDir)))
+                continue;
+            blacklisted = false;
+            if (dataDir.getAvailableSpace() >= writeSize)
+                locations.add(dataDir);
+        }
+
+        if (blacklisted)
+            throw new FSWriteError(new IOException("All configured data directories have been blacklisted as unwritable for erroring out"), "");
+        return locations;
+    }
+
     // separated for unit testing
     static DataDirectory pickWriteableDirectory(List<DataDirectoryCandidate> candidates)
     {
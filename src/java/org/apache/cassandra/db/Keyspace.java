@@ -407,12 +407,14 @@ public class Keyspace
      * @param key row to index
      * @param cfs ColumnFamily to index row in
      * @param idxNames columns to index, in comparator order
+     * @return the size of the data read from the row.
      */
-    public static void indexRow(DecoratedKey key, ColumnFamilyStore cfs, Set<String> idxNames)
+    public static long indexRow(DecoratedKey key, ColumnFamilyStore cfs, Set<String> idxNames)
     {
         if (logger.isDebugEnabled())
             logger.debug("Indexing row {} ", cfs.metadata.getKeyValidator().getString(key.getKey()));
 
+        long dataSize = 0;
         try (OpOrder.Group opGroup = cfs.keyspace.writeOrder.start())
         {
             Set<SecondaryIndex> indexes = cfs.indexManager.getIndexesByNames(idxNames);
@@ -421,6 +423,7 @@ public class Keyspace
             while (pager.hasNext())
             {
                 ColumnFamily cf = pager.next();
+                dataSize += cf.dataSize();
                 ColumnFamily cf2 = cf.cloneMeShallow();
                 for (Cell cell : cf)
                 {
@@ -430,6 +433,7 @@ public class Keyspace
                 cfs.indexManager.indexRow(key.getKey(), cf2, opGroup);
             }
         }
+        return dataSize;
     }
 
     public List<Future<?>> flush()
@@ -19,26 +19,37 @@ package org.apache.cassandra.db;
 
 import java.io.File;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
 import org.apache.cassandra.utils.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.commitlog.ReplayPosition;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.index.SecondaryIndexManager;
+import org.apache.cassandra.db.index.sstable.IndexSegment;
 import org.apache.cassandra.dht.LongToken;
+import org.apache.cassandra.dht.Murmur3Partitioner;
 import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.io.sstable.SSTableWriter;
 import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
@@ -52,11 +63,20 @@ public class Memtable
     private static final Logger logger = LoggerFactory.getLogger(Memtable.class);
 
     static final MemtablePool MEMORY_POOL = DatabaseDescriptor.getMemtableAllocatorPool();
-    private static final int ROW_OVERHEAD_HEAP_SIZE = estimateRowOverhead(Integer.valueOf(System.getProperty("cassandra.memtable_row_overhead_computation_step", "100000")));
 
-    private final MemtableAllocator allocator;
-    private final AtomicLong liveDataSize = new AtomicLong(0);
-    private final AtomicLong currentOperations = new AtomicLong(0);
+    // the smallest flush to split across the data directories; smaller ones would only add sstables to compact
+    private static final long MIN_SPLIT_FLUSH_SIZE = Long.getLong("cassandra.memtable_min_split_flush_size_in_mb", 64) * 1024 * 1024;
+
+    // the flush writers only flush distinct memtables concurrently, so the segments of a memtable are written by these
+    private static final ExecutorService segmentFlushExecutor = new JMXEnabledThreadPoolExecutor(DatabaseDescriptor.getFlushWriters(),
+                                                                                                 StageManager.KEEPALIVE,
+                                                                                                 TimeUnit.SECONDS,
+                                                                                                 new LinkedBlockingQueue<Runnable>(),
+                                                                                                 new NamedThreadFactory("MemtableSegmentFlushWriter"),
+                                                                                                 "internal");
+
+    // the memtable split in token order, see memtable_shards
+    private final Shard[] shards;
 
     // the write barrier for directing writes to this memtable during a switch
     private volatile OpOrder.Barrier writeBarrier;
@@ -72,10 +92,6 @@ public class Memtable
         }
     }
 
-    // We index the memtable by RowPosition only for the purpose of being able
-    // to select key range using Token.KeyBound. However put() ensures that we
-    // actually only store DecoratedKey.
-    private final ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> rows = new ConcurrentSkipListMap<>();
     public final ColumnFamilyStore cfs;
     private final long creationTime = System.currentTimeMillis();
     private final long creationNano = System.nanoTime();
@@ -88,24 +104,59 @@ public class Memtable
     public Memtable(ColumnFamilyStore cfs)
     {
         this.cfs = cfs;
-        this.allocator = MEMORY_POOL.newAllocator();
+        this.shards = new Shard[shardCount(cfs)];
+        for (int i = 0; i < shards.length; i++)
+            shards[i] = new Shard(MemtablePartitions.create(cfs.partitioner));
         this.initialComparator = cfs.metadata.comparator;
         this.cfs.scheduleFlush();
     }
 
-    public MemtableAllocator getAllocator()
+    public long getOnHeapOwns()
+    {
+        long owns = 0;
+        for (Shard shard : shards)
+            owns += shard.allocator.onHeap().owns();
+        return owns;
+    }
+
+    public long getOffHeapOwns()
+    {
+        long owns = 0;
+        for (Shard shard : shards)
+            owns += shard.allocator.offHeap().owns();
+        return owns;
+    }
+
+    public float getOnHeapOwnershipRatio()
+    {
+        float ratio = 0;
+        for (Shard shard : shards)
+            ratio += shard.allocator.onHeap().ownershipRatio();
+        return ratio;
+    }
+
+    public float getOffHeapOwnershipRatio()
     {
-        return allocator;
+        float ratio = 0;
+        for (Shard shard : shards)
+            ratio += shard.allocator.offHeap().ownershipRatio();
+        return ratio;
     }
 
     public long getLiveDataSize()
     {
-        return liveDataSize.get();
+        long size = 0;
+        for (Shard shard : shards)
+            size += shard.liveDataSize.get();
+        return size;
     }
 
     public long getOperations()
     {
-        return currentOperations.get();
+        long operations = 0;
+        for (Shard shard : shards)
+            operations += shard.currentOperations.get();
+        return operations;
     }
 
     void setDiscarding(OpOrder.Barrier writeBarrier, AtomicReference<ReplayPosition> lastReplayPosition)
@@ -113,12 +164,14 @@ public class Memtable
         assert this.writeBarrier == null;
         this.lastReplayPosition = lastReplayPosition;
         this.writeBarrier = writeBarrier;
-        allocator.setDiscarding();
+        for (Shard shard : shards)
+            shard.allocator.setDiscarding();
     }
 
     void setDiscarded()
     {
-        allocator.setDiscarded();
+        for (Shard shard : shards)
+            shard.allocator.setDiscarded();
     }
 
     // decide if this memtable should take the write, or if it should go to the next memtable
@@ -153,12 +206,18 @@ public class Memtable
 
     public boolean isLive()
     {
-        return allocator.isLive();
+        // the allocators of the shards all change state together
+        return shards[0].allocator.isLive();
     }
 
     public boolean isClean()
     {
-        return rows.isEmpty();
+        for (Shard shard : shards)
+        {
+            if (!shard.partitions.isEmpty())
+                return false;
+        }
+        return true;
     }
 
     public boolean isCleanAfter(ReplayPosition position)
@@ -183,21 +242,23 @@ public class Memtable
      */
     long put(DecoratedKey key, ColumnFamily cf, SecondaryIndexManager.Updater indexer, OpOrder.Group opGroup)
     {
-        AtomicBTreeColumns previous = rows.get(key);
+        Shard shard = shards[shardIndex(key)];
+        MemtableAllocator allocator = shard.allocator;
+        AtomicBTreeColumns previous = shard.partitions.get(key);
 
         long initialSize = 0;
         if (previous == null)
         {
-            AtomicBTreeColumns empty = cf.cloneMeShallow(AtomicBTreeColumns.factory, false);
             final DecoratedKey cloneKey = allocator.clone(key, opGroup);
+            AtomicBTreeColumns empty = shard.partitions.newPartition(cloneKey, cf);
             // We'll add the columns later. This avoids wasting works if we get beaten in the putIfAbsent
-            previous = rows.putIfAbsent(cloneKey, empty);
+            previous = shard.partitions.putIfAbsent(cloneKey, empty);
             if (previous == null)
             {
                 previous = empty;
                 // allocate the row overhead after the fact; this saves over allocating and having to free after, but
                 // means we can overshoot our declared limit.
-                int overhead = (int) (cfs.partitioner.getHeapSizeOf(key.getToken()) + ROW_OVERHEAD_HEAP_SIZE);
+                int overhead = (int) (cfs.partitioner.getHeapSizeOf(key.getToken()) + shard.partitions.rowOverheadHeapSize());
                 allocator.onHeap().allocate(overhead, opGroup);
                 initialSize = 8;
             }
@@ -208,8 +269,9 @@ public class Memtable
         }
 
         final Pair<Long, Long> pair = previous.addAllWithSizeDelta(cf, allocator, opGroup, indexer);
-        liveDataSize.addAndGet(initialSize + pair.left);
-        currentOperations.addAndGet(cf.getColumnCount() + (cf.isMarkedForDelete() ? 1 : 0) + cf.deletionInfo().rangeCount());
+        cfs.indexManager.indexMemtable(this, key, cf, allocator, opGroup);
+        shard.liveDataSize.addAndGet(initialSize + pair.left);
+        shard.currentOperations.addAndGet(cf.getColumnCount() + (cf.isMarkedForDelete() ? 1 : 0) + cf.deletionInfo().rangeCount());
         return pair.right;
     }
 
@@ -218,8 +280,10 @@ public class Memtable
     {
         StringBuilder builder = new StringBuilder();
         builder.append("{");
-        for (Map.Entry<RowPosition, AtomicBTreeColumns> entry : rows.entrySet())
+        Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter = partitionIterator(null, null);
+        while (iter.hasNext())
         {
+            Map.Entry<DecoratedKey, AtomicBTreeColumns> entry = iter.next();
             builder.append(entry.getKey()).append(": ").append(entry.getValue()).append(", ");
         }
         builder.append("}");
@@ -228,7 +292,53 @@ public class Memtable
 
     public int partitionCount()
     {
-        return rows.size();
+        int count = 0;
+        for (Shard shard : shards)
+            count += shard.partitions.size();
+        return count;
+    }
+
+    /**
+     * @return the number of shards of the memtables of {@code cfs}: the shards are token ranges of the
+     * Murmur3Partitioner, see shardIndex(), and the tables of the system keyspaces are too small to be worth splitting.
+     */
+    private static int shardCount(ColumnFamilyStore cfs)
+    {
+        if (!(cfs.partitioner instanceof Murmur3Partitioner) || isSystemTable(cfs))
+            return 1;
+        return DatabaseDescriptor.getMemtableShards();
+    }
+
+    private static boolean isSystemTable(ColumnFamilyStore cfs)
+    {
+        String keyspace = cfs.keyspace.getName();
+        return Schema.systemKeyspaceNames.contains(keyspace) || Schema.replicatedSystemKeyspaceNames.contains(keyspace);
+    }
+
+    /**
+     * @return the index of the shard of {@code position}; the shards split the token range evenly, in token order.
+     */
+    private int shardIndex(RowPosition position)
+    {
+        if (shards.length == 1)
+            return 0;
+        // the top bits of the token as an unsigned value, scaled down to the number of shards
+        long token = ((LongToken) position.getToken()).token;
+        return (int) ((((token ^ Long.MIN_VALUE) >>> 32) * shards.length) >>> 32);
+    }
+
+    // the partitions from start to stop inclusive, null bounds selecting the first or last partitions
+    private Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> partitionIterator(RowPosition start, RowPosition stop)
+    {
+        int first = start == null ? 0 : shardIndex(start);
+        int last = stop == null ? shards.length - 1 : shardIndex(stop);
+        if (first == last)
+            return shards[first].partitions.iterator(start, stop);
+
+        List<Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>>> iterators = new ArrayList<>(last - first + 1);
+        for (int i = first; i <= last; i++)
+            iterators.add(shards[i].partitions.iterator(i == first ? start : null, i == last ? stop : null));
+        return Iterators.concat(iterators.iterator());
     }
 
     public FlushRunnable flushRunnable()
@@ -239,8 +349,8 @@ public class Memtable
     public String toString()
     {
         return String.format("Memtable-%s@%s(%s serialized bytes, %s ops, %.0f%%/%.0f%% of on/off-heap limit)",
-                             cfs.name, hashCode(), FBUtilities.prettyPrintMemory(liveDataSize.get()), currentOperations,
-                             100 * allocator.onHeap().ownershipRatio(), 100 * allocator.offHeap().ownershipRatio());
+                             cfs.name, hashCode(), FBUtilities.prettyPrintMemory(getLiveDataSize()), getOperations(),
+                             100 * getOnHeapOwnershipRatio(), 100 * getOffHeapOwnershipRatio());
     }
 
     /**
@@ -251,9 +361,8 @@ public class Memtable
     {
         return new Iterator<Map.Entry<DecoratedKey, ColumnFamily>>()
         {
-            private Iterator<? extends Map.Entry<? extends RowPosition, AtomicBTreeColumns>> iter = stopAt.isMinimum(cfs.partitioner)
-                    ? rows.tailMap(startWith).entrySet().iterator()
-                    : rows.subMap(startWith, true, stopAt, true).entrySet().iterator();
+            private Iterator<? extends Map.Entry<? extends RowPosition, AtomicBTreeColumns>> iter =
+                    partitionIterator(startWith, stopAt.isMinimum(cfs.partitioner) ? null : stopAt);
 
             private Map.Entry<? extends RowPosition, ? extends ColumnFamily> currentEntry;
 
@@ -283,7 +392,7 @@ public class Memtable
             public void remove()
             {
                 iter.remove();
-                liveDataSize.addAndGet(-currentEntry.getValue().dataSize());
+                shards[shardIndex(currentEntry.getKey())].liveDataSize.addAndGet(-currentEntry.getValue().dataSize());
                 currentEntry = null;
             }
         };
@@ -291,7 +400,7 @@ public class Memtable
 
     public ColumnFamily getColumnFamily(DecoratedKey key)
     {
-        return rows.get(key);
+        return shards[shardIndex(key)].partitions.get(key);
     }
 
     public long creationTime()
@@ -299,26 +408,118 @@ public class Memtable
         return creationTime;
     }
 
+    /**
+     * A token range of the memtable, with its own partitions, allocator and accounting, so that writes to distinct
+     * shards don't contend with each other.
+     */
+    private static final class Shard
+    {
+        final MemtablePartitions partitions;
+        final MemtableAllocator allocator = MEMORY_POOL.newAllocator();
+        final AtomicLong liveDataSize = new AtomicLong(0);
+        final AtomicLong currentOperations = new AtomicLong(0);
+
+        Shard(MemtablePartitions partitions)
+        {
+            this.partitions = partitions;
+        }
+    }
+
+    /**
+     * A token range of a shard, written to its own sstable.
+     */
+    private static final class FlushSegment
+    {
+        final MemtablePartitions partitions;
+        // the first and last partitions of the segment
+        final DecoratedKey first;
+        final DecoratedKey last;
+        final int keyCount;
+        final long estimatedSize;
+
+        FlushSegment(MemtablePartitions partitions, DecoratedKey first, DecoratedKey last, int keyCount, long estimatedSize)
+        {
+            this.partitions = partitions;
+            this.first = first;
+            this.last = last;
+            this.keyCount = keyCount;
+            this.estimatedSize = estimatedSize;
+        }
+    }
+
     class FlushRunnable extends DiskAwareRunnable
     {
         private final ReplayPosition context;
         private final long estimatedSize;
+        private final List<FlushSegment> segments = new ArrayList<>();
 
         FlushRunnable(ReplayPosition context)
         {
             this.context = context;
 
+            int nonEmptyShards = 0;
+            for (Shard shard : shards)
+            {
+                if (!shard.partitions.isEmpty())
+                    nonEmptyShards++;
+            }
+            // each data directory gets a segment of a large flush, so they are all written to concurrently
+            int directories = splitsAcrossDirectories() ? Directories.dataDirectories.length : 1;
+            int splitsPerShard = nonEmptyShards == 0 ? 1 : Math.max(1, (directories + nonEmptyShards - 1) / nonEmptyShards);
+
+            long estimatedSize = 0;
+            for (Shard shard : shards)
+            {
+                if (!shard.partitions.isEmpty())
+                    addSegments(shard, splitsPerShard);
+            }
+            for (FlushSegment segment : segments)
+                estimatedSize += segment.estimatedSize;
+            this.estimatedSize = estimatedSize;
+        }
+
+        /**
+         * @return true if the flush is large enough to be split across the data directories; the flushes of the
+         * system and secondary index tables are never split, as they are small and often read
+         */
+        private boolean splitsAcrossDirectories()
+        {
+            return Directories.dataDirectories.length > 1
+                   && !cfs.isIndex()
+                   && !isSystemTable(cfs)
+                   && getLiveDataSize() >= MIN_SPLIT_FLUSH_SIZE;
+        }
+
+        // splits the shard in token ranges of about the same number of partitions
+        private void addSegments(Shard shard, int splits)
+        {
+            int shardKeyCount = shard.partitions.size();
+            int segmentKeyCount = Math.max(1, (shardKeyCount + splits - 1) / splits);
+
+            DecoratedKey first = null;
+            int keyCount = 0;
             long keySize = 0;
-            for (RowPosition key : rows.keySet())
+            Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter = shard.partitions.iterator();
+            while (iter.hasNext())
             {
-                //  make sure we don't write non-sensical keys
-                assert key instanceof DecoratedKey;
-                keySize += ((DecoratedKey)key).getKey().remaining();
+                DecoratedKey key = iter.next().getKey();
+                if (first == null)
+                    first = key;
+                keyCount++;
+                keySize += key.getKey().remaining();
+                if (keyCount == segmentKeyCount || !iter.hasNext())
+                {
+                    long dataSize = shard.liveDataSize.get() * keyCount / shardKeyCount;
+                    long estimatedSize = (long) ((keySize // index entries
+                                                 + keySize // keys in data file
+                                                 + dataSize) // data
+                                                 * 1.2); // bloom filter and row index overhead
+                    segments.add(new FlushSegment(shard.partitions, first, key, keyCount, estimatedSize));
+                    first = null;
+                    keyCount = 0;
+                    keySize = 0;
+                }
             }
-            estimatedSize = (long) ((keySize // index entries
-                                    + keySize // keys in data file
-                                    + liveDataSize.get()) // data
-                                    * 1.2); // bloom filter and row index overhead
         }
 
         public long getExpectedWriteSize()
@@ -328,12 +529,78 @@ public class Memtable
 
         protected void runMayThrow() throws Exception
         {
-            long writeSize = getExpectedWriteSize();
-            Directories.DataDirectory dataDirectory = getWriteDirectory(writeSize);
+            logger.info("Writing {}", Memtable.this.toString());
+
+            List<SSTableReader> sstables = new ArrayList<>(segments.size());
+            if (segments.size() <= 1)
+            {
+                SSTableReader sstable = segments.isEmpty() ? null : writeSegment(segments.get(0), null);
+                if (sstable != null)
+                    sstables.add(sstable);
+            }
+            else
+            {
+                // each segment is written to its own sstable, on distinct directories as long as they have room for
+                // them, and they all replace the memtable at once
+                long maxSegmentSize = 0;
+                for (FlushSegment segment : segments)
+                    maxSegmentSize = Math.max(maxSegmentSize, segment.estimatedSize);
+                List<Directories.DataDirectory> locations = cfs.directories.getWriteableLocations(maxSegmentSize);
+
+                List<Future<SSTableReader>> futures = new ArrayList<>(segments.size());
+                for (int i = 0; i < segments.size(); i++)
+                {
+                    final FlushSegment segment = segments.get(i);
+                    final Directories.DataDirectory location = locations.isEmpty() ? null : locations.get(i % locations.size());
+                    futures.add(segmentFlushExecutor.submit(new Callable<SSTableReader>()
+                    {
+                        public SSTableReader call() throws Exception
+                        {
+                            return writeSegment(segment, location);
+                        }
+                    }));
+                }
+
+                Throwable failure = null;
+                for (Future<SSTableReader> future : futures)
+                {
+                    try
+                    {
+                        SSTableReader sstable = future.get();
+                        if (sstable != null)
+                            sstables.add(sstable);
+                    }
+                    catch (ExecutionException e)
+                    {
+                        if (failure == null)
+                            failure = e.getCause();
+                    }
+                }
+
+                if (failure != null)
+                {
+                    // the data is still in the commit log, so delete the sstables of the other segments, which would
+                    // otherwise be loaded on restart along with a retried flush of the same data
+                    for (SSTableReader sstable : sstables)
+                    {
+                        sstable.markObsolete(null);
+                        sstable.selfRef().release();
+                    }
+                    throw Throwables.propagate(failure);
+                }
+            }
+            cfs.replaceFlushed(Memtable.this, sstables);
+        }
+
+        // writes the segment to the given data directory, or to one picked for its size if null
+        private SSTableReader writeSegment(FlushSegment segment, Directories.DataDirectory dataDirectory)
+        throws ExecutionException, InterruptedException
+        {
+            if (dataDirectory == null)
+                dataDirectory = getWriteDirectory(segment.estimatedSize);
             File sstableDirectory = cfs.directories.getLocationForDisk(dataDirectory);
             assert sstableDirectory != null : "Flush task is not bound to any disk";
-            SSTableReader sstable = writeSortedContents(context, sstableDirectory);
-            cfs.replaceFlushed(Memtable.this, sstable);
+            return writeSortedContents(segment, context, sstableDirectory);
         }
 
         protected Directories getDirectories()
@@ -341,22 +608,23 @@ public class Memtable
             return cfs.directories;
         }
 
-        private SSTableReader writeSortedContents(ReplayPosition context, File sstableDirectory)
+        private SSTableReader writeSortedContents(FlushSegment segment, ReplayPosition context, File sstableDirectory)
         throws ExecutionException, InterruptedException
         {
-            logger.info("Writing {}", Memtable.this.toString());
-
             SSTableReader ssTable;
             // errors when creating the writer that may leave empty temp files.
-            SSTableWriter writer = createFlushWriter(cfs.getTempSSTablePath(sstableDirectory));
+            SSTableWriter writer = createFlushWriter(cfs.getTempSSTablePath(sstableDirectory), segment.keyCount);
+            List<IndexSegment.Builder> segmentBuilders = cfs.indexManager.newIndexSegmentBuilders(sstableDirectory);
             try
             {
                 boolean trackContention = logger.isDebugEnabled();
                 int heavilyContendedRowCount = 0;
                 // (we can't clear out the map as-we-go to free up memory,
                 //  since the memtable is being used for queries in the "pending flush" category)
-                for (Map.Entry<RowPosition, AtomicBTreeColumns> entry : rows.entrySet())
+                Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter = segment.partitions.iterator(segment.first, segment.last);
+                while (iter.hasNext())
                 {
+                    Map.Entry<DecoratedKey, AtomicBTreeColumns> entry = iter.next();
                     AtomicBTreeColumns cf = entry.getValue();
 
                     if (cf.isMarkedForDelete() && cf.hasColumns())
@@ -374,7 +642,11 @@ public class Memtable
                         heavilyContendedRowCount++;
 
                     if (!cf.isEmpty())
-                        writer.append((DecoratedKey)entry.getKey(), cf);
+                    {
+                        writer.append(entry.getKey(), cf);
+                        for (IndexSegment.Builder builder : segmentBuilders)
+                            builder.add(entry.getKey(), cf);
+                    }
                 }
 
                 if (writer.getFilePointer() > 0)
@@ -397,45 +669,37 @@ public class Memtable
                 }
 
                 if (heavilyContendedRowCount > 0)
-                    logger.debug(String.format("High update contention in %d/%d partitions of %s ", heavilyContendedRowCount, rows.size(), Memtable.this.toString()));
-
-                return ssTable;
+                    logger.debug(String.format("High update contention in %d/%d partitions of %s ", heavilyContendedRowCount, segment.keyCount, Memtable.this.toString()));
             }
             catch (Throwable e)
             {
                 writer.abort();
+                for (IndexSegment.Builder builder : segmentBuilders)
+                    builder.release();
                 throw Throwables.propagate(e);
             }
+
+            // the index segments have to be attached before the sstable replaces the memtable for reads. They are
+            // written once the writer is closed: failing to write one only leaves the sstable unindexed.
+            for (IndexSegment.Builder builder : segmentBuilders)
+            {
+                if (ssTable == null)
+                    builder.release();
+                else
+                    builder.complete(ssTable);
+            }
+            return ssTable;
         }
 
-        public SSTableWriter createFlushWriter(String filename) throws ExecutionException, InterruptedException
+        public SSTableWriter createFlushWriter(String filename, long keyCount) throws ExecutionException, InterruptedException
         {
             MetadataCollector sstableMetadataCollector = new MetadataCollector(cfs.metadata.comparator).replayPosition(context);
             return new SSTableWriter(filename,
-                                     rows.size(),
+                                     keyCount,
                                      ActiveRepairService.UNREPAIRED_SSTABLE,
                                      cfs.metadata,
                                      cfs.partitioner,
                                      sstableMetadataCollector);
         }
     }
-
-    private static int estimateRowOverhead(final int count)
-    {
-        // calculate row overhead
-        final OpOrder.Group group = new OpOrder().start();
-        int rowOverhead;
-        MemtableAllocator allocator = MEMORY_POOL.newAllocator();
-        ConcurrentNavigableMap<RowPosition, Object> rows = new ConcurrentSkipListMap<>();
-        final Object val = new Object();
-        for (int i = 0 ; i < count ; i++)
-            rows.put(allocator.clone(new BufferDecoratedKey(new LongToken((long) i), ByteBufferUtil.EMPTY_BYTE_BUFFER), group), val);
-        double avgSize = ObjectSizes.measureDeep(rows) / (double) count;
-        rowOverhead = (int) ((avgSize - Math.floor(avgSize)) < 0.05 ? Math.floor(avgSize) : Math.ceil(avgSize));
-        rowOverhead -= ObjectSizes.measureDeep(new LongToken((long) 0));
-        rowOverhead += AtomicBTreeColumns.EMPTY_SIZE;
-        allocator.setDiscarding();
-        allocator.setDiscarded();
-        return rowOverhead;
-    }
 }
@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.collect.AbstractIterator;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.LongToken;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.btree.BTree;
+import org.apache.cassandra.utils.concurrent.OpOrder;
+import org.apache.cassandra.utils.memory.MemtableAllocator;
+
+/**
+ * The partitions of a memtable, in partition key order.
+ *
+ * They are indexed by RowPosition only for the purpose of being able to select key ranges using Token.KeyBound,
+ * but only DecoratedKey are ever stored.
+ */
+abstract class MemtablePartitions
+{
+    static MemtablePartitions create(IPartitioner partitioner)
+    {
+        if (DatabaseDescriptor.getMemtablePartitionIndex() == Config.MemtablePartitionIndex.sharded_btree
+            && partitioner instanceof Murmur3Partitioner)
+            return new ShardedBTree();
+        return new SkipList();
+    }
+
+    /**
+     * @return a new partition for {@code key}, to add with putIfAbsent, having the deletion info of {@code cf}.
+     */
+    abstract AtomicBTreeColumns newPartition(DecoratedKey key, ColumnFamily cf);
+
+    abstract AtomicBTreeColumns get(RowPosition key);
+
+    /**
+     * @return the partition of {@code key}, or null if there was none and {@code partition} has been added.
+     */
+    abstract AtomicBTreeColumns putIfAbsent(DecoratedKey key, AtomicBTreeColumns partition);
+
+    /**
+     * @return the partitions from {@code start} to {@code stop} inclusive, null bounds selecting the first or
+     * last partitions.
+     */
+    abstract Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iterator(RowPosition start, RowPosition stop);
+
+    Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iterator()
+    {
+        return iterator(null, null);
+    }
+
+    abstract int size();
+
+    abstract boolean isEmpty();
+
+    /**
+     * @return the heap used for each partition on top of its key and data, which is accounted for by the memtable.
+     */
+    abstract int rowOverheadHeapSize();
+
+    // measures the heap used per key of structure, which holds count keys with an empty byte buffer and a LongToken
+    private static int keyOverhead(Object structure, int count)
+    {
+        double avgSize = ObjectSizes.measureDeep(structure) / (double) count;
+        int overhead = (int) ((avgSize - Math.floor(avgSize)) < 0.05 ? Math.floor(avgSize) : Math.ceil(avgSize));
+        return overhead - (int) ObjectSizes.measureDeep(new LongToken(0));
+    }
+
+    private static int overheadComputationStep()
+    {
+        return Integer.valueOf(System.getProperty("cassandra.memtable_row_overhead_computation_step", "100000"));
+    }
+
+    private static List<DecoratedKey> keysForOverheadComputation(MemtableAllocator allocator, int count)
+    {
+        final OpOrder.Group group = new OpOrder().start();
+        List<DecoratedKey> keys = new ArrayList<>(count);
+        for (int i = 0 ; i < count ; i++)
+            keys.add(allocator.clone(new BufferDecoratedKey(new LongToken((long) i), ByteBufferUtil.EMPTY_BYTE_BUFFER), group));
+        return keys;
+    }
+
+    /**
+     * The partitions in a ConcurrentSkipListMap: each of them takes a skip list node, some index nodes and the
+     * AtomicBTreeColumns.
+     */
+    static final class SkipList extends MemtablePartitions
+    {
+        private static final int ROW_OVERHEAD_HEAP_SIZE = estimateRowOverhead(overheadComputationStep());
+
+        private final ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> rows = new ConcurrentSkipListMap<>();
+
+        AtomicBTreeColumns newPartition(DecoratedKey key, ColumnFamily cf)
+        {
+            return cf.cloneMeShallow(AtomicBTreeColumns.factory, false);
+        }
+
+        AtomicBTreeColumns get(RowPosition key)
+        {
+            return rows.get(key);
+        }
+
+        AtomicBTreeColumns putIfAbsent(DecoratedKey key, AtomicBTreeColumns partition)
+        {
+            return rows.putIfAbsent(key, partition);
+        }
+
+        @SuppressWarnings("unchecked")
+        Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iterator(RowPosition start, RowPosition stop)
+        {
+            ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> selected = rows;
+            if (start != null)
+                selected = stop == null ? selected.tailMap(start) : selected.subMap(start, true, stop, true);
+            else if (stop != null)
+                selected = selected.headMap(stop, true);
+            // the keys are DecoratedKey, see Memtable.put()
+            return (Iterator) selected.entrySet().iterator();
+        }
+
+        int size()
+        {
+            return rows.size();
+        }
+
+        boolean isEmpty()
+        {
+            return rows.isEmpty();
+        }
+
+        int rowOverheadHeapSize()
+        {
+            return ROW_OVERHEAD_HEAP_SIZE;
+        }
+
+        private static int estimateRowOverhead(final int count)
+        {
+            MemtableAllocator allocator = Memtable.MEMORY_POOL.newAllocator();
+            ConcurrentNavigableMap<RowPosition, Object> rows = new ConcurrentSkipListMap<>();
+            final Object val = new Object();
+            for (DecoratedKey key : keysForOverheadComputation(allocator, count))
+                rows.put(key, val);
+            int rowOverhead = keyOverhead(rows, count);
+            rowOverhead += AtomicBTreeColumns.EMPTY_SIZE;
+            allocator.setDiscarding();
+            allocator.setDiscarded();
+            return rowOverhead;
+        }
+    }
+
+    /**
+     * The partitions of a Murmur3Partitioner table in immutable B-trees, one per shard of the token range. The
+     * partitions themselves are the B-tree items, so each of them only takes a slot of a B-tree node, and a key
+     * reference in its AtomicBTreeColumns.
+     *
+     * A B-tree is updated by copying the path to the updated leaf, and swapping its root in, so only the creation
+     * of partitions of a same shard compete, while updating an existing partition doesn't touch its B-tree. As the
+     * shards are contiguous token ranges, iterating over them in order yields the partitions in order.
+     */
+    static final class ShardedBTree extends MemtablePartitions
+    {
+        private static final int SHARD_BITS = 8;
+
+        private static final Comparator<Object> comparator = new Comparator<Object>()
+        {
+            public int compare(Object o1, Object o2)
+            {
+                return position(o1).compareTo(position(o2));
+            }
+        };
+
+        private static final int ROW_OVERHEAD_HEAP_SIZE = estimateRowOverhead(overheadComputationStep());
+
+        private final AtomicReferenceArray<Object[]> shards = new AtomicReferenceArray<>(1 << SHARD_BITS);
+        private final AtomicInteger size = new AtomicInteger();
+
+        ShardedBTree()
+        {
+            for (int i = 0; i < shards.length(); i++)
+                shards.set(i, BTree.empty());
+        }
+
+        // the items are the partitions, and the bounds of searches RowPosition
+        private static RowPosition position(Object o)
+        {
+            return o instanceof KeyedPartition ? ((KeyedPartition) o).key : (RowPosition) o;
+        }
+
+        private static int shard(RowPosition position)
+        {
+            // flipping the sign bit orders the tokens as unsigned values, so the shards are in token order
+            return (int) ((((LongToken) position.getToken()).token ^ Long.MIN_VALUE) >>> (64 - SHARD_BITS));
+        }
+
+        AtomicBTreeColumns newPartition(DecoratedKey key, ColumnFamily cf)
+        {
+            KeyedPartition partition = new KeyedPartition(key, cf.metadata);
+            partition.delete(cf);
+            return partition;
+        }
+
+        AtomicBTreeColumns get(RowPosition key)
+        {
+            return (AtomicBTreeColumns) BTree.find(shards.get(shard(key)), comparator, (Object) key);
+        }
+
+        AtomicBTreeColumns putIfAbsent(DecoratedKey key, AtomicBTreeColumns partition)
+        {
+            assert ((KeyedPartition) partition).key == key;
+            int shard = shard(key);
+            Collection<Object> update = Collections.<Object>singletonList(partition);
+            while (true)
+            {
+                Object[] current = shards.get(shard);
+                Object previous = BTree.find(current, comparator, (Object) key);
+                if (previous != null)
+                    return (AtomicBTreeColumns) previous;
+
+                if (shards.compareAndSet(shard, current, BTree.update(current, comparator, update, true)))
+                {
+                    size.incrementAndGet();
+                    return null;
+                }
+            }
+        }
+
+        Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iterator(final RowPosition start, final RowPosition stop)
+        {
+            final int first = start == null ? 0 : shard(start);
+            final int last = stop == null ? shards.length() - 1 : shard(stop);
+            return new AbstractIterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>>()
+            {
+                private int shard = first;
+                private Iterator<Object> partitions = slice(first);
+
+                protected Map.Entry<DecoratedKey, AtomicBTreeColumns> computeNext()
+                {
+                    while (!partitions.hasNext())
+                    {
+                        if (shard >= last)
+                            return endOfData();
+                        partitions = slice(++shard);
+                    }
+                    KeyedPartition partition = (KeyedPartition) partitions.next();
+                    return new AbstractMap.SimpleImmutableEntry<DecoratedKey, AtomicBTreeColumns>(partition.key, partition);
+                }
+
+                private Iterator<Object> slice(int shard)
+                {
+                    return BTree.<Object, Object>slice(shards.get(shard),
+                                                       comparator,
+                                                       shard == first ? start : null,
+                                                       true,
+                                                       shard == last ? stop : null,
+                                                       true,
+                                                       true);
+                }
+            };
+        }
+
+        int size()
+        {
+            return size.get();
+        }
+
+        boolean isEmpty()
+        {
+            return size.get() == 0;
+        }
+
+        int rowOverheadHeapSize()
+        {
+            return ROW_OVERHEAD_HEAP_SIZE;
+        }
+
+        private static int estimateRowOverhead(final int count)
+        {
+            MemtableAllocator allocator = Memtable.MEMORY_POOL.newAllocator();
+            Object[] btree = BTree.update(BTree.empty(), comparator, new ArrayList<Object>(keysForOverheadComputation(allocator, count)), true);
+            int rowOverhead = keyOverhead(btree, count);
+            rowOverhead += AtomicBTreeColumns.EMPTY_SIZE;
+            rowOverhead += ObjectSizes.measure(new KeyedPartition(null, CFMetaData.IndexCf)) - ObjectSizes.measure(AtomicBTreeColumns.factory.create(CFMetaData.IndexCf, false));
+            allocator.setDiscarding();
+            allocator.setDiscarded();
+            return rowOverhead;
+        }
+    }
+
+    private static final class KeyedPartition extends AtomicBTreeColumns
+    {
+        final DecoratedKey key;
+
+        KeyedPartition(DecoratedKey key, CFMetaData metadata)
+        {
+            super(metadata);
+            this.key = key;
+        }
+    }
+}
@@ -31,6 +31,7 @@ import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.CloseableIterator;
 
 public class PagedRangeCommand extends AbstractRangeCommand
 {
@@ -115,6 +116,17 @@ public class PagedRangeCommand extends AbstractRangeCommand
             return cfs.getRangeSlice(exFilter);
     }
 
+    public CloseableIterator<Row> executeLocallyAsIterator()
+    {
+        ColumnFamilyStore cfs = Keyspace.open(keyspace).getColumnFamilyStore(columnFamily);
+
+        ExtendedFilter exFilter = cfs.makeExtendedFilter(keyRange, (SliceQueryFilter)predicate, start, stop, rowFilter, limit, countCQL3Rows(), timestamp);
+        if (cfs.indexManager.hasIndexFor(rowFilter))
+            return cfs.searchIterator(exFilter);
+        else
+            return cfs.getRangeSliceIterator(exFilter);
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.AbstractIterator;
+
+import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
+import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.dht.Bounds;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.io.util.RandomAccessReader;
+
+/**
+ * State shared by the reads of a batch of partitions of the same table, done in partition key order
+ * (see {@link ColumnFamilyStore#getColumnFamilies}).
+ *
+ * The sstables that may contain a partition of the batch are selected once for the whole batch, and each sstable
+ * data file is read through a single reader. As the partitions are read in the order of the data files, the readers
+ * only move forward, and partitions close to each other are read from the buffer already filled for the previous one.
+ *
+ * The caller must hold the read op order of the table for as long as the batch is used.
+ */
+public class PartitionReadBatch implements AutoCloseable
+{
+    private final ColumnFamilyStore.ViewFragment view;
+    private final Map<SSTableReader, RandomAccessReader> readers = new HashMap<>();
+
+    PartitionReadBatch(ColumnFamilyStore cfs, DecoratedKey first, DecoratedKey last)
+    {
+        assert first.compareTo(last) <= 0 : "partitions of a batch must be sorted";
+        this.view = cfs.select(cfs.viewFilter(new Bounds<RowPosition>(first, last)));
+    }
+
+    /**
+     * @return the memtables and sstables that may need to be merged for {@code key}, which must be within the
+     * bounds of the batch.
+     */
+    public ColumnFamilyStore.ViewFragment select(DecoratedKey key)
+    {
+        List<SSTableReader> sstables = new ArrayList<>(view.sstables.size());
+        for (SSTableReader sstable : view.sstables)
+        {
+            if (sstable.first.compareTo(key) <= 0 && sstable.last.compareTo(key) >= 0)
+                sstables.add(sstable);
+        }
+        return new ColumnFamilyStore.ViewFragment(sstables, view.memtables);
+    }
+
+    /**
+     * Same as {@link QueryFilter#getSSTableColumnIterator(SSTableReader)}, but reads the data file through the
+     * reader this batch keeps for {@code sstable}. The returned iterator must be exhausted or closed before
+     * another one is requested for the same sstable.
+     */
+    public OnDiskAtomIterator getSSTableColumnIterator(QueryFilter filter, SSTableReader sstable)
+    {
+        RowIndexEntry indexEntry = sstable.getPosition(filter.key, SSTableReader.Operator.EQ);
+        if (indexEntry == null)
+            return new EmptyAtomIterator(filter.key);
+
+        RandomAccessReader reader = readers.get(sstable);
+        if (reader == null)
+        {
+            reader = sstable.openDataReader();
+            readers.put(sstable, reader);
+        }
+        return filter.filter.getSSTableColumnIterator(sstable, reader, filter.key, indexEntry);
+    }
+
+    public void close()
+    {
+        for (RandomAccessReader reader : readers.values())
+            FileUtils.closeQuietly(reader);
+        readers.clear();
+    }
+
+    /**
+     * The iterator of an sstable not containing the partition, as returned by the sstable iterators in that case.
+     */
+    private static class EmptyAtomIterator extends AbstractIterator<OnDiskAtom> implements OnDiskAtomIterator
+    {
+        private final DecoratedKey key;
+
+        private EmptyAtomIterator(DecoratedKey key)
+        {
+            this.key = key;
+        }
+
+        public ColumnFamily getColumnFamily()
+        {
+            return null;
+        }
+
+        public DecoratedKey getKey()
+        {
+            return key;
+        }
+
+        protected OnDiskAtom computeNext()
+        {
+            return endOfData();
+        }
+
+        public void close()
+        {
+        }
+    }
+}
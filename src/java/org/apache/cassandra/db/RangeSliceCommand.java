@@ -34,6 +34,7 @@ import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.pager.Pageable;
+import org.apache.cassandra.utils.CloseableIterator;
 
 public class RangeSliceCommand extends AbstractRangeCommand implements Pageable
 {
@@ -132,6 +133,17 @@ public class RangeSliceCommand extends AbstractRangeCommand implements Pageable
             return cfs.getRangeSlice(exFilter);
     }
 
+    public CloseableIterator<Row> executeLocallyAsIterator()
+    {
+        ColumnFamilyStore cfs = Keyspace.open(keyspace).getColumnFamilyStore(columnFamily);
+
+        ExtendedFilter exFilter = cfs.makeExtendedFilter(keyRange, predicate, rowFilter, maxResults, countCQL3Rows, isPaging, timestamp);
+        if (cfs.indexManager.hasIndexFor(rowFilter))
+            return cfs.searchIterator(exFilter);
+        else
+            return cfs.getRangeSliceIterator(exFilter);
+    }
+
     @Override
     public String toString()
     {
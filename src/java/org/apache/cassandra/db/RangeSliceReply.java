@@ -20,26 +20,76 @@ package org.apache.cassandra.db;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 
 import org.apache.cassandra.io.IVersionedSerializer;
+import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.io.util.FastByteArrayInputStream;
 import org.apache.cassandra.net.MessageOut;
 import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.CloseableIterator;
 
 public class RangeSliceReply
 {
     public static final RangeSliceReplySerializer serializer = new RangeSliceReplySerializer();
 
+    // null if the reply has been created from already serialized rows
     public final List<Row> rows;
 
+    // the rows serialized for messaging version serializedVersion, if they haven't been deserialized
+    private final int rowCount;
+    private final ByteBuffer serializedRows;
+    private final int serializedVersion;
+
     public RangeSliceReply(List<Row> rows)
+    {
+        this(rows, rows.size(), null, -1);
+    }
+
+    private RangeSliceReply(List<Row> rows, int rowCount, ByteBuffer serializedRows, int serializedVersion)
     {
         this.rows = rows;
+        this.rowCount = rowCount;
+        this.serializedRows = serializedRows;
+        this.serializedVersion = serializedVersion;
+    }
+
+    /**
+     * Creates a reply to be sent with messaging {@code version}, serializing the rows as they are read so only
+     * their serialized form is kept in memory until the reply is sent. {@code rows} is closed.
+     */
+    public static RangeSliceReply serialize(CloseableIterator<Row> rows, int version) throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        int rowCount = 0;
+        try
+        {
+            while (rows.hasNext())
+            {
+                Row.serializer.serialize(rows.next(), out, version);
+                rowCount++;
+            }
+        }
+        finally
+        {
+            rows.close();
+        }
+        return new RangeSliceReply(null, rowCount, out.asByteBuffer(), version);
+    }
+
+    private List<Row> deserializeRows() throws IOException
+    {
+        DataInput in = new DataInputStream(ByteBufferUtil.inputStream(serializedRows.duplicate()));
+        List<Row> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++)
+            rows.add(Row.serializer.deserialize(in, serializedVersion));
+        return rows;
     }
 
     public MessageOut<RangeSliceReply> createMessage()
@@ -51,7 +101,7 @@ public class RangeSliceReply
     public String toString()
     {
         return "RangeSliceReply{" +
-               "rows=" + StringUtils.join(rows, ",") +
+               (rows == null ? rowCount + " serialized rows" : "rows=" + StringUtils.join(rows, ",")) +
                '}';
     }
 
@@ -64,8 +114,14 @@ public class RangeSliceReply
     {
         public void serialize(RangeSliceReply rsr, DataOutputPlus out, int version) throws IOException
         {
-            out.writeInt(rsr.rows.size());
-            for (Row row : rsr.rows)
+            out.writeInt(rsr.rowCount);
+            if (rsr.serializedVersion == version)
+            {
+                out.write(rsr.serializedRows.duplicate());
+                return;
+            }
+
+            for (Row row : rsr.rows == null ? rsr.deserializeRows() : rsr.rows)
                 Row.serializer.serialize(row, out, version);
         }
 
@@ -80,9 +136,19 @@ public class RangeSliceReply
 
         public long serializedSize(RangeSliceReply rsr, int version)
         {
-            int size = TypeSizes.NATIVE.sizeof(rsr.rows.size());
-            for (Row row : rsr.rows)
-                size += Row.serializer.serializedSize(row, version);
+            int size = TypeSizes.NATIVE.sizeof(rsr.rowCount);
+            if (rsr.serializedVersion == version)
+                return size + rsr.serializedRows.remaining();
+
+            try
+            {
+                for (Row row : rsr.rows == null ? rsr.deserializeRows() : rsr.rows)
+                    size += Row.serializer.serializedSize(row, version);
+            }
+            catch (IOException e)
+            {
+                throw new AssertionError(e); // the rows have been serialized by ourselves
+            }
             return size;
         }
     }
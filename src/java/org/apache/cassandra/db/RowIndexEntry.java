@@ -31,6 +31,7 @@ import org.apache.cassandra.db.composites.CType;
 import org.apache.cassandra.io.ISerializer;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.IndexHelper;
+import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.utils.ObjectSizes;
@@ -106,10 +107,22 @@ public class RowIndexEntry implements IMeasurableMemory
             if (rie.isIndexed())
             {
                 DeletionTime.serializer.serialize(rie.deletionTime(), out);
-                out.writeInt(rie.columnsIndex().size());
-                ISerializer<IndexHelper.IndexInfo> idxSerializer = type.indexSerializer();
-                for (IndexHelper.IndexInfo info : rie.columnsIndex())
-                    idxSerializer.serialize(info, out);
+                List<IndexHelper.IndexInfo> index = rie.columnsIndex();
+                out.writeInt(index.size());
+                // the entries are always written in the native encoding, even when out is not, so that they can be
+                // read back as a single block of promotedSize bytes and searched as they are
+                if (index instanceof IndexHelper.SerializedIndex)
+                {
+                    ((IndexHelper.SerializedIndex) index).serialize(out);
+                }
+                else
+                {
+                    DataOutputBuffer buffer = new DataOutputBuffer();
+                    ISerializer<IndexHelper.IndexInfo> idxSerializer = type.indexSerializer();
+                    for (IndexHelper.IndexInfo info : index)
+                        idxSerializer.serialize(info, buffer);
+                    out.write(buffer.getData(), 0, buffer.getLength());
+                }
             }
         }
 
@@ -123,12 +136,14 @@ public class RowIndexEntry implements IMeasurableMemory
                 DeletionTime deletionTime = DeletionTime.serializer.deserialize(in);
 
                 int entries = in.readInt();
-                ISerializer<IndexHelper.IndexInfo> idxSerializer = type.indexSerializer();
-                List<IndexHelper.IndexInfo> columnsIndex = new ArrayList<IndexHelper.IndexInfo>(entries);
-                for (int i = 0; i < entries; i++)
-                    columnsIndex.add(idxSerializer.deserialize(in));
-
-                return new IndexedEntry(position, deletionTime, columnsIndex);
+                // the promoted size is always that of the native encoding, which the entries are written in
+                int entriesSize = Ints.checkedCast(size
+                                                   - DeletionTime.serializer.serializedSize(deletionTime, TypeSizes.NATIVE)
+                                                   - TypeSizes.NATIVE.sizeof(entries));
+                byte[] columnsIndex = new byte[entriesSize];
+                in.readFully(columnsIndex);
+
+                return new IndexedEntry(position, deletionTime, IndexHelper.SerializedIndex.create(columnsIndex, entries, type));
             }
             else
             {
@@ -172,15 +187,16 @@ public class RowIndexEntry implements IMeasurableMemory
     }
 
     /**
-     * An entry in the row index for a row whose columns are indexed.
+     * An entry in the row index for a row whose columns are indexed. The column index is a list of IndexInfo when
+     * the entry is built by a writer, and a SerializedIndex when it is read back from the index file or a cache.
      */
     private static class IndexedEntry extends RowIndexEntry
     {
         private final DeletionTime deletionTime;
         private final List<IndexHelper.IndexInfo> columnsIndex;
-        private static final long BASE_SIZE =
-                ObjectSizes.measure(new IndexedEntry(0, DeletionTime.LIVE, Arrays.<IndexHelper.IndexInfo>asList(null, null)))
-              + ObjectSizes.measure(new ArrayList<>(1));
+        private static final long EMPTY_SIZE =
+                ObjectSizes.measure(new IndexedEntry(0, DeletionTime.LIVE, Arrays.<IndexHelper.IndexInfo>asList(null, null)));
+        private static final long EMPTY_LIST_SIZE = ObjectSizes.measure(new ArrayList<>(1));
 
         private IndexedEntry(long position, DeletionTime deletionTime, List<IndexHelper.IndexInfo> columnsIndex)
         {
@@ -209,9 +225,16 @@ public class RowIndexEntry implements IMeasurableMemory
             TypeSizes typeSizes = TypeSizes.NATIVE;
             long size = DeletionTime.serializer.serializedSize(deletionTime, typeSizes);
             size += typeSizes.sizeof(columnsIndex.size()); // number of entries
-            ISerializer<IndexHelper.IndexInfo> idxSerializer = type.indexSerializer();
-            for (IndexHelper.IndexInfo info : columnsIndex)
-                size += idxSerializer.serializedSize(info, typeSizes);
+            if (columnsIndex instanceof IndexHelper.SerializedIndex)
+            {
+                size += ((IndexHelper.SerializedIndex) columnsIndex).serializedSize();
+            }
+            else
+            {
+                ISerializer<IndexHelper.IndexInfo> idxSerializer = type.indexSerializer();
+                for (IndexHelper.IndexInfo info : columnsIndex)
+                    size += idxSerializer.serializedSize(info, typeSizes);
+            }
 
             return Ints.checkedCast(size);
         }
@@ -219,11 +242,17 @@ public class RowIndexEntry implements IMeasurableMemory
         @Override
         public long unsharedHeapSize()
         {
+            if (columnsIndex instanceof IndexHelper.SerializedIndex)
+                return EMPTY_SIZE
+                       + ((IndexHelper.SerializedIndex) columnsIndex).unsharedHeapSize()
+                       + deletionTime.unsharedHeapSize();
+
             long entrySize = 0;
             for (IndexHelper.IndexInfo idx : columnsIndex)
                 entrySize += idx.unsharedHeapSize();
 
-            return BASE_SIZE
+            return EMPTY_SIZE
+                   + EMPTY_LIST_SIZE
                    + entrySize
                    + deletionTime.unsharedHeapSize()
                    + ObjectSizes.sizeOfReferenceArray(columnsIndex.size());
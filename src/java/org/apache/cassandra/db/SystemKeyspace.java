@@ -71,6 +71,7 @@ public class SystemKeyspace
     public static final String PEER_EVENTS_CF = "peer_events";
     public static final String LOCAL_CF = "local";
     public static final String INDEX_CF = "IndexInfo";
+    public static final String INDEX_BUILD_PROGRESS_CF = "index_build_progress";
     public static final String HINTS_CF = "hints";
     public static final String RANGE_XFERS_CF = "range_xfers";
     public static final String BATCHLOG_CF = "batchlog";
@@ -747,6 +748,43 @@ public class SystemKeyspace
         mutation.apply();
     }
 
+    /**
+     * @return the token ranges of the build of {@code indexName} in progress, along with whether each has been built.
+     */
+    public static Map<Range<Token>, Boolean> getIndexBuildProgress(String keyspaceName, String indexName)
+    {
+        String req = "SELECT range_start, range_end, completed FROM system.%s WHERE keyspace_name = ? AND index_name = ?";
+        UntypedResultSet result = executeInternal(String.format(req, INDEX_BUILD_PROGRESS_CF), keyspaceName, indexName);
+
+        Token.TokenFactory factory = StorageService.getPartitioner().getTokenFactory();
+        Map<Range<Token>, Boolean> progress = new HashMap<>();
+        for (UntypedResultSet.Row row : result)
+        {
+            Range<Token> range = new Range<>(factory.fromByteArray(row.getBytes("range_start")),
+                                             factory.fromByteArray(row.getBytes("range_end")));
+            progress.put(range, row.has("completed") && row.getBoolean("completed"));
+        }
+        return progress;
+    }
+
+    public static void setIndexBuildRange(String keyspaceName, String indexName, Range<Token> range, boolean completed)
+    {
+        String req = "INSERT INTO system.%s (keyspace_name, index_name, range_start, range_end, completed) VALUES (?, ?, ?, ?, ?)";
+        Token.TokenFactory factory = StorageService.getPartitioner().getTokenFactory();
+        executeInternal(String.format(req, INDEX_BUILD_PROGRESS_CF),
+                        keyspaceName,
+                        indexName,
+                        factory.toByteArray(range.left),
+                        factory.toByteArray(range.right),
+                        completed);
+    }
+
+    public static void clearIndexBuildProgress(String keyspaceName, String indexName)
+    {
+        String req = "DELETE FROM system.%s WHERE keyspace_name = ? AND index_name = ?";
+        executeInternal(String.format(req, INDEX_BUILD_PROGRESS_CF), keyspaceName, indexName);
+    }
+
     /**
      * Read the host ID from the system keyspace, creating (and storing) one if
      * none exists.
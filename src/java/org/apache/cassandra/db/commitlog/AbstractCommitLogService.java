@@ -30,6 +30,8 @@ public abstract class AbstractCommitLogService
 {
     // how often should we log syngs that lag behind our desired period
     private static final long LAG_REPORT_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+    // how long to wait after an error when syncing on demand, which has no poll interval to wait for
+    private static final long ON_DEMAND_ERROR_INTERVAL = TimeUnit.SECONDS.toMillis(1);
 
     private final Thread thread;
     private volatile boolean shutdown = false;
@@ -55,9 +57,21 @@ public abstract class AbstractCommitLogService
      */
     AbstractCommitLogService(final CommitLog commitLog, final String name, final long pollIntervalMillis)
     {
-        if (pollIntervalMillis < 1)
-            throw new IllegalArgumentException(String.format("Commit log flush interval must be positive: %dms", pollIntervalMillis));
+        this(commitLog, name, checkPollInterval(pollIntervalMillis), false);
+    }
+
+    /**
+     * Creates a CommitLogService that syncs on demand rather than on a poll interval: it waits for work to be
+     * signalled through haveWork, and then syncs again as soon as the previous sync completes for as long as there is
+     * more, so every sync covers everything written since the previous one started.
+     */
+    AbstractCommitLogService(final CommitLog commitLog, final String name)
+    {
+        this(commitLog, name, 0, true);
+    }
 
+    private AbstractCommitLogService(final CommitLog commitLog, final String name, final long pollIntervalMillis, final boolean onDemand)
+    {
         Runnable runnable = new Runnable()
         {
             public void run()
@@ -78,10 +92,30 @@ public abstract class AbstractCommitLogService
 
                         // sync and signal
                         long syncStarted = System.currentTimeMillis();
+                        long syncStartedNanos = System.nanoTime();
+                        commitLog.metrics.syncBatchSize.update(pending.get());
                         commitLog.sync(shutdown);
                         lastSyncedAt = syncStarted;
+                        commitLog.metrics.syncDuration.update(System.nanoTime() - syncStartedNanos, TimeUnit.NANOSECONDS);
                         syncComplete.signalAll();
 
+                        if (onDemand)
+                        {
+                            // wait for a writer, which may have already signalled during this sync
+                            if (run)
+                            {
+                                try
+                                {
+                                    haveWork.acquire();
+                                    haveWork.drainPermits();
+                                }
+                                catch (InterruptedException e)
+                                {
+                                    throw new AssertionError();
+                                }
+                            }
+                            continue;
+                        }
 
                         // sleep any time we have left before the next one is due
                         long now = System.currentTimeMillis();
@@ -129,7 +163,7 @@ public abstract class AbstractCommitLogService
                         // sleep for full poll-interval after an error, so we don't spam the log file
                         try
                         {
-                            haveWork.tryAcquire(pollIntervalMillis, TimeUnit.MILLISECONDS);
+                            haveWork.tryAcquire(onDemand ? ON_DEMAND_ERROR_INTERVAL : pollIntervalMillis, TimeUnit.MILLISECONDS);
                         }
                         catch (InterruptedException e)
                         {
@@ -144,6 +178,13 @@ public abstract class AbstractCommitLogService
         thread.start();
     }
 
+    private static long checkPollInterval(long pollIntervalMillis)
+    {
+        if (pollIntervalMillis < 1)
+            throw new IllegalArgumentException(String.format("Commit log flush interval must be positive: %dms", pollIntervalMillis));
+        return pollIntervalMillis;
+    }
+
     /**
      * Block for @param alloc to be sync'd as necessary, and handle bookkeeping
      */
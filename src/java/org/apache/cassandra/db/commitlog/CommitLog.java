@@ -26,12 +26,12 @@ import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.commons.lang3.StringUtils;
 
-import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.io.FSWriteError;
@@ -69,9 +69,26 @@ public class CommitLog implements CommitLogMBean
 
         allocator = new CommitLogSegmentManager();
 
-        executor = DatabaseDescriptor.getCommitLogSync() == Config.CommitLogSync.batch
-                 ? new BatchCommitLogService(this)
-                 : new PeriodicCommitLogService(this);
+        // the service records its syncs from the start
+        metrics = new CommitLogMetrics(new Supplier<AbstractCommitLogService>()
+        {
+            public AbstractCommitLogService get()
+            {
+                return executor;
+            }
+        }, allocator);
+
+        switch (DatabaseDescriptor.getCommitLogSync())
+        {
+            case batch:
+                executor = new BatchCommitLogService(this);
+                break;
+            case group:
+                executor = new GroupCommitLogService(this);
+                break;
+            default:
+                executor = new PeriodicCommitLogService(this);
+        }
 
         MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
         try
@@ -82,9 +99,6 @@ public class CommitLog implements CommitLogMBean
         {
             throw new RuntimeException(e);
         }
-
-        // register metrics
-        metrics = new CommitLogMetrics(executor, allocator);
     }
 
     /**
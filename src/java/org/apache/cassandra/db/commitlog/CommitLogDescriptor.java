@@ -20,15 +20,22 @@
  */
 package org.apache.cassandra.db.commitlog;
 
+import java.io.DataInput;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.google.common.base.Charsets;
+
+import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.FSReadError;
+import org.apache.cassandra.io.compress.CompressionParameters;
+import org.apache.cassandra.io.compress.ICompressor;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.PureJavaCrc32;
@@ -44,38 +51,98 @@ public class CommitLogDescriptor
     public static final int VERSION_12 = 2;
     public static final int VERSION_20 = 3;
     public static final int VERSION_21 = 4;
+    public static final int VERSION_22 = 5;
     /**
      * Increment this number if there is a changes in the commit log disc layout or MessagingVersion changes.
      * Note: make sure to handle {@link #getMessagingVersion()}
      */
-    public static final int current_version = VERSION_21;
+    public static final int current_version = VERSION_22;
 
-    // [version, id, checksum]
+    // [version, id, checksum] up to VERSION_21
     static final int HEADER_SIZE = 4 + 8 + 4;
 
+    private static final byte[] NO_COMPRESSION = new byte[0];
+
     final int version;
     public final long id;
+    // the compressor class of the segment, as configured by commitlog_compression, or null if it is not compressed
+    public final String compression;
 
-    public CommitLogDescriptor(int version, long id)
+    public CommitLogDescriptor(int version, long id, String compression)
     {
         this.version = version;
         this.id = id;
+        this.compression = compression;
+    }
+
+    public CommitLogDescriptor(int version, long id)
+    {
+        this(version, id, null);
+    }
+
+    public CommitLogDescriptor(long id, String compression)
+    {
+        this(current_version, id, compression);
     }
 
     public CommitLogDescriptor(long id)
     {
-        this(current_version, id);
+        this(current_version, id, null);
+    }
+
+    private byte[] compressionBytes()
+    {
+        return compression == null ? NO_COMPRESSION : compression.getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * @return the size of the header of the segment, which is followed by its first sync marker.
+     */
+    int headerSize()
+    {
+        // [version, id, compression length, compression, checksum] since VERSION_22
+        return version < VERSION_22 ? HEADER_SIZE : 4 + 8 + 2 + compressionBytes().length + 4;
     }
 
     static void writeHeader(ByteBuffer out, CommitLogDescriptor descriptor)
     {
+        assert descriptor.version >= VERSION_22;
+        byte[] compression = descriptor.compressionBytes();
         out.putInt(0, descriptor.version);
         out.putLong(4, descriptor.id);
+        out.putShort(12, (short) compression.length);
+        for (int i = 0; i < compression.length; i++)
+            out.put(14 + i, compression[i]);
         PureJavaCrc32 crc = new PureJavaCrc32();
         crc.updateInt(descriptor.version);
         crc.updateInt((int) (descriptor.id & 0xFFFFFFFFL));
         crc.updateInt((int) (descriptor.id >>> 32));
-        out.putInt(12, crc.getCrc());
+        crc.update(compression, 0, compression.length);
+        out.putInt(14 + compression.length, crc.getCrc());
+    }
+
+    /**
+     * @return the descriptor in the header read from {@code in}, or null if the header isn't valid.
+     */
+    static CommitLogDescriptor readHeader(DataInput in) throws IOException
+    {
+        int version = in.readInt();
+        long id = in.readLong();
+        byte[] compression = NO_COMPRESSION;
+        if (version >= VERSION_22)
+        {
+            compression = new byte[in.readUnsignedShort()];
+            in.readFully(compression);
+        }
+        int crc = in.readInt();
+        PureJavaCrc32 checkcrc = new PureJavaCrc32();
+        checkcrc.updateInt(version);
+        checkcrc.updateInt((int) (id & 0xFFFFFFFFL));
+        checkcrc.updateInt((int) (id >>> 32));
+        checkcrc.update(compression, 0, compression.length);
+        if (crc != checkcrc.getCrc())
+            return null;
+        return new CommitLogDescriptor(version, id, compression.length == 0 ? null : new String(compression, Charsets.UTF_8));
     }
 
     public static CommitLogDescriptor fromHeader(File file)
@@ -83,16 +150,7 @@ public class CommitLogDescriptor
         try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
         {
             assert raf.getFilePointer() == 0;
-            int version = raf.readInt();
-            long id = raf.readLong();
-            int crc = raf.readInt();
-            PureJavaCrc32 checkcrc = new PureJavaCrc32();
-            checkcrc.updateInt(version);
-            checkcrc.updateInt((int) (id & 0xFFFFFFFFL));
-            checkcrc.updateInt((int) (id >>> 32));
-            if (crc == checkcrc.getCrc())
-                return new CommitLogDescriptor(version, id);
-            return null;
+            return readHeader(raf);
         }
         catch (EOFException e)
         {
@@ -126,12 +184,38 @@ public class CommitLogDescriptor
             case VERSION_20:
                 return MessagingService.VERSION_20;
             case VERSION_21:
+            case VERSION_22:
                 return MessagingService.VERSION_21;
             default:
                 throw new IllegalStateException("Unknown commitlog version " + version);
         }
     }
 
+    /**
+     * @return a new instance of the compressor of the segment, or null if it is not compressed.
+     */
+    public ICompressor createCompressor()
+    {
+        return createCompressor(compression);
+    }
+
+    /**
+     * @return a new instance of the compressor class, as accepted by commitlog_compression, or null if it is null.
+     */
+    public static ICompressor createCompressor(String compression)
+    {
+        if (compression == null)
+            return null;
+        try
+        {
+            return new CompressionParameters(compression, null, Collections.<String, String>emptyMap()).sstableCompressor;
+        }
+        catch (ConfigurationException e)
+        {
+            throw new IllegalStateException("Invalid commit log compression " + compression, e);
+        }
+    }
+
     public String fileName()
     {
         return FILENAME_PREFIX + version + SEPARATOR + id + FILENAME_EXTENSION;
@@ -19,11 +19,21 @@
 package org.apache.cassandra.db.commitlog;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
@@ -32,13 +42,17 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.*;
+import org.apache.cassandra.io.compress.ICompressor;
 import org.apache.cassandra.io.util.FastByteArrayInputStream;
+import org.apache.cassandra.io.util.FileDataInput;
 import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.io.util.MappedFileDataInput;
 import org.apache.cassandra.io.util.RandomAccessReader;
 import org.apache.cassandra.utils.*;
 import org.cliffc.high_scale_lib.NonBlockingHashSet;
@@ -47,16 +61,23 @@ public class CommitLogReplayer
 {
     private static final Logger logger = LoggerFactory.getLogger(CommitLogReplayer.class);
     private static final int MAX_OUTSTANDING_REPLAY_COUNT = Integer.getInteger("cassandra.commitlog_max_outstanding_replay_count", 1024);
+    // the number of segments read concurrently
+    private static final int REPLAY_THREADS = Integer.getInteger("cassandra.commitlog_replay_threads", FBUtilities.getAvailableProcessors());
     private static final int LEGACY_END_OF_SEGMENT_MARKER = 0;
+    // queued after the mutations of a segment read concurrently
+    private static final Runnable END_OF_SEGMENT = new Runnable()
+    {
+        public void run()
+        {
+        }
+    };
 
     private final Set<Keyspace> keyspacesRecovered;
     private final List<Future<?>> futures;
-    private final Map<UUID, AtomicInteger> invalidMutations;
+    private final ConcurrentMap<UUID, AtomicInteger> invalidMutations;
     private final AtomicInteger replayedCount;
     private final Map<UUID, ReplayPosition> cfPositions;
     private final ReplayPosition globalPosition;
-    private final PureJavaCrc32 checksum;
-    private byte[] buffer;
 
     private final ReplayFilter replayFilter;
 
@@ -64,11 +85,9 @@ public class CommitLogReplayer
     {
         this.keyspacesRecovered = new NonBlockingHashSet<Keyspace>();
         this.futures = new ArrayList<Future<?>>();
-        this.buffer = new byte[4096];
-        this.invalidMutations = new HashMap<UUID, AtomicInteger>();
+        this.invalidMutations = new ConcurrentHashMap<UUID, AtomicInteger>();
         // count the number of replayed mutation. We don't really care about atomicity, but we need it to be a reference.
         this.replayedCount = new AtomicInteger();
-        this.checksum = new PureJavaCrc32();
 
         replayFilter = ReplayFilter.create();
 
@@ -113,10 +132,72 @@ public class CommitLogReplayer
         logger.debug("Global replay position is {} from columnfamilies {}", globalPosition, FBUtilities.toString(cfPositions));
     }
 
+    /**
+     * Replays the segments, reading and checking up to cassandra.commitlog_replay_threads of them concurrently. Their
+     * mutations are still submitted in the order of a sequential replay, so those of each table are applied in replay
+     * position order.
+     */
     public void recover(File[] clogs) throws IOException
     {
-        for (final File file : clogs)
-            recover(file);
+        int threads = Math.min(clogs.length, REPLAY_THREADS);
+        if (threads <= 1)
+        {
+            for (final File file : clogs)
+                recover(file);
+            return;
+        }
+
+        // a plain executor, as a failed read is reported by rethrowing it below rather than by the executor
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("CommitLogReplayer"));
+        try
+        {
+            List<SegmentReplay> replays = new ArrayList<>(clogs.length);
+            List<Future<?>> reads = new ArrayList<>(clogs.length);
+            for (final File file : clogs)
+            {
+                // the readers of the segments that come next block once their queue is full, until they get their turn
+                final SegmentReplay replay = new SegmentReplay(new ArrayBlockingQueue<Runnable>(MAX_OUTSTANDING_REPLAY_COUNT));
+                replays.add(replay);
+                reads.add(executor.submit(new Callable<Object>()
+                {
+                    public Object call() throws IOException
+                    {
+                        try
+                        {
+                            recover(file, replay);
+                        }
+                        finally
+                        {
+                            replay.finish();
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < clogs.length; i++)
+            {
+                replays.get(i).submitRead();
+                try
+                {
+                    reads.get(i).get();
+                }
+                catch (ExecutionException e)
+                {
+                    Throwables.propagateIfPossible(e.getCause(), IOException.class);
+                    throw new RuntimeException(e.getCause());
+                }
+                catch (InterruptedException e)
+                {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+        finally
+        {
+            // stops the readers still running if a segment failed
+            executor.shutdownNow();
+        }
     }
 
     public int blockForWrites()
@@ -172,12 +253,12 @@ public class CommitLogReplayer
         return end;
     }
 
-    private int getStartOffset(long segmentId, int version)
+    private int getStartOffset(long segmentId, CommitLogDescriptor descriptor)
     {
         if (globalPosition.segment < segmentId)
         {
-            if (version >= CommitLogDescriptor.VERSION_21)
-                return CommitLogDescriptor.HEADER_SIZE + CommitLogSegment.SYNC_MARKER_SIZE;
+            if (descriptor.version >= CommitLogDescriptor.VERSION_21)
+                return descriptor.headerSize() + CommitLogSegment.SYNC_MARKER_SIZE;
             else
                 return 0;
         }
@@ -263,6 +344,11 @@ public class CommitLogReplayer
     }
 
     public void recover(File file) throws IOException
+    {
+        recover(file, new SegmentReplay(null));
+    }
+
+    private void recover(File file, SegmentReplay replay) throws IOException
     {
         logger.info("Replaying {}", file.getPath());
         CommitLogDescriptor desc = CommitLogDescriptor.fromFileName(file.getName());
@@ -275,16 +361,42 @@ public class CommitLogReplayer
 
         try
         {
+            if (desc.version >= CommitLogDescriptor.VERSION_22)
+            {
+                // the header holds the compression of the segment, which its name doesn't
+                CommitLogDescriptor header = null;
+                try
+                {
+                    header = CommitLogDescriptor.readHeader(reader);
+                }
+                catch (EOFException e)
+                {
+                    // handled as an invalid header
+                }
+                if (header == null || header.version != desc.version || header.id != desc.id)
+                {
+                    logger.warn("Encountered bad header in commit log {}; skipping it", file);
+                    return;
+                }
+                desc = header;
+            }
+
             assert reader.length() <= Integer.MAX_VALUE;
-            int offset = getStartOffset(segmentId, desc.version);
+            int offset = getStartOffset(segmentId, desc);
             if (offset < 0)
             {
                 logger.debug("skipping replay of fully-flushed {}", file);
                 return;
             }
 
-            int prevEnd = CommitLogDescriptor.HEADER_SIZE;
-            main: while (true)
+            if (desc.compression != null)
+            {
+                replayCompressed(desc, reader, offset, replay);
+                return;
+            }
+
+            int prevEnd = desc.headerSize();
+            while (true)
             {
 
                 int end = prevEnd;
@@ -303,179 +415,335 @@ public class CommitLogReplayer
                     logger.debug("Replaying {} between {} and {}", file, offset, end);
 
                 reader.seek(offset);
+                if (!replaySyncSection(desc, reader, end, replay))
+                    break;
+
+                if (desc.version < CommitLogDescriptor.VERSION_21)
+                    break;
+
+                offset = end + CommitLogSegment.SYNC_MARKER_SIZE;
+                prevEnd = end;
+            }
+        }
+        finally
+        {
+            FileUtils.closeQuietly(reader);
+            logger.info("Finished reading {}", file);
+        }
+    }
+
+    /**
+     * Replays the compressed sections of a segment, starting from the position {@code offset} of the uncompressed
+     * segment. Each section holds what was written between two syncs, and its header points to the next section.
+     */
+    private void replayCompressed(CommitLogDescriptor desc, RandomAccessReader reader, int offset, SegmentReplay replay) throws IOException
+    {
+        ICompressor compressor = desc.createCompressor();
+        byte[] compressed = new byte[0];
+        byte[] uncompressed = new byte[0];
+
+        // the position of the section header in the file, and of the sync marker it replaces in the uncompressed segment
+        int filePosition = desc.headerSize();
+        int marker = desc.headerSize();
+        while (filePosition <= reader.length() - CommitLogSegment.COMPRESSED_SECTION_HEADER_SIZE)
+        {
+            reader.seek(filePosition);
+            int nextSection = reader.readInt();
+            long filecrc = reader.readInt() & 0xffffffffL;
+            int length = reader.readInt();
+            PureJavaCrc32 crc = new PureJavaCrc32();
+            crc.updateInt((int) (desc.id & 0xFFFFFFFFL));
+            crc.updateInt((int) (desc.id >>> 32));
+            crc.updateInt(filePosition);
+            if (crc.getValue() != filecrc || nextSection < filePosition + CommitLogSegment.COMPRESSED_SECTION_HEADER_SIZE || length < 0)
+            {
+                logger.warn("Encountered bad compressed section at position {} of commit log {}, with invalid CRC", filePosition, reader.getPath());
+                return;
+            }
+            if (nextSection > reader.length())
+            {
+                logger.debug("Compressed section at position {} of commit log {} wasn't fully written", filePosition, reader.getPath());
+                return;
+            }
 
-                 /* read the logs populate Mutation and apply */
-                while (reader.getPosition() < end && !reader.isEOF())
+            int sectionStart = marker + CommitLogSegment.SYNC_MARKER_SIZE;
+            int sectionEnd = sectionStart + length;
+            if (sectionEnd > offset && length > 0)
+            {
+                int compressedLength = nextSection - filePosition - CommitLogSegment.COMPRESSED_SECTION_HEADER_SIZE;
+                if (compressedLength > compressed.length)
+                    compressed = new byte[compressedLength];
+                if (length > uncompressed.length)
+                    uncompressed = new byte[length];
+                reader.readFully(compressed, 0, compressedLength);
+                if (compressor.uncompress(compressed, 0, compressedLength, uncompressed, 0) != length)
                 {
-                    if (logger.isDebugEnabled())
-                        logger.debug("Reading mutation at {}", reader.getFilePointer());
+                    logger.warn("Encountered bad compressed section at position {} of commit log {}, with invalid length", filePosition, reader.getPath());
+                    return;
+                }
 
-                    long claimedCRC32;
-                    int serializedSize;
-                    try
-                    {
-                        // any of the reads may hit EOF
-                        serializedSize = reader.readInt();
-                        if (serializedSize == LEGACY_END_OF_SEGMENT_MARKER)
-                        {
-                            logger.debug("Encountered end of segment marker at {}", reader.getFilePointer());
-                            break main;
-                        }
+                if (logger.isDebugEnabled())
+                    logger.debug("Replaying {} between {} and {}", reader.getPath(), Math.max(offset, sectionStart), sectionEnd);
 
-                        // Mutation must be at LEAST 10 bytes:
-                        // 3 each for a non-empty Keyspace and Key (including the
-                        // 2-byte length from writeUTF/writeWithShortLength) and 4 bytes for column count.
-                        // This prevents CRC by being fooled by special-case garbage in the file; see CASSANDRA-2128
-                        if (serializedSize < 10)
-                            break main;
-
-                        long claimedSizeChecksum;
-                        if (desc.version < CommitLogDescriptor.VERSION_21)
-                            claimedSizeChecksum = reader.readLong();
-                        else
-                            claimedSizeChecksum = reader.readInt() & 0xffffffffL;
-                        checksum.reset();
-                        if (desc.version < CommitLogDescriptor.VERSION_20)
-                            checksum.update(serializedSize);
-                        else
-                            checksum.updateInt(serializedSize);
-
-                        if (checksum.getValue() != claimedSizeChecksum)
-                            break main; // entry wasn't synced correctly/fully. that's
-                        // ok.
-
-                        if (serializedSize > buffer.length)
-                            buffer = new byte[(int) (1.2 * serializedSize)];
-                        reader.readFully(buffer, 0, serializedSize);
-                        if (desc.version < CommitLogDescriptor.VERSION_21)
-                            claimedCRC32 = reader.readLong();
-                        else
-                            claimedCRC32 = reader.readInt() & 0xffffffffL;
-                    }
-                    catch (EOFException eof)
-                    {
-                        break main; // last CL entry didn't get completely written. that's ok.
-                    }
+                // positions within the section are those of the uncompressed segment, as used by ReplayPosition
+                FileDataInput section = new MappedFileDataInput(ByteBuffer.wrap(uncompressed, 0, length).slice(), reader.getPath(), sectionStart, 0);
+                section.seek(Math.max(offset, sectionStart));
+                if (!replaySyncSection(desc, section, sectionEnd, replay))
+                    return;
+            }
 
-                    checksum.update(buffer, 0, serializedSize);
-                    if (claimedCRC32 != checksum.getValue())
-                    {
-                        // this entry must not have been fsynced. probably the rest is bad too,
-                        // but just in case there is no harm in trying them (since we still read on an entry boundary)
-                        continue;
-                    }
+            marker = sectionEnd;
+            filePosition = nextSection;
+        }
+    }
 
-                    /* deserialize the commit log entry */
-                    FastByteArrayInputStream bufIn = new FastByteArrayInputStream(buffer, 0, serializedSize);
-                    final Mutation mutation;
-                    try
-                    {
-                        mutation = Mutation.serializer.deserialize(new DataInputStream(bufIn),
-                                                                   desc.getMessagingVersion(),
-                                                                   ColumnSerializer.Flag.LOCAL);
-                        // doublecheck that what we read is [still] valid for the current schema
-                        for (ColumnFamily cf : mutation.getColumnFamilies())
-                            for (Cell cell : cf)
-                                cf.getComparator().validate(cell.name());
-                    }
-                    catch (UnknownColumnFamilyException ex)
-                    {
-                        if (ex.cfId == null)
-                            continue;
-                        AtomicInteger i = invalidMutations.get(ex.cfId);
-                        if (i == null)
-                        {
-                            i = new AtomicInteger(1);
-                            invalidMutations.put(ex.cfId, i);
-                        }
-                        else
-                            i.incrementAndGet();
-                        continue;
-                    }
-                    catch (Throwable t)
-                    {
-                        JVMStabilityInspector.inspectThrowable(t);
-                        File f = File.createTempFile("mutation", "dat");
-                        DataOutputStream out = new DataOutputStream(new FileOutputStream(f));
-                        try
-                        {
-                            out.write(buffer, 0, serializedSize);
-                        }
-                        finally
-                        {
-                            out.close();
-                        }
-                        String st = String.format("Unexpected error deserializing mutation; saved to %s and ignored.  This may be caused by replaying a mutation against a table with the same name but incompatible schema.  Exception follows: ",
-                                                  f.getAbsolutePath());
-                        logger.error(st, t);
-                        continue;
-                    }
+    /**
+     * Replays the mutations from the position of {@code reader} up to {@code end}.
+     *
+     * @return false if an entry couldn't be read, so the rest of the segment can't be replayed
+     */
+    private boolean replaySyncSection(CommitLogDescriptor desc, FileDataInput reader, int end, SegmentReplay replay) throws IOException
+    {
+        final long segmentId = desc.id;
+        final PureJavaCrc32 checksum = replay.checksum;
+        byte[] buffer = replay.buffer;
+
+        /* read the logs populate Mutation and apply */
+        while (reader.getFilePointer() < end && !reader.isEOF())
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Reading mutation at {}", reader.getFilePointer());
+
+            long claimedCRC32;
+            int serializedSize;
+            try
+            {
+                // any of the reads may hit EOF
+                serializedSize = reader.readInt();
+                if (serializedSize == LEGACY_END_OF_SEGMENT_MARKER)
+                {
+                    logger.debug("Encountered end of segment marker at {}", reader.getFilePointer());
+                    return false;
+                }
+
+                // Mutation must be at LEAST 10 bytes:
+                // 3 each for a non-empty Keyspace and Key (including the
+                // 2-byte length from writeUTF/writeWithShortLength) and 4 bytes for column count.
+                // This prevents CRC by being fooled by special-case garbage in the file; see CASSANDRA-2128
+                if (serializedSize < 10)
+                    return false;
+
+                long claimedSizeChecksum;
+                if (desc.version < CommitLogDescriptor.VERSION_21)
+                    claimedSizeChecksum = reader.readLong();
+                else
+                    claimedSizeChecksum = reader.readInt() & 0xffffffffL;
+                checksum.reset();
+                if (desc.version < CommitLogDescriptor.VERSION_20)
+                    checksum.update(serializedSize);
+                else
+                    checksum.updateInt(serializedSize);
+
+                if (checksum.getValue() != claimedSizeChecksum)
+                    return false; // entry wasn't synced correctly/fully. that's
+                // ok.
+
+                if (serializedSize > buffer.length)
+                    buffer = replay.buffer = new byte[(int) (1.2 * serializedSize)];
+                reader.readFully(buffer, 0, serializedSize);
+                if (desc.version < CommitLogDescriptor.VERSION_21)
+                    claimedCRC32 = reader.readLong();
+                else
+                    claimedCRC32 = reader.readInt() & 0xffffffffL;
+            }
+            catch (EOFException eof)
+            {
+                return false; // last CL entry didn't get completely written. that's ok.
+            }
 
-                    if (logger.isDebugEnabled())
-                        logger.debug("replaying mutation for {}.{}: {}", mutation.getKeyspaceName(), ByteBufferUtil.bytesToHex(mutation.key()), "{" + StringUtils.join(mutation.getColumnFamilies().iterator(), ", ") + "}");
+            checksum.update(buffer, 0, serializedSize);
+            if (claimedCRC32 != checksum.getValue())
+            {
+                // this entry must not have been fsynced. probably the rest is bad too,
+                // but just in case there is no harm in trying them (since we still read on an entry boundary)
+                continue;
+            }
 
-                    final long entryLocation = reader.getFilePointer();
-                    Runnable runnable = new WrappedRunnable()
+            /* deserialize the commit log entry */
+            FastByteArrayInputStream bufIn = new FastByteArrayInputStream(buffer, 0, serializedSize);
+            final Mutation mutation;
+            try
+            {
+                mutation = Mutation.serializer.deserialize(new DataInputStream(bufIn),
+                                                           desc.getMessagingVersion(),
+                                                           ColumnSerializer.Flag.LOCAL);
+                // doublecheck that what we read is [still] valid for the current schema
+                for (ColumnFamily cf : mutation.getColumnFamilies())
+                    for (Cell cell : cf)
+                        cf.getComparator().validate(cell.name());
+            }
+            catch (UnknownColumnFamilyException ex)
+            {
+                if (ex.cfId == null)
+                    continue;
+                AtomicInteger i = invalidMutations.get(ex.cfId);
+                if (i == null)
+                {
+                    AtomicInteger previous = invalidMutations.putIfAbsent(ex.cfId, i = new AtomicInteger());
+                    if (previous != null)
+                        i = previous;
+                }
+                i.incrementAndGet();
+                continue;
+            }
+            catch (Throwable t)
+            {
+                JVMStabilityInspector.inspectThrowable(t);
+                File f = File.createTempFile("mutation", "dat");
+                DataOutputStream out = new DataOutputStream(new FileOutputStream(f));
+                try
+                {
+                    out.write(buffer, 0, serializedSize);
+                }
+                finally
+                {
+                    out.close();
+                }
+                String st = String.format("Unexpected error deserializing mutation; saved to %s and ignored.  This may be caused by replaying a mutation against a table with the same name but incompatible schema.  Exception follows: ",
+                                          f.getAbsolutePath());
+                logger.error(st, t);
+                continue;
+            }
+
+            if (logger.isDebugEnabled())
+                logger.debug("replaying mutation for {}.{}: {}", mutation.getKeyspaceName(), ByteBufferUtil.bytesToHex(mutation.key()), "{" + StringUtils.join(mutation.getColumnFamilies().iterator(), ", ") + "}");
+
+            final long entryLocation = reader.getFilePointer();
+            Runnable runnable = new WrappedRunnable()
+            {
+                public void runMayThrow() throws IOException
+                {
+                    if (Schema.instance.getKSMetaData(mutation.getKeyspaceName()) == null)
+                        return;
+                    if (pointInTimeExceeded(mutation))
+                        return;
+
+                    final Keyspace keyspace = Keyspace.open(mutation.getKeyspaceName());
+
+                    // Rebuild the mutation, omitting column families that
+                    //    a) the user has requested that we ignore,
+                    //    b) have already been flushed,
+                    // or c) are part of a cf that was dropped.
+                    // Keep in mind that the cf.name() is suspect. do every thing based on the cfid instead.
+                    Mutation newMutation = null;
+                    for (ColumnFamily columnFamily : replayFilter.filter(mutation))
                     {
-                        public void runMayThrow() throws IOException
+                        if (Schema.instance.getCF(columnFamily.id()) == null)
+                            continue; // dropped
+
+                        ReplayPosition rp = cfPositions.get(columnFamily.id());
+
+                        // replay if current segment is newer than last flushed one or,
+                        // if it is the last known segment, if we are after the replay position
+                        if (segmentId > rp.segment || (segmentId == rp.segment && entryLocation > rp.position))
                         {
-                            if (Schema.instance.getKSMetaData(mutation.getKeyspaceName()) == null)
-                                return;
-                            if (pointInTimeExceeded(mutation))
-                                return;
-
-                            final Keyspace keyspace = Keyspace.open(mutation.getKeyspaceName());
-
-                            // Rebuild the mutation, omitting column families that
-                            //    a) the user has requested that we ignore,
-                            //    b) have already been flushed,
-                            // or c) are part of a cf that was dropped.
-                            // Keep in mind that the cf.name() is suspect. do every thing based on the cfid instead.
-                            Mutation newMutation = null;
-                            for (ColumnFamily columnFamily : replayFilter.filter(mutation))
-                            {
-                                if (Schema.instance.getCF(columnFamily.id()) == null)
-                                    continue; // dropped
-
-                                ReplayPosition rp = cfPositions.get(columnFamily.id());
-
-                                // replay if current segment is newer than last flushed one or,
-                                // if it is the last known segment, if we are after the replay position
-                                if (segmentId > rp.segment || (segmentId == rp.segment && entryLocation > rp.position))
-                                {
-                                    if (newMutation == null)
-                                        newMutation = new Mutation(mutation.getKeyspaceName(), mutation.key());
-                                    newMutation.add(columnFamily);
-                                    replayedCount.incrementAndGet();
-                                }
-                            }
-                            if (newMutation != null)
-                            {
-                                assert !newMutation.isEmpty();
-                                Keyspace.open(newMutation.getKeyspaceName()).apply(newMutation, false);
-                                keyspacesRecovered.add(keyspace);
-                            }
+                            if (newMutation == null)
+                                newMutation = new Mutation(mutation.getKeyspaceName(), mutation.key());
+                            newMutation.add(columnFamily);
+                            replayedCount.incrementAndGet();
                         }
-                    };
-                    futures.add(StageManager.getStage(Stage.MUTATION).submit(runnable));
-                    if (futures.size() > MAX_OUTSTANDING_REPLAY_COUNT)
+                    }
+                    if (newMutation != null)
                     {
-                        FBUtilities.waitOnFutures(futures);
-                        futures.clear();
+                        assert !newMutation.isEmpty();
+                        Keyspace.open(newMutation.getKeyspaceName()).apply(newMutation, false);
+                        keyspacesRecovered.add(keyspace);
                     }
                 }
+            };
+            replay.add(runnable);
+        }
+        return true;
+    }
 
-                if (desc.version < CommitLogDescriptor.VERSION_21)
-                    break;
+    private void submit(Runnable mutation)
+    {
+        futures.add(StageManager.getStage(Stage.MUTATION).submit(mutation));
+        if (futures.size() > MAX_OUTSTANDING_REPLAY_COUNT)
+        {
+            FBUtilities.waitOnFutures(futures);
+            futures.clear();
+        }
+    }
 
-                offset = end + CommitLogSegment.SYNC_MARKER_SIZE;
-                prevEnd = end;
+    /**
+     * The state of the replay of a segment by the thread reading it, which either submits its mutations itself, or
+     * queues them for the replaying thread to submit in order.
+     */
+    private final class SegmentReplay
+    {
+        final PureJavaCrc32 checksum = new PureJavaCrc32();
+        byte[] buffer = new byte[4096];
+        private final BlockingQueue<Runnable> mutations;
+
+        SegmentReplay(BlockingQueue<Runnable> mutations)
+        {
+            this.mutations = mutations;
+        }
+
+        void add(Runnable mutation)
+        {
+            if (mutations == null)
+            {
+                submit(mutation);
+                return;
+            }
+
+            try
+            {
+                mutations.put(mutation);
+            }
+            catch (InterruptedException e)
+            {
+                // the replay has been aborted
+                throw new RuntimeException(e);
             }
         }
-        finally
+
+        // called by the reading thread once it is done with the segment
+        void finish()
         {
-            FileUtils.closeQuietly(reader);
-            logger.info("Finished reading {}", file);
+            if (mutations == null)
+                return;
+
+            try
+            {
+                mutations.put(END_OF_SEGMENT);
+            }
+            catch (InterruptedException e)
+            {
+                // the replay has been aborted, so nobody is waiting for the end
+            }
+        }
+
+        // called by the replaying thread, submits the mutations read until the reading thread is done
+        void submitRead()
+        {
+            while (true)
+            {
+                Runnable mutation;
+                try
+                {
+                    mutation = mutations.take();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new AssertionError(e);
+                }
+                if (mutation == END_OF_SEGMENT)
+                    return;
+                submit(mutation);
+            }
         }
     }
 
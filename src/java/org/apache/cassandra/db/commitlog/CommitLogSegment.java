@@ -29,11 +29,15 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.annotations.VisibleForTesting;
+
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +48,7 @@ import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.Mutation;
 import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.compress.ICompressor;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.utils.CLibrary;
 import org.apache.cassandra.utils.PureJavaCrc32;
@@ -54,6 +59,9 @@ import org.apache.cassandra.utils.concurrent.WaitQueue;
  * A single commit log file on disk. Manages creation of the file and writing mutations to disk,
  * as well as tracking the last mutation position of any "dirty" CFs covered by the segment file. Segment
  * files are initially allocated to a fixed size and can grow to accomidate a larger value if necessary.
+ *
+ * If commitlog_compression is set, the segment is written to a heap buffer rather than to a mapped file, and each
+ * sync appends the section written since the previous sync to the file as a compressed section.
  */
 public class CommitLogSegment
 {
@@ -78,6 +86,14 @@ public class CommitLogSegment
     // The commit log (chained) sync marker/header size in bytes (int: length + int: checksum [segmentId, position])
     static final int SYNC_MARKER_SIZE = 4 + 4;
 
+    // The compressed section header size in bytes (int: next section file position + int: checksum [segmentId, file position]
+    // + int: uncompressed length)
+    static final int COMPRESSED_SECTION_HEADER_SIZE = 4 + 4 + 4;
+
+    // the buffers of closed compressed segments kept for reuse by new ones, as each is as large as a segment
+    private static final int MAX_BUFFER_POOL_SIZE = Integer.getInteger("cassandra.commitlog_max_compression_buffers_in_pool", 3);
+    private static final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+
     // The OpOrder used to order appends wrt sync
     private final OpOrder appendOrder = new OpOrder();
 
@@ -107,7 +123,15 @@ public class CommitLogSegment
     private final RandomAccessFile logFileAccessor;
     private final int fd;
 
-    private final MappedByteBuffer buffer;
+    // the mapped file, or the buffer of the sections not yet compressed, which is released once closed
+    private ByteBuffer buffer;
+    private final int capacity;
+
+    // the compressor of the sections, or null if the buffer is the mapped file
+    private final ICompressor compressor;
+    // the buffer of the compressed sections, and the length of the file they have been appended to
+    private ICompressor.WrappedArray compressed;
+    private int fileLength;
 
     public final CommitLogDescriptor descriptor;
 
@@ -132,7 +156,8 @@ public class CommitLogSegment
     CommitLogSegment(String filePath)
     {
         id = getNextId();
-        descriptor = new CommitLogDescriptor(id);
+        descriptor = new CommitLogDescriptor(id, DatabaseDescriptor.getCommitLogCompression());
+        compressor = descriptor.createCompressor();
         logFile = new File(DatabaseDescriptor.getCommitLogLocation(), descriptor.fileName());
         boolean isCreating = true;
 
@@ -157,20 +182,39 @@ public class CommitLogSegment
             if (isCreating)
                 logger.debug("Creating new commit log segment {}", logFile.getPath());
 
-            // Map the segment, extending or truncating it to the standard segment size.
-            // (We may have restarted after a segment size configuration change, leaving "incorrectly"
-            // sized segments on disk.)
-            logFileAccessor.setLength(DatabaseDescriptor.getCommitLogSegmentSize());
+            int headerSize = descriptor.headerSize();
+            if (compressor == null)
+            {
+                // Map the segment, extending or truncating it to the standard segment size.
+                // (We may have restarted after a segment size configuration change, leaving "incorrectly"
+                // sized segments on disk.)
+                logFileAccessor.setLength(DatabaseDescriptor.getCommitLogSegmentSize());
+                buffer = logFileAccessor.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DatabaseDescriptor.getCommitLogSegmentSize());
+            }
+            else
+            {
+                // the file only holds the header and the compressed sections appended by sync()
+                logFileAccessor.setLength(0);
+                buffer = allocateBuffer(DatabaseDescriptor.getCommitLogSegmentSize());
+            }
+            capacity = buffer.capacity();
             fd = CLibrary.getfd(logFileAccessor.getFD());
 
-            buffer = logFileAccessor.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DatabaseDescriptor.getCommitLogSegmentSize());
             // write the header
             CommitLogDescriptor.writeHeader(buffer, descriptor);
             // mark the initial sync marker as uninitialised
-            buffer.putInt(CommitLogDescriptor.HEADER_SIZE, 0);
-            buffer.putLong(CommitLogDescriptor.HEADER_SIZE + 4, 0);
-            allocatePosition.set(CommitLogDescriptor.HEADER_SIZE + SYNC_MARKER_SIZE);
-            lastSyncedOffset = CommitLogDescriptor.HEADER_SIZE;
+            buffer.putInt(headerSize, 0);
+            buffer.putLong(headerSize + 4, 0);
+            allocatePosition.set(headerSize + SYNC_MARKER_SIZE);
+            lastSyncedOffset = headerSize;
+
+            if (compressor != null)
+            {
+                ByteBuffer header = buffer.duplicate();
+                header.limit(headerSize);
+                write(header);
+                fileLength = headerSize;
+            }
         }
         catch (IOException e)
         {
@@ -178,6 +222,22 @@ public class CommitLogSegment
         }
     }
 
+    private static ByteBuffer allocateBuffer(int size)
+    {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null || buffer.capacity() != size)
+            return ByteBuffer.allocate(size);
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer)
+    {
+        // the size of the pool is only approximately bounded, as concurrent releases may each see room for one more
+        if (bufferPool.size() < MAX_BUFFER_POOL_SIZE)
+            bufferPool.add(buffer);
+    }
+
     /**
      * Allocate space in this buffer for the provided mutation, and return the allocated Allocation object.
      * Returns null if there is not enough space in this segment, and a new segment is needed.
@@ -210,7 +270,7 @@ public class CommitLogSegment
         {
             int prev = allocatePosition.get();
             int next = prev + size;
-            if (next >= buffer.capacity())
+            if (next >= capacity)
                 return -1;
             if (allocatePosition.compareAndSet(prev, next))
                 return prev;
@@ -229,8 +289,8 @@ public class CommitLogSegment
             while (true)
             {
                 int prev = allocatePosition.get();
-                // we set allocatePosition past buffer.capacity() to make sure we always set discardedTailFrom
-                int next = buffer.capacity() + 1;
+                // we set allocatePosition past the capacity to make sure we always set discardedTailFrom
+                int next = capacity + 1;
                 if (prev == next)
                     return;
                 if (allocatePosition.compareAndSet(prev, next))
@@ -276,7 +336,7 @@ public class CommitLogSegment
                 // wait for modifications guards both discardedTailFrom, and any outstanding appends
                 waitForModifications();
 
-                if (discardedTailFrom < buffer.capacity() - SYNC_MARKER_SIZE)
+                if (discardedTailFrom < capacity - SYNC_MARKER_SIZE)
                 {
                     // if there's room in the discard section to write an empty header, use that as the nextMarker
                     nextMarker = discardedTailFrom;
@@ -284,7 +344,7 @@ public class CommitLogSegment
                 else
                 {
                     // not enough space left in the buffer, so mark the next sync marker as the EOF position
-                    nextMarker = buffer.capacity();
+                    nextMarker = capacity;
                 }
             }
             else
@@ -297,30 +357,38 @@ public class CommitLogSegment
             // write previous sync marker to point to next sync marker
             // we don't chain the crcs here to ensure this method is idempotent if it fails
             int offset = lastSyncedOffset;
-            final PureJavaCrc32 crc = new PureJavaCrc32();
-            crc.updateInt((int) (id & 0xFFFFFFFFL));
-            crc.updateInt((int) (id >>> 32));
-            crc.updateInt(offset);
-            buffer.putInt(offset, nextMarker);
-            buffer.putInt(offset + 4, crc.getCrc());
-
-            // zero out the next sync marker so replayer can cleanly exit
-            if (nextMarker < buffer.capacity())
+            if (compressor == null)
             {
-                buffer.putInt(nextMarker, 0);
-                buffer.putInt(nextMarker + 4, 0);
-            }
+                final PureJavaCrc32 crc = new PureJavaCrc32();
+                crc.updateInt((int) (id & 0xFFFFFFFFL));
+                crc.updateInt((int) (id >>> 32));
+                crc.updateInt(offset);
+                buffer.putInt(offset, nextMarker);
+                buffer.putInt(offset + 4, crc.getCrc());
+
+                // zero out the next sync marker so replayer can cleanly exit
+                if (nextMarker < capacity)
+                {
+                    buffer.putInt(nextMarker, 0);
+                    buffer.putInt(nextMarker + 4, 0);
+                }
 
-            // actually perform the sync and signal those waiting for it
-            buffer.force();
+                // actually perform the sync and signal those waiting for it
+                ((MappedByteBuffer) buffer).force();
+            }
+            else
+            {
+                writeCompressed(offset, nextMarker);
+            }
 
             if (close)
-                nextMarker = buffer.capacity();
+                nextMarker = capacity;
 
             lastSyncedOffset = nextMarker;
             syncComplete.signalAll();
 
-            CLibrary.trySkipCache(fd, offset, nextMarker);
+            if (compressor == null)
+                CLibrary.trySkipCache(fd, offset, nextMarker);
             if (close)
                 internalClose();
         }
@@ -330,9 +398,54 @@ public class CommitLogSegment
         }
     }
 
+    /**
+     * Appends the section of the buffer following the sync marker at {@code offset}, up to {@code nextMarker}, to
+     * the file as a compressed section, and syncs it.
+     */
+    private void writeCompressed(int offset, int nextMarker) throws IOException
+    {
+        int length = nextMarker - offset - SYNC_MARKER_SIZE;
+        // nothing has been appended since the previous section, which only happens when closing right after a sync,
+        // so there is no later section whose position in the segment would be shifted by skipping this one
+        if (length == 0)
+            return;
+        int maxLength = COMPRESSED_SECTION_HEADER_SIZE + compressor.initialCompressedBufferLength(length);
+        if (compressed == null || compressed.buffer.length < maxLength)
+            compressed = new ICompressor.WrappedArray(new byte[maxLength]);
+        int compressedLength = compressor.compress(buffer.array(),
+                                                   buffer.arrayOffset() + offset + SYNC_MARKER_SIZE,
+                                                   length,
+                                                   compressed,
+                                                   COMPRESSED_SECTION_HEADER_SIZE);
+
+        // as with the sync markers, the section header points forwards to the next section
+        int filePosition = fileLength;
+        int nextSection = filePosition + COMPRESSED_SECTION_HEADER_SIZE + compressedLength;
+        final PureJavaCrc32 crc = new PureJavaCrc32();
+        crc.updateInt((int) (id & 0xFFFFFFFFL));
+        crc.updateInt((int) (id >>> 32));
+        crc.updateInt(filePosition);
+        ByteBuffer section = ByteBuffer.wrap(compressed.buffer, 0, nextSection - filePosition);
+        section.putInt(0, nextSection);
+        section.putInt(4, crc.getCrc());
+        section.putInt(8, length);
+
+        write(section);
+        logFileAccessor.getChannel().force(true);
+        fileLength = nextSection;
+        CLibrary.trySkipCache(fd, filePosition, nextSection);
+    }
+
+    private void write(ByteBuffer bytes) throws IOException
+    {
+        FileChannel channel = logFileAccessor.getChannel();
+        while (bytes.hasRemaining())
+            channel.write(bytes, fileLength + bytes.position());
+    }
+
     public boolean isStillAllocating()
     {
-        return allocatePosition.get() < buffer.capacity();
+        return allocatePosition.get() < capacity;
     }
 
     /**
@@ -394,7 +507,7 @@ public class CommitLogSegment
         while (true)
         {
             WaitQueue.Signal signal = syncComplete.register();
-            if (lastSyncedOffset < buffer.capacity())
+            if (lastSyncedOffset < capacity)
             {
                 signal.awaitUninterruptibly();
             }
@@ -413,16 +526,31 @@ public class CommitLogSegment
     {
         discardUnusedTail();
         waitForModifications();
-        lastSyncedOffset = buffer.capacity();
+        // unlike a mapped file, a compressed segment only holds what has been synced, so write what was appended
+        // up to the discarded tail
+        if (compressor != null)
+            sync();
+        lastSyncedOffset = capacity;
         internalClose();
     }
 
-    void internalClose()
+    synchronized void internalClose()
     {
         try
         {
-            if (FileUtils.isCleanerAvailable())
-                FileUtils.clean(buffer);
+            if (buffer == null)
+                return;
+
+            if (compressor != null)
+            {
+                releaseBuffer(buffer);
+                compressed = null;
+            }
+            else if (FileUtils.isCleanerAvailable())
+            {
+                FileUtils.clean((MappedByteBuffer) buffer);
+            }
+            buffer = null;
             logFileAccessor.close();
         }
         catch (IOException e)
@@ -619,6 +747,12 @@ public class CommitLogSegment
             appendOp.close();
         }
 
+        @VisibleForTesting
+        boolean isSynced()
+        {
+            return segment.lastSyncedOffset >= position;
+        }
+
         void awaitDiskSync()
         {
             while (segment.lastSyncedOffset < position)
@@ -21,9 +21,11 @@ import java.io.Closeable;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.security.MessageDigest;
+import java.util.List;
 
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.db.index.sstable.IndexSegment;
 import org.apache.cassandra.io.sstable.ColumnStats;
 import org.apache.cassandra.io.util.DataOutputPlus;
 
@@ -50,6 +52,14 @@ public abstract class AbstractCompactedRow implements Closeable
      */
     public abstract RowIndexEntry write(long currentPosition, DataOutputPlus out) throws IOException;
 
+    /**
+     * Makes write() add the cells it writes to @param builders, the builders of the index segments of the sstable
+     * the row is written to. Ignored by the rows that don't write their cells one by one.
+     */
+    public void setIndexSegmentBuilders(List<IndexSegment.Builder> builders)
+    {
+    }
+
     /**
      * update @param digest with the data bytes of the row (not including row key or row size).
      * May be called even if empty.
@@ -30,6 +30,7 @@ import com.google.common.collect.Iterators;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
 import org.apache.cassandra.db.index.SecondaryIndexManager;
+import org.apache.cassandra.db.index.sstable.IndexSegment;
 import org.apache.cassandra.io.sstable.ColumnNameHelper;
 import org.apache.cassandra.io.sstable.ColumnStats;
 import org.apache.cassandra.io.sstable.SSTable;
@@ -60,6 +61,7 @@ public class LazilyCompactedRow extends AbstractCompactedRow
     private final Reducer reducer;
     private final Iterator<OnDiskAtom> merger;
     private DeletionTime maxRowTombstone;
+    private List<IndexSegment.Builder> segmentBuilders = Collections.emptyList();
 
     public LazilyCompactedRow(CompactionController controller, List<? extends OnDiskAtomIterator> rows)
     {
@@ -110,6 +112,12 @@ public class LazilyCompactedRow extends AbstractCompactedRow
         ColumnFamilyStore.removeDeletedColumnsOnly(cf, overriddenGCBefore, controller.cfs.indexManager.gcUpdaterFor(key));
     }
 
+    @Override
+    public void setIndexSegmentBuilders(List<IndexSegment.Builder> builders)
+    {
+        segmentBuilders = builders;
+    }
+
     public RowIndexEntry write(long currentPosition, DataOutputPlus out) throws IOException
     {
         assert !closed;
@@ -350,6 +358,11 @@ public class LazilyCompactedRow extends AbstractCompactedRow
                 if (reduced instanceof CounterCell)
                     hasLegacyCounterShards = hasLegacyCounterShards || ((CounterCell) reduced).hasLegacyShards();
 
+                // the index segments are built from the merged cells, so they don't keep the entries of the cells
+                // shadowed or purged by the compaction
+                for (IndexSegment.Builder builder : segmentBuilders)
+                    builder.add(key, reduced);
+
                 return reduced;
             }
         }
@@ -28,6 +28,8 @@ import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.dht.LocalPartitioner;
 import org.apache.cassandra.dht.LocalToken;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.sstable.metadata.ValueFrequencyMetadata;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.concurrent.OpOrder;
@@ -187,6 +189,34 @@ public abstract class AbstractSimplePerColumnSecondaryIndex extends PerColumnSec
         return getIndexCfs().getMeanColumns();
     }
 
+    /**
+     * Counts the cells of the index row of {@code value} in the memtables of the index, and uses the value
+     * frequencies collected on the index sstables, unless some of those don't have them (sstables written by older
+     * versions), in which case we fall back to the mean index row size for the sstables.
+     */
+    @Override
+    public long estimateResultRows(ByteBuffer value)
+    {
+        DecoratedKey indexKey = getIndexKeyFor(value);
+        long estimate = 0;
+        for (Memtable memtable : indexCfs.getDataTracker().getView().getAllMemtables())
+        {
+            ColumnFamily cf = memtable.getColumnFamily(indexKey);
+            if (cf != null)
+                estimate += cf.getColumnCount();
+        }
+
+        long sstablesEstimate = 0;
+        for (SSTableReader sstable : indexCfs.getSSTables())
+        {
+            ValueFrequencyMetadata frequencies = sstable.getValueFrequencies();
+            if (frequencies == null)
+                return estimate + estimateResultRows();
+            sstablesEstimate += frequencies.estimateCount(indexKey.getKey());
+        }
+        return estimate + sstablesEstimate;
+    }
+
     public boolean validate(ByteBuffer rowKey, Cell cell)
     {
         return getIndexedValue(rowKey, cell).remaining() < FBUtilities.MAX_UNSIGNED_SHORT
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index;
+
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.metrics.ColumnFamilyMetrics;
+
+/**
+ * Decides how many cells an index search reads from the index row at a time, and records the work done in the
+ * metrics of the index.
+ *
+ * The first page is sized after the query limit. The following pages are sized after the number of index entries
+ * expected to complete the query at the hit ratio observed so far, growing at most geometrically when most base
+ * rows fail the other predicates. They are also kept small enough for the base rows read for a single page not to
+ * exceed {@code cassandra.index_page_max_bytes}.
+ */
+public class IndexPageSizer
+{
+    // We have to fetch at least two rows to avoid breaking paging if the first row doesn't satisfy all clauses
+    public static final int MIN_PAGE_SIZE = 2;
+    private static final int MAX_PAGE_SIZE = Math.max(MIN_PAGE_SIZE, Integer.getInteger("cassandra.index_page_max_cells", 10000));
+    private static final long MAX_PAGE_BYTES = Long.getLong("cassandra.index_page_max_bytes", 4L * 1024 * 1024);
+
+    private final ColumnFamilyMetrics metrics;
+    private final int limit;
+    private int pageSize;
+
+    // totals since the beginning of the search
+    private long cellsRead;
+    private long bytesFetched;
+    private long returned;
+
+    /**
+     * @param metrics the metrics of the index table
+     * @param limit the number of results the search should return, counted the way they are counted by
+     * {@link #onReturned}
+     */
+    public IndexPageSizer(ColumnFamilyMetrics metrics, int limit)
+    {
+        this.metrics = metrics;
+        this.limit = limit;
+        this.pageSize = clamp(limit);
+    }
+
+    /**
+     * @return the number of cells to read for the next page of the index row.
+     */
+    public int nextPageSize()
+    {
+        if (cellsRead == 0)
+            return pageSize;
+
+        long remaining = Math.max(limit - returned, 1);
+        // the number of index entries we still expect to read, assuming the hit ratio doesn't change
+        long expected = returned == 0 ? Long.MAX_VALUE : (remaining * cellsRead + returned - 1) / returned;
+        long size = Math.min(expected, 2L * pageSize);
+
+        if (bytesFetched > 0)
+            size = Math.min(size, MAX_PAGE_BYTES / Math.max(bytesFetched / cellsRead, 1));
+
+        pageSize = clamp(size);
+        return pageSize;
+    }
+
+    /**
+     * Records that a page of {@code count} cells was read from the index row.
+     */
+    public void onPageRead(int count)
+    {
+        cellsRead += count;
+        metrics.indexCellsRead.inc(count);
+    }
+
+    /**
+     * Records that the base data of an index entry was read.
+     */
+    public void onBaseRowFetched(ColumnFamily data)
+    {
+        if (data != null)
+            bytesFetched += data.dataSize();
+        metrics.indexBaseRowsFetched.inc();
+    }
+
+    /**
+     * Records that {@code count} results satisfying all the clauses of the search were found.
+     */
+    public void onReturned(int count)
+    {
+        returned += count;
+        metrics.indexRowsReturned.inc(count);
+    }
+
+    private static int clamp(long size)
+    {
+        return (int) Math.max(MIN_PAGE_SIZE, Math.min(size, MAX_PAGE_SIZE));
+    }
+}
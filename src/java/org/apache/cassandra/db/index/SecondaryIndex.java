@@ -35,7 +35,6 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.cql3.Operator;
 import org.apache.cassandra.db.*;
-import org.apache.cassandra.db.compaction.CompactionManager;
 import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.composites.SimpleDenseCellNameType;
@@ -46,10 +45,8 @@ import org.apache.cassandra.db.marshal.BytesType;
 import org.apache.cassandra.db.marshal.LocalByPartionerType;
 import org.apache.cassandra.dht.LocalToken;
 import org.apache.cassandra.exceptions.ConfigurationException;
-import org.apache.cassandra.io.sstable.ReducingKeyIterator;
 import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.service.StorageService;
-import org.apache.cassandra.utils.FBUtilities;
 
 import org.apache.cassandra.utils.concurrent.Refs;
 
@@ -74,6 +71,12 @@ public abstract class SecondaryIndex
      */
     public static final String INDEX_VALUES_OPTION_NAME = "index_values";
 
+    /**
+     * The name of the option used to specify that the entries of a (composites) index start with the token of the
+     * indexed partition.
+     */
+    public static final String TOKEN_ORDERED_OPTION_NAME = "token_ordered";
+
     public static final AbstractType<?> keyComparator = StorageService.getPartitioner().preservesOrder()
                                                       ? BytesType.instance
                                                       : new LocalByPartionerType(StorageService.getPartitioner());
@@ -205,11 +208,8 @@ public abstract class SecondaryIndex
 
         try (Refs<SSTableReader> sstables = baseCfs.selectAndReference(ColumnFamilyStore.CANONICAL_SSTABLES).refs)
         {
-            SecondaryIndexBuilder builder = new SecondaryIndexBuilder(baseCfs,
-                                                                      Collections.singleton(getIndexName()),
-                                                                      new ReducingKeyIterator(sstables));
-            Future<?> future = CompactionManager.instance.submitIndexBuild(builder);
-            FBUtilities.waitOnFuture(future);
+            // resumes the build interrupted by a restart, if any
+            baseCfs.indexManager.buildIndexesBlocking(sstables, Collections.singleton(getIndexName()), true);
             forceBlockingFlush();
             setIndexBuilt();
         }
@@ -240,7 +240,7 @@ public abstract class SecondaryIndex
             return null;
 
         // build it asynchronously; addIndex gets called by CFS open and schema update, neither of which
-        // we want to block for a long period.  (actual build is serialized on CompactionManager.)
+        // we want to block for a long period.  (actual build runs on CompactionManager.)
         Runnable runnable = new Runnable()
         {
             public void run()
@@ -371,6 +371,16 @@ public abstract class SecondaryIndex
 
     public abstract long estimateResultRows();
 
+    /**
+     * Returns an estimate of the number of rows matching the provided indexed value.
+     *
+     * The default implementation ignores the value and returns {@link #estimateResultRows()}.
+     */
+    public long estimateResultRows(ByteBuffer value)
+    {
+        return estimateResultRows();
+    }
+
     /**
      * Returns the index comparator for index backed by CFS, or null.
      *
@@ -18,30 +18,62 @@
 package org.apache.cassandra.db.index;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
+import com.google.common.util.concurrent.RateLimiter;
+
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.db.compaction.CompactionInfo;
+import org.apache.cassandra.db.compaction.CompactionManager;
 import org.apache.cassandra.db.compaction.OperationType;
 import org.apache.cassandra.db.compaction.CompactionInterruptedException;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.ReducingKeyIterator;
+import org.apache.cassandra.io.sstable.SSTableReader;
 
 /**
- * Manages building an entire index from column family data. Runs on to compaction manager.
+ * Manages building an entire index from column family data, or the part of it within a token range. Runs on to
+ * compaction manager, and shares its throughput limit.
  */
 public class SecondaryIndexBuilder extends CompactionInfo.Holder
 {
     private final ColumnFamilyStore cfs;
     private final Set<String> idxNames;
     private final ReducingKeyIterator iter;
+    private final Range<Token> range;
+    private final Progress progress;
 
     public SecondaryIndexBuilder(ColumnFamilyStore cfs, Set<String> idxNames, ReducingKeyIterator iter)
     {
         this.cfs = cfs;
         this.idxNames = idxNames;
         this.iter = iter;
+        this.range = null;
+        this.progress = null;
+    }
+
+    /**
+     * @param progress where to record that {@code range} has been built once done, so that the build of the other
+     * ranges can be resumed after a restart, or null if the build isn't resumable.
+     */
+    public SecondaryIndexBuilder(ColumnFamilyStore cfs,
+                                 Set<String> idxNames,
+                                 Collection<SSTableReader> sstables,
+                                 Range<Token> range,
+                                 Progress progress)
+    {
+        this.cfs = cfs;
+        this.idxNames = idxNames;
+        this.iter = new ReducingKeyIterator(sstables, range);
+        this.range = range;
+        this.progress = progress;
     }
 
     public CompactionInfo getCompactionInfo()
@@ -54,12 +86,14 @@ public class SecondaryIndexBuilder extends CompactionInfo.Holder
 
     public void build()
     {
+        RateLimiter limiter = CompactionManager.instance.getRateLimiter();
         while (iter.hasNext())
         {
             if (isStopRequested())
                 throw new CompactionInterruptedException(getCompactionInfo());
             DecoratedKey key = iter.next();
-            Keyspace.indexRow(key, cfs, idxNames);
+            long dataSize = Keyspace.indexRow(key, cfs, idxNames);
+            limiter.acquire((int) Math.min(Integer.MAX_VALUE, Math.max(1, dataSize)));
         }
 
         try
@@ -70,5 +104,52 @@ public class SecondaryIndexBuilder extends CompactionInfo.Holder
         {
             throw new RuntimeException(e);
         }
+
+        if (progress != null)
+            progress.rangeBuilt(range);
+    }
+
+    /**
+     * Records the token ranges of a resumable build in the system keyspace as they are built. The index entries are
+     * not in the commit log, so they must be on disk before a range is recorded: rather than flushing the indexes
+     * for every range, which would write an sstable per range and stall its compaction thread on the flush writer,
+     * the ranges are recorded in batches, each behind a single flush.
+     */
+    public static class Progress
+    {
+        private final ColumnFamilyStore cfs;
+        private final Set<String> idxNames;
+        private final int batchSize;
+        private final List<Range<Token>> built = new ArrayList<>();
+
+        /**
+         * @param batchSize the number of built ranges to record at once.
+         */
+        public Progress(ColumnFamilyStore cfs, Set<String> idxNames, int batchSize)
+        {
+            this.cfs = cfs;
+            this.idxNames = idxNames;
+            this.batchSize = batchSize;
+        }
+
+        void rangeBuilt(Range<Token> range)
+        {
+            List<Range<Token>> batch;
+            synchronized (built)
+            {
+                built.add(range);
+                if (built.size() < batchSize)
+                    return;
+                batch = new ArrayList<>(built);
+                built.clear();
+            }
+
+            // the flush covers the entries of the whole batch, as they have all been written before it is started
+            for (SecondaryIndex index : cfs.indexManager.getIndexesByNames(idxNames))
+                index.forceBlockingFlush();
+            for (Range<Token> builtRange : batch)
+                for (String idxName : idxNames)
+                    SystemKeyspace.setIndexBuildRange(cfs.keyspace.getName(), idxName, builtRange, true);
+        }
     }
 }
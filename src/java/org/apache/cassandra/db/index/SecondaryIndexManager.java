@@ -17,6 +17,7 @@
  */
 package org.apache.cassandra.db.index;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
@@ -40,23 +41,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.IndexType;
 import org.apache.cassandra.db.Cell;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.IndexExpression;
+import org.apache.cassandra.db.Memtable;
 import org.apache.cassandra.db.Row;
 import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.db.compaction.CompactionManager;
 import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.filter.ExtendedFilter;
+import org.apache.cassandra.db.index.composites.CompositesIndex;
+import org.apache.cassandra.db.index.sstable.IndexSegment;
+import org.apache.cassandra.db.index.sstable.SSTableAttachedSecondaryIndex;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.exceptions.InvalidRequestException;
-import org.apache.cassandra.io.sstable.ReducingKeyIterator;
 import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.CloseableIterator;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.concurrent.OpOrder;
+import org.apache.cassandra.utils.memory.MemtableAllocator;
 
 /**
  * Manages all the indexes associated with a given CFS
@@ -66,6 +75,8 @@ public class SecondaryIndexManager
 {
     private static final Logger logger = LoggerFactory.getLogger(SecondaryIndexManager.class);
 
+    private static final int INDEX_BUILD_RANGES_PER_THREAD = 4;
+
     public static final Updater nullUpdater = new Updater()
     {
         public void insert(Cell cell) { }
@@ -127,7 +138,15 @@ public class SecondaryIndexManager
         {
             ColumnDefinition def = baseCfs.metadata.getColumnDefinition(indexedColumn);
             if (def == null || def.getIndexType() == null)
+            {
+                removeIndexedColumn(indexedColumn);
+            }
+            else if (hasLayoutChanged(indexesByColumn.get(indexedColumn), def))
+            {
+                // the index table comparator depends on the layout, so the index is dropped and rebuilt from scratch
+                logger.info("Layout of index {} has changed, rebuilding it", def.getIndexName());
                 removeIndexedColumn(indexedColumn);
+            }
         }
 
         // TODO: allow all ColumnDefinition type
@@ -139,6 +158,12 @@ public class SecondaryIndexManager
             index.reload();
     }
 
+    private static boolean hasLayoutChanged(SecondaryIndex index, ColumnDefinition def)
+    {
+        return index instanceof CompositesIndex
+            && ((CompositesIndex) index).isTokenOrdered() != CompositesIndex.isTokenOrdered(def);
+    }
+
     public Set<String> allIndexesNames()
     {
         Set<String> names = new HashSet<>(allIndexes.size());
@@ -165,15 +190,137 @@ public class SecondaryIndexManager
         logger.info(String.format("Submitting index build of %s for data in %s",
                                   idxNames, StringUtils.join(sstables, ", ")));
 
-        SecondaryIndexBuilder builder = new SecondaryIndexBuilder(baseCfs, idxNames, new ReducingKeyIterator(sstables));
-        Future<?> future = CompactionManager.instance.submitIndexBuild(builder);
-        FBUtilities.waitOnFuture(future);
+        buildRangesBlocking(sstables, idxNames, splitForIndexBuild(sstables), null);
 
         flushIndexesBlocking();
 
         logger.info("Index build of {} complete", idxNames);
     }
 
+    /**
+     * Same as {@link #maybeBuildSecondaryIndexes}, for a build from all the sstables of the base table. The token
+     * ranges the build is split into are recorded in the system keyspace as they complete, so that a build interrupted
+     * by a restart can be resumed rather than started over.
+     *
+     * @param resume whether to only build the ranges not recorded as built by a previous build of the same indexes
+     */
+    public void buildIndexesBlocking(Collection<SSTableReader> sstables, Set<String> idxNames, boolean resume)
+    {
+        idxNames = filterByColumn(idxNames);
+        if (idxNames.isEmpty())
+            return;
+
+        String ksName = baseCfs.keyspace.getName();
+        Map<Range<Token>, Boolean> progress = resume ? getIndexBuildProgress(idxNames) : Collections.<Range<Token>, Boolean>emptyMap();
+        List<Range<Token>> ranges = new ArrayList<>();
+        if (progress.isEmpty())
+        {
+            ranges.addAll(splitForIndexBuild(sstables));
+            for (String idxName : idxNames)
+            {
+                SystemKeyspace.clearIndexBuildProgress(ksName, idxName);
+                for (Range<Token> range : ranges)
+                    SystemKeyspace.setIndexBuildRange(ksName, idxName, range, false);
+            }
+            logger.info(String.format("Submitting index build of %s for data in %s over %d token ranges",
+                                      idxNames, StringUtils.join(sstables, ", "), ranges.size()));
+        }
+        else
+        {
+            for (Map.Entry<Range<Token>, Boolean> entry : progress.entrySet())
+                if (!entry.getValue())
+                    ranges.add(entry.getKey());
+            logger.info(String.format("Resuming index build of %s for data in %s: %d of %d token ranges left",
+                                      idxNames, StringUtils.join(sstables, ", "), ranges.size(), progress.size()));
+        }
+
+        // about as many batches of ranges are recorded as there are ranges per compaction thread; the last batch
+        // is covered by the flush below, which completes the build
+        int batchSize = Math.max(1, DatabaseDescriptor.getConcurrentCompactors());
+        buildRangesBlocking(sstables, idxNames, ranges, new SecondaryIndexBuilder.Progress(baseCfs, idxNames, batchSize));
+
+        flushIndexesBlocking();
+        for (String idxName : idxNames)
+            SystemKeyspace.clearIndexBuildProgress(ksName, idxName);
+
+        logger.info("Index build of {} complete", idxNames);
+    }
+
+    /**
+     * @return the progress of the build of {@code idxNames} recorded in the system keyspace, or an empty map if there
+     * is none or if the indexes have not been built together.
+     */
+    private Map<Range<Token>, Boolean> getIndexBuildProgress(Set<String> idxNames)
+    {
+        Map<Range<Token>, Boolean> progress = null;
+        for (String idxName : idxNames)
+        {
+            Map<Range<Token>, Boolean> indexProgress = SystemKeyspace.getIndexBuildProgress(baseCfs.keyspace.getName(), idxName);
+            if (progress == null)
+            {
+                progress = new HashMap<>(indexProgress);
+                continue;
+            }
+
+            if (!progress.keySet().equals(indexProgress.keySet()))
+                return Collections.emptyMap();
+            for (Map.Entry<Range<Token>, Boolean> entry : indexProgress.entrySet())
+                if (!entry.getValue())
+                    progress.put(entry.getKey(), false);
+        }
+        return progress == null ? Collections.<Range<Token>, Boolean>emptyMap() : progress;
+    }
+
+    /**
+     * Splits the ring into token ranges holding about the same number of the partitions of {@code sstables}, based
+     * on their index summaries. There are several ranges per compaction thread so that they are kept busy even when
+     * some ranges take longer than others, and so that a restart loses less of a resumable build.
+     */
+    private List<Range<Token>> splitForIndexBuild(Collection<SSTableReader> sstables)
+    {
+        Token minimum = baseCfs.partitioner.getMinimumToken();
+        List<Token> samples = new ArrayList<>();
+        for (SSTableReader sstable : sstables)
+            for (DecoratedKey key : sstable.getKeySamples(new Range<>(minimum, minimum)))
+                samples.add(key.getToken());
+        Collections.sort(samples);
+
+        int splits = Math.max(1, DatabaseDescriptor.getConcurrentCompactors()) * INDEX_BUILD_RANGES_PER_THREAD;
+        List<Range<Token>> ranges = new ArrayList<>(splits);
+        Token left = minimum;
+        for (int i = 1; i < splits && !samples.isEmpty(); i++)
+        {
+            Token right = samples.get(i * samples.size() / splits);
+            if (right.compareTo(left) <= 0)
+                continue;
+            ranges.add(new Range<>(left, right));
+            left = right;
+        }
+        ranges.add(new Range<>(left, minimum));
+        return ranges;
+    }
+
+    /**
+     * Builds each of {@code ranges} in its own compaction task, and waits for them all.
+     *
+     * @param progress where to record the ranges built, or null if the build isn't resumable.
+     */
+    private void buildRangesBlocking(Collection<SSTableReader> sstables,
+                                     Set<String> idxNames,
+                                     List<Range<Token>> ranges,
+                                     SecondaryIndexBuilder.Progress progress)
+    {
+        List<Future<?>> futures = new ArrayList<>(ranges.size());
+        for (Range<Token> range : ranges)
+        {
+            SecondaryIndexBuilder builder = new SecondaryIndexBuilder(baseCfs, idxNames, sstables, range, progress);
+            Future<?> future = CompactionManager.instance.submitIndexBuild(builder);
+            if (future != null)
+                futures.add(future);
+        }
+        FBUtilities.waitOnFutures(futures);
+    }
+
     public boolean indexes(CellName name, Collection<SecondaryIndex> indexes)
     {
         boolean matching = false;
@@ -262,7 +409,10 @@ public class SecondaryIndexManager
         }
 
         index.removeIndex(column);
-        SystemKeyspace.setIndexRemoved(baseCfs.metadata.ksName, index.getNameForSystemKeyspace(column));
+        String indexName = index.getNameForSystemKeyspace(column);
+        SystemKeyspace.setIndexRemoved(baseCfs.metadata.ksName, indexName);
+        // a new index of the same name must not resume from the progress of this one
+        SystemKeyspace.clearIndexBuildProgress(baseCfs.metadata.ksName, indexName);
     }
 
     /**
@@ -502,6 +652,37 @@ public class SecondaryIndexManager
         }
     }
 
+    /**
+     * Adds the update of a row to the in-memory indexes of {@code memtable} kept by the sstable attached indexes,
+     * accounting their memory to {@code allocator}. Unlike the updater, this has to be done for every write to the
+     * memtable, including the commit log replay.
+     */
+    public void indexMemtable(Memtable memtable, DecoratedKey key, ColumnFamily cf, MemtableAllocator allocator, OpOrder.Group opGroup)
+    {
+        if (indexesByColumn.isEmpty())
+            return;
+
+        for (SecondaryIndex index : allIndexes)
+            if (index instanceof SSTableAttachedSecondaryIndex)
+                ((SSTableAttachedSecondaryIndex) index).index(memtable, key, cf, allocator, opGroup);
+    }
+
+    /**
+     * @return the builders of the segments of the sstable attached indexes for an sstable about to be written to
+     * {@code directory}.
+     */
+    public List<IndexSegment.Builder> newIndexSegmentBuilders(File directory)
+    {
+        if (indexesByColumn.isEmpty())
+            return Collections.emptyList();
+
+        List<IndexSegment.Builder> builders = new ArrayList<>();
+        for (SecondaryIndex index : allIndexes)
+            if (index instanceof SSTableAttachedSecondaryIndex)
+                builders.add(((SSTableAttachedSecondaryIndex) index).newSegmentBuilder(directory));
+        return builders;
+    }
+
     /**
      * This helper acts as a closure around the indexManager
      * and updated cf data to ensure that down in
@@ -652,6 +833,19 @@ public class SecondaryIndexManager
             return mostSelective.search(filter);
     }
 
+    /**
+     * Same as {@link #search} but returns the rows as they are found rather than all at once.
+     * The returned iterator must be closed.
+     */
+    public CloseableIterator<Row> searchIterator(ExtendedFilter filter)
+    {
+        SecondaryIndexSearcher mostSelective = getHighestSelectivityIndexSearcher(filter.getClause());
+        if (mostSelective == null)
+            return FBUtilities.closeableIterator(Collections.<Row>emptyIterator());
+        else
+            return mostSelective.searchIterator(filter);
+    }
+
     public Set<SecondaryIndex> getIndexesByNames(Set<String> idxNames)
     {
         Set<SecondaryIndex> result = new HashSet<>();
@@ -865,10 +1059,9 @@ public class SecondaryIndexManager
         long bestEstimate = Long.MAX_VALUE;
         for (SecondaryIndexSearcher searcher : indexSearchers)
         {
-            SecondaryIndex highestSelectivityIndex = searcher.highestSelectivityIndex(clause);
-            if (highestSelectivityIndex != null)
+            if (searcher.highestSelectivityIndex(clause) != null)
             {
-                long estimate = highestSelectivityIndex.estimateResultRows();
+                long estimate = searcher.estimateResultRows(clause);
                 if (estimate <= bestEstimate)
                 {
                     bestEstimate = estimate;
@@ -26,10 +26,17 @@ import org.apache.cassandra.db.filter.ExtendedFilter;
 import org.apache.cassandra.exceptions.InvalidRequestException;
 import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.CloseableIterator;
 import org.apache.cassandra.utils.FBUtilities;
 
 public abstract class SecondaryIndexSearcher
 {
+    /**
+     * If the most selective index of a query is still expected to return at least that many rows, the other
+     * indexed predicates are intersected with it before reading the base table (see {@link #intersectingPredicates}).
+     */
+    private static final long MERGE_JOIN_MIN_ESTIMATED_ROWS = Long.getLong("cassandra.index_merge_join_min_rows", 1000);
+
     protected final SecondaryIndexManager indexManager;
     protected final Set<ByteBuffer> columns;
     protected final ColumnFamilyStore baseCfs;
@@ -47,8 +54,29 @@ public abstract class SecondaryIndexSearcher
         return expr == null ? null : indexManager.getIndexForColumn(expr.column);
     }
 
+    /**
+     * @return the estimated number of rows matching the most selective indexed predicate of {@code clause},
+     * or {@code Long.MAX_VALUE} if no predicate can be served by this searcher.
+     */
+    public long estimateResultRows(List<IndexExpression> clause)
+    {
+        IndexExpression expr = highestSelectivityPredicate(clause, false);
+        return expr == null ? Long.MAX_VALUE : indexManager.getIndexForColumn(expr.column).estimateResultRows(expr.value);
+    }
+
     public abstract List<Row> search(ExtendedFilter filter);
 
+    /**
+     * Same as {@link #search} but returns the matching rows as they are found, so that a large result doesn't have
+     * to be kept in memory all at once. The returned iterator must be closed.
+     *
+     * The default implementation materializes the result of {@link #search}.
+     */
+    public CloseableIterator<Row> searchIterator(ExtendedFilter filter)
+    {
+        return FBUtilities.closeableIterator(search(filter).iterator());
+    }
+
     /**
      * @return true this index is able to handle the given index expressions.
      */
@@ -80,8 +108,8 @@ public abstract class SecondaryIndexSearcher
     protected IndexExpression highestSelectivityPredicate(List<IndexExpression> clause, boolean includeInTrace)
     {
         IndexExpression best = null;
-        int bestMeanCount = Integer.MAX_VALUE;
-        Map<SecondaryIndex, Integer> candidates = new HashMap<>();
+        long bestEstimate = Long.MAX_VALUE;
+        Map<SecondaryIndex, Long> candidates = new HashMap<>();
 
         for (IndexExpression expression : clause)
         {
@@ -93,12 +121,12 @@ public abstract class SecondaryIndexSearcher
             if (index == null || index.getIndexCfs() == null || !index.supportsOperator(expression.operator))
                 continue;
 
-            int columns = index.getIndexCfs().getMeanColumns();
-            candidates.put(index, columns);
-            if (columns < bestMeanCount)
+            long estimate = index.estimateResultRows(expression.value);
+            candidates.put(index, estimate);
+            if (estimate < bestEstimate)
             {
                 best = expression;
-                bestMeanCount = columns;
+                bestEstimate = estimate;
             }
         }
 
@@ -108,13 +136,55 @@ public abstract class SecondaryIndexSearcher
                 Tracing.trace("No applicable indexes found");
             else if (Tracing.isTracing())
                 // pay for an additional threadlocal get() rather than build the strings unnecessarily
-                Tracing.trace("Candidate index mean cardinalities are {}. Scanning with {}.",
+                Tracing.trace("Candidate index estimated cardinalities are {}. Scanning with {}.",
                               FBUtilities.toString(candidates),
                               indexManager.getIndexForColumn(best.column).getIndexName());
         }
         return best;
     }
 
+    /**
+     * Returns the indexed predicates of {@code clause}, other than {@code primary}, that should be intersected with
+     * the primary index before the base table is read, by increasing estimated cardinality.
+     *
+     * This is empty unless no single index is selective on its own, that is unless the primary index is expected
+     * to return at least {@code cassandra.index_merge_join_min_rows} rows: below that, walking more index rows costs
+     * more than the base reads it would save.
+     */
+    protected List<IndexExpression> intersectingPredicates(List<IndexExpression> clause, IndexExpression primary)
+    {
+        long primaryEstimate = indexManager.getIndexForColumn(primary.column).estimateResultRows(primary.value);
+        if (clause.size() < 2 || primaryEstimate < MERGE_JOIN_MIN_ESTIMATED_ROWS)
+            return Collections.emptyList();
+
+        final Map<IndexExpression, Long> estimates = new HashMap<>();
+        for (IndexExpression expression : clause)
+        {
+            if (expression.column.equals(primary.column) || !columns.contains(expression.column))
+                continue;
+
+            SecondaryIndex index = indexManager.getIndexForColumn(expression.column);
+            if (index == null || index.getIndexCfs() == null || !index.supportsOperator(expression.operator))
+                continue;
+
+            estimates.put(expression, index.estimateResultRows(expression.value));
+        }
+
+        List<IndexExpression> intersecting = new ArrayList<>(estimates.keySet());
+        Collections.sort(intersecting, new Comparator<IndexExpression>()
+        {
+            public int compare(IndexExpression e1, IndexExpression e2)
+            {
+                return Long.compare(estimates.get(e1), estimates.get(e2));
+            }
+        });
+
+        if (!intersecting.isEmpty() && Tracing.isTracing())
+            Tracing.trace("Most selective index is expected to return {} rows, intersecting it with {} other index(es)",
+                          primaryEstimate, intersecting.size());
+        return intersecting;
+    }
+
     /**
      * Returns {@code true} if the specified list of {@link IndexExpression}s require a full scan of all the nodes.
      *
@@ -19,6 +19,7 @@ package org.apache.cassandra.db.index.composites;
 
 import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -26,6 +27,7 @@ import org.apache.cassandra.utils.concurrent.OpOrder;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.composites.CBuilder;
 import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.composites.Composite;
@@ -35,10 +37,15 @@ import org.apache.cassandra.db.index.SecondaryIndexManager;
 import org.apache.cassandra.db.index.SecondaryIndexSearcher;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.CollectionType;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.service.StorageService;
 
 /**
  * Base class for secondary indexes where composites are involved.
+ *
+ * The cell names of all those indexes start with the key of the indexed partition, which is preceded by its token
+ * if the index has the {@link SecondaryIndex#TOKEN_ORDERED_OPTION_NAME} option.
  */
 public abstract class CompositesIndex extends AbstractSimplePerColumnSecondaryIndex
 {
@@ -119,6 +126,67 @@ public abstract class CompositesIndex extends AbstractSimplePerColumnSecondaryIn
         throw new AssertionError();
     }
 
+    /**
+     * Whether the index cell names start with the token of the indexed partition (rather than with its key). Both
+     * layouts sort entries the same way, but only this one allows to seek to the first entry of a token range.
+     */
+    public static boolean isTokenOrdered(ColumnDefinition cfDef)
+    {
+        return cfDef.hasIndexOption(SecondaryIndex.TOKEN_ORDERED_OPTION_NAME)
+            && Boolean.parseBoolean(cfDef.getIndexOptions().get(SecondaryIndex.TOKEN_ORDERED_OPTION_NAME));
+    }
+
+    public boolean isTokenOrdered()
+    {
+        return isTokenOrdered(columnDef);
+    }
+
+    /**
+     * Adds the types of the components identifying the indexed partition, which start every index cell name.
+     */
+    protected static void addPartitionKeyTypes(List<AbstractType<?>> types, ColumnDefinition cfDef)
+    {
+        if (isTokenOrdered(cfDef))
+            types.add(StorageService.getPartitioner().getTokenValidator());
+        types.add(SecondaryIndex.keyComparator);
+    }
+
+    /**
+     * Adds the components identifying the partition {@code rowKey} to an index cell name.
+     */
+    protected CBuilder addPartitionKey(CBuilder builder, ByteBuffer rowKey)
+    {
+        if (isTokenOrdered())
+            builder.add(baseCfs.partitioner.getTokenFactory().toByteArray(baseCfs.partitioner.getToken(rowKey)));
+        return builder.add(rowKey);
+    }
+
+    /**
+     * @return the position of the indexed partition key in the index cell names.
+     */
+    protected int partitionKeyPosition()
+    {
+        return isTokenOrdered() ? 1 : 0;
+    }
+
+    /**
+     * @return the prefix of the index entries of the partition {@code rowKey}.
+     */
+    public Composite makeIndexPrefix(ByteBuffer rowKey)
+    {
+        return addPartitionKey(getIndexComparator().prefixBuilder(), rowKey).build();
+    }
+
+    /**
+     * @return the prefix of the index entries of all the partitions having {@code token}. Only token ordered
+     * indexes can be sliced by token.
+     */
+    public Composite makeIndexPrefix(Token token)
+    {
+        assert isTokenOrdered();
+        return getIndexComparator().make(baseCfs.partitioner.getTokenFactory().toByteArray(token));
+    }
+
     protected CellName makeIndexColumnName(ByteBuffer rowKey, Cell cell)
     {
         return getIndexComparator().create(makeIndexColumnPrefix(rowKey, cell.name()), null);
@@ -164,6 +232,11 @@ public abstract class CompositesIndex extends AbstractSimplePerColumnSecondaryIn
             options.remove(SecondaryIndex.INDEX_KEYS_OPTION_NAME);
         }
 
+        String tokenOrdered = options.remove(SecondaryIndex.TOKEN_ORDERED_OPTION_NAME);
+        if (tokenOrdered != null && !tokenOrdered.equalsIgnoreCase("true") && !tokenOrdered.equalsIgnoreCase("false"))
+            throw new ConfigurationException(String.format("Invalid value %s for option %s, expecting true or false",
+                                                           tokenOrdered, SecondaryIndex.TOKEN_ORDERED_OPTION_NAME));
+
         if (!options.isEmpty())
             throw new ConfigurationException("Unknown options provided for COMPOSITES index: " + options.keySet());
     }
@@ -25,7 +25,6 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.composites.*;
-import org.apache.cassandra.db.index.SecondaryIndex;
 import org.apache.cassandra.db.marshal.*;
 import org.apache.cassandra.utils.concurrent.OpOrder;
 
@@ -54,7 +53,7 @@ public class CompositesIndexOnClusteringKey extends CompositesIndex
         // components total (where n is the number of clustering keys)
         int ckCount = baseMetadata.clusteringColumns().size();
         List<AbstractType<?>> types = new ArrayList<AbstractType<?>>(ckCount);
-        types.add(SecondaryIndex.keyComparator);
+        addPartitionKeyTypes(types, columnDef);
         for (int i = 0; i < columnDef.position(); i++)
             types.add(baseMetadata.clusteringColumns().get(i).type);
         for (int i = columnDef.position() + 1; i < ckCount; i++)
@@ -71,7 +70,7 @@ public class CompositesIndexOnClusteringKey extends CompositesIndex
     {
         int count = Math.min(baseCfs.metadata.clusteringColumns().size(), columnName.size());
         CBuilder builder = getIndexComparator().prefixBuilder();
-        builder.add(rowKey);
+        addPartitionKey(builder, rowKey);
         for (int i = 0; i < Math.min(columnDef.position(), count); i++)
             builder.add(columnName.get(i));
         for (int i = columnDef.position() + 1; i < count; i++)
@@ -81,18 +80,19 @@ public class CompositesIndexOnClusteringKey extends CompositesIndex
 
     public IndexedEntry decodeEntry(DecoratedKey indexedValue, Cell indexEntry)
     {
+        int keyPosition = partitionKeyPosition();
         int ckCount = baseCfs.metadata.clusteringColumns().size();
 
         CBuilder builder = baseCfs.getComparator().builder();
         for (int i = 0; i < columnDef.position(); i++)
-            builder.add(indexEntry.name().get(i + 1));
+            builder.add(indexEntry.name().get(keyPosition + i + 1));
 
         builder.add(indexedValue.getKey());
 
         for (int i = columnDef.position() + 1; i < ckCount; i++)
-            builder.add(indexEntry.name().get(i));
+            builder.add(indexEntry.name().get(keyPosition + i));
 
-        return new IndexedEntry(indexedValue, indexEntry.name(), indexEntry.timestamp(), indexEntry.name().get(0), builder.build());
+        return new IndexedEntry(indexedValue, indexEntry.name(), indexEntry.timestamp(), indexEntry.name().get(keyPosition), builder.build());
     }
 
     @Override
@@ -30,7 +30,6 @@ import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.composites.Composite;
 import org.apache.cassandra.db.composites.CompoundDenseCellNameType;
-import org.apache.cassandra.db.index.SecondaryIndex;
 import org.apache.cassandra.db.marshal.*;
 
 /**
@@ -53,7 +52,7 @@ public class CompositesIndexOnCollectionKey extends CompositesIndex
     {
         int count = 1 + baseMetadata.clusteringColumns().size(); // row key + clustering prefix
         List<AbstractType<?>> types = new ArrayList<AbstractType<?>>(count);
-        types.add(SecondaryIndex.keyComparator);
+        addPartitionKeyTypes(types, columnDef);
         for (int i = 0; i < count - 1; i++)
             types.add(baseMetadata.comparator.subtype(i));
         return new CompoundDenseCellNameType(types);
@@ -74,7 +73,7 @@ public class CompositesIndexOnCollectionKey extends CompositesIndex
     {
         int count = 1 + baseCfs.metadata.clusteringColumns().size();
         CBuilder builder = getIndexComparator().builder();
-        builder.add(rowKey);
+        addPartitionKey(builder, rowKey);
         for (int i = 0; i < Math.min(cellName.size(), count - 1); i++)
             builder.add(cellName.get(i));
         return builder.build();
@@ -82,11 +81,12 @@ public class CompositesIndexOnCollectionKey extends CompositesIndex
 
     public IndexedEntry decodeEntry(DecoratedKey indexedValue, Cell indexEntry)
     {
+        int keyPosition = partitionKeyPosition();
         int count = 1 + baseCfs.metadata.clusteringColumns().size();
         CBuilder builder = baseCfs.getComparator().builder();
         for (int i = 0; i < count - 1; i++)
-            builder.add(indexEntry.name().get(i + 1));
-        return new IndexedEntry(indexedValue, indexEntry.name(), indexEntry.timestamp(), indexEntry.name().get(0), builder.build());
+            builder.add(indexEntry.name().get(keyPosition + i + 1));
+        return new IndexedEntry(indexedValue, indexEntry.name(), indexEntry.timestamp(), indexEntry.name().get(keyPosition), builder.build());
     }
 
     @Override
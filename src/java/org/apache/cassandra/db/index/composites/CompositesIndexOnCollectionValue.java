@@ -30,7 +30,6 @@ import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.composites.Composite;
 import org.apache.cassandra.db.composites.CompoundDenseCellNameType;
-import org.apache.cassandra.db.index.SecondaryIndex;
 import org.apache.cassandra.db.marshal.*;
 
 /**
@@ -50,7 +49,7 @@ public class CompositesIndexOnCollectionValue extends CompositesIndex
     {
         int prefixSize = columnDef.position();
         List<AbstractType<?>> types = new ArrayList<>(prefixSize + 2);
-        types.add(SecondaryIndex.keyComparator);
+        addPartitionKeyTypes(types, columnDef);
         for (int i = 0; i < prefixSize; i++)
             types.add(baseMetadata.comparator.subtype(i));
         types.add(((CollectionType)columnDef.type).nameComparator()); // collection key
@@ -71,7 +70,7 @@ public class CompositesIndexOnCollectionValue extends CompositesIndex
     protected Composite makeIndexColumnPrefix(ByteBuffer rowKey, Composite cellName)
     {
         CBuilder builder = getIndexComparator().prefixBuilder();
-        builder.add(rowKey);
+        addPartitionKey(builder, rowKey);
         for (int i = 0; i < Math.min(columnDef.position(), cellName.size()); i++)
             builder.add(cellName.get(i));
 
@@ -87,12 +86,13 @@ public class CompositesIndexOnCollectionValue extends CompositesIndex
 
     public IndexedEntry decodeEntry(DecoratedKey indexedValue, Cell indexEntry)
     {
+        int keyPosition = partitionKeyPosition();
         int prefixSize = columnDef.position();
         CellName name = indexEntry.name();
         CBuilder builder = baseCfs.getComparator().builder();
         for (int i = 0; i < prefixSize; i++)
-            builder.add(name.get(i + 1));
-        return new IndexedEntry(indexedValue, name, indexEntry.timestamp(), name.get(0), builder.build(), name.get(prefixSize + 1));
+            builder.add(name.get(keyPosition + i + 1));
+        return new IndexedEntry(indexedValue, name, indexEntry.timestamp(), name.get(keyPosition), builder.build(), name.get(keyPosition + prefixSize + 1));
     }
 
     @Override
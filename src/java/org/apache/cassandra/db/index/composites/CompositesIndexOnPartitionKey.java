@@ -25,7 +25,6 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.composites.*;
-import org.apache.cassandra.db.index.SecondaryIndex;
 import org.apache.cassandra.db.marshal.*;
 import org.apache.cassandra.utils.concurrent.OpOrder;
 
@@ -53,7 +52,7 @@ public class CompositesIndexOnPartitionKey extends CompositesIndex
     {
         int ckCount = baseMetadata.clusteringColumns().size();
         List<AbstractType<?>> types = new ArrayList<AbstractType<?>>(ckCount + 1);
-        types.add(SecondaryIndex.keyComparator);
+        addPartitionKeyTypes(types, columnDef);
         for (int i = 0; i < ckCount; i++)
             types.add(baseMetadata.comparator.subtype(i));
         return new CompoundDenseCellNameType(types);
@@ -70,7 +69,7 @@ public class CompositesIndexOnPartitionKey extends CompositesIndex
     {
         int count = Math.min(baseCfs.metadata.clusteringColumns().size(), columnName.size());
         CBuilder builder = getIndexComparator().prefixBuilder();
-        builder.add(rowKey);
+        addPartitionKey(builder, rowKey);
         for (int i = 0; i < count; i++)
             builder.add(columnName.get(i));
         return builder.build();
@@ -78,12 +77,13 @@ public class CompositesIndexOnPartitionKey extends CompositesIndex
 
     public IndexedEntry decodeEntry(DecoratedKey indexedValue, Cell indexEntry)
     {
+        int keyPosition = partitionKeyPosition();
         int ckCount = baseCfs.metadata.clusteringColumns().size();
         CBuilder builder = baseCfs.getComparator().builder();
         for (int i = 0; i < ckCount; i++)
-            builder.add(indexEntry.name().get(i + 1));
+            builder.add(indexEntry.name().get(keyPosition + i + 1));
 
-        return new IndexedEntry(indexedValue, indexEntry.name(), indexEntry.timestamp(), indexEntry.name().get(0), builder.build());
+        return new IndexedEntry(indexedValue, indexEntry.name(), indexEntry.timestamp(), indexEntry.name().get(keyPosition), builder.build());
     }
 
     @Override
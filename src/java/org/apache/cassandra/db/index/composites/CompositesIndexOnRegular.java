@@ -25,7 +25,6 @@ import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.composites.*;
-import org.apache.cassandra.db.index.SecondaryIndex;
 import org.apache.cassandra.db.marshal.*;
 
 /**
@@ -51,7 +50,7 @@ public class CompositesIndexOnRegular extends CompositesIndex
     {
         int prefixSize = columnDef.position();
         List<AbstractType<?>> types = new ArrayList<AbstractType<?>>(prefixSize + 1);
-        types.add(SecondaryIndex.keyComparator);
+        addPartitionKeyTypes(types, columnDef);
         for (int i = 0; i < prefixSize; i++)
             types.add(baseMetadata.comparator.subtype(i));
         return new CompoundDenseCellNameType(types);
@@ -65,7 +64,7 @@ public class CompositesIndexOnRegular extends CompositesIndex
     protected Composite makeIndexColumnPrefix(ByteBuffer rowKey, Composite cellName)
     {
         CBuilder builder = getIndexComparator().prefixBuilder();
-        builder.add(rowKey);
+        addPartitionKey(builder, rowKey);
         for (int i = 0; i < Math.min(columnDef.position(), cellName.size()); i++)
             builder.add(cellName.get(i));
         return builder.build();
@@ -73,10 +72,11 @@ public class CompositesIndexOnRegular extends CompositesIndex
 
     public IndexedEntry decodeEntry(DecoratedKey indexedValue, Cell indexEntry)
     {
+        int keyPosition = partitionKeyPosition();
         CBuilder builder = baseCfs.getComparator().builder();
         for (int i = 0; i < columnDef.position(); i++)
-            builder.add(indexEntry.name().get(i + 1));
-        return new IndexedEntry(indexedValue, indexEntry.name(), indexEntry.timestamp(), indexEntry.name().get(0), builder.build());
+            builder.add(indexEntry.name().get(keyPosition + i + 1));
+        return new IndexedEntry(indexedValue, indexEntry.name(), indexEntry.timestamp(), indexEntry.name().get(keyPosition), builder.build());
     }
 
     @Override
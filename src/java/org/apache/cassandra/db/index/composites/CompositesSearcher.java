@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 
+import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +33,7 @@ import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.IndexExpression;
 import org.apache.cassandra.db.Row;
 import org.apache.cassandra.db.RowPosition;
+import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.composites.Composite;
 import org.apache.cassandra.db.composites.Composites;
@@ -40,10 +42,11 @@ import org.apache.cassandra.db.filter.ExtendedFilter;
 import org.apache.cassandra.db.filter.IDiskAtomFilter;
 import org.apache.cassandra.db.filter.QueryFilter;
 import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.db.index.IndexPageSizer;
 import org.apache.cassandra.db.index.SecondaryIndexManager;
 import org.apache.cassandra.db.index.SecondaryIndexSearcher;
 import org.apache.cassandra.dht.AbstractBounds;
-import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.utils.concurrent.OpOrder;
 
 public class CompositesSearcher extends SecondaryIndexSearcher
@@ -57,43 +60,103 @@ public class CompositesSearcher extends SecondaryIndexSearcher
 
     @Override
     public List<Row> search(ExtendedFilter filter)
+    {
+        try (ColumnFamilyStore.FilteredRowIterator rows = searchIterator(filter))
+        {
+            return Lists.newArrayList(rows);
+        }
+    }
+
+    @Override
+    public ColumnFamilyStore.FilteredRowIterator searchIterator(ExtendedFilter filter)
     {
         assert filter.getClause() != null && !filter.getClause().isEmpty();
         final IndexExpression primary = highestSelectivityPredicate(filter.getClause(), true);
         final CompositesIndex index = (CompositesIndex)indexManager.getIndexForColumn(primary.column);
+        List<IndexExpression> intersecting = intersectingPredicates(filter.getClause(), primary);
+        // The groups are only closed once the returned iterator is.
         // TODO: this should perhaps not open and maintain a writeOp for the full duration, but instead only *try* to delete stale entries, without blocking if there's no room
         // as it stands, we open a writeOp and keep it open for the duration to ensure that should this CF get flushed to make room we don't block the reclamation of any room being made
-        try (OpOrder.Group writeOp = baseCfs.keyspace.writeOrder.start(); OpOrder.Group baseOp = baseCfs.readOrdering.start(); OpOrder.Group indexOp = index.getIndexCfs().readOrdering.start())
+        List<OpOrder.Group> opGroups = new ArrayList<>(3 + intersecting.size());
+        try
+        {
+            OpOrder.Group writeOp = baseCfs.keyspace.writeOrder.start();
+            opGroups.add(writeOp);
+            opGroups.add(baseCfs.readOrdering.start());
+            opGroups.add(index.getIndexCfs().readOrdering.start());
+
+            List<IndexCursor> cursors = new ArrayList<>(intersecting.size());
+            for (IndexExpression expression : intersecting)
+            {
+                CompositesIndex other = (CompositesIndex)indexManager.getIndexForColumn(expression.column);
+                opGroups.add(other.getIndexCfs().readOrdering.start());
+                cursors.add(new IndexCursor(other, expression, filter));
+            }
+            return baseCfs.new FilteredRowIterator(getIndexedIterator(writeOp, filter, primary, index, cursors), filter, opGroups);
+        }
+        catch (RuntimeException | Error e)
         {
-            return baseCfs.filter(getIndexedIterator(writeOp, filter, primary, index), filter);
+            for (OpOrder.Group opGroup : Lists.reverse(opGroups))
+                opGroup.close();
+            throw e;
         }
     }
 
-    private Composite makePrefix(CompositesIndex index, ByteBuffer key, ExtendedFilter filter, boolean isStart)
+    private Composite makePrefix(CompositesIndex index, RowPosition position, ExtendedFilter filter, boolean isStart)
     {
-        if (key.remaining() == 0)
-            return Composites.EMPTY;
+        if (!(position instanceof DecoratedKey) || ((DecoratedKey)position).getKey().remaining() == 0)
+            return makeKeyBound(index, position, isStart);
 
-        Composite prefix;
+        ByteBuffer key = ((DecoratedKey)position).getKey();
         IDiskAtomFilter columnFilter = filter.columnFilter(key);
         if (columnFilter instanceof SliceQueryFilter)
         {
             SliceQueryFilter sqf = (SliceQueryFilter)columnFilter;
             Composite columnName = isStart ? sqf.start() : sqf.finish();
-            prefix = columnName.isEmpty() ? index.getIndexComparator().make(key) : index.makeIndexColumnPrefix(key, columnName);
+            if (!columnName.isEmpty())
+            {
+                Composite prefix = index.makeIndexColumnPrefix(key, columnName);
+                return isStart ? prefix.start() : prefix.end();
+            }
+        }
+        return makeKeyBound(index, position, isStart);
+    }
+
+    /**
+     * @return the bound of the slice of the index row of {@code index} starting (or ending) with the entries of
+     * {@code position}, or an empty composite if the slice has to start at the beginning (or stop at the end) of
+     * the row. Token bounds can only be turned into slice bounds if the index is token ordered.
+     */
+    private static Composite makeKeyBound(CompositesIndex index, RowPosition position, boolean isStart)
+    {
+        Composite prefix;
+        if (position instanceof DecoratedKey)
+        {
+            ByteBuffer key = ((DecoratedKey)position).getKey();
+            if (key.remaining() == 0)
+                return Composites.EMPTY;
+            prefix = index.makeIndexPrefix(key);
         }
         else
         {
-            prefix = index.getIndexComparator().make(key);
+            if (!index.isTokenOrdered() || position.isMinimum(index.getBaseCfs().partitioner))
+                return Composites.EMPTY;
+            prefix = index.makeIndexPrefix(position.getToken());
         }
         return isStart ? prefix.start() : prefix.end();
     }
 
-    private ColumnFamilyStore.AbstractScanIterator getIndexedIterator(final OpOrder.Group writeOp, final ExtendedFilter filter, final IndexExpression primary, final CompositesIndex index)
+    private ColumnFamilyStore.AbstractScanIterator getIndexedIterator(final OpOrder.Group writeOp,
+                                                                      final ExtendedFilter filter,
+                                                                      final IndexExpression primary,
+                                                                      final CompositesIndex index,
+                                                                      final List<IndexCursor> intersecting)
     {
         // Start with the most-restrictive indexed clause, then apply remaining clauses
-        // to each row matching that clause.
-        // TODO: allow merge join instead of just one index + loop
+        // to each row matching that clause. If no index is selective enough on its own, the partitions
+        // of the primary index are first intersected with the ones of the other indexed clauses (merge
+        // join on the partition key, which all our index rows are sorted by), so that we only read base
+        // partitions having an entry in every one of those indexes.
         assert index != null;
         assert index.getIndexCfs() != null;
         final DecoratedKey indexKey = index.getIndexKeyFor(primary.value);
@@ -102,20 +165,18 @@ public class CompositesSearcher extends SecondaryIndexSearcher
             logger.debug("Most-selective indexed predicate is {}", index.expressionString(primary));
 
         /*
-         * XXX: If the range requested is a token range, we'll have to start at the beginning (and stop at the end) of
-         * the indexed row unfortunately (which will be inefficient), because we have not way to intuit the smallest
-         * possible key having a given token. A fix would be to actually store the token along the key in the
-         * indexed row.
+         * If the range requested is a token range, we can only seek to its start (and stop at its end) if the index
+         * is token ordered, as we have no way to intuit the smallest possible key having a given token otherwise.
+         * If it isn't, we'll have to start at the beginning (and stop at the end) of the indexed row unfortunately,
+         * which is inefficient, all the more so with vnodes as each of the many ranges queried will scan the row.
          */
         final AbstractBounds<RowPosition> range = filter.dataRange.keyRange();
-        ByteBuffer startKey = range.left instanceof DecoratedKey ? ((DecoratedKey)range.left).getKey() : ByteBufferUtil.EMPTY_BYTE_BUFFER;
-        ByteBuffer endKey = range.right instanceof DecoratedKey ? ((DecoratedKey)range.right).getKey() : ByteBufferUtil.EMPTY_BYTE_BUFFER;
 
         final CellNameType baseComparator = baseCfs.getComparator();
         final CellNameType indexComparator = index.getIndexCfs().getComparator();
 
-        final Composite startPrefix = makePrefix(index, startKey, filter, true);
-        final Composite endPrefix = makePrefix(index, endKey, filter, false);
+        final Composite startPrefix = makePrefix(index, range.left, filter, true);
+        final Composite endPrefix = makePrefix(index, range.right, filter, false);
 
         return new ColumnFamilyStore.AbstractScanIterator()
         {
@@ -125,8 +186,15 @@ public class CompositesSearcher extends SecondaryIndexSearcher
             private int limit = filter.currentLimit();
             private int columnsCount = 0;
 
-            // We have to fetch at least two rows to avoid breaking paging if the first row doesn't satisfy all clauses
-            private int indexCellsPerQuery = Math.max(2, Math.min(filter.maxColumns(), filter.maxRows()));
+            private final IndexPageSizer pageSizer = new IndexPageSizer(index.getIndexCfs().metric, limit);
+            // the number of cells requested for the last page of the index row
+            private int indexCellsPerQuery;
+
+            // The smallest partition that may have an entry in all the intersected indexes
+            private DecoratedKey intersectingNext;
+
+            // The base rows already read for the entries of the current page, by index cell name
+            private final Map<CellName, Pair<SliceQueryFilter, ColumnFamily>> prefetched = new HashMap<>();
 
             public boolean needsFiltering()
             {
@@ -168,9 +236,11 @@ public class CompositesSearcher extends SecondaryIndexSearcher
                             return makeReturn(currentKey, data);
                         }
 
+                        indexCellsPerQuery = pageSizer.nextPageSize();
+
                         if (logger.isTraceEnabled())
                             logger.trace("Scanning index {} starting with {}",
-                                         index.expressionString(primary), indexComparator.getString(startPrefix));
+                                         index.expressionString(primary), indexComparator.getString(lastSeenPrefix));
 
                         QueryFilter indexFilter = QueryFilter.getSliceFilter(indexKey,
                                                                              index.getIndexCfs().name,
@@ -185,6 +255,7 @@ public class CompositesSearcher extends SecondaryIndexSearcher
 
                         Collection<Cell> sortedCells = indexRow.getSortedColumns();
                         columnsRead = sortedCells.size();
+                        pageSizer.onPageRead(columnsRead);
                         indexCells = new ArrayDeque<>(sortedCells);
                         Cell firstCell = sortedCells.iterator().next();
 
@@ -245,6 +316,19 @@ public class CompositesSearcher extends SecondaryIndexSearcher
                             }
                         }
 
+                        if (!intersecting.isEmpty() && !matchesIntersecting(dk))
+                        {
+                            // Since the primary index row is sorted by partition, we can jump straight to the
+                            // next partition that every index has an entry for.
+                            if (intersectingNext == null)
+                            {
+                                logger.trace("No more partitions matching all intersected indexes");
+                                return makeReturn(currentKey, data);
+                            }
+                            skipTo(intersectingNext);
+                            continue;
+                        }
+
                         // Check if this entry cannot be a hit due to the original cell filter
                         Composite start = entry.indexedEntryPrefix;
                         if (!filter.columnFilter(dk.getKey()).maySelectPrefix(baseComparator, start))
@@ -263,24 +347,11 @@ public class CompositesSearcher extends SecondaryIndexSearcher
                         if (logger.isTraceEnabled())
                             logger.trace("Adding index hit to current row for {}", indexComparator.getString(cell.name()));
 
-                        // We always query the whole CQL3 row. In the case where the original filter was a name filter this might be
-                        // slightly wasteful, but this probably doesn't matter in practice and it simplify things.
-                        ColumnSlice dataSlice = new ColumnSlice(start, entry.indexedEntryPrefix.end());
-                        // If the table has static columns, we must fetch them too as they may need to be returned too.
-                        // Note that this is potentially wasteful for 2 reasons:
-                        //  1) we will retrieve the static parts for each indexed row, even if we have more than one row in
-                        //     the same partition. If we were to group data queries to rows on the same slice, which would
-                        //     speed up things in general, we would also optimize here since we would fetch static columns only
-                        //     once for each group.
-                        //  2) at this point we don't know if the user asked for static columns or not, so we might be fetching
-                        //     them for nothing. We would however need to ship the list of "CQL3 columns selected" with getRangeSlice
-                        //     to be able to know that.
-                        // TODO: we should improve both point above
-                        ColumnSlice[] slices = baseCfs.metadata.hasStaticColumns()
-                                             ? new ColumnSlice[]{ baseCfs.metadata.comparator.staticPrefix().slice(), dataSlice }
-                                             : new ColumnSlice[]{ dataSlice };
-                        SliceQueryFilter dataFilter = new SliceQueryFilter(slices, false, Integer.MAX_VALUE, baseCfs.metadata.clusteringColumns().size());
-                        ColumnFamily newData = baseCfs.getColumnFamily(new QueryFilter(dk, baseCfs.name, dataFilter, filter.timestamp));
+                        Pair<SliceQueryFilter, ColumnFamily> baseRow = prefetched.remove(cell.name());
+                        if (baseRow == null)
+                            baseRow = readBaseRows(cell, dk, entry);
+                        SliceQueryFilter dataFilter = baseRow.left;
+                        ColumnFamily newData = baseRow.right;
                         if (newData == null || index.isStale(entry, newData, filter.timestamp))
                         {
                             index.delete(entry, writeOp);
@@ -302,11 +373,232 @@ public class CompositesSearcher extends SecondaryIndexSearcher
                             data = ArrayBackedSortedColumns.factory.create(baseCfs.metadata);
                         data.addAll(newData);
                         columnsCount += dataFilter.lastCounted();
+                        pageSizer.onReturned(dataFilter.lastCounted());
                     }
                  }
              }
 
+            /**
+             * Reads the base row of the entry of {@code cell}, along with the ones of the following entries of the
+             * current page that may be hits, in a single batch. The index row is sorted by partition, so the batch
+             * reads the partitions in the order of the data files. The rows read for the following entries are kept
+             * in {@code prefetched} until those entries are reached.
+             */
+            private Pair<SliceQueryFilter, ColumnFamily> readBaseRows(Cell cell, DecoratedKey dk, CompositesIndex.IndexedEntry entry)
+            {
+                List<CellName> names = new ArrayList<>();
+                List<QueryFilter> dataFilters = new ArrayList<>();
+                names.add(cell.name());
+                dataFilters.add(new QueryFilter(dk, baseCfs.name, makeDataFilter(entry), filter.timestamp));
+
+                // When intersecting, which partitions are read is only known one entry at a time
+                if (intersecting.isEmpty())
+                {
+                    DecoratedKey lastKey = dk;
+                    Composite lastPrefix = entry.indexedEntryPrefix;
+                    for (Cell next : indexCells)
+                    {
+                        if (!next.isLive(filter.timestamp) || prefetched.containsKey(next.name()))
+                            continue;
+
+                        CompositesIndex.IndexedEntry nextEntry = index.decodeEntry(indexKey, next);
+                        DecoratedKey nextKey = baseCfs.partitioner.decorateKey(nextEntry.indexedKey);
+                        if (!range.contains(nextKey))
+                        {
+                            if (!range.right.isMinimum(baseCfs.partitioner) && range.right.compareTo(nextKey) < 0)
+                                break;
+                            continue;
+                        }
+
+                        if (!filter.columnFilter(nextKey.getKey()).maySelectPrefix(baseComparator, nextEntry.indexedEntryPrefix))
+                            continue;
+
+                        // the entries of a collection index have one cell per element of the same CQL3 row
+                        if (nextKey.equals(lastKey) && nextEntry.indexedEntryPrefix.equals(lastPrefix))
+                            continue;
+
+                        names.add(next.name());
+                        dataFilters.add(new QueryFilter(nextKey, baseCfs.name, makeDataFilter(nextEntry), filter.timestamp));
+                        lastKey = nextKey;
+                        lastPrefix = nextEntry.indexedEntryPrefix;
+                    }
+                }
+
+                List<ColumnFamily> rows = baseCfs.getColumnFamilies(dataFilters);
+                for (int i = 0; i < rows.size(); i++)
+                {
+                    pageSizer.onBaseRowFetched(rows.get(i));
+                    if (i > 0)
+                        prefetched.put(names.get(i), Pair.create((SliceQueryFilter) dataFilters.get(i).filter, rows.get(i)));
+                }
+                return Pair.create((SliceQueryFilter) dataFilters.get(0).filter, rows.get(0));
+            }
+
+            private SliceQueryFilter makeDataFilter(CompositesIndex.IndexedEntry entry)
+            {
+                // We always query the whole CQL3 row. In the case where the original filter was a name filter this might be
+                // slightly wasteful, but this probably doesn't matter in practice and it simplify things.
+                ColumnSlice dataSlice = new ColumnSlice(entry.indexedEntryPrefix, entry.indexedEntryPrefix.end());
+                // If the table has static columns, we must fetch them too as they may need to be returned too.
+                // Note that this is potentially wasteful for 2 reasons:
+                //  1) we will retrieve the static parts for each indexed row, even if we have more than one row in
+                //     the same partition. If we were to group data queries to rows on the same slice, which would
+                //     speed up things in general, we would also optimize here since we would fetch static columns only
+                //     once for each group.
+                //  2) at this point we don't know if the user asked for static columns or not, so we might be fetching
+                //     them for nothing. We would however need to ship the list of "CQL3 columns selected" with getRangeSlice
+                //     to be able to know that.
+                // TODO: we should improve both point above
+                ColumnSlice[] slices = baseCfs.metadata.hasStaticColumns()
+                                     ? new ColumnSlice[]{ baseCfs.metadata.comparator.staticPrefix().slice(), dataSlice }
+                                     : new ColumnSlice[]{ dataSlice };
+                return new SliceQueryFilter(slices, false, Integer.MAX_VALUE, baseCfs.metadata.clusteringColumns().size());
+            }
+
+            /**
+             * Seeks all the intersected indexes to {@code dk} and returns whether they all have an entry for that
+             * partition. Otherwise, {@code intersectingNext} is set to the smallest partition after {@code dk}
+             * that may be in all of them (or null if there is none).
+             */
+            private boolean matchesIntersecting(DecoratedKey dk)
+            {
+                DecoratedKey target = dk;
+                boolean converged = false;
+                while (!converged)
+                {
+                    converged = true;
+                    for (IndexCursor cursor : intersecting)
+                    {
+                        DecoratedKey next = cursor.seekTo(target);
+                        if (next == null)
+                        {
+                            intersectingNext = null;
+                            return false;
+                        }
+                        if (next.compareTo(target) > 0)
+                        {
+                            // leapfrog: every other cursor has to catch up with this one
+                            target = next;
+                            converged = false;
+                        }
+                    }
+                }
+                intersectingNext = target;
+                return target.equals(dk);
+            }
+
+            /**
+             * Skips the primary index entries for the partitions before {@code key}, querying the index again
+             * from that partition if there is no buffered entry for it.
+             */
+            private void skipTo(DecoratedKey key)
+            {
+                while (!indexCells.isEmpty())
+                {
+                    Cell cell = indexCells.peek();
+                    if (baseCfs.partitioner.decorateKey(index.decodeEntry(indexKey, cell).indexedKey).compareTo(key) >= 0)
+                        return;
+                    lastSeenPrefix = indexCells.poll().name();
+                }
+
+                // We only need to query again if the last page wasn't the last one.
+                if (columnsRead >= indexCellsPerQuery)
+                {
+                    Composite keyPrefix = index.makeIndexPrefix(key.getKey()).start();
+                    if (indexComparator.compare(keyPrefix, endPrefix) < 0 || endPrefix.isEmpty())
+                        lastSeenPrefix = keyPrefix;
+                }
+            }
+
             public void close() throws IOException {}
         };
     }
+
+    /**
+     * A forward-only cursor over the index row of a predicate intersected with the primary one,
+     * that reads the index row by pages starting from the partition it is asked to seek to.
+     */
+    private static class IndexCursor
+    {
+        private final CompositesIndex index;
+        private final DecoratedKey indexKey;
+        private final ExtendedFilter filter;
+        private final Composite endPrefix;
+        private final int pageSize;
+
+        private final Deque<Cell> cells = new ArrayDeque<>();
+        private Composite lastRead;
+        private boolean exhausted;
+
+        private IndexCursor(CompositesIndex index, IndexExpression expression, ExtendedFilter filter)
+        {
+            this.index = index;
+            this.indexKey = index.getIndexKeyFor(expression.value);
+            this.filter = filter;
+            this.endPrefix = makeKeyBound(index, filter.dataRange.keyRange().right, false);
+            this.pageSize = Math.max(2, Math.min(filter.maxColumns(), filter.maxRows()));
+        }
+
+        /**
+         * @return the first partition greater or equal to {@code target} having a live entry in this index,
+         * or null if there is none.
+         */
+        private DecoratedKey seekTo(DecoratedKey target)
+        {
+            while (true)
+            {
+                while (!cells.isEmpty())
+                {
+                    Cell cell = cells.peek();
+                    if (cell.isLive(filter.timestamp))
+                    {
+                        DecoratedKey dk = decorate(cell);
+                        if (dk.compareTo(target) >= 0)
+                            return dk;
+                    }
+                    cells.poll();
+                }
+
+                if (exhausted)
+                    return null;
+
+                // Entries are read at most once: if the last page ended past the start of the target partition
+                // (because of dead entries), we resume from the end of that page instead.
+                Composite start = index.makeIndexPrefix(target.getKey()).start();
+                if (lastRead != null && index.getIndexComparator().compare(lastRead, start) > 0)
+                    start = lastRead;
+                if (!endPrefix.isEmpty() && index.getIndexComparator().compare(start, endPrefix) >= 0)
+                    return null;
+
+                if (logger.isTraceEnabled())
+                    logger.trace("Seeking intersected index {} to {}", index.getIndexName(), target);
+
+                QueryFilter indexFilter = QueryFilter.getSliceFilter(indexKey,
+                                                                     index.getIndexCfs().name,
+                                                                     start,
+                                                                     endPrefix,
+                                                                     false,
+                                                                     pageSize,
+                                                                     filter.timestamp);
+                ColumnFamily indexRow = index.getIndexCfs().getColumnFamily(indexFilter);
+                if (indexRow == null || !indexRow.hasColumns())
+                    return null;
+
+                Collection<Cell> sortedCells = indexRow.getSortedColumns();
+                exhausted = sortedCells.size() < pageSize;
+                for (Cell cell : sortedCells)
+                {
+                    // skip the entry we already saw at the end of the previous page
+                    if (!cell.name().equals(lastRead))
+                        cells.add(cell);
+                    lastRead = cell.name();
+                }
+            }
+        }
+
+        private DecoratedKey decorate(Cell cell)
+        {
+            return index.getBaseCfs().partitioner.decorateKey(index.decodeEntry(indexKey, cell).indexedKey);
+        }
+    }
 }
@@ -19,11 +19,13 @@ package org.apache.cassandra.db.index.keys;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
+import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,15 +53,36 @@ public class KeysSearcher extends SecondaryIndexSearcher
 
     @Override
     public List<Row> search(ExtendedFilter filter)
+    {
+        try (ColumnFamilyStore.FilteredRowIterator rows = searchIterator(filter))
+        {
+            return Lists.newArrayList(rows);
+        }
+    }
+
+    @Override
+    public ColumnFamilyStore.FilteredRowIterator searchIterator(ExtendedFilter filter)
     {
         assert filter.getClause() != null && !filter.getClause().isEmpty();
         final IndexExpression primary = highestSelectivityPredicate(filter.getClause(), true);
         final SecondaryIndex index = indexManager.getIndexForColumn(primary.column);
+        // The groups are only closed once the returned iterator is.
         // TODO: this should perhaps not open and maintain a writeOp for the full duration, but instead only *try* to delete stale entries, without blocking if there's no room
         // as it stands, we open a writeOp and keep it open for the duration to ensure that should this CF get flushed to make room we don't block the reclamation of any room  being made
-        try (OpOrder.Group writeOp = baseCfs.keyspace.writeOrder.start(); OpOrder.Group baseOp = baseCfs.readOrdering.start(); OpOrder.Group indexOp = index.getIndexCfs().readOrdering.start())
+        List<OpOrder.Group> opGroups = new ArrayList<>(3);
+        try
         {
-            return baseCfs.filter(getIndexedIterator(writeOp, filter, primary, index), filter);
+            OpOrder.Group writeOp = baseCfs.keyspace.writeOrder.start();
+            opGroups.add(writeOp);
+            opGroups.add(baseCfs.readOrdering.start());
+            opGroups.add(index.getIndexCfs().readOrdering.start());
+            return baseCfs.new FilteredRowIterator(getIndexedIterator(writeOp, filter, primary, index), filter, opGroups);
+        }
+        catch (RuntimeException | Error e)
+        {
+            for (OpOrder.Group opGroup : Lists.reverse(opGroups))
+                opGroup.close();
+            throw e;
         }
     }
 
@@ -96,10 +119,12 @@ public class KeysSearcher extends SecondaryIndexSearcher
             private Iterator<Cell> indexColumns;
             private int columnsRead = Integer.MAX_VALUE;
 
+            private final IndexPageSizer pageSizer = new IndexPageSizer(index.getIndexCfs().metric, Math.min(filter.maxRows(), filter.maxColumns()));
+            // the number of cells requested for the last page of the index row
+            private int rowsPerQuery;
+
             protected Row computeNext()
             {
-                // We shouldn't fetch only 1 row as this provides buggy paging in case the first row doesn't satisfy all clauses
-                int rowsPerQuery = Math.max(Math.min(filter.maxRows(), filter.maxColumns()), 2);
                 while (true)
                 {
                     if (indexColumns == null || !indexColumns.hasNext())
@@ -110,6 +135,8 @@ public class KeysSearcher extends SecondaryIndexSearcher
                             return endOfData();
                         }
 
+                        rowsPerQuery = pageSizer.nextPageSize();
+
                         if (logger.isTraceEnabled() && (index instanceof AbstractSimplePerColumnSecondaryIndex))
                             logger.trace("Scanning index {} starting with {}",
                                          ((AbstractSimplePerColumnSecondaryIndex)index).expressionString(primary), index.getBaseCfs().metadata.getKeyValidator().getString(startKey.toByteBuffer()));
@@ -131,6 +158,7 @@ public class KeysSearcher extends SecondaryIndexSearcher
 
                         Collection<Cell> sortedCells = indexRow.getSortedColumns();
                         columnsRead = sortedCells.size();
+                        pageSizer.onPageRead(columnsRead);
                         indexColumns = sortedCells.iterator();
                         Cell firstCell = sortedCells.iterator().next();
 
@@ -173,6 +201,7 @@ public class KeysSearcher extends SecondaryIndexSearcher
 
                         logger.trace("Returning index hit for {}", dk);
                         ColumnFamily data = baseCfs.getColumnFamily(new QueryFilter(dk, baseCfs.name, filter.columnFilter(lastSeenKey.toByteBuffer()), filter.timestamp));
+                        pageSizer.onBaseRowFetched(data);
                         // While the column family we'll get in the end should contains the primary clause cell, the initialFilter may not have found it and can thus be null
                         if (data == null)
                             data = ArrayBackedSortedColumns.factory.create(baseCfs.metadata);
@@ -194,6 +223,11 @@ public class KeysSearcher extends SecondaryIndexSearcher
                             ((PerColumnSecondaryIndex)index).delete(dk.getKey(), dummyCell, writeOp);
                             continue;
                         }
+
+                        // the other clauses are only checked by CFS.filter, but we need to know how often they are
+                        // satisfied to size the next pages
+                        if (filter.isSatisfiedBy(dk, data, null, null))
+                            pageSizer.onReturned(1);
                         return new Row(dk, data);
                     }
                  }
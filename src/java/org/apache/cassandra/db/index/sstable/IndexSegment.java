@@ -0,0 +1,742 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index.sstable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import com.google.common.collect.AbstractIterator;
+
+import org.apache.cassandra.db.Cell;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.RowPosition;
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.db.composites.CType;
+import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.io.FSReadError;
+import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.util.*;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.ObjectSizes;
+
+/**
+ * The entries of an {@link SSTableAttachedSecondaryIndex} for the data of a single sstable.
+ *
+ * The indexed values are sorted, and the rows having each of them are sorted in the order of the sstable, so a
+ * segment is read with a binary search on the bounds of the queried values followed, for each value within them,
+ * by another on the partition key to start from. The rows of these values are then merged back in sstable order.
+ *
+ * A segment is stored as a custom component of its sstable, which is mapped in memory and read in place: only the
+ * rows a search goes through are decoded. The file has the following layout:
+ * <pre>
+ *   version (int)
+ *   indexed column name (short length prefixed)
+ *   number of values (int)
+ *   for each value: position of the value in the file (int)
+ *   for each value, and once more: number of rows indexed for the values before it (int)
+ *   for each row: position of the row in the file (int)
+ *   for each value: value (short length prefixed)
+ *   for each value, for each of its rows: partition key (short length prefixed), clustering prefix
+ * </pre>
+ * The positions being ints, a segment is limited to 2GB.
+ */
+public class IndexSegment
+{
+    /**
+     * The version of the layout above. The segments written with another one are ignored, and built again.
+     */
+    public static final int VERSION = 1;
+
+    private final String path;
+    private final ByteBuffer buffer;
+    private final AbstractType<?> valueType;
+    private final CType clusteringType;
+    private final IPartitioner partitioner;
+
+    private final int valueCount;
+    // the positions in the buffer of the tables of the header
+    private final int valuePositions;
+    private final int cumulativeRowCounts;
+    private final int rowPositions;
+
+    private IndexSegment(String path,
+                         ByteBuffer buffer,
+                         AbstractType<?> valueType,
+                         CType clusteringType,
+                         IPartitioner partitioner,
+                         int valueCount,
+                         int valuePositions)
+    {
+        this.path = path;
+        this.buffer = buffer;
+        this.valueType = valueType;
+        this.clusteringType = clusteringType;
+        this.partitioner = partitioner;
+        this.valueCount = valueCount;
+        this.valuePositions = valuePositions;
+        this.cumulativeRowCounts = valuePositions + 4 * valueCount;
+        this.rowPositions = cumulativeRowCounts + 4 * (valueCount + 1);
+    }
+
+    /**
+     * Maps the segment of {@code column} stored in {@code file}. The mapping is released when the segment is
+     * garbage collected, so the rows read from it are copied out of it.
+     *
+     * @return the segment, or null if the file has been written with another version or for another column.
+     */
+    public static IndexSegment open(File file,
+                                    ByteBuffer column,
+                                    AbstractType<?> valueType,
+                                    CType clusteringType,
+                                    IPartitioner partitioner) throws IOException
+    {
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+
+        if (buffer.capacity() < 4)
+            throw new IOException(String.format("Index segment %s is truncated", file));
+        if (buffer.getInt(0) != VERSION)
+            return null;
+
+        FileDataInput in = new MappedFileDataInput(buffer, file.getPath(), 0, 4);
+        if (!ByteBufferUtil.readWithShortLength(in).equals(column))
+            return null;
+
+        int valueCount = in.readInt();
+        IndexSegment segment = new IndexSegment(file.getPath(), buffer, valueType, clusteringType, partitioner, valueCount, (int) in.getFilePointer());
+        if (segment.rowPositions > buffer.capacity() || segment.rowPositions + 4L * segment.rowsBefore(valueCount) > buffer.capacity())
+            throw new IOException(String.format("Index segment %s is truncated", file));
+        return segment;
+    }
+
+    /**
+     * @return the rows indexed for the values within {@code bounds}, starting with the ones of the first partition
+     * greater or equal to {@code start}, merged in the order of the sstable given by {@code comparator}.
+     */
+    public Iterator<IndexedRow> rows(ValueBounds bounds, RowPosition start, Comparator<IndexedRow> comparator)
+    {
+        int first = firstValue(bounds);
+        int last = lastValue(bounds);
+        if (first > last)
+            return Collections.emptyIterator();
+
+        if (first == last)
+            return new Cursor(firstRow(first, start), rowsBefore(first + 1));
+
+        List<Iterator<IndexedRow>> cursors = new ArrayList<>(last - first + 1);
+        for (int i = first; i <= last; i++)
+            cursors.add(new Cursor(firstRow(i, start), rowsBefore(i + 1)));
+        return new MergedRows(cursors, comparator);
+    }
+
+    /**
+     * @return the number of rows indexed for the values within {@code bounds}.
+     */
+    public long rowCount(ValueBounds bounds)
+    {
+        int first = firstValue(bounds);
+        int last = lastValue(bounds);
+        return first > last ? 0 : rowsBefore(last + 1) - rowsBefore(first);
+    }
+
+    /**
+     * @return the mean number of rows indexed per value.
+     */
+    public long meanRowCount()
+    {
+        return valueCount == 0 ? 0 : rowsBefore(valueCount) / valueCount;
+    }
+
+    // the index of the first value within bounds
+    private int firstValue(ValueBounds bounds)
+    {
+        int low = 0, high = valueCount;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (bounds.isBefore(value(mid), valueType))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // the index of the last value within bounds
+    private int lastValue(ValueBounds bounds)
+    {
+        int low = 0, high = valueCount;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (bounds.isAfter(value(mid), valueType))
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low - 1;
+    }
+
+    // the index of the first row of the value, of a partition greater or equal to start
+    private int firstRow(int value, RowPosition start)
+    {
+        int low = rowsBefore(value), high = rowsBefore(value + 1);
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (partitioner.decorateKey(rowKey(mid)).compareTo(start) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private int rowsBefore(int value)
+    {
+        return buffer.getInt(cumulativeRowCounts + 4 * value);
+    }
+
+    private ByteBuffer value(int value)
+    {
+        return readWithShortLength(buffer.getInt(valuePositions + 4 * value));
+    }
+
+    private ByteBuffer rowKey(int row)
+    {
+        return readWithShortLength(buffer.getInt(rowPositions + 4 * row));
+    }
+
+    private ByteBuffer readWithShortLength(int position)
+    {
+        int length = buffer.getShort(position) & 0xFFFF;
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(position + 2).limit(position + 2 + length);
+        return bytes;
+    }
+
+    /**
+     * Decodes the rows of a value from its first row to read on. The consecutive rows of a partition share its key.
+     */
+    private class Cursor extends AbstractIterator<IndexedRow>
+    {
+        private int next;
+        private final int end;
+        private DecoratedKey lastKey;
+
+        Cursor(int next, int end)
+        {
+            this.next = next;
+            this.end = end;
+        }
+
+        protected IndexedRow computeNext()
+        {
+            if (next >= end)
+                return endOfData();
+
+            FileDataInput in = new MappedFileDataInput(buffer, path, 0, buffer.getInt(rowPositions + 4 * next++));
+            try
+            {
+                // copied by the input
+                ByteBuffer key = ByteBufferUtil.readWithShortLength(in);
+                if (lastKey == null || !lastKey.getKey().equals(key))
+                    lastKey = partitioner.decorateKey(key);
+                return new IndexedRow(lastKey, clusteringType.serializer().deserialize(in));
+            }
+            catch (IOException e)
+            {
+                throw new FSReadError(e, path);
+            }
+        }
+    }
+
+    /**
+     * Merges the rows of several values. A row having a single value in an sstable, no row is returned twice.
+     */
+    private static class MergedRows extends AbstractIterator<IndexedRow>
+    {
+        private final PriorityQueue<PeekingCursor> queue;
+
+        MergedRows(List<Iterator<IndexedRow>> cursors, final Comparator<IndexedRow> comparator)
+        {
+            queue = new PriorityQueue<>(cursors.size(), new Comparator<PeekingCursor>()
+            {
+                public int compare(PeekingCursor c1, PeekingCursor c2)
+                {
+                    return comparator.compare(c1.head, c2.head);
+                }
+            });
+            for (Iterator<IndexedRow> cursor : cursors)
+            {
+                if (cursor.hasNext())
+                    queue.add(new PeekingCursor(cursor));
+            }
+        }
+
+        protected IndexedRow computeNext()
+        {
+            PeekingCursor cursor = queue.poll();
+            if (cursor == null)
+                return endOfData();
+
+            IndexedRow next = cursor.head;
+            if (cursor.advance())
+                queue.add(cursor);
+            return next;
+        }
+    }
+
+    private static class PeekingCursor
+    {
+        private final Iterator<IndexedRow> rows;
+        private IndexedRow head;
+
+        PeekingCursor(Iterator<IndexedRow> rows)
+        {
+            this.rows = rows;
+            this.head = rows.next();
+        }
+
+        boolean advance()
+        {
+            if (!rows.hasNext())
+                return false;
+            head = rows.next();
+            return true;
+        }
+    }
+
+    /**
+     * Collects the entries of a segment from the partitions of an sstable, in the order they are written to it.
+     * The entries are serialized as they are added, so the partitions may be backed by memory that is released once
+     * they are added.
+     *
+     * The entries are kept on heap up to {@code spillThreshold} bytes, and are then written to a temporary file of
+     * the sstable directory as a sorted run, so that the heap used by the builder of a large sstable stays bounded.
+     * The runs are merged when the segment is serialized: as they are in the order of the sstable, the rows of a
+     * value are the ones of each run in turn.
+     */
+    public static class Builder
+    {
+        private static final long EMPTY_ROWS_SIZE = ObjectSizes.measureDeep(new ArrayList<ByteBuffer>());
+        private static final long ENTRY_OVERHEAD = entryOverhead();
+        // the reference to a row in the list of its value
+        private static final long ROW_OVERHEAD = 8;
+
+        private final SSTableAttachedSecondaryIndex index;
+        private final CType clusteringType;
+        private final File directory;
+        private final long spillThreshold;
+        private final long now = System.currentTimeMillis();
+
+        private SortedMap<ByteBuffer, List<ByteBuffer>> entries;
+        private long entriesSize;
+        private final List<File> spills = new ArrayList<>();
+
+        Builder(SSTableAttachedSecondaryIndex index, File directory, long spillThreshold)
+        {
+            this.index = index;
+            this.clusteringType = index.getBaseCfs().getComparator();
+            this.directory = directory;
+            this.spillThreshold = spillThreshold;
+            this.entries = new TreeMap<>(index.getValueType());
+        }
+
+        private static long entryOverhead()
+        {
+            int count = 1000;
+            SortedMap<Integer, Integer> map = new TreeMap<>();
+            long empty = ObjectSizes.measureDeep(map);
+            for (int i = 0; i < count; i++)
+                map.put(i, 0);
+            return (ObjectSizes.measureDeep(map) - empty) / count - ObjectSizes.measure(count);
+        }
+
+        public void add(DecoratedKey key, Iterable<Cell> cells)
+        {
+            for (Cell cell : cells)
+                add(key, cell);
+        }
+
+        public void add(DecoratedKey key, Cell cell)
+        {
+            if (!index.indexes(cell.name()) || !cell.isLive(now))
+                return;
+
+            ByteBuffer value = cell.value();
+            List<ByteBuffer> valueRows = entries.get(value);
+            if (valueRows == null)
+            {
+                valueRows = new ArrayList<>();
+                value = ByteBufferUtil.clone(value);
+                entries.put(value, valueRows);
+                entriesSize += ENTRY_OVERHEAD + ObjectSizes.sizeOnHeapOf(value) + EMPTY_ROWS_SIZE;
+            }
+            ByteBuffer row = serializeRow(key, index.rowPrefix(cell.name()));
+            valueRows.add(row);
+            entriesSize += ROW_OVERHEAD + ObjectSizes.sizeOnHeapOf(row);
+
+            if (entriesSize > spillThreshold)
+                spill();
+        }
+
+        // a row as it is written to the segment: its partition key and clustering prefix
+        private ByteBuffer serializeRow(DecoratedKey key, Composite clustering)
+        {
+            ByteBuffer row = ByteBuffer.allocate(2 + key.getKey().remaining()
+                                                 + (int) clusteringType.serializer().serializedSize(clustering, TypeSizes.NATIVE));
+            DataOutputByteBuffer out = new DataOutputByteBuffer(row);
+            try
+            {
+                ByteBufferUtil.writeWithShortLength(key.getKey(), out);
+                clusteringType.serializer().serialize(clustering, out);
+            }
+            catch (IOException e)
+            {
+                throw new AssertionError(e);
+            }
+            row.flip();
+            return row;
+        }
+
+        /**
+         * Writes the entries collected so far to a new run, with the following layout:
+         * <pre>
+         *   for each value: value (short length prefixed), number of rows (int), size of the rows (int),
+         *                   for each row: size of the row (int), row as written to the segment
+         * </pre>
+         */
+        private void spill()
+        {
+            File file = FileUtils.createTempFile(index.spillPrefix(), ".tmp", directory);
+            spills.add(file);
+            try (DataOutputStreamPlus out = new DataOutputStreamPlus(new BufferedOutputStream(new FileOutputStream(file))))
+            {
+                for (Map.Entry<ByteBuffer, List<ByteBuffer>> entry : entries.entrySet())
+                {
+                    ByteBufferUtil.writeWithShortLength(entry.getKey(), out);
+                    out.writeInt(entry.getValue().size());
+                    int rowsSize = 0;
+                    for (ByteBuffer row : entry.getValue())
+                        rowsSize += 4 + row.remaining();
+                    out.writeInt(rowsSize);
+                    for (ByteBuffer row : entry.getValue())
+                    {
+                        out.writeInt(row.remaining());
+                        out.write(row.duplicate());
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                throw new FSWriteError(e, file);
+            }
+            entries = new TreeMap<>(index.getValueType());
+            entriesSize = 0;
+        }
+
+        /**
+         * Writes the segment with the layout described in {@link IndexSegment}. The tables of the header are written
+         * in successive passes over the spilled runs and the entries still on heap, rather than computed beforehand.
+         */
+        public void serialize(ByteBuffer column, final DataOutputPlus out) throws IOException
+        {
+            final long[] counts = new long[3]; // values, rows, size of the values
+            forEachEntry(false, new EntryVisitor()
+            {
+                public void value(ByteBuffer value, int rowCount)
+                {
+                    counts[0]++;
+                    counts[1] += rowCount;
+                    counts[2] += 2 + value.remaining();
+                }
+            });
+
+            final long valuesStart = 4 + 2 + column.remaining() + 4 + 4 * counts[0] + 4 * (counts[0] + 1) + 4 * counts[1];
+            checkedPosition(valuesStart + counts[2]);
+
+            out.writeInt(VERSION);
+            ByteBufferUtil.writeWithShortLength(column, out);
+            out.writeInt((int) counts[0]);
+
+            final long[] position = { valuesStart };
+            forEachEntry(false, new EntryVisitor()
+            {
+                public void value(ByteBuffer value, int rowCount) throws IOException
+                {
+                    out.writeInt((int) position[0]);
+                    position[0] += 2 + value.remaining();
+                }
+            });
+
+            final int[] rowsBefore = { 0 };
+            out.writeInt(rowsBefore[0]);
+            forEachEntry(false, new EntryVisitor()
+            {
+                public void value(ByteBuffer value, int rowCount) throws IOException
+                {
+                    rowsBefore[0] += rowCount;
+                    out.writeInt(rowsBefore[0]);
+                }
+            });
+
+            forEachEntry(true, new EntryVisitor()
+            {
+                public void row(ByteBuffer row) throws IOException
+                {
+                    out.writeInt(checkedPosition(position[0]));
+                    position[0] += row.remaining();
+                }
+            });
+            checkedPosition(position[0]);
+
+            forEachEntry(false, new EntryVisitor()
+            {
+                public void value(ByteBuffer value, int rowCount) throws IOException
+                {
+                    ByteBufferUtil.writeWithShortLength(value, out);
+                }
+            });
+
+            forEachEntry(true, new EntryVisitor()
+            {
+                public void row(ByteBuffer row) throws IOException
+                {
+                    out.write(row.duplicate());
+                }
+            });
+        }
+
+        private static int checkedPosition(long position) throws IOException
+        {
+            if (position > Integer.MAX_VALUE)
+                throw new IOException(String.format("Index segment is larger than 2GB (%d bytes)", position));
+            return (int) position;
+        }
+
+        /**
+         * Visits the merged entries of the runs and of the heap in order, along with their rows if {@code withRows}.
+         */
+        private void forEachEntry(boolean withRows, EntryVisitor visitor) throws IOException
+        {
+            List<RunReader> readers = new ArrayList<>(spills.size() + 1);
+            try
+            {
+                for (File spill : spills)
+                    readers.add(new SpillReader(spill));
+                readers.add(new HeapReader(entries));
+
+                Comparator<ByteBuffer> comparator = index.getValueType();
+                List<RunReader> current = new ArrayList<>(readers.size());
+                while (true)
+                {
+                    // the readers positioned on the smallest value, in the order of their runs
+                    ByteBuffer value = null;
+                    for (RunReader reader : readers)
+                    {
+                        ByteBuffer readerValue = reader.value();
+                        if (readerValue == null)
+                            continue;
+
+                        int cmp = value == null ? -1 : comparator.compare(readerValue, value);
+                        if (cmp < 0)
+                        {
+                            value = readerValue;
+                            current.clear();
+                        }
+                        if (cmp <= 0)
+                            current.add(reader);
+                    }
+                    if (value == null)
+                        return;
+
+                    int rowCount = 0;
+                    for (RunReader reader : current)
+                        rowCount += reader.rowCount();
+                    visitor.value(value, rowCount);
+
+                    for (RunReader reader : current)
+                    {
+                        if (withRows)
+                        {
+                            for (int i = 0; i < reader.rowCount(); i++)
+                                visitor.row(reader.nextRow());
+                        }
+                        reader.advance();
+                    }
+                    current.clear();
+                }
+            }
+            finally
+            {
+                for (RunReader reader : readers)
+                    FileUtils.closeQuietly(reader);
+            }
+        }
+
+        /**
+         * Writes the segment of {@code sstable}, which has just been written with the partitions added to this
+         * builder, and attaches it to the sstable.
+         */
+        public void complete(SSTableReader sstable)
+        {
+            try
+            {
+                index.attach(sstable, this);
+            }
+            finally
+            {
+                release();
+            }
+        }
+
+        /**
+         * Deletes the spilled runs, for a builder whose sstable has been aborted.
+         */
+        public void release()
+        {
+            for (File spill : spills)
+                FileUtils.deleteWithConfirm(spill);
+            spills.clear();
+            entries.clear();
+        }
+    }
+
+    private static abstract class EntryVisitor
+    {
+        public void value(ByteBuffer value, int rowCount) throws IOException
+        {
+        }
+
+        public void row(ByteBuffer row) throws IOException
+        {
+        }
+    }
+
+    /**
+     * Reads the entries of a run in order. The value it is positioned on is null once all have been read.
+     */
+    private interface RunReader extends Closeable
+    {
+        ByteBuffer value();
+
+        int rowCount();
+
+        ByteBuffer nextRow() throws IOException;
+
+        // skips the rows of the current value that haven't been read, and moves on to the next value
+        void advance() throws IOException;
+    }
+
+    private static class HeapReader implements RunReader
+    {
+        private final Iterator<Map.Entry<ByteBuffer, List<ByteBuffer>>> entries;
+        private Map.Entry<ByteBuffer, List<ByteBuffer>> entry;
+        private int nextRow;
+
+        HeapReader(SortedMap<ByteBuffer, List<ByteBuffer>> entries)
+        {
+            this.entries = entries.entrySet().iterator();
+            advance();
+        }
+
+        public ByteBuffer value()
+        {
+            return entry == null ? null : entry.getKey();
+        }
+
+        public int rowCount()
+        {
+            return entry.getValue().size();
+        }
+
+        public ByteBuffer nextRow()
+        {
+            return entry.getValue().get(nextRow++);
+        }
+
+        public void advance()
+        {
+            entry = entries.hasNext() ? entries.next() : null;
+            nextRow = 0;
+        }
+
+        public void close()
+        {
+        }
+    }
+
+    private static class SpillReader implements RunReader
+    {
+        private final RandomAccessReader in;
+        private ByteBuffer value;
+        private int rowCount;
+        private long rowsEnd;
+
+        SpillReader(File file) throws IOException
+        {
+            this.in = RandomAccessReader.open(file);
+            advance();
+        }
+
+        public ByteBuffer value()
+        {
+            return value;
+        }
+
+        public int rowCount()
+        {
+            return rowCount;
+        }
+
+        public ByteBuffer nextRow() throws IOException
+        {
+            return ByteBufferUtil.read(in, in.readInt());
+        }
+
+        public void advance() throws IOException
+        {
+            if (value != null)
+                in.seek(rowsEnd);
+
+            if (in.isEOF())
+            {
+                value = null;
+                return;
+            }
+            value = ByteBufferUtil.readWithShortLength(in);
+            rowCount = in.readInt();
+            int rowsSize = in.readInt();
+            rowsEnd = in.getFilePointer() + rowsSize;
+        }
+
+        public void close()
+        {
+            in.close();
+        }
+    }
+}
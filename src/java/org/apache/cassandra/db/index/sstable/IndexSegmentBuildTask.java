@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index.sstable;
+
+import java.io.IOException;
+
+import org.apache.cassandra.db.Cell;
+import org.apache.cassandra.db.OnDiskAtom;
+import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
+import org.apache.cassandra.db.compaction.CompactionInfo;
+import org.apache.cassandra.db.compaction.CompactionInterruptedException;
+import org.apache.cassandra.db.compaction.CompactionManager;
+import org.apache.cassandra.db.compaction.OperationType;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.concurrent.Ref;
+
+/**
+ * Builds the segment of an {@link SSTableAttachedSecondaryIndex} for an sstable that hasn't been written with one,
+ * by reading its data. Runs on the compaction executor, and shares its throughput limit.
+ */
+public class IndexSegmentBuildTask extends CompactionInfo.Holder
+{
+    private final SSTableAttachedSecondaryIndex index;
+    private final SSTableReader sstable;
+    private volatile ISSTableScanner scanner;
+
+    IndexSegmentBuildTask(SSTableAttachedSecondaryIndex index, SSTableReader sstable)
+    {
+        this.index = index;
+        this.sstable = sstable;
+    }
+
+    public CompactionInfo getCompactionInfo()
+    {
+        ISSTableScanner current = scanner;
+        return new CompactionInfo(index.getBaseCfs().metadata,
+                                  OperationType.INDEX_BUILD,
+                                  current == null ? 0 : current.getCurrentPosition(),
+                                  current == null ? sstable.uncompressedLength() : current.getLengthInBytes());
+    }
+
+    public void build()
+    {
+        try
+        {
+            // the sstable may have been compacted away, or its segment loaded, since the build was submitted
+            Ref<SSTableReader> ref = sstable.tryRef();
+            if (ref == null)
+                return;
+            try
+            {
+                if (index.loadSegment(sstable) == null)
+                    buildSegment();
+            }
+            finally
+            {
+                ref.release();
+            }
+        }
+        finally
+        {
+            index.buildFinished(sstable);
+        }
+    }
+
+    private void buildSegment()
+    {
+        IndexSegment.Builder builder = index.newSegmentBuilder(sstable.descriptor.directory);
+        try
+        {
+            try (ISSTableScanner scanner = sstable.getScanner(CompactionManager.instance.getRateLimiter()))
+            {
+                this.scanner = scanner;
+                while (scanner.hasNext())
+                {
+                    if (isStopRequested())
+                        throw new CompactionInterruptedException(getCompactionInfo());
+
+                    OnDiskAtomIterator partition = scanner.next();
+                    while (partition.hasNext())
+                    {
+                        OnDiskAtom atom = partition.next();
+                        if (atom instanceof Cell)
+                            builder.add(partition.getKey(), (Cell) atom);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            builder.complete(sstable);
+        }
+        finally
+        {
+            // deletes the runs the builder has spilled if the build has been interrupted
+            builder.release();
+        }
+    }
+}
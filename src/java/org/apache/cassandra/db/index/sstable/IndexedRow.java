@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index.sstable;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.composites.CType;
+import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.utils.MergeIterator;
+
+/**
+ * An entry of an {@link SSTableAttachedSecondaryIndex}: the CQL3 row of the base table, identified by its partition
+ * key and clustering prefix, that had the indexed value.
+ */
+public class IndexedRow
+{
+    public final DecoratedKey partitionKey;
+    public final Composite clustering;
+
+    public IndexedRow(DecoratedKey partitionKey, Composite clustering)
+    {
+        this.partitionKey = partitionKey;
+        this.clustering = clustering;
+    }
+
+    /**
+     * @return a comparator sorting the entries in the order of the base table, that is by partition and then
+     * by clustering, using {@code clusteringType} for the latter.
+     */
+    public static Comparator<IndexedRow> comparator(final CType clusteringType)
+    {
+        return new Comparator<IndexedRow>()
+        {
+            public int compare(IndexedRow r1, IndexedRow r2)
+            {
+                int cmp = r1.partitionKey.compareTo(r2.partitionKey);
+                return cmp != 0 ? cmp : clusteringType.compare(r1.clustering, r2.clustering);
+            }
+        };
+    }
+
+    /**
+     * @return the rows of {@code sources}, each sorted by {@code comparator}, merged in that order. A row returned
+     * by several sources is only returned once.
+     */
+    public static Iterator<IndexedRow> merge(List<Iterator<IndexedRow>> sources, Comparator<IndexedRow> comparator)
+    {
+        if (sources.isEmpty())
+            return Collections.emptyIterator();
+        if (sources.size() == 1)
+            return sources.get(0);
+
+        return MergeIterator.get(sources, comparator, new MergeIterator.Reducer<IndexedRow, IndexedRow>()
+        {
+            private IndexedRow reduced;
+
+            public boolean trivialReduceIsTrivial()
+            {
+                return true;
+            }
+
+            public void reduce(IndexedRow current)
+            {
+                reduced = current;
+            }
+
+            protected IndexedRow getReduced()
+            {
+                return reduced;
+            }
+        });
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("IndexedRow(%s, %s)", partitionKey, clustering);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index.sstable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.utils.ObjectSizes;
+
+/**
+ * The entries of an {@link SSTableAttachedSecondaryIndex} for the data of a single memtable.
+ *
+ * Entries are only ever added: an entry whose row has since been deleted, or no longer has the indexed value,
+ * is filtered out when the row is read by the searcher. The index is dropped along with its memtable, and the heap
+ * it uses is accounted to the allocator of the memtable by the caller of {@link #add}.
+ */
+public class MemtableIndex
+{
+    private static final long EMPTY_ROW_SIZE = ObjectSizes.measure(new IndexedRow(null, null));
+    private static final long EMPTY_ROWS_SIZE = ObjectSizes.measureDeep(new Rows(null));
+    // the node of an entry in a skip list, along with its share of the index nodes above it
+    private static final long ENTRY_OVERHEAD = entryOverhead();
+
+    private final AbstractType<?> valueType;
+    private final Comparator<IndexedRow> rowComparator;
+    private final ConcurrentNavigableMap<ByteBuffer, Rows> entries;
+    // counted as they are added, the sizes of the skip lists taking a traversal
+    private final AtomicInteger valueCount = new AtomicInteger();
+    private final AtomicLong rowCount = new AtomicLong();
+
+    public MemtableIndex(AbstractType<?> valueType, Comparator<IndexedRow> rowComparator)
+    {
+        this.valueType = valueType;
+        this.rowComparator = rowComparator;
+        this.entries = new ConcurrentSkipListMap<>(valueType);
+    }
+
+    private static long entryOverhead()
+    {
+        int count = 1000;
+        ConcurrentSkipListSet<Integer> set = new ConcurrentSkipListSet<>();
+        long empty = ObjectSizes.measureDeep(set);
+        for (int i = 0; i < count; i++)
+            set.add(i);
+        return (ObjectSizes.measureDeep(set) - empty) / count - ObjectSizes.measure(count);
+    }
+
+    /**
+     * @return the heap newly used by the index: the one of the row and its clustering if it wasn't indexed for
+     * {@code value} yet, and the one of the value if it wasn't indexed at all. The partition key is not included,
+     * as it is shared by the rows of the partition.
+     */
+    public long add(ByteBuffer value, IndexedRow row)
+    {
+        long size = 0;
+        Rows rows = entries.get(value);
+        if (rows == null)
+        {
+            Rows empty = new Rows(rowComparator);
+            rows = entries.putIfAbsent(value, empty);
+            if (rows == null)
+            {
+                rows = empty;
+                valueCount.incrementAndGet();
+                size += ENTRY_OVERHEAD + ObjectSizes.sizeOnHeapOf(value) + EMPTY_ROWS_SIZE;
+            }
+        }
+        if (rows.rows.add(row))
+        {
+            rows.count.incrementAndGet();
+            rowCount.incrementAndGet();
+            size += ENTRY_OVERHEAD + EMPTY_ROW_SIZE + row.clustering.unsharedHeapSize();
+        }
+        return size;
+    }
+
+    /**
+     * @return the rows indexed for the values within {@code bounds}, in the order of the base table. A row that has
+     * been written with several of these values is only returned once.
+     */
+    public Iterator<IndexedRow> rows(ValueBounds bounds)
+    {
+        if (bounds.isEmpty(valueType))
+            return Collections.emptyIterator();
+
+        List<Iterator<IndexedRow>> iterators = new ArrayList<>();
+        for (Rows rows : select(bounds).values())
+            iterators.add(rows.rows.iterator());
+        return IndexedRow.merge(iterators, rowComparator);
+    }
+
+    /**
+     * @return the number of rows indexed for the values within {@code bounds}, where a row written with several of
+     * these values is counted for each of them, as it is by {@link IndexSegment#rowCount}.
+     */
+    public long rowCount(ValueBounds bounds)
+    {
+        if (bounds.isEmpty(valueType))
+            return 0;
+        if (bounds.lower == null && bounds.upper == null)
+            return rowCount.get();
+
+        long count = 0;
+        for (Rows rows : select(bounds).values())
+            count += rows.count.get();
+        return count;
+    }
+
+    /**
+     * @return the mean number of rows indexed per value.
+     */
+    public long meanRowCount()
+    {
+        int values = valueCount.get();
+        return values == 0 ? 0 : rowCount.get() / values;
+    }
+
+    private NavigableMap<ByteBuffer, Rows> select(ValueBounds bounds)
+    {
+        NavigableMap<ByteBuffer, Rows> selected = entries;
+        if (bounds.lower != null)
+            selected = selected.tailMap(bounds.lower, bounds.lowerInclusive);
+        if (bounds.upper != null)
+            selected = selected.headMap(bounds.upper, bounds.upperInclusive);
+        return selected;
+    }
+
+    public boolean isEmpty()
+    {
+        return entries.isEmpty();
+    }
+
+    // the rows indexed for a value, with their count
+    private static final class Rows
+    {
+        final NavigableSet<IndexedRow> rows;
+        final AtomicInteger count = new AtomicInteger();
+
+        Rows(Comparator<IndexedRow> rowComparator)
+        {
+            this.rows = new ConcurrentSkipListSet<>(rowComparator);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index.sstable;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.composites.CellNameType;
+import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.db.filter.ColumnSlice;
+import org.apache.cassandra.db.filter.ExtendedFilter;
+import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.db.index.IndexPageSizer;
+import org.apache.cassandra.db.index.SecondaryIndex;
+import org.apache.cassandra.db.index.SecondaryIndexManager;
+import org.apache.cassandra.db.index.SecondaryIndexSearcher;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.tracing.Tracing;
+import org.apache.cassandra.utils.concurrent.OpOrder;
+
+/**
+ * Searches an {@link SSTableAttachedSecondaryIndex} by merging the entries of the memtables and sstables of the base
+ * table for the indexed values selected by the query, either a single one or a range of them, which are all sorted in
+ * the order of the base table, and reading the rows they point to by batches. The rows are then checked against the
+ * whole clause, so entries that are stale or only match part of it are skipped.
+ */
+public class SSTableAttachedSearcher extends SecondaryIndexSearcher
+{
+    private static final Logger logger = LoggerFactory.getLogger(SSTableAttachedSearcher.class);
+
+    public SSTableAttachedSearcher(SecondaryIndexManager indexManager, Set<ByteBuffer> columns)
+    {
+        super(indexManager, columns);
+    }
+
+    @Override
+    public SecondaryIndex highestSelectivityIndex(List<IndexExpression> clause)
+    {
+        ByteBuffer column = primaryColumn(clause);
+        return column == null ? null : indexManager.getIndexForColumn(column);
+    }
+
+    @Override
+    public long estimateResultRows(List<IndexExpression> clause)
+    {
+        ByteBuffer column = primaryColumn(clause);
+        if (column == null)
+            return Long.MAX_VALUE;
+
+        SSTableAttachedSecondaryIndex index = (SSTableAttachedSecondaryIndex) indexManager.getIndexForColumn(column);
+        return index.estimateResultRows(ValueBounds.of(clause, column, index.getValueType()));
+    }
+
+    @Override
+    public boolean canHandleIndexClause(List<IndexExpression> clause)
+    {
+        return primaryColumn(clause) != null;
+    }
+
+    /**
+     * Same as {@link #highestSelectivityPredicate}, for indexes that have no index table: the column whose
+     * expressions, taken together, select the fewest rows.
+     */
+    private ByteBuffer primaryColumn(List<IndexExpression> clause)
+    {
+        ByteBuffer best = null;
+        long bestEstimate = Long.MAX_VALUE;
+        for (IndexExpression expression : clause)
+        {
+            if (!columns.contains(expression.column) || expression.column.equals(best))
+                continue;
+
+            SecondaryIndex index = indexManager.getIndexForColumn(expression.column);
+            if (!(index instanceof SSTableAttachedSecondaryIndex) || !index.supportsOperator(expression.operator))
+                continue;
+
+            SSTableAttachedSecondaryIndex attached = (SSTableAttachedSecondaryIndex) index;
+            long estimate = attached.estimateResultRows(ValueBounds.of(clause, expression.column, attached.getValueType()));
+            if (best == null || estimate < bestEstimate)
+            {
+                best = expression.column;
+                bestEstimate = estimate;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public List<Row> search(ExtendedFilter filter)
+    {
+        try (ColumnFamilyStore.FilteredRowIterator rows = searchIterator(filter))
+        {
+            return Lists.newArrayList(rows);
+        }
+    }
+
+    @Override
+    public ColumnFamilyStore.FilteredRowIterator searchIterator(ExtendedFilter filter)
+    {
+        assert filter.getClause() != null && !filter.getClause().isEmpty();
+        ByteBuffer column = primaryColumn(filter.getClause());
+        SSTableAttachedSecondaryIndex index = (SSTableAttachedSecondaryIndex) indexManager.getIndexForColumn(column);
+        ValueBounds bounds = ValueBounds.of(filter.getClause(), column, index.getValueType());
+
+        // the group keeps the memtables and sstables of the view alive until the returned iterator is closed
+        List<OpOrder.Group> opGroups = new ArrayList<>(1);
+        opGroups.add(baseCfs.readOrdering.start());
+        try
+        {
+            AbstractBounds<RowPosition> range = filter.dataRange.keyRange();
+            ColumnFamilyStore.ViewFragment view = baseCfs.select(baseCfs.viewFilter(range));
+
+            // one source per memtable and sstable, each merging the rows of the values within bounds
+            List<Iterator<IndexedRow>> sources = new ArrayList<>();
+            int memtables = 0;
+            for (Memtable memtable : view.memtables)
+            {
+                sources.add(index.memtableRows(memtable, bounds));
+                memtables++;
+            }
+
+            // the rows of the sstables opened early by a compaction are indexed by the segments of the sstables being
+            // compacted, whose start has been moved past them, so they are only read if one of these isn't indexed
+            List<SSTableReader> unindexed = new ArrayList<>();
+            List<SSTableReader> openedEarly = new ArrayList<>();
+            boolean readOpenedEarly = false;
+            for (SSTableReader sstable : view.sstables)
+            {
+                if (sstable.openReason == SSTableReader.OpenReason.EARLY)
+                {
+                    openedEarly.add(sstable);
+                    continue;
+                }
+
+                IndexSegment segment = index.getSegment(sstable);
+                if (segment != null)
+                {
+                    sources.add(segment.rows(bounds, range.left, index.getRowComparator()));
+                }
+                else
+                {
+                    unindexed.add(sstable);
+                    readOpenedEarly |= sstable.openReason == SSTableReader.OpenReason.MOVED_START
+                                    || sstable.openReason == SSTableReader.OpenReason.SHADOWED;
+                }
+            }
+            if (readOpenedEarly)
+                unindexed.addAll(openedEarly);
+            for (SSTableReader sstable : unindexed)
+                sources.add(index.unindexedRows(sstable, bounds, range));
+
+            Tracing.trace("Merging index entries from {} memtables and {} sstables, {} of them not indexed, for {} in {}",
+                          new Object[]{ memtables, view.sstables.size(), unindexed.size(), index.getIndexName(), bounds });
+
+            // the same row may be indexed by several memtables and sstables, possibly for different values
+            Iterator<IndexedRow> entries = IndexedRow.merge(sources, index.getRowComparator());
+
+            return baseCfs.new FilteredRowIterator(getIndexedIterator(filter, entries), filter, opGroups);
+        }
+        catch (RuntimeException | Error e)
+        {
+            for (OpOrder.Group opGroup : opGroups)
+                opGroup.close();
+            throw e;
+        }
+    }
+
+    private ColumnFamilyStore.AbstractScanIterator getIndexedIterator(final ExtendedFilter filter, final Iterator<IndexedRow> entries)
+    {
+        final AbstractBounds<RowPosition> range = filter.dataRange.keyRange();
+        final CellNameType baseComparator = baseCfs.getComparator();
+
+        return new ColumnFamilyStore.AbstractScanIterator()
+        {
+            private final int limit = filter.currentLimit();
+            private final IndexPageSizer pageSizer = new IndexPageSizer(baseCfs.metric, limit);
+            private final Deque<Hit> hits = new ArrayDeque<>();
+            private boolean exhausted;
+            private int columnsCount = 0;
+
+            public boolean needsFiltering()
+            {
+                return false;
+            }
+
+            private Row makeReturn(DecoratedKey key, ColumnFamily data)
+            {
+                if (data == null)
+                    return endOfData();
+
+                assert key != null;
+                return new Row(key, data);
+            }
+
+            protected Row computeNext()
+            {
+                DecoratedKey currentKey = null;
+                ColumnFamily data = null;
+
+                while (true)
+                {
+                    if (columnsCount >= limit)
+                        return makeReturn(currentKey, data);
+
+                    if (hits.isEmpty() && !readPage())
+                        return makeReturn(currentKey, data);
+
+                    Hit hit = hits.peek();
+                    // We're done with the previous partition, return it if it had data, continue otherwise
+                    if (data != null && !currentKey.equals(hit.row.partitionKey))
+                        return makeReturn(currentKey, data);
+
+                    hits.poll();
+                    currentKey = hit.row.partitionKey;
+
+                    // The entry may be stale, which this also checks
+                    if (hit.data == null || !filter.isSatisfiedBy(currentKey, hit.data, hit.row.clustering, null))
+                        continue;
+
+                    if (data == null)
+                        data = ArrayBackedSortedColumns.factory.create(baseCfs.metadata);
+                    data.addAll(hit.data);
+                    columnsCount += hit.dataFilter.lastCounted();
+                    pageSizer.onReturned(hit.dataFilter.lastCounted());
+                }
+            }
+
+            /**
+             * Reads the rows of the next page of index entries in a single batch.
+             *
+             * @return false if there are no more entries.
+             */
+            private boolean readPage()
+            {
+                int pageSize = pageSizer.nextPageSize();
+                List<IndexedRow> rows = new ArrayList<>(pageSize);
+                List<QueryFilter> dataFilters = new ArrayList<>(pageSize);
+                while (!exhausted && rows.size() < pageSize && entries.hasNext())
+                {
+                    IndexedRow row = entries.next();
+                    if (!range.contains(row.partitionKey))
+                    {
+                        // Either we're not yet in the range cause the range is start excluding, or we're past it.
+                        if (!range.right.isMinimum(baseCfs.partitioner) && range.right.compareTo(row.partitionKey) < 0)
+                        {
+                            logger.trace("Reached end of assigned scan range");
+                            exhausted = true;
+                        }
+                        continue;
+                    }
+
+                    // Check if this entry cannot be a hit due to the original cell filter
+                    if (!filter.columnFilter(row.partitionKey.getKey()).maySelectPrefix(baseComparator, row.clustering))
+                        continue;
+
+                    rows.add(row);
+                    dataFilters.add(new QueryFilter(row.partitionKey, baseCfs.name, makeDataFilter(row.clustering), filter.timestamp));
+                }
+
+                if (rows.isEmpty())
+                    return false;
+
+                pageSizer.onPageRead(rows.size());
+                List<ColumnFamily> data = baseCfs.getColumnFamilies(dataFilters);
+                for (int i = 0; i < rows.size(); i++)
+                {
+                    pageSizer.onBaseRowFetched(data.get(i));
+                    hits.add(new Hit(rows.get(i), (SliceQueryFilter) dataFilters.get(i).filter, data.get(i)));
+                }
+                return true;
+            }
+
+            private SliceQueryFilter makeDataFilter(Composite clustering)
+            {
+                // We always query the whole CQL3 row, along with the static columns which may have to be returned
+                // too (see CompositesSearcher).
+                ColumnSlice dataSlice = new ColumnSlice(clustering, clustering.end());
+                ColumnSlice[] slices = baseCfs.metadata.hasStaticColumns()
+                                     ? new ColumnSlice[]{ baseCfs.metadata.comparator.staticPrefix().slice(), dataSlice }
+                                     : new ColumnSlice[]{ dataSlice };
+                return new SliceQueryFilter(slices, false, Integer.MAX_VALUE, baseCfs.metadata.clusteringColumns().size());
+            }
+
+            public void close()
+            {
+            }
+        };
+    }
+
+    private static class Hit
+    {
+        private final IndexedRow row;
+        private final SliceQueryFilter dataFilter;
+        private final ColumnFamily data;
+
+        private Hit(IndexedRow row, SliceQueryFilter dataFilter, ColumnFamily data)
+        {
+            this.row = row;
+            this.dataFilter = dataFilter;
+            this.data = data;
+        }
+    }
+}
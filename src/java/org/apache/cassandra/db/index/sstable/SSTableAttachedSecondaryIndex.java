@@ -0,0 +1,601 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index.sstable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.MapMaker;
+import org.apache.commons.lang3.StringUtils;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.cql3.Operator;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.columniterator.IdentityQueryFilter;
+import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
+import org.apache.cassandra.db.compaction.CompactionManager;
+import org.apache.cassandra.db.composites.CBuilder;
+import org.apache.cassandra.db.composites.CellName;
+import org.apache.cassandra.db.composites.Composite;
+import org.apache.cassandra.db.index.PerColumnSecondaryIndex;
+import org.apache.cassandra.db.index.SecondaryIndexSearcher;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.util.DataOutputStreamPlus;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.notifications.INotification;
+import org.apache.cassandra.notifications.INotificationConsumer;
+import org.apache.cassandra.notifications.SSTableAddedNotification;
+import org.apache.cassandra.notifications.SSTableDeletingNotification;
+import org.apache.cassandra.notifications.SSTableListChangedNotification;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.concurrent.OpOrder;
+import org.apache.cassandra.utils.concurrent.Ref;
+import org.apache.cassandra.utils.memory.HeapAllocator;
+import org.apache.cassandra.utils.memory.MemtableAllocator;
+
+/**
+ * A secondary index on a regular column of a CQL3 table that, instead of maintaining a hidden index table, attaches
+ * the index entries of each sstable of the base table to the sstable itself.
+ *
+ * The entries of the data of each memtable are kept in a {@link MemtableIndex} as it is written, and the ones of
+ * each sstable in an {@link IndexSegment}, written alongside the sstable when the memtable is flushed or the sstables
+ * are compacted, from the cells written to it. The segments of the sstables written otherwise (by streaming, ...)
+ * are built from their data on the compaction executor once they are added to the table, and until then the
+ * searches read the data of these sstables instead. The segments always have exactly the entries of their sstable
+ * and are deleted along with it.
+ *
+ * As a consequence, nothing is written to the index when the base table is updated: entries whose row has since been
+ * deleted or overwritten stay in the index until their sstable is compacted, and are filtered out when the rows are
+ * read by the searcher.
+ *
+ * To use it: {@code CREATE CUSTOM INDEX ON t (c) USING 'org.apache.cassandra.db.index.sstable.SSTableAttachedSecondaryIndex'}
+ */
+public class SSTableAttachedSecondaryIndex extends PerColumnSecondaryIndex implements INotificationConsumer
+{
+    private static final String SEGMENT_COMPONENT_PREFIX = "SI_";
+    // the entries of the segments of large sstables are spilled to disk by their builder above this size
+    private static final long SEGMENT_SPILL_THRESHOLD = Long.getLong("cassandra.index_segment_spill_threshold_in_mb", 64) * 1024 * 1024;
+    private static final long EMPTY_KEY_SIZE = ObjectSizes.measure(new BufferDecoratedKey(null, ByteBufferUtil.EMPTY_BYTE_BUFFER));
+
+    private ColumnDefinition columnDef;
+    private Component segmentComponent;
+    private Comparator<IndexedRow> rowComparator;
+
+    // the memtables are only used as weak keys, so their index goes away with them
+    private final ConcurrentMap<Memtable, MemtableIndex> memtableIndexes = new MapMaker().weakKeys().makeMap();
+    private final ConcurrentMap<Descriptor, IndexSegment> segments = new ConcurrentHashMap<>();
+    private final Set<Descriptor> building = Collections.newSetFromMap(new ConcurrentHashMap<Descriptor, Boolean>());
+
+    public void init()
+    {
+        assert baseCfs != null && columnDefs != null && columnDefs.size() == 1;
+
+        columnDef = columnDefs.iterator().next();
+        segmentComponent = new Component(Component.Type.CUSTOM, SEGMENT_COMPONENT_PREFIX + columnDef.getIndexName() + ".db");
+        rowComparator = IndexedRow.comparator(baseCfs.getComparator());
+        deleteSpills();
+        baseCfs.getDataTracker().subscribe(this);
+    }
+
+    // the runs spilled by the builders that were interrupted by a restart
+    private void deleteSpills()
+    {
+        for (File directory : baseCfs.directories.getCFDirectories())
+        {
+            File[] spills = directory.listFiles(new FilenameFilter()
+            {
+                public boolean accept(File dir, String name)
+                {
+                    return name.startsWith(spillPrefix());
+                }
+            });
+            if (spills == null)
+                continue;
+            for (File spill : spills)
+                FileUtils.deleteWithConfirm(spill);
+        }
+    }
+
+    /**
+     * @return the prefix of the temporary files the segment builders spill their entries to. It has no separator
+     * of the sstable file names, so that these files are never mistaken for sstable components.
+     */
+    String spillPrefix()
+    {
+        return SEGMENT_COMPONENT_PREFIX + columnDef.getIndexName() + "_spill";
+    }
+
+    public void reload()
+    {
+        columnDef = baseCfs.metadata.getColumnDefinition(columnDef.name);
+    }
+
+    public void validateOptions() throws ConfigurationException
+    {
+        ColumnDefinition def = columnDefs.iterator().next();
+        if (def.kind != ColumnDefinition.Kind.REGULAR || def.type.isCollection())
+            throw new ConfigurationException(String.format("%s only supports regular non-collection columns, %s is not one",
+                                                           getClass().getSimpleName(), def.name));
+
+        CFMetaData cfm = Schema.instance.getCFMetaData(def.ksName, def.cfName);
+        if (cfm != null && !cfm.comparator.isCompound())
+            throw new ConfigurationException(String.format("%s only supports CQL3 tables with composite comparators",
+                                                           getClass().getSimpleName()));
+    }
+
+    public String getIndexName()
+    {
+        return baseCfs.name + Directories.SECONDARY_INDEX_NAME_SEPARATOR + columnDef.getIndexName();
+    }
+
+    public AbstractType<?> getValueType()
+    {
+        return columnDef.type;
+    }
+
+    protected SecondaryIndexSearcher createSecondaryIndexSearcher(Set<ByteBuffer> columns)
+    {
+        return new SSTableAttachedSearcher(baseCfs.indexManager, columns);
+    }
+
+    /**
+     * The segments are written with the sstables of the base table, so there is nothing to flush.
+     */
+    public void forceBlockingFlush()
+    {
+    }
+
+    public ColumnFamilyStore getIndexCfs()
+    {
+        return null;
+    }
+
+    public void removeIndex(ByteBuffer columnName)
+    {
+        invalidate();
+    }
+
+    /**
+     * The segment files that have been written are left behind: they are components of their sstable, so they are
+     * deleted with it.
+     */
+    public void invalidate()
+    {
+        baseCfs.getDataTracker().unsubscribe(this);
+        memtableIndexes.clear();
+        segments.clear();
+    }
+
+    /**
+     * The memtables and sstables are truncated along with the ones of the base table.
+     */
+    public void truncateBlocking(long truncatedAt)
+    {
+    }
+
+    @Override
+    public boolean indexes(CellName name)
+    {
+        AbstractType<?> comp = baseCfs.metadata.getColumnDefinitionComparator(columnDef);
+        return name.size() > columnDef.position()
+            && comp.compare(name.get(columnDef.position()), columnDef.name.bytes) == 0;
+    }
+
+    /**
+     * The index is updated along with the memtables and sstables of the base table rather than through these.
+     */
+    public void delete(ByteBuffer rowKey, Cell col, OpOrder.Group opGroup)
+    {
+    }
+
+    public void deleteForCleanup(ByteBuffer rowKey, Cell col, OpOrder.Group opGroup)
+    {
+    }
+
+    public void insert(ByteBuffer rowKey, Cell col, OpOrder.Group opGroup)
+    {
+    }
+
+    public void update(ByteBuffer rowKey, Cell oldCol, Cell col, OpOrder.Group opGroup)
+    {
+    }
+
+    public long estimateResultRows()
+    {
+        long total = 0;
+        int count = 0;
+        for (IndexSegment segment : segments.values())
+        {
+            total += segment.meanRowCount();
+            count++;
+        }
+        for (MemtableIndex memtableIndex : liveMemtableIndexes())
+        {
+            total += memtableIndex.meanRowCount();
+            count++;
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    @Override
+    public long estimateResultRows(ByteBuffer value)
+    {
+        return estimateResultRows(ValueBounds.point(value));
+    }
+
+    /**
+     * Sums the rows indexed for the values within {@code bounds} by the live memtables and the segments already
+     * loaded. Each segment answers from its cumulative row counts, with two binary searches on its values, and each
+     * memtable from the counts of the values within bounds.
+     */
+    public long estimateResultRows(ValueBounds bounds)
+    {
+        long estimate = 0;
+        for (MemtableIndex memtableIndex : liveMemtableIndexes())
+            estimate += memtableIndex.rowCount(bounds);
+        for (IndexSegment segment : segments.values())
+            estimate += segment.rowCount(bounds);
+        return estimate;
+    }
+
+    // the indexes of the memtables of the current view, the flushed ones being counted by their segments
+    private List<MemtableIndex> liveMemtableIndexes()
+    {
+        List<MemtableIndex> indexes = new ArrayList<>();
+        for (Memtable memtable : baseCfs.getDataTracker().getView().getAllMemtables())
+        {
+            MemtableIndex memtableIndex = memtableIndexes.get(memtable);
+            if (memtableIndex != null)
+                indexes.add(memtableIndex);
+        }
+        return indexes;
+    }
+
+    /**
+     * The values being sorted, the range operators are served as well as EQ.
+     */
+    @Override
+    public boolean supportsOperator(Operator operator)
+    {
+        switch (operator)
+        {
+            case EQ:
+            case GT:
+            case GTE:
+            case LT:
+            case LTE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Loads the segments of the live sstables of the base table, which has just been flushed, and builds the missing
+     * ones on the compaction executor.
+     */
+    @Override
+    protected void buildIndexBlocking()
+    {
+        logger.info(String.format("Building index segments of %s for data in %s",
+                                  getIndexName(), StringUtils.join(baseCfs.getSSTables(), ", ")));
+
+        List<Future<?>> builds = new ArrayList<>();
+        for (SSTableReader sstable : baseCfs.getSSTables())
+        {
+            if (loadSegment(sstable) != null)
+                continue;
+
+            Future<?> build = buildSegmentAsync(sstable);
+            if (build != null)
+                builds.add(build);
+        }
+        FBUtilities.waitOnFutures(builds);
+        setIndexBuilt();
+        logger.info("Index build of {} complete", getIndexName());
+    }
+
+    /**
+     * Adds the rows of {@code cf} having a live value for the indexed column to the index of {@code memtable}, and
+     * accounts the heap they use to {@code allocator}, the one of the memtable.
+     */
+    public void index(Memtable memtable, DecoratedKey key, ColumnFamily cf, MemtableAllocator allocator, OpOrder.Group opGroup)
+    {
+        MemtableIndex memtableIndex = null;
+        DecoratedKey keyCopy = null;
+        long size = 0;
+        long now = System.currentTimeMillis();
+        for (Cell cell : cf)
+        {
+            if (!indexes(cell.name()) || !cell.isLive(now))
+                continue;
+
+            if (memtableIndex == null)
+            {
+                memtableIndex = getMemtableIndex(memtable);
+                keyCopy = copy(key);
+            }
+            size += memtableIndex.add(ByteBufferUtil.clone(cell.value()), new IndexedRow(keyCopy, rowPrefix(cell.name())));
+        }
+
+        if (size > 0)
+        {
+            size += EMPTY_KEY_SIZE + ObjectSizes.sizeOnHeapOf(keyCopy.getKey()) + baseCfs.partitioner.getHeapSizeOf(keyCopy.getToken());
+            allocator.onHeap().allocate(size, opGroup);
+        }
+    }
+
+    private MemtableIndex getMemtableIndex(Memtable memtable)
+    {
+        MemtableIndex memtableIndex = memtableIndexes.get(memtable);
+        if (memtableIndex == null)
+        {
+            MemtableIndex empty = new MemtableIndex(columnDef.type, rowComparator);
+            memtableIndex = memtableIndexes.putIfAbsent(memtable, empty);
+            if (memtableIndex == null)
+                memtableIndex = empty;
+        }
+        return memtableIndex;
+    }
+
+    /**
+     * @return the rows of {@code memtable} indexed for the values within {@code bounds}, in the order of the base
+     * table.
+     */
+    public Iterator<IndexedRow> memtableRows(Memtable memtable, ValueBounds bounds)
+    {
+        MemtableIndex memtableIndex = memtableIndexes.get(memtable);
+        return memtableIndex == null ? Collections.<IndexedRow>emptyIterator() : memtableIndex.rows(bounds);
+    }
+
+    public Comparator<IndexedRow> getRowComparator()
+    {
+        return rowComparator;
+    }
+
+    /**
+     * @return a builder for the segment of an sstable about to be written to {@code directory}, where the builder
+     * spills its entries if they get large.
+     */
+    public IndexSegment.Builder newSegmentBuilder(File directory)
+    {
+        return new IndexSegment.Builder(this, directory, SEGMENT_SPILL_THRESHOLD);
+    }
+
+    /**
+     * @return the segment of {@code sstable}, which is mapped from disk if it isn't loaded yet, or null if the
+     * sstable isn't indexed. The segment of such an sstable is then built on the compaction executor, rather than
+     * by the caller, which is left to read the rows of the sstable with {@link #unindexedRows}.
+     */
+    public IndexSegment getSegment(SSTableReader sstable)
+    {
+        IndexSegment segment = loadSegment(sstable);
+        if (segment == null)
+            buildSegmentAsync(sstable);
+        return segment;
+    }
+
+    /**
+     * @return the segment of {@code sstable}, which is mapped from disk if it isn't loaded yet, or null if it has not
+     * been written. The sstables opened early during compaction have none: their rows are indexed by the segments of
+     * the sstables being compacted until the compaction completes.
+     */
+    IndexSegment loadSegment(SSTableReader sstable)
+    {
+        IndexSegment segment = segments.get(sstable.descriptor);
+        if (segment != null || sstable.openReason == SSTableReader.OpenReason.EARLY)
+            return segment;
+
+        // the segment mustn't be loaded after the sstable has been deleted, which would leave it behind
+        Ref<SSTableReader> ref = sstable.tryRef();
+        if (ref == null)
+            return null;
+        try
+        {
+            segment = load(sstable);
+            if (segment == null)
+                return null;
+            IndexSegment previous = segments.putIfAbsent(sstable.descriptor, segment);
+            return previous == null ? segment : previous;
+        }
+        finally
+        {
+            ref.release();
+        }
+    }
+
+    /**
+     * @return the rows of {@code sstable} within {@code range} having a live value within {@code bounds}, read from
+     * its data, for a search to use while the sstable isn't indexed.
+     */
+    public Iterator<IndexedRow> unindexedRows(SSTableReader sstable, ValueBounds bounds, AbstractBounds<RowPosition> range)
+    {
+        List<IndexedRow> rows = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (ISSTableScanner scanner = sstable.getScanner(new DataRange(range, new IdentityQueryFilter())))
+        {
+            while (scanner.hasNext())
+            {
+                OnDiskAtomIterator partition = scanner.next();
+                // the sstables opened early may have more partitions written than they are opened for
+                if (partition.getKey().compareTo(sstable.last) > 0)
+                    break;
+
+                while (partition.hasNext())
+                {
+                    OnDiskAtom atom = partition.next();
+                    if (!(atom instanceof Cell))
+                        continue;
+
+                    Cell cell = (Cell) atom;
+                    if (indexes(cell.name()) && cell.isLive(now) && bounds.contains(cell.value(), columnDef.type))
+                        rows.add(new IndexedRow(partition.getKey(), rowPrefix(cell.name())));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        return rows.iterator();
+    }
+
+    /**
+     * Writes the segment collected by {@code builder} to disk as a component of {@code sstable}, and makes it its
+     * segment. The sstable is left unindexed if that fails.
+     */
+    void attach(SSTableReader sstable, IndexSegment.Builder builder)
+    {
+        if (!write(sstable, builder))
+            return;
+
+        IndexSegment segment = load(sstable);
+        if (segment != null)
+            segments.put(sstable.descriptor, segment);
+    }
+
+    private IndexSegment load(SSTableReader sstable)
+    {
+        File file = new File(sstable.descriptor.filenameFor(segmentComponent));
+        if (!file.exists())
+            return null;
+
+        try
+        {
+            IndexSegment segment = IndexSegment.open(file,
+                                                     columnDef.name.bytes,
+                                                     columnDef.type,
+                                                     baseCfs.getComparator(),
+                                                     baseCfs.partitioner);
+            if (segment == null)
+                logger.debug("Index segment {} is of another version or column, rebuilding it", file);
+            return segment;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot read index segment {}, rebuilding it", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Failing to write a segment only means it will have to be built again from the data of its sstable.
+     */
+    private boolean write(SSTableReader sstable, IndexSegment.Builder builder)
+    {
+        File file = new File(sstable.descriptor.filenameFor(segmentComponent));
+        DataOutputStreamPlus out = null;
+        try
+        {
+            FileOutputStream fos = new FileOutputStream(file);
+            out = new DataOutputStreamPlus(new BufferedOutputStream(fos));
+            builder.serialize(columnDef.name.bytes, out);
+            out.flush();
+            fos.getFD().sync();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot write index segment {}", file, e);
+            FileUtils.closeQuietly(out);
+            FileUtils.deleteWithConfirm(file);
+            return false;
+        }
+        finally
+        {
+            FileUtils.closeQuietly(out);
+        }
+        sstable.addComponents(Collections.singleton(segmentComponent));
+        return true;
+    }
+
+    public void handleNotification(INotification notification, Object sender)
+    {
+        if (notification instanceof SSTableAddedNotification)
+        {
+            buildSegmentAsync(((SSTableAddedNotification) notification).added);
+        }
+        else if (notification instanceof SSTableListChangedNotification)
+        {
+            for (SSTableReader sstable : ((SSTableListChangedNotification) notification).added)
+                buildSegmentAsync(sstable);
+        }
+        else if (notification instanceof SSTableDeletingNotification)
+        {
+            segments.remove(((SSTableDeletingNotification) notification).deleting.descriptor);
+        }
+    }
+
+    /**
+     * Builds the segment of an sstable that hasn't been written along with it (the flushes and compactions write
+     * theirs) on the compaction executor, unless it is already being built.
+     *
+     * @return the future of the build, or null if none has been submitted.
+     */
+    private Future<?> buildSegmentAsync(SSTableReader sstable)
+    {
+        if (sstable.openReason == SSTableReader.OpenReason.EARLY
+            || segments.containsKey(sstable.descriptor)
+            || !building.add(sstable.descriptor))
+            return null;
+
+        Future<?> build = CompactionManager.instance.submitIndexSegmentBuild(new IndexSegmentBuildTask(this, sstable));
+        if (build == null)
+            building.remove(sstable.descriptor);
+        return build;
+    }
+
+    void buildFinished(SSTableReader sstable)
+    {
+        building.remove(sstable.descriptor);
+    }
+
+    /**
+     * @return the clustering prefix of the CQL3 row of the indexed cell {@code name}, copied on heap.
+     */
+    Composite rowPrefix(CellName name)
+    {
+        CBuilder builder = baseCfs.getComparator().builder();
+        for (int i = 0; i < columnDef.position(); i++)
+            builder.add(name.get(i));
+        return builder.build().copy(baseCfs.metadata, HeapAllocator.instance);
+    }
+
+    DecoratedKey copy(DecoratedKey key)
+    {
+        return baseCfs.partitioner.decorateKey(ByteBufferUtil.clone(key.getKey()));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index.sstable;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.cassandra.cql3.Operator;
+import org.apache.cassandra.db.IndexExpression;
+import org.apache.cassandra.db.marshal.AbstractType;
+
+/**
+ * The values of an indexed column selected by the EQ, GT, GTE, LT and LTE expressions of a query on that column.
+ * A null bound means the range is unbounded on that side.
+ */
+public class ValueBounds
+{
+    public final ByteBuffer lower;
+    public final boolean lowerInclusive;
+    public final ByteBuffer upper;
+    public final boolean upperInclusive;
+
+    private ValueBounds(ByteBuffer lower, boolean lowerInclusive, ByteBuffer upper, boolean upperInclusive)
+    {
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    public static ValueBounds point(ByteBuffer value)
+    {
+        return new ValueBounds(value, true, value, true);
+    }
+
+    /**
+     * @return the intersection of the values selected by the expressions of {@code clause} on {@code column},
+     * or null if there are none.
+     */
+    public static ValueBounds of(List<IndexExpression> clause, ByteBuffer column, AbstractType<?> type)
+    {
+        ByteBuffer lower = null, upper = null;
+        boolean lowerInclusive = true, upperInclusive = true;
+        boolean restricted = false;
+        for (IndexExpression expression : clause)
+        {
+            if (!expression.column.equals(column))
+                continue;
+
+            ByteBuffer value = expression.value;
+            switch (expression.operator)
+            {
+                case EQ:
+                    return point(value);
+                case GT:
+                case GTE:
+                {
+                    int cmp = lower == null ? 1 : type.compare(value, lower);
+                    if (cmp > 0 || (cmp == 0 && expression.operator == Operator.GT))
+                    {
+                        lower = value;
+                        lowerInclusive = expression.operator == Operator.GTE;
+                    }
+                    restricted = true;
+                    break;
+                }
+                case LT:
+                case LTE:
+                {
+                    int cmp = upper == null ? -1 : type.compare(value, upper);
+                    if (cmp < 0 || (cmp == 0 && expression.operator == Operator.LT))
+                    {
+                        upper = value;
+                        upperInclusive = expression.operator == Operator.LTE;
+                    }
+                    restricted = true;
+                    break;
+                }
+            }
+        }
+        return restricted ? new ValueBounds(lower, lowerInclusive, upper, upperInclusive) : null;
+    }
+
+    /**
+     * @return whether no value can be within these bounds.
+     */
+    public boolean isEmpty(AbstractType<?> type)
+    {
+        if (lower == null || upper == null)
+            return false;
+        int cmp = type.compare(lower, upper);
+        return cmp > 0 || (cmp == 0 && !(lowerInclusive && upperInclusive));
+    }
+
+    /**
+     * @return whether {@code value} sorts before the lower bound of these bounds.
+     */
+    public boolean isBefore(ByteBuffer value, AbstractType<?> type)
+    {
+        if (lower == null)
+            return false;
+        int cmp = type.compare(value, lower);
+        return cmp < 0 || (cmp == 0 && !lowerInclusive);
+    }
+
+    /**
+     * @return whether {@code value} sorts after the upper bound of these bounds.
+     */
+    public boolean isAfter(ByteBuffer value, AbstractType<?> type)
+    {
+        if (upper == null)
+            return false;
+        int cmp = type.compare(value, upper);
+        return cmp > 0 || (cmp == 0 && !upperInclusive);
+    }
+
+    /**
+     * @return whether {@code value} is within these bounds.
+     */
+    public boolean contains(ByteBuffer value, AbstractType<?> type)
+    {
+        return !isBefore(value, type) && !isAfter(value, type);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s%s, %s%s", lowerInclusive ? "[" : "(", lower, upper, upperInclusive ? "]" : ")");
+    }
+}
@@ -23,7 +23,7 @@ public class LongToken extends Token
 {
     static final long serialVersionUID = -5833580143318243006L;
 
-    final long token;
+    public final long token;
 
     public LongToken(long token)
     {
@@ -19,11 +19,16 @@ package org.apache.cassandra.io.compress;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.zip.Adler32;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
+import org.apache.cassandra.cache.ChunkCache;
+import org.apache.cassandra.cache.RefCountedMemory;
 import org.apache.cassandra.io.FSReadError;
 import org.apache.cassandra.io.sstable.CorruptSSTableException;
 import org.apache.cassandra.io.util.CompressedPoolingSegmentedFile;
@@ -42,10 +47,15 @@ public class CompressedRandomAccessReader extends RandomAccessReader
         return open(dataFilePath, metadata, null);
     }
     public static CompressedRandomAccessReader open(String path, CompressionMetadata metadata, CompressedPoolingSegmentedFile owner)
+    {
+        return open(path, metadata, owner, null);
+    }
+
+    public static CompressedRandomAccessReader open(String path, CompressionMetadata metadata, CompressedPoolingSegmentedFile owner, TreeMap<Long, MappedByteBuffer> chunkSegments)
     {
         try
         {
-            return new CompressedRandomAccessReader(path, metadata, owner);
+            return new CompressedRandomAccessReader(path, metadata, owner, chunkSegments);
         }
         catch (FileNotFoundException e)
         {
@@ -56,21 +66,32 @@ public class CompressedRandomAccessReader extends RandomAccessReader
 
     private final CompressionMetadata metadata;
 
-    // we read the raw compressed bytes into this buffer, then move the uncompressed ones into super.buffer.
+    // the size of the checksum following each chunk
+    private static final int CHECKSUM_LENGTH = 4;
+
+    // we read the raw compressed bytes, followed by their checksum, into this buffer, then move the uncompressed ones
+    // into super.buffer.
     private ByteBuffer compressed;
 
     // re-use single crc object
     private final Checksum checksum;
 
-    // raw checksum bytes
-    private final ByteBuffer checksumBytes = ByteBuffer.wrap(new byte[4]);
+    // the mapped segments of the compressed file by their offset in it, each holding whole chunks along with their
+    // checksum, or null if the chunks are read from the channel
+    private final TreeMap<Long, MappedByteBuffer> chunkSegments;
 
     protected CompressedRandomAccessReader(String dataFilePath, CompressionMetadata metadata, PoolingSegmentedFile owner) throws FileNotFoundException
+    {
+        this(dataFilePath, metadata, owner, null);
+    }
+
+    protected CompressedRandomAccessReader(String dataFilePath, CompressionMetadata metadata, PoolingSegmentedFile owner, TreeMap<Long, MappedByteBuffer> chunkSegments) throws FileNotFoundException
     {
         super(new File(dataFilePath), metadata.chunkLength(), metadata.compressedFileLength, owner);
         this.metadata = metadata;
+        this.chunkSegments = chunkSegments;
         checksum = metadata.hasPostCompressionAdlerChecksums ? new Adler32() : new CRC32();
-        compressed = ByteBuffer.wrap(new byte[metadata.compressor().initialCompressedBufferLength(metadata.chunkLength())]);
+        compressed = ByteBuffer.wrap(new byte[metadata.compressor().initialCompressedBufferLength(metadata.chunkLength()) + CHECKSUM_LENGTH]);
     }
 
     @Override
@@ -92,17 +113,97 @@ public class CompressedRandomAccessReader extends RandomAccessReader
 
     private void decompressChunk(CompressionMetadata.Chunk chunk) throws IOException
     {
-        if (channel.position() != chunk.offset)
-            channel.position(chunk.offset);
+        ChunkCache.Key key = null;
+        RefCountedMemory cached = null;
+        if (ChunkCache.instance != null)
+        {
+            key = new ChunkCache.Key(getPath(), chunk.offset);
+            cached = ChunkCache.instance.get(key);
+        }
+
+        if (cached != null)
+        {
+            try
+            {
+                validBufferBytes = (int) cached.size();
+                cached.getBytes(0, buffer, 0, validBufferBytes);
+            }
+            finally
+            {
+                cached.unreference();
+            }
+        }
+        else
+        {
+            readChunk(chunk);
+            if (key != null && cachesChunks())
+                cacheChunk(key);
+        }
+
+        // buffer offset is always aligned
+        bufferOffset = current & ~(buffer.length - 1);
+        // the length() can be provided at construction time, to override the true (uncompressed) length of the file;
+        // this is permitted to occur within a compressed segment, so we truncate validBufferBytes if we cross the imposed length
+        if (bufferOffset + validBufferBytes > length())
+            validBufferBytes = (int)(length() - bufferOffset);
+    }
+
+    /**
+     * @return true if the chunks read by this reader are worth adding to the chunk cache.
+     */
+    protected boolean cachesChunks()
+    {
+        return true;
+    }
 
-        if (compressed.capacity() < chunk.length)
-            compressed = ByteBuffer.wrap(new byte[chunk.length]);
+    private void cacheChunk(ChunkCache.Key key)
+    {
+        RefCountedMemory chunk;
+        try
+        {
+            chunk = new RefCountedMemory(validBufferBytes);
+        }
+        catch (OutOfMemoryError e)
+        {
+            return; // never mind
+        }
+        chunk.setBytes(0, buffer, 0, validBufferBytes);
+        ChunkCache.instance.putIfAbsent(key, chunk);
+    }
+
+    // reads and decompresses the whole chunk into the buffer
+    private void readChunk(CompressionMetadata.Chunk chunk) throws IOException
+    {
+        // the checksum directly follows the chunk, so they are read together
+        int length = chunk.length + CHECKSUM_LENGTH;
+        if (compressed.capacity() < length)
+            compressed = ByteBuffer.wrap(new byte[length]);
         else
             compressed.clear();
-        compressed.limit(chunk.length);
+        compressed.limit(length);
 
-        if (channel.read(compressed) != chunk.length)
-            throw new CorruptBlockException(getPath(), chunk);
+        if (chunkSegments != null)
+        {
+            Map.Entry<Long, MappedByteBuffer> segment = chunkSegments.floorEntry(chunk.offset);
+            ByteBuffer mapped = segment.getValue().duplicate();
+            mapped.position((int) (chunk.offset - segment.getKey()));
+            if (mapped.remaining() < length)
+                throw new CorruptBlockException(getPath(), chunk);
+            mapped.get(compressed.array(), 0, length);
+            compressed.position(length);
+        }
+        else
+        {
+            if (channel.position() != chunk.offset)
+                channel.position(chunk.offset);
+
+            // a short read may leave part of the chunk for the next one, as the channel is not at its end
+            while (compressed.hasRemaining())
+            {
+                if (channel.read(compressed) < 0)
+                    throw new CorruptBlockException(getPath(), chunk);
+            }
+        }
 
         // technically flip() is unnecessary since all the remaining work uses the raw array, but if that changes
         // in the future this will save a lot of hair-pulling
@@ -128,28 +229,12 @@ public class CompressedRandomAccessReader extends RandomAccessReader
                 checksum.update(buffer, 0, validBufferBytes);
             }
 
-            if (checksum(chunk) != (int) checksum.getValue())
+            if (compressed.getInt(chunk.length) != (int) checksum.getValue())
                 throw new CorruptBlockException(getPath(), chunk);
 
             // reset checksum object back to the original (blank) state
             checksum.reset();
         }
-
-        // buffer offset is always aligned
-        bufferOffset = current & ~(buffer.length - 1);
-        // the length() can be provided at construction time, to override the true (uncompressed) length of the file;
-        // this is permitted to occur within a compressed segment, so we truncate validBufferBytes if we cross the imposed length
-        if (bufferOffset + validBufferBytes > length())
-            validBufferBytes = (int)(length() - bufferOffset);
-    }
-
-    private int checksum(CompressionMetadata.Chunk chunk) throws IOException
-    {
-        assert channel.position() == chunk.offset + chunk.length;
-        checksumBytes.clear();
-        if (channel.read(checksumBytes) != checksumBytes.capacity())
-            throw new CorruptBlockException(getPath(), chunk);
-        return checksumBytes.getInt(0);
     }
 
     public int getTotalBufferSize()
@@ -22,6 +22,8 @@ package org.apache.cassandra.io.compress;
 
 
 import java.io.FileNotFoundException;
+import java.nio.MappedByteBuffer;
+import java.util.TreeMap;
 
 import com.google.common.util.concurrent.RateLimiter;
 
@@ -31,7 +33,12 @@ public class CompressedThrottledReader extends CompressedRandomAccessReader
 
     public CompressedThrottledReader(String file, CompressionMetadata metadata, RateLimiter limiter) throws FileNotFoundException
     {
-        super(file, metadata, null);
+        this(file, metadata, limiter, null);
+    }
+
+    public CompressedThrottledReader(String file, CompressionMetadata metadata, RateLimiter limiter, TreeMap<Long, MappedByteBuffer> chunkSegments) throws FileNotFoundException
+    {
+        super(file, metadata, null, chunkSegments);
         this.limiter = limiter;
     }
 
@@ -41,11 +48,23 @@ public class CompressedThrottledReader extends CompressedRandomAccessReader
         super.reBuffer();
     }
 
+    @Override
+    protected boolean cachesChunks()
+    {
+        // compaction reads each chunk once, and would push the chunks of the reads out of the cache
+        return false;
+    }
+
     public static CompressedThrottledReader open(String file, CompressionMetadata metadata, RateLimiter limiter)
+    {
+        return open(file, metadata, limiter, null);
+    }
+
+    public static CompressedThrottledReader open(String file, CompressionMetadata metadata, RateLimiter limiter, TreeMap<Long, MappedByteBuffer> chunkSegments)
     {
         try
         {
-            return new CompressedThrottledReader(file, metadata, limiter);
+            return new CompressedThrottledReader(file, metadata, limiter, chunkSegments);
         }
         catch (FileNotFoundException e)
         {
@@ -55,6 +55,8 @@ public class Component
         SUMMARY("Summary.db"),
         // table of contents, stores the list of all components for the sstable
         TOC("TOC.txt"),
+        // frequencies of the indexed values, only written for secondary index sstables
+        VALUE_FREQUENCY("ValueFrequency.db"),
         // custom component, used by e.g. custom compaction strategy
         CUSTOM(null);
 
@@ -83,6 +85,7 @@ public class Component
     public final static Component CRC = new Component(Type.CRC);
     public final static Component SUMMARY = new Component(Type.SUMMARY);
     public final static Component TOC = new Component(Type.TOC);
+    public final static Component VALUE_FREQUENCY = new Component(Type.VALUE_FREQUENCY);
 
     public final Type type;
     public final String name;
@@ -134,6 +137,7 @@ public class Component
             case CRC:               component = Component.CRC;                          break;
             case SUMMARY:           component = Component.SUMMARY;                      break;
             case TOC:               component = Component.TOC;                          break;
+            case VALUE_FREQUENCY:   component = Component.VALUE_FREQUENCY;              break;
             case CUSTOM:            component = new Component(Type.CUSTOM, path.right); break;
             default:
                  throw new IllegalStateException();
@@ -18,16 +18,19 @@
 package org.apache.cassandra.io.sstable;
 
 import java.io.*;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.RandomAccess;
 
 import org.apache.cassandra.db.composites.CType;
 import org.apache.cassandra.db.composites.Composite;
 import org.apache.cassandra.db.TypeSizes;
 import org.apache.cassandra.io.ISerializer;
 import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.io.util.FastByteArrayInputStream;
 import org.apache.cassandra.io.util.FileDataInput;
 import org.apache.cassandra.io.util.FileMark;
 import org.apache.cassandra.io.util.FileUtils;
@@ -94,6 +97,7 @@ public class IndexHelper
 
     /**
      * The index of the IndexInfo in which a scan starting with @name should begin.
+     * When indexList is a SerializedIndex, only the entries the search compares against are deserialized.
      *
      * @param name
      *         name of the index
@@ -210,4 +214,79 @@ public class IndexHelper
             return EMPTY_SIZE + firstName.unsharedHeapSize() + lastName.unsharedHeapSize();
         }
     }
+
+    /**
+     * A column index kept in its serialized form, along with the offset of each of its entries in it, so that it can
+     * be binary searched deserializing only the entries compared against, rather than every entry up front.
+     */
+    public static class SerializedIndex extends AbstractList<IndexInfo> implements RandomAccess
+    {
+        private static final long EMPTY_SIZE = ObjectSizes.measure(new SerializedIndex(null, null, null));
+
+        private final byte[] entries;
+        private final int[] offsets;
+        private final ISerializer<IndexInfo> serializer;
+
+        private SerializedIndex(byte[] entries, int[] offsets, ISerializer<IndexInfo> serializer)
+        {
+            this.entries = entries;
+            this.offsets = offsets;
+            this.serializer = serializer;
+        }
+
+        /**
+         * @param entries the serialized entries of the index
+         * @param count the number of entries
+         * @param type the comparator type for the column family
+         */
+        public static SerializedIndex create(byte[] entries, int count, CType type) throws IOException
+        {
+            FastByteArrayInputStream bytes = new FastByteArrayInputStream(entries);
+            DataInput in = new DataInputStream(bytes);
+            int[] offsets = new int[count];
+            for (int i = 0; i < count; i++)
+            {
+                offsets[i] = entries.length - bytes.available();
+                type.serializer().skip(in); // first name
+                type.serializer().skip(in); // last name
+                FileUtils.skipBytesFully(in, TypeSizes.NATIVE.sizeof(0L) * 2); // offset and width
+            }
+            if (bytes.available() != 0)
+                throw new IOException(String.format("Column index of %d entries has %d trailing bytes", count, bytes.available()));
+            return new SerializedIndex(entries, offsets, type.indexSerializer());
+        }
+
+        public IndexInfo get(int index)
+        {
+            int offset = offsets[index];
+            try
+            {
+                return serializer.deserialize(new DataInputStream(new FastByteArrayInputStream(entries, offset, entries.length - offset)));
+            }
+            catch (IOException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+
+        public int size()
+        {
+            return offsets.length;
+        }
+
+        public int serializedSize()
+        {
+            return entries.length;
+        }
+
+        public void serialize(DataOutput out) throws IOException
+        {
+            out.write(entries);
+        }
+
+        public long unsharedHeapSize()
+        {
+            return EMPTY_SIZE + ObjectSizes.sizeOfArray(entries) + ObjectSizes.sizeOfArray(offsets);
+        }
+    }
 }
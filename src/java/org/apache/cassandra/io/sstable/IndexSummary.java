@@ -25,6 +25,8 @@ import java.nio.ByteOrder;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.RowPosition;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.LongToken;
+import org.apache.cassandra.dht.Murmur3Partitioner;
 import org.apache.cassandra.io.util.DataOutputPlus;
 import org.apache.cassandra.io.util.Memory;
 import org.apache.cassandra.io.util.MemoryOutputStream;
@@ -42,6 +44,11 @@ import static org.apache.cassandra.io.sstable.Downsampling.BASE_SAMPLING_LEVEL;
  *     to find the position in the Memory to start reading the actual index summary entry.
  *     (This is necessary because keys can have different lengths.)
  *  2.  A sequence of (DecoratedKey, position) pairs, where position is the offset into the actual index file.
+ *
+ * With the Murmur3Partitioner, the token of each entry is also kept as a long in a third, separate region, which is
+ * not serialized but rebuilt from the keys. As these tokens are uniformly distributed, binarySearch() can then find
+ * the entries sharing the token of the key by interpolation, in O(log log n) probes of a long rather than O(log n)
+ * comparisons of keys, and only compares the keys of those entries.
  */
 public class IndexSummary extends WrappedSharedCloseable
 {
@@ -64,6 +71,8 @@ public class IndexSummary extends WrappedSharedCloseable
     // entries is a list of (partition key, index file offset) pairs
     private final Memory entries;
     private final long entriesLength;
+    // the token of each entry, if they are longs, or null
+    private final Memory tokens;
 
     /**
      * A value between 1 and BASE_SAMPLING_LEVEL that represents how many of the original
@@ -76,7 +85,14 @@ public class IndexSummary extends WrappedSharedCloseable
     public IndexSummary(IPartitioner partitioner, Memory offsets, int offsetCount, Memory entries, long entriesLength,
                         int sizeAtFullSampling, int minIndexInterval, int samplingLevel)
     {
-        super(new Memory[] { offsets, entries });
+        this(partitioner, offsets, offsetCount, entries, entriesLength, sizeAtFullSampling, minIndexInterval, samplingLevel,
+             buildTokens(partitioner, offsets, offsetCount, entries, entriesLength));
+    }
+
+    private IndexSummary(IPartitioner partitioner, Memory offsets, int offsetCount, Memory entries, long entriesLength,
+                         int sizeAtFullSampling, int minIndexInterval, int samplingLevel, Memory tokens)
+    {
+        super(tokens == null ? new Memory[] { offsets, entries } : new Memory[] { offsets, entries, tokens });
         assert offsets.getInt(0) == 0;
         this.partitioner = partitioner;
         this.minIndexInterval = minIndexInterval;
@@ -85,10 +101,28 @@ public class IndexSummary extends WrappedSharedCloseable
         this.sizeAtFullSampling = sizeAtFullSampling;
         this.offsets = offsets;
         this.entries = entries;
+        this.tokens = tokens;
         this.samplingLevel = samplingLevel;
         assert samplingLevel > 0;
     }
 
+    private static Memory buildTokens(IPartitioner partitioner, Memory offsets, int offsetCount, Memory entries, long entriesLength)
+    {
+        if (!(partitioner instanceof Murmur3Partitioner) || offsetCount == 0)
+            return null;
+
+        Memory tokens = Memory.allocate(offsetCount * 8L);
+        for (int i = 0; i < offsetCount; i++)
+        {
+            long start = offsets.getInt(i * 4L);
+            long end = i == offsetCount - 1 ? entriesLength : offsets.getInt((i + 1) * 4L);
+            byte[] key = new byte[(int) (end - start - 8L)];
+            entries.getBytes(start, key, 0, key.length);
+            tokens.setLong(i * 8L, ((LongToken) partitioner.getToken(ByteBuffer.wrap(key))).token);
+        }
+        return tokens;
+    }
+
     private IndexSummary(IndexSummary copy)
     {
         super(copy);
@@ -99,14 +133,32 @@ public class IndexSummary extends WrappedSharedCloseable
         this.sizeAtFullSampling = copy.sizeAtFullSampling;
         this.offsets = copy.offsets;
         this.entries = copy.entries;
+        this.tokens = copy.tokens;
         this.samplingLevel = copy.samplingLevel;
     }
 
+    /**
+     * @return the index of the entry for key if there is one, or -(insertion point) - 1 otherwise,
+     * like Collections.binarySearch()
+     */
+    public int binarySearch(RowPosition key)
+    {
+        if (tokens == null)
+            return binarySearch(key, 0, offsetCount - 1);
+
+        long token = ((LongToken) key.getToken()).token;
+        int low = tokenLowerBound(token);
+        int high = low;
+        while (high < offsetCount && getToken(high) == token)
+            high++;
+        return binarySearch(key, low, high - 1);
+    }
+
     // binary search is notoriously more difficult to get right than it looks; this is lifted from
     // Harmony's Collections implementation
-    public int binarySearch(RowPosition key)
+    int binarySearch(RowPosition key, int low, int high)
     {
-        int low = 0, mid = offsetCount, high = mid - 1, result = -1;
+        int mid = low, result = -1;
         while (low <= high)
         {
             mid = (low + high) >> 1;
@@ -128,6 +180,55 @@ public class IndexSummary extends WrappedSharedCloseable
         return -mid - (result < 0 ? 1 : 2);
     }
 
+    /**
+     * @return the index of the first entry whose token is not less than token, or offsetCount if there is none
+     */
+    int tokenLowerBound(long token)
+    {
+        // the result is always in [low, high]
+        int low = 0, high = offsetCount;
+        boolean bisect = false;
+        while (low < high)
+        {
+            long lowToken = getToken(low);
+            if (lowToken >= token)
+                return low;
+            long highToken = getToken(high - 1);
+            if (highToken < token)
+                return high;
+            // lowToken < token <= highToken, so the result is in (low, high - 1]
+            if (high - low <= 2)
+                return high - 1;
+
+            int probe;
+            if (bisect)
+            {
+                probe = (low + high) >>> 1;
+            }
+            else
+            {
+                double fraction = ((double) token - lowToken) / ((double) highToken - lowToken);
+                probe = low + (int) (fraction * (high - 1 - low));
+            }
+            probe = Math.max(low + 1, Math.min(high - 2, probe));
+
+            // fall back to bisecting whenever interpolating did not halve the range, which bounds the number of probes
+            // to twice that of a binary search if the tokens are not uniformly distributed
+            int size = high - low;
+            if (getToken(probe) >= token)
+                high = probe + 1;
+            else
+                low = probe + 1;
+            bisect = !bisect && (high - low) * 2 > size;
+        }
+        return low;
+    }
+
+    private long getToken(int index)
+    {
+        return tokens.getLong(index * 8L);
+    }
+
     /**
      * Gets the position of the actual index summary entry in our Memory attribute, 'bytes'.
      * @param index The index of the entry or key to get the position for
@@ -220,6 +321,11 @@ public class IndexSummary extends WrappedSharedCloseable
     }
 
     long getOffHeapSize()
+    {
+        return getSerializedOffHeapSize() + (tokens == null ? 0 : tokens.size());
+    }
+
+    private long getSerializedOffHeapSize()
     {
         return offsetCount * 4 + entriesLength;
     }
@@ -249,7 +355,7 @@ public class IndexSummary extends WrappedSharedCloseable
         {
             out.writeInt(t.minIndexInterval);
             out.writeInt(t.offsetCount);
-            out.writeLong(t.getOffHeapSize());
+            out.writeLong(t.getSerializedOffHeapSize());
             if (withSamplingLevel)
             {
                 out.writeInt(t.samplingLevel);
@@ -32,11 +32,28 @@ import org.apache.cassandra.utils.CloseableIterator;
 public class KeyIterator extends AbstractIterator<DecoratedKey> implements CloseableIterator<DecoratedKey>
 {
     private final RandomAccessReader in;
+    private final long start;
+    private final long end;
 
     public KeyIterator(Descriptor desc)
+    {
+        this(desc, 0, -1);
+    }
+
+    /**
+     * Iterates over the keys of the primary index from {@code start}, which must be the position of an entry.
+     *
+     * @param end the position the caller expects to stop iterating at, only used to report progress, or -1 for
+     * the end of the file.
+     */
+    public KeyIterator(Descriptor desc, long start, long end)
     {
         File path = new File(desc.filenameFor(Component.PRIMARY_INDEX));
         in = RandomAccessReader.open(path);
+        if (start > 0)
+            in.seek(start);
+        this.start = start;
+        this.end = end;
     }
 
     protected DecoratedKey computeNext()
@@ -62,11 +79,11 @@ public class KeyIterator extends AbstractIterator<DecoratedKey> implements Close
 
     public long getBytesRead()
     {
-        return in.getFilePointer();
+        return in.getFilePointer() - start;
     }
 
     public long getTotalBytes()
     {
-        return in.length();
+        return Math.max(end < 0 ? in.length() : end, in.getFilePointer()) - start;
     }
 }
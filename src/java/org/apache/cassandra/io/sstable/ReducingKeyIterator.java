@@ -21,8 +21,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.collect.AbstractIterator;
 
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.utils.CloseableIterator;
 import org.apache.cassandra.utils.IMergeIterator;
 import org.apache.cassandra.utils.MergeIterator;
@@ -30,16 +35,45 @@ import org.apache.cassandra.utils.MergeIterator;
 /**
  * Caller must acquire and release references to the sstables used here.
  */
-public class ReducingKeyIterator implements CloseableIterator<DecoratedKey>
+public class ReducingKeyIterator extends AbstractIterator<DecoratedKey> implements CloseableIterator<DecoratedKey>
 {
     private final IMergeIterator<DecoratedKey,DecoratedKey> mi;
+    private final Range<Token> range;
 
     public ReducingKeyIterator(Collection<SSTableReader> sstables)
     {
         ArrayList<KeyIterator> iters = new ArrayList<KeyIterator>(sstables.size());
         for (SSTableReader sstable : sstables)
             iters.add(new KeyIterator(sstable.descriptor));
-        mi = MergeIterator.get(iters, DecoratedKey.comparator, new MergeIterator.Reducer<DecoratedKey,DecoratedKey>()
+        mi = merge(iters);
+        range = null;
+    }
+
+    /**
+     * Iterates over the keys of {@code sstables} within {@code range}, starting from the index summary position of
+     * its left bound, which is excluded, and skipping the sstables that do not intersect it.
+     */
+    public ReducingKeyIterator(Collection<SSTableReader> sstables, Range<Token> range)
+    {
+        ArrayList<KeyIterator> iters = new ArrayList<KeyIterator>(sstables.size());
+        for (SSTableReader sstable : sstables)
+        {
+            if (!range.left.isMinimum() && sstable.last.getToken().compareTo(range.left) <= 0)
+                continue;
+            if (!range.right.isMinimum() && sstable.first.getToken().compareTo(range.right) > 0)
+                continue;
+
+            long start = range.left.isMinimum() ? 0 : sstable.getIndexScanPosition(range.left.maxKeyBound());
+            long end = range.right.isMinimum() ? -1 : sstable.getIndexScanPosition(range.right.maxKeyBound());
+            iters.add(new KeyIterator(sstable.descriptor, start, end));
+        }
+        mi = merge(iters);
+        this.range = range;
+    }
+
+    private static IMergeIterator<DecoratedKey,DecoratedKey> merge(List<KeyIterator> iters)
+    {
+        return MergeIterator.get(iters, DecoratedKey.comparator, new MergeIterator.Reducer<DecoratedKey,DecoratedKey>()
         {
             DecoratedKey reduced = null;
 
@@ -91,18 +125,18 @@ public class ReducingKeyIterator implements CloseableIterator<DecoratedKey>
         return "Secondary index build";
     }
 
-    public boolean hasNext()
-    {
-        return mi.hasNext();
-    }
-
-    public DecoratedKey next()
+    protected DecoratedKey computeNext()
     {
-        return mi.next();
-    }
+        while (mi.hasNext())
+        {
+            DecoratedKey key = mi.next();
+            if (range == null || range.contains(key.getToken()))
+                return key;
 
-    public void remove()
-    {
-        throw new UnsupportedOperationException();
+            // the keys are sorted, so we're either before the range or done with it
+            if (!range.right.isMinimum() && key.getToken().compareTo(range.right) > 0)
+                break;
+        }
+        return endOfData();
     }
 }
@@ -39,6 +39,7 @@ import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
 import com.clearspring.analytics.stream.cardinality.ICardinality;
 import com.yammer.metrics.core.Counter;
 import org.apache.cassandra.cache.CachingOptions;
+import org.apache.cassandra.cache.ChunkCache;
 import org.apache.cassandra.cache.InstrumentingCache;
 import org.apache.cassandra.cache.KeyCacheKey;
 import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
@@ -71,6 +72,7 @@ import org.apache.cassandra.io.sstable.metadata.MetadataComponent;
 import org.apache.cassandra.io.sstable.metadata.MetadataType;
 import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
 import org.apache.cassandra.io.sstable.metadata.ValidationMetadata;
+import org.apache.cassandra.io.sstable.metadata.ValueFrequencyMetadata;
 import org.apache.cassandra.io.util.*;
 import org.apache.cassandra.metrics.RestorableMeter;
 import org.apache.cassandra.metrics.StorageMetrics;
@@ -222,6 +224,10 @@ public class SSTableReader extends SSTable implements SelfRefCounted<SSTableRead
     // not final since we need to be able to change level on a file.
     private volatile StatsMetadata sstableMetadata;
 
+    // lazily loaded by getValueFrequencies(), as only index sstables have them and they are only used for index queries
+    private volatile ValueFrequencyMetadata valueFrequencies;
+    private volatile boolean valueFrequenciesLoaded;
+
     private final AtomicLong keyCacheHit = new AtomicLong(0);
     private final AtomicLong keyCacheRequest = new AtomicLong(0);
 
@@ -668,6 +674,8 @@ public class SSTableReader extends SSTable implements SelfRefCounted<SSTableRead
         // e.g. by BulkLoader, which does not initialize the cache.  As a kludge, we set up the cache
         // here when we know we're being wired into the rest of the server infrastructure.
         keyCache = CacheService.instance.keyCache;
+        if (tidy.global != null)
+            tidy.global.usesKeyCache = true;
     }
 
     private void load(ValidationMetadata validation) throws IOException
@@ -2040,6 +2048,34 @@ public class SSTableReader extends SSTable implements SelfRefCounted<SSTableRead
         }
     }
 
+    /**
+     * @return the estimated number of cells for each partition of this sstable, or null if they weren't
+     * collected, which is the case for all but secondary index sstables.
+     */
+    public ValueFrequencyMetadata getValueFrequencies()
+    {
+        if (!valueFrequenciesLoaded && components.contains(Component.VALUE_FREQUENCY))
+        {
+            File file = new File(descriptor.filenameFor(Component.VALUE_FREQUENCY));
+            DataInputStream in = null;
+            try
+            {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                valueFrequencies = ValueFrequencyMetadata.serializer.deserialize(in);
+            }
+            catch (IOException e)
+            {
+                SSTableReader.logOpenException(descriptor, e);
+            }
+            finally
+            {
+                FileUtils.closeQuietly(in);
+            }
+            valueFrequenciesLoaded = true;
+        }
+        return valueFrequencies;
+    }
+
     public int getSSTableLevel()
     {
         return sstableMetadata.sstableLevel;
@@ -2304,6 +2340,8 @@ public class SSTableReader extends SSTable implements SelfRefCounted<SSTableRead
         public void tidy()
         {
             lookup.remove(desc);
+            if (ChunkCache.instance != null)
+                ChunkCache.instance.invalidateFile(desc.filenameFor(Component.DATA));
             boolean isCompacted = globalRef.get().isCompacted.get();
             globalRef.release();
             switch (desc.type)
@@ -2364,10 +2402,14 @@ public class SSTableReader extends SSTable implements SelfRefCounted<SSTableRead
         // shared state managing if the logical sstable has been compacted; this is used in cleanup both here
         // and in the FINAL type tidier
         private final AtomicBoolean isCompacted;
+        // whether the sstable may have entries in the key cache, which is only set up for readers used by the server
+        private volatile boolean usesKeyCache;
+        private final Pair<String, String> ksAndCFName;
 
         GlobalTidy(final SSTableReader reader)
         {
             this.desc = reader.descriptor;
+            this.ksAndCFName = reader.metadata.ksAndCFName;
             this.isCompacted = new AtomicBoolean();
         }
 
@@ -2407,6 +2449,8 @@ public class SSTableReader extends SSTable implements SelfRefCounted<SSTableRead
                 readMeterSyncFuture.cancel(true);
             if (isCompacted.get())
                 SystemKeyspace.clearSSTableReadMeter(desc.ksname, desc.cfname, desc.generation);
+            if (usesKeyCache)
+                CacheService.instance.releaseKeyCacheSSTable(ksAndCFName, desc);
             // don't ideally want to dropPageCache for the file until all instances have been released
             CLibrary.trySkipCache(desc.filenameFor(Component.DATA), 0, 0);
             CLibrary.trySkipCache(desc.filenameFor(Component.PRIMARY_INDEX), 0, 0);
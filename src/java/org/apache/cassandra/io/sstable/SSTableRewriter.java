@@ -32,6 +32,7 @@ import org.apache.cassandra.db.DataTracker;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.RowIndexEntry;
 import org.apache.cassandra.db.compaction.AbstractCompactedRow;
+import org.apache.cassandra.db.index.sstable.IndexSegment;
 import org.apache.cassandra.utils.CLibrary;
 
 import static org.apache.cassandra.utils.Throwables.merge;
@@ -47,6 +48,9 @@ import static org.apache.cassandra.utils.Throwables.merge;
  * the rename of the temporary file, which is deleted once all readers against the hard-link have been closed.
  * If for any reason the writer is rolled over, we immediately rename and fully expose the completed file in the DataTracker.
  *
+ * The segments of the sstable attached indexes of each new sstable are collected from the rows written to it, and
+ * written along with it when its final reader is opened.
+ *
  * On abort we restore the original lower bounds to the existing readers and delete any temporary files we had in progress,
  * but leave any hard-links in place for the readers we opened to cleanup when they're finished as we would had we finished
  * successfully.
@@ -63,6 +67,7 @@ public class SSTableRewriter
     private final Map<Descriptor, Integer> fileDescriptors = new HashMap<>(); // the file descriptors for each reader descriptor we are rewriting
 
     private SSTableReader currentlyOpenedEarly; // the reader for the most recent (re)opening of the target file
+    private List<IndexSegment.Builder> segmentBuilders = Collections.emptyList(); // the index segments of the target file
     private long currentlyOpenedEarlyAt; // the position (in MB) in the target file we last (re)opened at
 
     private final List<SSTableReader> finishedReaders = new ArrayList<>();
@@ -124,6 +129,7 @@ public class SSTableRewriter
     {
         // we do this before appending to ensure we can resetAndTruncate() safely if the append fails
         maybeReopenEarly(row.key);
+        row.setIndexSegmentBuilders(segmentBuilders);
         RowIndexEntry index = writer.append(row);
         if (!isOffline)
         {
@@ -226,7 +232,7 @@ public class SSTableRewriter
         }
 
         if (writer != null)
-            finishedEarly.add(new Finished(writer, currentlyOpenedEarly));
+            finishedEarly.add(new Finished(writer, currentlyOpenedEarly, segmentBuilders));
 
         // abort the writers
         for (Finished finished : finishedEarly)
@@ -234,6 +240,7 @@ public class SSTableRewriter
             try
             {
                 finished.writer.abort();
+                releaseSegments(finished.segmentBuilders);
             }
             catch (Throwable t)
             {
@@ -386,6 +393,7 @@ public class SSTableRewriter
         if (writer == null)
         {
             writer = newWriter;
+            segmentBuilders = newSegmentBuilders(newWriter);
             return;
         }
 
@@ -395,6 +403,7 @@ public class SSTableRewriter
             if (preemptiveOpenInterval == Long.MAX_VALUE)
             {
                 SSTableReader reader = writer.finish(SSTableWriter.FinishType.NORMAL, maxAge, -1);
+                completeSegments(segmentBuilders, reader);
                 finishedReaders.add(reader);
             }
             else
@@ -403,16 +412,36 @@ public class SSTableRewriter
                 SSTableReader reader = writer.finish(SSTableWriter.FinishType.EARLY, maxAge, -1);
                 replaceEarlyOpenedFile(currentlyOpenedEarly, reader);
                 moveStarts(reader, reader.last, false);
-                finishedEarly.add(new Finished(writer, reader));
+                finishedEarly.add(new Finished(writer, reader, segmentBuilders));
             }
         }
         else
         {
             writer.abort();
+            releaseSegments(segmentBuilders);
         }
         currentlyOpenedEarly = null;
         currentlyOpenedEarlyAt = 0;
         writer = newWriter;
+        segmentBuilders = newSegmentBuilders(newWriter);
+    }
+
+    private List<IndexSegment.Builder> newSegmentBuilders(SSTableWriter newWriter)
+    {
+        return newWriter == null || isOffline ? Collections.<IndexSegment.Builder>emptyList() : cfs.indexManager.newIndexSegmentBuilders(newWriter.descriptor.directory);
+    }
+
+    // the segments are attached before the reader replaces the ones being rewritten, for it to be indexed right away
+    private static void completeSegments(List<IndexSegment.Builder> segmentBuilders, SSTableReader reader)
+    {
+        for (IndexSegment.Builder builder : segmentBuilders)
+            builder.complete(reader);
+    }
+
+    private static void releaseSegments(List<IndexSegment.Builder> segmentBuilders)
+    {
+        for (IndexSegment.Builder builder : segmentBuilders)
+            builder.release();
     }
 
     public List<SSTableReader> finish()
@@ -478,6 +507,7 @@ public class SSTableRewriter
                     discard.add(f.reader);
 
                 SSTableReader newReader = f.writer.finish(SSTableWriter.FinishType.FINISH_EARLY, maxAge, repairedAt);
+                completeSegments(f.segmentBuilders, newReader);
 
                 if (f.reader != null)
                     f.reader.setReplacedBy(newReader);
@@ -488,6 +518,7 @@ public class SSTableRewriter
             else
             {
                 f.writer.abort();
+                releaseSegments(f.segmentBuilders);
                 assert f.reader == null;
             }
             finishedEarly.poll();
@@ -525,11 +556,13 @@ public class SSTableRewriter
     {
         final SSTableWriter writer;
         final SSTableReader reader;
+        final List<IndexSegment.Builder> segmentBuilders;
 
-        private Finished(SSTableWriter writer, SSTableReader reader)
+        private Finished(SSTableWriter writer, SSTableReader reader, List<IndexSegment.Builder> segmentBuilders)
         {
             this.writer = writer;
             this.reader = reader;
+            this.segmentBuilders = segmentBuilders;
         }
     }
 }
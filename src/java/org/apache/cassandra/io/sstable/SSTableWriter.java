@@ -53,6 +53,7 @@ import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
 import org.apache.cassandra.io.sstable.metadata.MetadataComponent;
 import org.apache.cassandra.io.sstable.metadata.MetadataType;
 import org.apache.cassandra.io.sstable.metadata.StatsMetadata;
+import org.apache.cassandra.io.sstable.metadata.ValueFrequencyMetadata;
 import org.apache.cassandra.io.util.*;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.ByteBufferUtil;
@@ -109,6 +110,10 @@ public class SSTableWriter extends SSTable
             // but the components are unmodifiable after construction
             components.add(Component.CRC);
         }
+
+        // see the constructor
+        if (metadata.isSecondaryIndex())
+            components.add(Component.VALUE_FREQUENCY);
         return components;
     }
 
@@ -141,6 +146,9 @@ public class SSTableWriter extends SSTable
         iwriter = new IndexWriter(keyCount, dataFile);
 
         this.sstableMetadataCollector = sstableMetadataCollector;
+        // the partition keys of index sstables are the indexed values, whose frequencies we want for index selectivity
+        if (metadata.isSecondaryIndex())
+            sstableMetadataCollector.trackValueFrequencies();
     }
 
     public void mark()
@@ -201,7 +209,9 @@ public class SSTableWriter extends SSTable
         long endPosition = dataFile.getFilePointer();
         long rowSize = endPosition - startPosition;
         maybeLogLargePartitionWarning(row.key, rowSize);
-        sstableMetadataCollector.update(rowSize, row.columnStats());
+        ColumnStats stats = row.columnStats();
+        sstableMetadataCollector.update(rowSize, stats);
+        sstableMetadataCollector.addValueFrequency(row.key.getKey(), stats.columnCount);
         afterAppend(row.key, endPosition, entry);
         return entry;
     }
@@ -230,7 +240,9 @@ public class SSTableWriter extends SSTable
         }
         long rowSize = endPosition - startPosition;
         maybeLogLargePartitionWarning(decoratedKey, rowSize);
-        sstableMetadataCollector.update(rowSize, cf.getColumnStats());
+        ColumnStats stats = cf.getColumnStats();
+        sstableMetadataCollector.update(rowSize, stats);
+        sstableMetadataCollector.addValueFrequency(decoratedKey.getKey(), stats.columnCount);
     }
 
     private void maybeLogLargePartitionWarning(DecoratedKey key, long rowSize)
@@ -517,6 +529,8 @@ public class SSTableWriter extends SSTable
         {
             dataFile.writeFullChecksum(descriptor);
             writeMetadata(descriptor, metadataComponents);
+            if (components.contains(Component.VALUE_FREQUENCY))
+                writeValueFrequencies(descriptor, sstableMetadataCollector.finalizeValueFrequencies());
             // save the table of components
             SSTable.appendTOC(descriptor, components);
             descriptor = rename(descriptor, components);
@@ -542,6 +556,23 @@ public class SSTableWriter extends SSTable
         }
     }
 
+    private static void writeValueFrequencies(Descriptor desc, ValueFrequencyMetadata valueFrequencies)
+    {
+        SequentialWriter out = SequentialWriter.open(new File(desc.filenameFor(Component.VALUE_FREQUENCY)));
+        try
+        {
+            ValueFrequencyMetadata.serializer.serialize(valueFrequencies, out.stream);
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, out.getPath());
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
     static Descriptor rename(Descriptor tmpdesc, Set<Component> components)
     {
         Descriptor newdesc = tmpdesc.asType(Descriptor.Type.FINAL);
@@ -102,6 +102,10 @@ public class MetadataCollector
      * See CASSANDRA-5906 for detail.
      */
     protected ICardinality cardinality = new HyperLogLogPlus(13, 25);
+    /**
+     * Only collected for secondary index sstables (see {@link #trackValueFrequencies()}).
+     */
+    protected ValueFrequencyMetadata.Collector valueFrequencies;
     private final CellNameType columnNameComparator;
 
     public MetadataCollector(CellNameType columnNameComparator)
@@ -133,6 +137,29 @@ public class MetadataCollector
         return this;
     }
 
+    public MetadataCollector trackValueFrequencies()
+    {
+        if (valueFrequencies == null)
+            valueFrequencies = new ValueFrequencyMetadata.Collector();
+        return this;
+    }
+
+    public MetadataCollector addValueFrequency(ByteBuffer key, long cellCount)
+    {
+        if (valueFrequencies != null)
+            valueFrequencies.add(key, cellCount);
+        return this;
+    }
+
+    /**
+     * @return the value frequencies collected, or null if they aren't tracked. They are written to their own
+     * component rather than to Statistics.db, which older versions couldn't read anymore.
+     */
+    public ValueFrequencyMetadata finalizeValueFrequencies()
+    {
+        return valueFrequencies == null ? null : valueFrequencies.finish();
+    }
+
     public MetadataCollector addRowSize(long rowSize)
     {
         estimatedRowSize.add(rowSize);
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable.metadata;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.clearspring.analytics.stream.Counter;
+import com.clearspring.analytics.stream.StreamSummary;
+import com.clearspring.analytics.stream.frequency.CountMinSketch;
+
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.io.ISerializer;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.MurmurHash;
+
+/**
+ * Estimates of the number of cells of each partition of an SSTable.
+ *
+ * Only collected for secondary index SSTables, where partition keys are indexed values, so that the selectivity of
+ * an index lookup can be estimated for the looked up value rather than using the mean partition size. The frequency
+ * of every key is estimated with a count-min sketch, which can only over-estimate, while the most frequent keys are
+ * also tracked (with the Space-Saving algorithm) so we can bound the estimates of all the other, less frequent, keys.
+ *
+ * They are stored in the optional VALUE_FREQUENCY component of the SSTable.
+ */
+public class ValueFrequencyMetadata
+{
+    public static final ISerializer<ValueFrequencyMetadata> serializer = new ValueFrequencyMetadataSerializer();
+
+    // 4 x 1024 counters gives estimates within 0.2% of the total number of cells with a 94% confidence, for 32KB.
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1024;
+    private static final int SKETCH_SEED = 0;
+
+    // We track more keys than we persist to make the counts of the persisted ones more accurate
+    private static final int HEAVY_HITTERS_TRACKED = 128;
+    private static final int HEAVY_HITTERS_PERSISTED = 32;
+
+    public final CountMinSketch sketch;
+    private final Map<Long, Long> heavyHitters;
+    // upper bound for the cell count of any key that is not a heavy hitter
+    private final long maxNonHeavyHitterCount;
+
+    public ValueFrequencyMetadata(CountMinSketch sketch, Map<Long, Long> heavyHitters, long maxNonHeavyHitterCount)
+    {
+        this.sketch = sketch;
+        this.heavyHitters = heavyHitters;
+        this.maxNonHeavyHitterCount = maxNonHeavyHitterCount;
+    }
+
+    /**
+     * @return an estimate (never lower than the actual value) of the number of cells of the partition {@code key}.
+     */
+    public long estimateCount(ByteBuffer key)
+    {
+        long hash = hash(key);
+        long estimate = sketch.estimateCount(hash);
+        Long count = heavyHitters.get(hash);
+        return Math.min(estimate, count == null ? maxNonHeavyHitterCount : count);
+    }
+
+    /**
+     * @return the total number of cells of the SSTable.
+     */
+    public long totalCount()
+    {
+        return sketch.size();
+    }
+
+    private static long hash(ByteBuffer key)
+    {
+        return MurmurHash.hash2_64(key, key.position(), key.remaining(), 0);
+    }
+
+    /**
+     * Collects the value frequencies while an SSTable is written.
+     */
+    public static class Collector
+    {
+        private final CountMinSketch sketch = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH, SKETCH_SEED);
+        private final StreamSummary<Long> topK = new StreamSummary<>(HEAVY_HITTERS_TRACKED);
+
+        public void add(ByteBuffer key, long cellCount)
+        {
+            if (cellCount <= 0)
+                return;
+
+            long hash = hash(key);
+            sketch.add(hash, cellCount);
+            topK.offer(hash, (int) Math.min(cellCount, Integer.MAX_VALUE));
+        }
+
+        public ValueFrequencyMetadata finish()
+        {
+            List<Counter<Long>> counters = topK.topK(HEAVY_HITTERS_PERSISTED);
+            Map<Long, Long> heavyHitters = new HashMap<>(counters.size());
+            for (Counter<Long> counter : counters)
+                heavyHitters.put(counter.getItem(), counter.getCount());
+
+            // Space-Saving counters never under-estimate, and a key that isn't monitored anymore has at most as many
+            // cells as the smallest counter, so no key outside the persisted ones has more cells than the last of them.
+            long maxNonHeavyHitterCount = counters.isEmpty() ? 0 : counters.get(counters.size() - 1).getCount();
+            return new ValueFrequencyMetadata(sketch, heavyHitters, maxNonHeavyHitterCount);
+        }
+    }
+
+    public static class ValueFrequencyMetadataSerializer implements ISerializer<ValueFrequencyMetadata>
+    {
+        public long serializedSize(ValueFrequencyMetadata component, TypeSizes typeSizes)
+        {
+            long size = 0;
+            byte[] serializedSketch = CountMinSketch.serialize(component.sketch);
+            size += typeSizes.sizeof(serializedSketch.length) + serializedSketch.length;
+            size += typeSizes.sizeof(component.heavyHitters.size());
+            size += component.heavyHitters.size() * 2 * typeSizes.sizeof(0L);
+            size += typeSizes.sizeof(component.maxNonHeavyHitterCount);
+            return size;
+        }
+
+        public void serialize(ValueFrequencyMetadata component, DataOutputPlus out) throws IOException
+        {
+            ByteBufferUtil.writeWithLength(CountMinSketch.serialize(component.sketch), out);
+            out.writeInt(component.heavyHitters.size());
+            for (Map.Entry<Long, Long> entry : component.heavyHitters.entrySet())
+            {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.writeLong(component.maxNonHeavyHitterCount);
+        }
+
+        public ValueFrequencyMetadata deserialize(DataInput in) throws IOException
+        {
+            CountMinSketch sketch = CountMinSketch.deserialize(ByteBufferUtil.readBytes(in, in.readInt()));
+            int size = in.readInt();
+            Map<Long, Long> heavyHitters = new HashMap<>(size);
+            for (int i = 0; i < size; i++)
+                heavyHitters.put(in.readLong(), in.readLong());
+            return new ValueFrequencyMetadata(sketch, heavyHitters, in.readLong());
+        }
+    }
+}
@@ -17,49 +17,142 @@
 */
 package org.apache.cassandra.io.util;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.FSReadError;
 import org.apache.cassandra.io.compress.CompressedRandomAccessReader;
 import org.apache.cassandra.io.compress.CompressedSequentialWriter;
 import org.apache.cassandra.io.compress.CompressedThrottledReader;
 import org.apache.cassandra.io.compress.CompressionMetadata;
+import org.apache.cassandra.utils.JVMStabilityInspector;
+import org.apache.cassandra.utils.concurrent.Ref;
+import org.apache.cassandra.utils.concurrent.RefCounted;
 
 public class CompressedPoolingSegmentedFile extends PoolingSegmentedFile implements ICompressedFile
 {
+    private static final Logger logger = LoggerFactory.getLogger(CompressedPoolingSegmentedFile.class);
+
+    // the size of the mapped segments, which must hold whole chunks
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
     public final CompressionMetadata metadata;
+    // the mapped segments of the file if disk_access_mode is mmap, or null
+    private final TreeMap<Long, MappedByteBuffer> chunkSegments;
 
     public CompressedPoolingSegmentedFile(String path, CompressionMetadata metadata)
     {
-        super(new Cleanup(path, metadata), path, metadata.dataLength, metadata.compressedFileLength);
+        this(path, metadata, null);
+    }
+
+    private CompressedPoolingSegmentedFile(String path, CompressionMetadata metadata, TreeMap<Long, Ref<MappedByteBuffer>> segmentRefs)
+    {
+        super(new Cleanup(path, metadata, segmentRefs), path, metadata.dataLength, metadata.compressedFileLength);
         this.metadata = metadata;
+        if (segmentRefs == null)
+        {
+            this.chunkSegments = null;
+        }
+        else
+        {
+            this.chunkSegments = new TreeMap<>();
+            for (Map.Entry<Long, Ref<MappedByteBuffer>> segment : segmentRefs.entrySet())
+                chunkSegments.put(segment.getKey(), segment.getValue().get());
+        }
     }
 
     private CompressedPoolingSegmentedFile(CompressedPoolingSegmentedFile copy)
     {
         super(copy);
         this.metadata = copy.metadata;
+        this.chunkSegments = copy.chunkSegments;
     }
 
     protected static final class Cleanup extends PoolingSegmentedFile.Cleanup
     {
         final CompressionMetadata metadata;
-        protected Cleanup(String path, CompressionMetadata metadata)
+        final TreeMap<Long, Ref<MappedByteBuffer>> segmentRefs;
+        protected Cleanup(String path, CompressionMetadata metadata, TreeMap<Long, Ref<MappedByteBuffer>> segmentRefs)
         {
             super(path);
             this.metadata = metadata;
+            this.segmentRefs = segmentRefs;
         }
         public void tidy() throws Exception
         {
             super.tidy();
             metadata.close();
+            if (segmentRefs == null)
+                return;
+
+            // the segments may be shared with the other files opened by the same builder, and are only unmapped
+            // once all of them have been tidied
+            for (Ref<MappedByteBuffer> segment : segmentRefs.values())
+                segment.release();
         }
     }
 
+    private static Ref<MappedByteBuffer> mapSegment(FileChannel channel, final String path, final long start, long size) throws IOException
+    {
+        final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        return new Ref<>(segment, new RefCounted.Tidy()
+        {
+            public void tidy()
+            {
+                if (!FileUtils.isCleanerAvailable())
+                    return;
+
+                // as with MmappedSegmentedFile, no reader may access the segment anymore
+                try
+                {
+                    FileUtils.clean(segment);
+                }
+                catch (Exception e)
+                {
+                    JVMStabilityInspector.inspectThrowable(e);
+                    // This is not supposed to happen
+                    logger.error("Error while unmapping segments", e);
+                }
+            }
+
+            public String name()
+            {
+                return path + " segment at " + start;
+            }
+        });
+    }
+
     public static class Builder extends CompressedSegmentedFile.Builder
     {
+        private final long maxSegmentSize;
+        // the segments of the chunks that are followed by chunks of a later segment, which are mapped once and shared
+        // by the files completed since, rather than walking and mapping the whole file on each early opening
+        private final TreeMap<Long, Ref<MappedByteBuffer>> fixedSegments = new TreeMap<>();
+        // the first chunk, and its offset, of the segment that follows the fixed ones
+        private int tailChunk;
+        private long tailStart;
+
         public Builder(CompressedSequentialWriter writer)
+        {
+            this(writer, MAX_SEGMENT_SIZE);
+        }
+
+        @VisibleForTesting
+        Builder(CompressedSequentialWriter writer, long maxSegmentSize)
         {
             super(writer);
+            this.maxSegmentSize = maxSegmentSize;
         }
 
         public void addPotentialBoundary(long boundary)
@@ -69,7 +162,71 @@ public class CompressedPoolingSegmentedFile extends PoolingSegmentedFile impleme
 
         public SegmentedFile complete(String path, long overrideLength, boolean isFinal)
         {
-            return new CompressedPoolingSegmentedFile(path, metadata(path, overrideLength, isFinal));
+            CompressionMetadata metadata = metadata(path, overrideLength, isFinal);
+            TreeMap<Long, Ref<MappedByteBuffer>> segmentRefs = DatabaseDescriptor.getDiskAccessMode() == Config.DiskAccessMode.mmap
+                                                             ? mapChunkSegments(path, metadata)
+                                                             : null;
+            return new CompressedPoolingSegmentedFile(path, metadata, segmentRefs);
+        }
+
+        /**
+         * Maps the file in segments of whole chunks along with their checksum, so that a chunk is read from a single
+         * buffer. Only the chunks following the fixed segments are walked, and only the segments they start are
+         * mapped, along with the fixed ones whose files have all been tidied since.
+         */
+        private TreeMap<Long, Ref<MappedByteBuffer>> mapChunkSegments(String path, CompressionMetadata metadata)
+        {
+            int chunkCount = (int) ((metadata.dataLength + metadata.chunkLength() - 1) / metadata.chunkLength());
+            if (chunkCount < tailChunk)
+            {
+                // the file is opened shorter than it was before, so the fixed segments may end beyond it
+                fixedSegments.clear();
+                tailChunk = 0;
+                tailStart = 0;
+            }
+
+            TreeMap<Long, Ref<MappedByteBuffer>> segments = new TreeMap<>();
+            try (RandomAccessFile raf = new RandomAccessFile(path, "r"))
+            {
+                FileChannel channel = raf.getChannel();
+                for (Map.Entry<Long, Ref<MappedByteBuffer>> entry : fixedSegments.entrySet())
+                {
+                    Ref<MappedByteBuffer> segment = entry.getValue().tryRef();
+                    if (segment == null)
+                    {
+                        Long end = fixedSegments.higherKey(entry.getKey());
+                        segment = mapSegment(channel, path, entry.getKey(), (end == null ? tailStart : end) - entry.getKey());
+                        entry.setValue(segment);
+                    }
+                    segments.put(entry.getKey(), segment);
+                }
+
+                long tailEnd = tailStart;
+                for (int i = tailChunk; i < chunkCount; i++)
+                {
+                    CompressionMetadata.Chunk chunk = metadata.chunkFor((long) i * metadata.chunkLength());
+                    // the chunks are laid out one after the other, each followed by its checksum
+                    long chunkEnd = chunk.offset + chunk.length + 4;
+                    if (chunkEnd - tailStart > maxSegmentSize && tailEnd > tailStart)
+                    {
+                        Ref<MappedByteBuffer> segment = mapSegment(channel, path, tailStart, tailEnd - tailStart);
+                        fixedSegments.put(tailStart, segment);
+                        segments.put(tailStart, segment);
+                        tailChunk = i;
+                        tailStart = tailEnd;
+                    }
+                    tailEnd = chunkEnd;
+                }
+                if (tailEnd > tailStart)
+                    segments.put(tailStart, mapSegment(channel, path, tailStart, tailEnd - tailStart));
+            }
+            catch (IOException e)
+            {
+                for (Ref<MappedByteBuffer> segment : segments.values())
+                    segment.release();
+                throw new FSReadError(e, path);
+            }
+            return segments;
         }
     }
 
@@ -82,17 +239,23 @@ public class CompressedPoolingSegmentedFile extends PoolingSegmentedFile impleme
 
     public RandomAccessReader createReader()
     {
-        return CompressedRandomAccessReader.open(path, metadata, null);
+        return CompressedRandomAccessReader.open(path, metadata, null, chunkSegments);
     }
 
     public RandomAccessReader createThrottledReader(RateLimiter limiter)
     {
-        return CompressedThrottledReader.open(path, metadata, limiter);
+        return CompressedThrottledReader.open(path, metadata, limiter, chunkSegments);
     }
 
     protected RandomAccessReader createPooledReader()
     {
-        return CompressedRandomAccessReader.open(path, metadata, this);
+        return CompressedRandomAccessReader.open(path, metadata, this, chunkSegments);
+    }
+
+    @VisibleForTesting
+    TreeMap<Long, MappedByteBuffer> chunkSegments()
+    {
+        return chunkSegments;
     }
 
     public CompressionMetadata getMetadata()
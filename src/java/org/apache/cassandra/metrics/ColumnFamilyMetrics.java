@@ -122,6 +122,12 @@ public class ColumnFamilyMetrics
     public final Counter rowCacheHit;
     /** Number of row cache misses */
     public final Counter rowCacheMiss;
+    /** Number of index cells read by index searches (on the index table) */
+    public final Counter indexCellsRead;
+    /** Number of base rows read for the entries of this index by index searches (on the index table) */
+    public final Counter indexBaseRowsFetched;
+    /** Number of results satisfying all the clauses of index searches using this index (on the index table) */
+    public final Counter indexRowsReturned;
     /** CAS Prepare metrics */
     public final LatencyMetrics casPrepare;
     /** CAS Propose metrics */
@@ -225,14 +231,14 @@ public class ColumnFamilyMetrics
         {
             public Long value()
             {
-                return cfs.getDataTracker().getView().getCurrentMemtable().getAllocator().onHeap().owns();
+                return cfs.getDataTracker().getView().getCurrentMemtable().getOnHeapOwns();
             }
         });
         memtableOffHeapSize = createColumnFamilyGauge("MemtableOffHeapSize", new Gauge<Long>()
         {
             public Long value()
             {
-                return cfs.getDataTracker().getView().getCurrentMemtable().getAllocator().offHeap().owns();
+                return cfs.getDataTracker().getView().getCurrentMemtable().getOffHeapOwns();
             }
         });
         memtableLiveDataSize = createColumnFamilyGauge("MemtableLiveDataSize", new Gauge<Long>()
@@ -248,7 +254,7 @@ public class ColumnFamilyMetrics
             {
                 long size = 0;
                 for (ColumnFamilyStore cfs2 : cfs.concatWithIndexes())
-                    size += cfs2.getDataTracker().getView().getCurrentMemtable().getAllocator().onHeap().owns();
+                    size += cfs2.getDataTracker().getView().getCurrentMemtable().getOnHeapOwns();
                 return size;
             }
         });
@@ -258,7 +264,7 @@ public class ColumnFamilyMetrics
             {
                 long size = 0;
                 for (ColumnFamilyStore cfs2 : cfs.concatWithIndexes())
-                    size += cfs2.getDataTracker().getView().getCurrentMemtable().getAllocator().offHeap().owns();
+                    size += cfs2.getDataTracker().getView().getCurrentMemtable().getOffHeapOwns();
                 return size;
             }
         });
@@ -610,6 +616,9 @@ public class ColumnFamilyMetrics
         rowCacheHitOutOfRange = createColumnFamilyCounter("RowCacheHitOutOfRange");
         rowCacheHit = createColumnFamilyCounter("RowCacheHit");
         rowCacheMiss = createColumnFamilyCounter("RowCacheMiss");
+        indexCellsRead = createColumnFamilyCounter("IndexCellsRead");
+        indexBaseRowsFetched = createColumnFamilyCounter("IndexBaseRowsFetched");
+        indexRowsReturned = createColumnFamilyCounter("IndexRowsReturned");
 
         casPrepare = new LatencyMetrics(factory, "CasPrepare", cfs.keyspace.metric.casPrepare);
         casPropose = new LatencyMetrics(factory, "CasPropose", cfs.keyspace.metric.casPropose);
@@ -17,9 +17,10 @@
  */
 package org.apache.cassandra.metrics;
 
+import com.google.common.base.Supplier;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Gauge;
-
+import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.Timer;
 import org.apache.cassandra.db.commitlog.AbstractCommitLogService;
 import org.apache.cassandra.db.commitlog.CommitLogSegmentManager;
@@ -43,21 +44,29 @@ public class CommitLogMetrics
     public final Timer waitingOnSegmentAllocation;
     /** The time spent waiting on CL sync; for Periodic this is only occurs when the sync is lagging its sync interval */
     public final Timer waitingOnCommit;
+    /** Time spent by each sync of the commit log to disk */
+    public final Timer syncDuration;
+    /** Number of writes waiting on each sync; for Periodic this only counts writes blocked by a lagging sync */
+    public final Histogram syncBatchSize;
 
-    public CommitLogMetrics(final AbstractCommitLogService service, final CommitLogSegmentManager allocator)
+    /**
+     * @param service supplies the sync service, which is only created once these metrics are, as it records its syncs
+     * in them from the start
+     */
+    public CommitLogMetrics(final Supplier<AbstractCommitLogService> service, final CommitLogSegmentManager allocator)
     {
         completedTasks = Metrics.newGauge(factory.createMetricName("CompletedTasks"), new Gauge<Long>()
         {
             public Long value()
             {
-                return service.getCompletedTasks();
+                return service.get().getCompletedTasks();
             }
         });
         pendingTasks = Metrics.newGauge(factory.createMetricName("PendingTasks"), new Gauge<Long>()
         {
             public Long value()
             {
-                return service.getPendingTasks();
+                return service.get().getPendingTasks();
             }
         });
         totalCommitLogSize = Metrics.newGauge(factory.createMetricName("TotalCommitLogSize"), new Gauge<Long>()
@@ -69,5 +78,7 @@ public class CommitLogMetrics
         });
         waitingOnSegmentAllocation = Metrics.newTimer(factory.createMetricName("WaitingOnSegmentAllocation"), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
         waitingOnCommit = Metrics.newTimer(factory.createMetricName("WaitingOnCommit"), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+        syncDuration = Metrics.newTimer(factory.createMetricName("SyncDuration"), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+        syncBatchSize = Metrics.newHistogram(factory.createMetricName("SyncBatchSize"), true);
     }
 }
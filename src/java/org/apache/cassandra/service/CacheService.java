@@ -22,10 +22,13 @@ import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import javax.management.MBeanServer;
@@ -84,6 +87,9 @@ public class CacheService implements CacheServiceMBean
     public final AutoSavingCache<RowCacheKey, IRowCacheEntry> rowCache;
     public final AutoSavingCache<CounterCacheKey, ClockAndCount> counterCache;
 
+    // the store of the key cache when it is off heap, which keeps an id per sstable
+    private OffHeapKeyCache offHeapKeyCache;
+
     private CacheService()
     {
         MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
@@ -114,7 +120,10 @@ public class CacheService implements CacheServiceMBean
         // as values are constant size we can use singleton weigher
         // where 48 = 40 bytes (average size of the key) + 8 bytes (size of value)
         ICache<KeyCacheKey, RowIndexEntry> kc;
-        kc = ConcurrentLinkedHashCache.create(keyCacheInMemoryCapacity);
+        if (DatabaseDescriptor.isKeyCacheOffHeap())
+            kc = offHeapKeyCache = OffHeapKeyCache.create(keyCacheInMemoryCapacity);
+        else
+            kc = ConcurrentLinkedHashCache.<KeyCacheKey, RowIndexEntry>create(keyCacheInMemoryCapacity);
         AutoSavingCache<KeyCacheKey, RowIndexEntry> keyCache = new AutoSavingCache<>(kc, CacheType.KEY_CACHE, new KeyCacheSerializer());
 
         int keyCacheKeysToSave = DatabaseDescriptor.getKeyCacheKeysToSave();
@@ -293,6 +302,16 @@ public class CacheService implements CacheServiceMBean
         }
     }
 
+    /**
+     * Called once all the readers of an sstable have been released, so the key cache doesn't keep its state for
+     * the sstable forever.
+     */
+    public void releaseKeyCacheSSTable(Pair<String, String> ksAndCFName, Descriptor desc)
+    {
+        if (offHeapKeyCache != null)
+            offHeapKeyCache.releaseSSTable(ksAndCFName, desc);
+    }
+
     public void invalidateRowCache()
     {
         rowCache.clear();
@@ -442,6 +461,10 @@ public class CacheService implements CacheServiceMBean
                 }
             });
         }
+
+        public void cleanupAfterDeserialize()
+        {
+        }
     }
 
     public static class RowCacheSerializer implements CacheSerializer<RowCacheKey, IRowCacheEntry>
@@ -462,21 +485,30 @@ public class CacheService implements CacheServiceMBean
                 return null;
             assert(!cfs.isIndex());
 
+            // The saved caches are loaded while the node serves requests, so the partition is cached through the
+            // same sentinel-read-cache sequence as on a row cache miss, lest a concurrent write be missed.
             return StageManager.getStage(Stage.READ).submit(new Callable<Pair<RowCacheKey, IRowCacheEntry>>()
             {
                 public Pair<RowCacheKey, IRowCacheEntry> call() throws Exception
                 {
                     DecoratedKey key = cfs.partitioner.decorateKey(buffer);
-                    QueryFilter cacheFilter = new QueryFilter(key, cfs.getColumnFamilyName(), cfs.readFilterForCache(), Integer.MIN_VALUE);
-                    ColumnFamily data = cfs.getTopLevelColumns(cacheFilter, Integer.MIN_VALUE);
-                    return Pair.create(new RowCacheKey(cfs.metadata.ksAndCFName, key), (IRowCacheEntry) data);
+                    cfs.populateRowCache(new RowCacheKey(cfs.metadata.ksAndCFName, key), key);
+                    return null;
                 }
             });
         }
+
+        public void cleanupAfterDeserialize()
+        {
+        }
     }
 
     public static class KeyCacheSerializer implements CacheSerializer<KeyCacheKey, RowIndexEntry>
     {
+        // Looking the sstable of each entry up among all the sstables of its table makes loading the cache of tables
+        // with many sstables very slow, so they are indexed by generation once per table, until the load completes.
+        private final ConcurrentMap<ColumnFamilyStore, Map<Integer, SSTableReader>> sstablesByGeneration = new ConcurrentHashMap<>();
+
         public void serialize(KeyCacheKey key, DataOutputPlus out, ColumnFamilyStore cfs) throws IOException
         {
             RowIndexEntry entry = CacheService.instance.keyCache.getInternal(key);
@@ -504,7 +536,7 @@ public class CacheService implements CacheServiceMBean
             int generation = input.readInt();
             input.readBoolean(); // backwards compatibility for "promoted indexes" boolean
             SSTableReader reader = null;
-            if (cfs == null || !cfs.isKeyCacheEnabled() || (reader = findDesc(generation, cfs.getSSTables())) == null)
+            if (cfs == null || !cfs.isKeyCacheEnabled() || (reader = findDesc(generation, cfs)) == null)
             {
                 RowIndexEntry.Serializer.skip(input);
                 return null;
@@ -513,14 +545,24 @@ public class CacheService implements CacheServiceMBean
             return Futures.immediateFuture(Pair.create(new KeyCacheKey(cfs.metadata.ksAndCFName, reader.descriptor, key), entry));
         }
 
-        private SSTableReader findDesc(int generation, Collection<SSTableReader> collection)
+        private SSTableReader findDesc(int generation, ColumnFamilyStore cfs)
         {
-            for (SSTableReader sstable : collection)
+            Map<Integer, SSTableReader> sstables = sstablesByGeneration.get(cfs);
+            if (sstables == null)
             {
-                if (sstable.descriptor.generation == generation)
-                    return sstable;
+                sstables = new HashMap<>();
+                for (SSTableReader sstable : cfs.getSSTables())
+                    sstables.put(sstable.descriptor.generation, sstable);
+                Map<Integer, SSTableReader> previous = sstablesByGeneration.putIfAbsent(cfs, sstables);
+                if (previous != null)
+                    sstables = previous;
             }
-            return null;
+            return sstables.get(generation);
+        }
+
+        public void cleanupAfterDeserialize()
+        {
+            sstablesByGeneration.clear();
         }
     }
 }
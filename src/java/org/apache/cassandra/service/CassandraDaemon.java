@@ -339,15 +339,9 @@ public class CassandraDaemon
         }
 
 
-        try
-        {
-            loadRowAndKeyCacheAsync().get();
-        }
-        catch (Throwable t)
-        {
-            JVMStabilityInspector.inspectThrowable(t);
-            logger.warn("Error loading key or row cache", t);
-        }
+        // The saved caches are not waited for: the node starts serving requests while they warm up, one table
+        // segment at a time. Failing to load them is logged by the loads themselves.
+        loadRowAndKeyCacheAsync();
 
         try
         {
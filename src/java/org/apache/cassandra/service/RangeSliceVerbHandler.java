@@ -36,7 +36,9 @@ public class RangeSliceVerbHandler implements IVerbHandler<AbstractRangeCommand>
                 /* Don't service reads! */
                 throw new RuntimeException("Cannot service reads while bootstrapping!");
             }
-            RangeSliceReply reply = new RangeSliceReply(message.payload.executeLocally());
+            // rows are serialized as they are read rather than first collected, for the version we'll reply with
+            RangeSliceReply reply = RangeSliceReply.serialize(message.payload.executeLocallyAsIterator(),
+                                                              MessagingService.instance().getVersion(message.from));
             Tracing.trace("Enqueuing response to {}", message.from);
             MessagingService.instance().sendReply(reply.createMessage(), id, message.from);
         }
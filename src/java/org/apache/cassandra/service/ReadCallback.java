@@ -18,6 +18,7 @@
 package org.apache.cassandra.service;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -60,6 +61,8 @@ public class ReadCallback<TMessage, TResolved> implements IAsyncCallback<TMessag
             = AtomicIntegerFieldUpdater.newUpdater(ReadCallback.class, "received");
     private volatile int received = 0;
     private final Keyspace keyspace; // TODO push this into ConsistencyLevel?
+    // run once the condition is signalled, guarded by this
+    private List<Runnable> completionListeners;
 
     /**
      * Constructor when response count has to be calculated and blocked for.
@@ -97,6 +100,48 @@ public class ReadCallback<TMessage, TResolved> implements IAsyncCallback<TMessag
         }
     }
 
+    /**
+     * @return true if enough responses were received for get() to return without waiting
+     */
+    public boolean isComplete()
+    {
+        return condition.isSignaled();
+    }
+
+    /**
+     * Runs {@code listener} once enough responses are received for get() to return, or right away if they already
+     * are. The listener runs on the thread delivering the last response, so it must be cheap.
+     */
+    public void addCompletionListener(Runnable listener)
+    {
+        synchronized (this)
+        {
+            if (!condition.isSignaled())
+            {
+                if (completionListeners == null)
+                    completionListeners = new ArrayList<>(1);
+                completionListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    private void notifyCompletionListeners()
+    {
+        List<Runnable> listeners;
+        synchronized (this)
+        {
+            listeners = completionListeners;
+            completionListeners = null;
+        }
+        if (listeners != null)
+        {
+            for (Runnable listener : listeners)
+                listener.run();
+        }
+    }
+
     public TResolved get() throws ReadTimeoutException, DigestMismatchException
     {
         if (!await(command.getTimeout(), TimeUnit.MILLISECONDS))
@@ -121,6 +166,7 @@ public class ReadCallback<TMessage, TResolved> implements IAsyncCallback<TMessag
         if (n >= blockfor && resolver.isDataPresent())
         {
             condition.signalAll();
+            notifyCompletionListeners();
 
             // kick off a background digest comparison if this is a result that (may have) arrived after
             // the original resolve that get() kicks off as soon as the condition is signaled
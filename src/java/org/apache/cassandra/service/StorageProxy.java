@@ -43,7 +43,6 @@ import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.Keyspace;
-import org.apache.cassandra.db.index.SecondaryIndex;
 import org.apache.cassandra.db.index.SecondaryIndexSearcher;
 import org.apache.cassandra.db.marshal.UUIDType;
 import org.apache.cassandra.dht.AbstractBounds;
@@ -1575,6 +1574,323 @@ public class StorageProxy implements StorageProxyMBean
         }
     }
 
+    /**
+     * Sends the requests of a range query one at a time, each covering as many consecutive ranges (as split by
+     * getRestrictedRanges) as the live replicas allow.
+     */
+    private static class RangeRequestSubmitter
+    {
+        private final AbstractRangeCommand command;
+        private final Keyspace keyspace;
+        private final ConsistencyLevel consistency_level;
+        private final List<? extends AbstractBounds<RowPosition>> ranges;
+        // whether to merge ranges regardless of the snitch, to group all the ranges of a replica in as few requests
+        // as possible when they must all be scanned anyway
+        private final boolean alwaysMerge;
+
+        private int i = 0;
+        private AbstractBounds<RowPosition> nextRange = null;
+        private List<InetAddress> nextEndpoints = null;
+        private List<InetAddress> nextFilteredEndpoints = null;
+
+        RangeRequestSubmitter(AbstractRangeCommand command,
+                              Keyspace keyspace,
+                              ConsistencyLevel consistency_level,
+                              List<? extends AbstractBounds<RowPosition>> ranges,
+                              boolean alwaysMerge)
+        {
+            this.command = command;
+            this.keyspace = keyspace;
+            this.consistency_level = consistency_level;
+            this.ranges = ranges;
+            this.alwaysMerge = alwaysMerge;
+        }
+
+        boolean hasNext()
+        {
+            return i < ranges.size();
+        }
+
+        /**
+         * @return the number of ranges covered by the requests sent so far.
+         */
+        int rangesSubmitted()
+        {
+            return i;
+        }
+
+        ReadCallback<RangeSliceReply, Iterable<Row>> submitNext() throws UnavailableException
+        {
+            AbstractBounds<RowPosition> range = nextRange == null
+                                              ? ranges.get(i)
+                                              : nextRange;
+            List<InetAddress> liveEndpoints = nextEndpoints == null
+                                            ? getLiveSortedEndpoints(keyspace, range.right)
+                                            : nextEndpoints;
+            List<InetAddress> filteredEndpoints = nextFilteredEndpoints == null
+                                                ? consistency_level.filterForQuery(keyspace, liveEndpoints)
+                                                : nextFilteredEndpoints;
+            ++i;
+            nextRange = null;
+            nextEndpoints = null;
+            nextFilteredEndpoints = null;
+
+            // getRestrictedRange has broken the queried range into per-[vnode] token ranges, but this doesn't take
+            // the replication factor into account. If the intersection of live endpoints for 2 consecutive ranges
+            // still meets the CL requirements, then we can merge both ranges into the same RangeSliceCommand.
+            while (i < ranges.size())
+            {
+                nextRange = ranges.get(i);
+                nextEndpoints = getLiveSortedEndpoints(keyspace, nextRange.right);
+                nextFilteredEndpoints = consistency_level.filterForQuery(keyspace, nextEndpoints);
+
+                // If the current range right is the min token, we should stop merging because CFS.getRangeSlice
+                // don't know how to deal with a wrapping range.
+                // Note: it would be slightly more efficient to have CFS.getRangeSlice on the destination nodes unwraps
+                // the range if necessary and deal with it. However, we can't start sending wrapped range without breaking
+                // wire compatibility, so It's likely easier not to bother;
+                if (range.right.isMinimum())
+                    break;
+
+                List<InetAddress> merged = intersection(liveEndpoints, nextEndpoints);
+
+                // Check if there is enough endpoint for the merge to be possible.
+                if (!consistency_level.isSufficientLiveNodes(keyspace, merged))
+                    break;
+
+                List<InetAddress> filteredMerged = consistency_level.filterForQuery(keyspace, merged);
+
+                // Estimate whether merging will be a win or not
+                if (!alwaysMerge && !DatabaseDescriptor.getEndpointSnitch().isWorthMergingForRangeQuery(filteredMerged, filteredEndpoints, nextFilteredEndpoints))
+                    break;
+
+                // If we get there, merge this range and the next one
+                range = range.withNewRight(nextRange.right);
+                liveEndpoints = merged;
+                filteredEndpoints = filteredMerged;
+                ++i;
+                nextRange = null;
+                nextEndpoints = null;
+                nextFilteredEndpoints = null;
+            }
+
+            AbstractRangeCommand nodeCmd = command.forSubRange(range);
+
+            // collect replies and resolve according to consistency level
+            RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(nodeCmd.keyspace, command.timestamp);
+            List<InetAddress> minimalEndpoints = filteredEndpoints.subList(0, Math.min(filteredEndpoints.size(), consistency_level.blockFor(keyspace)));
+            ReadCallback<RangeSliceReply, Iterable<Row>> handler = new ReadCallback<>(resolver, consistency_level, nodeCmd, minimalEndpoints);
+            handler.assureSufficientLiveNodes();
+            resolver.setSources(filteredEndpoints);
+            if (filteredEndpoints.size() == 1
+                && filteredEndpoints.get(0).equals(FBUtilities.getBroadcastAddress()))
+            {
+                StageManager.getStage(Stage.READ).execute(new LocalRangeSliceRunnable(nodeCmd, handler), Tracing.instance.get());
+            }
+            else
+            {
+                MessageOut<? extends AbstractRangeCommand> message = nodeCmd.createMessage();
+                for (InetAddress endpoint : filteredEndpoints)
+                {
+                    Tracing.trace("Enqueuing request to {}", endpoint);
+                    MessagingService.instance().sendRR(message, endpoint, handler);
+                }
+            }
+            return handler;
+        }
+    }
+
+    /**
+     * The requests of a scan over all ranges: up to maxInFlight of them are in flight, and the next one is sent as
+     * soon as any of them completes rather than once the oldest has been consumed, while they are still consumed in
+     * the order they were sent, which is the order of their ranges.
+     */
+    static abstract class RangeRequestWindow
+    {
+        private final int maxInFlight;
+        private final long timeoutNanos;
+        // the requests sent and not consumed yet, completed or not
+        private final Deque<ReadCallback<RangeSliceReply, Iterable<Row>>> sent = new ArrayDeque<>();
+        // released by each request sent once it completes
+        private final Semaphore completions = new Semaphore(0);
+        private final Runnable onCompletion = new Runnable()
+        {
+            public void run()
+            {
+                completions.release();
+            }
+        };
+        private int inFlight = 0;
+
+        RangeRequestWindow(int maxInFlight, long timeoutMillis)
+        {
+            this.maxInFlight = maxInFlight;
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        }
+
+        abstract boolean hasMoreToSend();
+
+        abstract ReadCallback<RangeSliceReply, Iterable<Row>> send() throws UnavailableException;
+
+        boolean hasNext() throws UnavailableException
+        {
+            fill();
+            return !sent.isEmpty();
+        }
+
+        /**
+         * @return the oldest request not consumed yet, once it has completed or timed out, which its get() reports;
+         * the requests sent meanwhile are replaced as they complete
+         */
+        ReadCallback<RangeSliceReply, Iterable<Row>> next() throws UnavailableException
+        {
+            fill();
+            ReadCallback<RangeSliceReply, Iterable<Row>> handler = sent.poll();
+            while (!handler.isComplete())
+            {
+                long remaining = timeoutNanos - (System.nanoTime() - handler.start);
+                try
+                {
+                    if (remaining <= 0 || !completions.tryAcquire(remaining, TimeUnit.NANOSECONDS))
+                        break;
+                }
+                catch (InterruptedException e)
+                {
+                    throw new AssertionError(e);
+                }
+                --inFlight;
+                fill();
+            }
+            return handler;
+        }
+
+        private void fill() throws UnavailableException
+        {
+            inFlight -= completions.drainPermits();
+            while (inFlight < maxInFlight && hasMoreToSend())
+            {
+                ReadCallback<RangeSliceReply, Iterable<Row>> handler = send();
+                sent.add(handler);
+                ++inFlight;
+                handler.addCompletionListener(onCompletion);
+            }
+        }
+    }
+
+    /**
+     * Scans all the ranges with up to maxInFlight requests in flight, until rowsToBeFetched rows are fetched.
+     *
+     * The rows are all kept until the scan completes, as SecondaryIndexSearcher.postReconciliationProcessing may need
+     * all of them to combine them, e.g. to sort them; they are bounded by rowsToBeFetched, the limit of the command
+     * times the number of ranges, plus the rows of the last request consumed.
+     */
+    private static void scanWithWindow(AbstractRangeCommand command,
+                                       Keyspace keyspace,
+                                       ConsistencyLevel consistency_level,
+                                       final RangeRequestSubmitter submitter,
+                                       int maxInFlight,
+                                       int rangeCount,
+                                       int rowsToBeFetched,
+                                       boolean countLiveRows,
+                                       List<Row> rows)
+    throws UnavailableException, ReadTimeoutException
+    {
+        RangeRequestWindow window = new RangeRequestWindow(maxInFlight, command.getTimeout())
+        {
+            boolean hasMoreToSend()
+            {
+                return submitter.hasNext();
+            }
+
+            ReadCallback<RangeSliceReply, Iterable<Row>> send() throws UnavailableException
+            {
+                return submitter.submitNext();
+            }
+        };
+
+        int liveRowCount = 0;
+        List<AsyncOneResponse> repairResponses = new ArrayList<>();
+        while ((countLiveRows ? liveRowCount : rows.size()) < rowsToBeFetched && window.hasNext())
+            liveRowCount += addRangeRows(window.next(), command, keyspace, consistency_level, submitter.rangesSubmitted(), rangeCount, countLiveRows, rows, repairResponses);
+        waitForRangeRepairs(repairResponses, keyspace, consistency_level);
+    }
+
+    /**
+     * Adds the rows of a range request to {@code rows} once it completes, and its read repairs to
+     * {@code repairResponses}.
+     *
+     * @return the number of live rows added if countLiveRows, 0 otherwise
+     */
+    private static int addRangeRows(ReadCallback<RangeSliceReply, Iterable<Row>> handler,
+                                    AbstractRangeCommand command,
+                                    Keyspace keyspace,
+                                    ConsistencyLevel consistency_level,
+                                    int rangesSubmitted,
+                                    int rangeCount,
+                                    boolean countLiveRows,
+                                    List<Row> rows,
+                                    List<AsyncOneResponse> repairResponses)
+    throws ReadTimeoutException
+    {
+        RangeSliceResponseResolver resolver = (RangeSliceResponseResolver)handler.resolver;
+        try
+        {
+            int liveRowCount = 0;
+            for (Row row : handler.get())
+            {
+                rows.add(row);
+                if (countLiveRows)
+                    liveRowCount += row.getLiveCount(command.predicate, command.timestamp);
+            }
+            repairResponses.addAll(resolver.repairResults);
+            return liveRowCount;
+        }
+        catch (ReadTimeoutException ex)
+        {
+            // we timed out waiting for responses
+            int blockFor = consistency_level.blockFor(keyspace);
+            int responseCount = resolver.responses.size();
+            String gotData = responseCount > 0
+                             ? resolver.isDataPresent() ? " (including data)" : " (only digests)"
+                             : "";
+
+            if (Tracing.isTracing())
+            {
+                Tracing.trace("Timed out; received {} of {} responses{} for range {} of {}",
+                              new Object[]{ responseCount, blockFor, gotData, rangesSubmitted, rangeCount });
+            }
+            else if (logger.isDebugEnabled())
+            {
+                logger.debug("Range slice timeout; received {} of {} responses{} for range {} of {}",
+                             responseCount, blockFor, gotData, rangesSubmitted, rangeCount);
+            }
+            throw ex;
+        }
+        catch (DigestMismatchException e)
+        {
+            throw new AssertionError(e); // no digests in range slices yet
+        }
+    }
+
+    private static void waitForRangeRepairs(List<AsyncOneResponse> repairResponses, Keyspace keyspace, ConsistencyLevel consistency_level)
+    throws ReadTimeoutException
+    {
+        try
+        {
+            FBUtilities.waitOnFutures(repairResponses, DatabaseDescriptor.getWriteRpcTimeout());
+        }
+        catch (TimeoutException ex)
+        {
+            // We got all responses, but timed out while repairing
+            int blockFor = consistency_level.blockFor(keyspace);
+            if (Tracing.isTracing())
+                Tracing.trace("Timed out while read-repairing after receiving all {} data and digest responses", blockFor);
+            else
+                logger.debug("Range slice timeout while read-repairing after receiving all {} data and digest responses", blockFor);
+            throw new ReadTimeoutException(consistency_level, blockFor-1, blockFor, true);
+        }
+    }
+
     public static List<InetAddress> getLiveSortedEndpoints(Keyspace keyspace, ByteBuffer key)
     {
         return getLiveSortedEndpoints(keyspace, StorageService.getPartitioner().decorateKey(key));
@@ -1620,9 +1936,9 @@ public class StorageProxy implements StorageProxyMBean
                 // Secondary index query (cql3 or otherwise).  Estimate result rows based on most selective 2ary index.
                 for (SecondaryIndexSearcher searcher : searchers)
                 {
-                    // use our own mean column count as our estimate for how many matching rows each node will have
-                    SecondaryIndex highestSelectivityIndex = searcher.highestSelectivityIndex(command.rowFilter);
-                    resultRowsPerRange = highestSelectivityIndex == null ? resultRowsPerRange : Math.min(resultRowsPerRange, highestSelectivityIndex.estimateResultRows());
+                    // use our own estimate for the queried values as our estimate for how many matching rows each node will have
+                    if (searcher.highestSelectivityIndex(command.rowFilter) != null)
+                        resultRowsPerRange = Math.min(resultRowsPerRange, searcher.estimateResultRows(command.rowFilter));
                 }
             }
         }
@@ -1680,16 +1996,18 @@ public class StorageProxy implements StorageProxyMBean
             // determine the number of rows to be fetched and the concurrency factor
             int rowsToBeFetched = command.limit();
             int concurrencyFactor;
-            if (command.requiresScanningAllRanges())
+            boolean scanAllRanges = command.requiresScanningAllRanges();
+            if (scanAllRanges)
             {
-                // all nodes must be queried
+                // all nodes must be queried, but rather than all at once, requests are kept in flight up to a limit
+                // and a new one is sent each time one completes
                 rowsToBeFetched *= ranges.size();
-                concurrencyFactor = ranges.size();
-                logger.debug("Requested rows: {}, ranges.size(): {}; concurrent range requests: {}",
+                concurrencyFactor = Math.max(1, Math.min(ranges.size(), DatabaseDescriptor.getIndexScanMaxConcurrentRequests()));
+                logger.debug("Requested rows: {}, ranges.size(): {}; max in-flight range requests: {}",
                              command.limit(),
                              ranges.size(),
                              concurrencyFactor);
-                Tracing.trace("Submitting range requests on {} ranges with a concurrency of {}",
+                Tracing.trace("Submitting range requests on {} ranges with at most {} in flight",
                               new Object[]{ ranges.size(), concurrencyFactor});
             }
             else
@@ -1711,165 +2029,45 @@ public class StorageProxy implements StorageProxyMBean
                               new Object[]{ ranges.size(), concurrencyFactor, resultRowsPerRange});
             }
 
-            boolean haveSufficientRows = false;
-            int i = 0;
-            AbstractBounds<RowPosition> nextRange = null;
-            List<InetAddress> nextEndpoints = null;
-            List<InetAddress> nextFilteredEndpoints = null;
-            while (i < ranges.size())
+            RangeRequestSubmitter submitter = new RangeRequestSubmitter(command, keyspace, consistency_level, ranges, scanAllRanges);
+            if (scanAllRanges)
             {
-                List<Pair<AbstractRangeCommand, ReadCallback<RangeSliceReply, Iterable<Row>>>> scanHandlers = new ArrayList<>(concurrencyFactor);
-                int concurrentFetchStartingIndex = i;
-                int concurrentRequests = 0;
-                while ((i - concurrentFetchStartingIndex) < concurrencyFactor)
-                {
-                    AbstractBounds<RowPosition> range = nextRange == null
-                                                      ? ranges.get(i)
-                                                      : nextRange;
-                    List<InetAddress> liveEndpoints = nextEndpoints == null
-                                                    ? getLiveSortedEndpoints(keyspace, range.right)
-                                                    : nextEndpoints;
-                    List<InetAddress> filteredEndpoints = nextFilteredEndpoints == null
-                                                        ? consistency_level.filterForQuery(keyspace, liveEndpoints)
-                                                        : nextFilteredEndpoints;
-                    ++i;
-                    ++concurrentRequests;
-
-                    // getRestrictedRange has broken the queried range into per-[vnode] token ranges, but this doesn't take
-                    // the replication factor into account. If the intersection of live endpoints for 2 consecutive ranges
-                    // still meets the CL requirements, then we can merge both ranges into the same RangeSliceCommand.
-                    while (i < ranges.size())
-                    {
-                        nextRange = ranges.get(i);
-                        nextEndpoints = getLiveSortedEndpoints(keyspace, nextRange.right);
-                        nextFilteredEndpoints = consistency_level.filterForQuery(keyspace, nextEndpoints);
-
-                        // If the current range right is the min token, we should stop merging because CFS.getRangeSlice
-                        // don't know how to deal with a wrapping range.
-                        // Note: it would be slightly more efficient to have CFS.getRangeSlice on the destination nodes unwraps
-                        // the range if necessary and deal with it. However, we can't start sending wrapped range without breaking
-                        // wire compatibility, so It's likely easier not to bother;
-                        if (range.right.isMinimum())
-                            break;
-
-                        List<InetAddress> merged = intersection(liveEndpoints, nextEndpoints);
-
-                        // Check if there is enough endpoint for the merge to be possible.
-                        if (!consistency_level.isSufficientLiveNodes(keyspace, merged))
-                            break;
-
-                        List<InetAddress> filteredMerged = consistency_level.filterForQuery(keyspace, merged);
-
-                        // Estimate whether merging will be a win or not
-                        if (!DatabaseDescriptor.getEndpointSnitch().isWorthMergingForRangeQuery(filteredMerged, filteredEndpoints, nextFilteredEndpoints))
-                            break;
-
-                        // If we get there, merge this range and the next one
-                        range = range.withNewRight(nextRange.right);
-                        liveEndpoints = merged;
-                        filteredEndpoints = filteredMerged;
-                        ++i;
-                    }
-
-                    AbstractRangeCommand nodeCmd = command.forSubRange(range);
+                scanWithWindow(command, keyspace, consistency_level, submitter, concurrencyFactor, ranges.size(), rowsToBeFetched, countLiveRows, rows);
+                return command.postReconciliationProcessing(rows);
+            }
 
-                    // collect replies and resolve according to consistency level
-                    RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(nodeCmd.keyspace, command.timestamp);
-                    List<InetAddress> minimalEndpoints = filteredEndpoints.subList(0, Math.min(filteredEndpoints.size(), consistency_level.blockFor(keyspace)));
-                    ReadCallback<RangeSliceReply, Iterable<Row>> handler = new ReadCallback<>(resolver, consistency_level, nodeCmd, minimalEndpoints);
-                    handler.assureSufficientLiveNodes();
-                    resolver.setSources(filteredEndpoints);
-                    if (filteredEndpoints.size() == 1
-                        && filteredEndpoints.get(0).equals(FBUtilities.getBroadcastAddress()))
-                    {
-                        StageManager.getStage(Stage.READ).execute(new LocalRangeSliceRunnable(nodeCmd, handler), Tracing.instance.get());
-                    }
-                    else
-                    {
-                        MessageOut<? extends AbstractRangeCommand> message = nodeCmd.createMessage();
-                        for (InetAddress endpoint : filteredEndpoints)
-                        {
-                            Tracing.trace("Enqueuing request to {}", endpoint);
-                            MessagingService.instance().sendRR(message, endpoint, handler);
-                        }
-                    }
-                    scanHandlers.add(Pair.create(nodeCmd, handler));
-                }
-                Tracing.trace("Submitted {} concurrent range requests covering {} ranges", concurrentRequests, i - concurrentFetchStartingIndex);
+            while (submitter.hasNext())
+            {
+                List<ReadCallback<RangeSliceReply, Iterable<Row>>> scanHandlers = new ArrayList<>(concurrencyFactor);
+                int concurrentFetchStartingIndex = submitter.rangesSubmitted();
+                while (submitter.hasNext() && (submitter.rangesSubmitted() - concurrentFetchStartingIndex) < concurrencyFactor)
+                    scanHandlers.add(submitter.submitNext());
+                Tracing.trace("Submitted {} concurrent range requests covering {} ranges", scanHandlers.size(), submitter.rangesSubmitted() - concurrentFetchStartingIndex);
 
+                boolean haveSufficientRows = false;
                 List<AsyncOneResponse> repairResponses = new ArrayList<>();
-                for (Pair<AbstractRangeCommand, ReadCallback<RangeSliceReply, Iterable<Row>>> cmdPairHandler : scanHandlers)
+                for (ReadCallback<RangeSliceReply, Iterable<Row>> handler : scanHandlers)
                 {
-                    ReadCallback<RangeSliceReply, Iterable<Row>> handler = cmdPairHandler.right;
-                    RangeSliceResponseResolver resolver = (RangeSliceResponseResolver)handler.resolver;
-
-                    try
-                    {
-                        for (Row row : handler.get())
-                        {
-                            rows.add(row);
-                            if (countLiveRows)
-                                liveRowCount += row.getLiveCount(command.predicate, command.timestamp);
-                        }
-                        repairResponses.addAll(resolver.repairResults);
-                    }
-                    catch (ReadTimeoutException ex)
-                    {
-                        // we timed out waiting for responses
-                        int blockFor = consistency_level.blockFor(keyspace);
-                        int responseCount = resolver.responses.size();
-                        String gotData = responseCount > 0
-                                         ? resolver.isDataPresent() ? " (including data)" : " (only digests)"
-                                         : "";
-
-                        if (Tracing.isTracing())
-                        {
-                            Tracing.trace("Timed out; received {} of {} responses{} for range {} of {}",
-                                          new Object[]{ responseCount, blockFor, gotData, i, ranges.size() });
-                        }
-                        else if (logger.isDebugEnabled())
-                        {
-                            logger.debug("Range slice timeout; received {} of {} responses{} for range {} of {}",
-                                         responseCount, blockFor, gotData, i, ranges.size());
-                        }
-                        throw ex;
-                    }
-                    catch (DigestMismatchException e)
-                    {
-                        throw new AssertionError(e); // no digests in range slices yet
-                    }
+                    liveRowCount += addRangeRows(handler, command, keyspace, consistency_level, submitter.rangesSubmitted(), ranges.size(), countLiveRows, rows, repairResponses);
 
                     // if we're done, great, otherwise, move to the next range
-                    int count = countLiveRows ? liveRowCount : rows.size();
-                    if (count >= rowsToBeFetched)
+                    if ((countLiveRows ? liveRowCount : rows.size()) >= rowsToBeFetched)
                     {
                         haveSufficientRows = true;
                         break;
                     }
                 }
 
-                try
-                {
-                    FBUtilities.waitOnFutures(repairResponses, DatabaseDescriptor.getWriteRpcTimeout());
-                }
-                catch (TimeoutException ex)
-                {
-                    // We got all responses, but timed out while repairing
-                    int blockFor = consistency_level.blockFor(keyspace);
-                    if (Tracing.isTracing())
-                        Tracing.trace("Timed out while read-repairing after receiving all {} data and digest responses", blockFor);
-                    else
-                        logger.debug("Range slice timeout while read-repairing after receiving all {} data and digest responses", blockFor);
-                    throw new ReadTimeoutException(consistency_level, blockFor-1, blockFor, true);
-                }
+                waitForRangeRepairs(repairResponses, keyspace, consistency_level);
 
                 if (haveSufficientRows)
                     return command.postReconciliationProcessing(rows);
 
                 // we didn't get enough rows in our concurrent fetch; recalculate our concurrency factor
                 // based on the results we've seen so far (as long as we still have ranges left to query)
-                if (i < ranges.size())
+                if (submitter.hasNext())
                 {
+                    int i = submitter.rangesSubmitted();
                     float fetchedRows = countLiveRows ? liveRowCount : rows.size();
                     float remainingRows = rowsToBeFetched - fetchedRows;
                     float actualRowsPerRange;
@@ -2370,6 +2568,9 @@ public class StorageProxy implements StorageProxyMBean
     public Long getRangeRpcTimeout() { return DatabaseDescriptor.getRangeRpcTimeout(); }
     public void setRangeRpcTimeout(Long timeoutInMillis) { DatabaseDescriptor.setRangeRpcTimeout(timeoutInMillis); }
 
+    public int getIndexScanMaxConcurrentRequests() { return DatabaseDescriptor.getIndexScanMaxConcurrentRequests(); }
+    public void setIndexScanMaxConcurrentRequests(int maxConcurrentRequests) { DatabaseDescriptor.setIndexScanMaxConcurrentRequests(maxConcurrentRequests); }
+
     public Long getTruncateRpcTimeout() { return DatabaseDescriptor.getTruncateRpcTimeout(); }
     public void setTruncateRpcTimeout(Long timeoutInMillis) { DatabaseDescriptor.setTruncateRpcTimeout(timeoutInMillis); }
 
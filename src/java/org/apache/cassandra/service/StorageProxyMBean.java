@@ -94,6 +94,8 @@ public interface StorageProxyMBean
     public void setCasContentionTimeout(Long timeoutInMillis);
     public Long getRangeRpcTimeout();
     public void setRangeRpcTimeout(Long timeoutInMillis);
+    public int getIndexScanMaxConcurrentRequests();
+    public void setIndexScanMaxConcurrentRequests(int maxConcurrentRequests);
     public Long getTruncateRpcTimeout();
     public void setTruncateRpcTimeout(Long timeoutInMillis);
 
@@ -18,6 +18,8 @@
 package org.apache.cassandra.utils;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Field;
 import java.math.BigInteger;
 import java.net.InetAddress;
@@ -74,6 +76,8 @@ public class FBUtilities
 
     private static final boolean IS_WINDOWS = OPERATING_SYSTEM.contains("windows");
 
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
     private static final boolean HAS_PROCFS = !IS_WINDOWS && (new File(File.separator + "proc")).exists();
 
     private static volatile InetAddress localInetAddress;
@@ -518,6 +522,20 @@ public class FBUtilities
         return new WrappedCloseableIterator<T>(iterator);
     }
 
+    /**
+     * @return the number of bytes allocated on heap by the current thread so far, or -1 if the JVM can't tell.
+     */
+    public static long currentThreadAllocatedBytes()
+    {
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+        return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()
+             ? bean.getThreadAllocatedBytes(Thread.currentThread().getId())
+             : -1;
+    }
+
     public static Map<String, String> fromJsonMap(String json)
     {
         try
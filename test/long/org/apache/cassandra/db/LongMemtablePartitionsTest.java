@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the throughput of the memtable partition indexes, and checks that they agree.
+ */
+public class LongMemtablePartitionsTest extends SchemaLoader
+{
+    private static final int KEYS = 1000000;
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 5;
+
+    private static final Murmur3Partitioner partitioner = new Murmur3Partitioner();
+
+    private static List<DecoratedKey> keys;
+    private static ColumnFamily cf;
+
+    @BeforeClass
+    public static void setup()
+    {
+        keys = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++)
+            keys.add(partitioner.decorateKey(ByteBufferUtil.bytes("key" + i)));
+        CFMetaData metadata = Schema.instance.getCFMetaData("Keyspace1", "Standard1");
+        cf = ArrayBackedSortedColumns.factory.create(metadata);
+    }
+
+    @Test
+    public void testSkipList() throws InterruptedException
+    {
+        for (int i = 0; i < ITERATIONS; i++)
+            testPartitions(new MemtablePartitions.SkipList());
+    }
+
+    @Test
+    public void testShardedBTree() throws InterruptedException
+    {
+        for (int i = 0; i < ITERATIONS; i++)
+            testPartitions(new MemtablePartitions.ShardedBTree());
+    }
+
+    private static void testPartitions(final MemtablePartitions partitions) throws InterruptedException
+    {
+        // every key is inserted by two threads, so half the insertions find the partition already there
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++)
+        {
+            final int offset = (t / 2) * (KEYS / (THREADS / 2));
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    for (int i = 0; i < KEYS / (THREADS / 2); i++)
+                    {
+                        DecoratedKey key = keys.get(offset + i);
+                        if (partitions.get(key) == null)
+                            partitions.putIfAbsent(key, partitions.newPartition(key, cf));
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long insertNanos = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        assertEquals(KEYS, partitions.size());
+        DecoratedKey previous = null;
+        int count = 0;
+        start = System.nanoTime();
+        Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter = partitions.iterator();
+        while (iter.hasNext())
+        {
+            DecoratedKey key = iter.next().getKey();
+            assertTrue(previous == null || previous.compareTo(key) < 0);
+            previous = key;
+            count++;
+        }
+        long iterateNanos = System.nanoTime() - start;
+        assertEquals(KEYS, count);
+
+        System.out.println(String.format("%s: %d partitions inserted by %d threads in %dms, iterated in %dms, %d bytes of overhead each",
+                                         partitions.getClass().getSimpleName(),
+                                         KEYS,
+                                         THREADS,
+                                         TimeUnit.NANOSECONDS.toMillis(insertNanos),
+                                         TimeUnit.NANOSECONDS.toMillis(iterateNanos),
+                                         partitions.rowOverheadHeapSize()));
+
+        checkRanges(partitions);
+    }
+
+    private static void checkRanges(MemtablePartitions partitions)
+    {
+        List<DecoratedKey> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+
+        DecoratedKey first = sorted.get(0);
+        assertSame(partitions.get(first), partitions.putIfAbsent(first, partitions.newPartition(first, cf)));
+        assertNull(partitions.get(partitioner.decorateKey(ByteBufferUtil.bytes("absent"))));
+
+        int from = KEYS / 3, to = 2 * KEYS / 3;
+        checkRange(partitions, sorted.subList(from, to + 1), sorted.get(from), sorted.get(to));
+        checkRange(partitions, sorted.subList(from, KEYS), sorted.get(from), null);
+        checkRange(partitions, sorted.subList(0, to + 1), null, sorted.get(to));
+        checkRange(partitions, sorted.subList(from, from + 1), sorted.get(from), sorted.get(from));
+
+        // the token bounds of range queries
+        DecoratedKey key = sorted.get(to);
+        checkRange(partitions, sorted.subList(to, KEYS), key.getToken().minKeyBound(), null);
+        checkRange(partitions, sorted.subList(0, to + 1), null, key.getToken().maxKeyBound());
+    }
+
+    private static void checkRange(MemtablePartitions partitions, List<DecoratedKey> expected, RowPosition start, RowPosition stop)
+    {
+        Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter = partitions.iterator(start, stop);
+        for (DecoratedKey key : expected)
+        {
+            assertTrue(iter.hasNext());
+            Map.Entry<DecoratedKey, AtomicBTreeColumns> entry = iter.next();
+            assertEquals(key, entry.getKey());
+            assertNotNull(entry.getValue());
+        }
+        assertTrue(!iter.hasNext());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.compress;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.db.composites.SimpleDenseCellNameType;
+import org.apache.cassandra.db.marshal.BytesType;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
+import org.apache.cassandra.io.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the cost of reading a compressed chunk with varying chances of verifying its checksum.
+ */
+public class LongCompressedChunkReadTest
+{
+    private static final int CHUNK_LENGTH = 65536;
+    private static final int CHUNKS = 2048;
+    private static final int ITERATIONS = 5;
+
+    private static File file;
+    private static String metadataPath;
+
+    @BeforeClass
+    public static void setup() throws IOException, ConfigurationException
+    {
+        file = File.createTempFile("chunks", ".db");
+        metadataPath = file.getPath() + ".metadata";
+
+        // half random, half repeated bytes, so the chunks compress about as well as typical data
+        Random random = new Random(0);
+        byte[] bytes = new byte[CHUNK_LENGTH];
+        CompressionParameters parameters = new CompressionParameters(LZ4Compressor.instance, CHUNK_LENGTH, Collections.<String, String>emptyMap());
+        MetadataCollector collector = new MetadataCollector(new SimpleDenseCellNameType(BytesType.instance));
+        try (CompressedSequentialWriter writer = new CompressedSequentialWriter(file, metadataPath, parameters, collector))
+        {
+            for (int i = 0; i < CHUNKS; i++)
+            {
+                random.nextBytes(bytes);
+                for (int j = 0; j < CHUNK_LENGTH; j += 16)
+                    bytes[j / 2] = bytes[j];
+                writer.write(bytes);
+            }
+        }
+    }
+
+    @AfterClass
+    public static void cleanup()
+    {
+        FileUtils.deleteWithConfirm(file);
+        FileUtils.deleteWithConfirm(new File(metadataPath));
+    }
+
+    @Test
+    public void testNoChecksum() throws IOException, ConfigurationException
+    {
+        testRead(0);
+    }
+
+    @Test
+    public void testSampledChecksum() throws IOException, ConfigurationException
+    {
+        testRead(0.1);
+    }
+
+    @Test
+    public void testChecksum() throws IOException, ConfigurationException
+    {
+        testRead(1.0);
+    }
+
+    private static void testRead(double crcCheckChance) throws IOException, ConfigurationException
+    {
+        CompressionMetadata metadata = new CompressionMetadata(metadataPath, file.length(), true);
+        metadata.parameters.setCrcCheckChance(crcCheckChance);
+        byte[] bytes = new byte[CHUNK_LENGTH];
+        try
+        {
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                CompressedRandomAccessReader reader = CompressedRandomAccessReader.open(file.getPath(), metadata);
+                try
+                {
+                    int chunks = 0;
+                    long start = System.nanoTime();
+                    while (!reader.isEOF())
+                    {
+                        reader.readFully(bytes);
+                        chunks++;
+                    }
+                    long nanos = System.nanoTime() - start;
+                    assertEquals(CHUNKS, chunks);
+
+                    System.out.println(String.format("crc_check_chance %.1f: %d chunks read in %dms, %dns per chunk",
+                                                     crcCheckChance,
+                                                     chunks,
+                                                     TimeUnit.NANOSECONDS.toMillis(nanos),
+                                                     nanos / chunks));
+                }
+                finally
+                {
+                    reader.close();
+                }
+            }
+        }
+        finally
+        {
+            metadata.close();
+        }
+    }
+}
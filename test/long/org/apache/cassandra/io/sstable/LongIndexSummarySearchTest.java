@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.apache.cassandra.io.sstable.Downsampling.BASE_SAMPLING_LEVEL;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the lookup cost of the interpolation search over the tokens of a Murmur3 index summary with the binary
+ * search over its keys. The summary sizes can be set with -Dcassandra.test.summary_sizes, e.g. to 100000000, given
+ * a large enough heap and enough memory.
+ */
+public class LongIndexSummarySearchTest
+{
+    private static final String SIZES = System.getProperty("cassandra.test.summary_sizes", "1000000,10000000");
+    private static final int LOOKUPS = 1000000;
+    private static final int ITERATIONS = 5;
+
+    private static final Murmur3Partitioner partitioner = new Murmur3Partitioner();
+
+    @Test
+    public void testSearch() throws Exception
+    {
+        for (String size : SIZES.split(","))
+            testSearch(Integer.parseInt(size.trim()));
+    }
+
+    private static void testSearch(int size) throws Exception
+    {
+        IndexSummary summary = buildSummary(size);
+        try
+        {
+            Random random = new Random(size);
+            DecoratedKey[] keys = new DecoratedKey[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++)
+                keys[i] = partitioner.decorateKey(ByteBufferUtil.bytes((long) random.nextInt(2 * size)));
+
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                long start = System.nanoTime();
+                long binary = 0;
+                for (DecoratedKey key : keys)
+                    binary += summary.binarySearch(key, 0, summary.size() - 1);
+                long binaryNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                long interpolated = 0;
+                for (DecoratedKey key : keys)
+                    interpolated += summary.binarySearch(key);
+                long interpolatedNanos = System.nanoTime() - start;
+
+                assertEquals(binary, interpolated);
+                System.out.println(String.format("%d entries: %d lookups by binary search in %dms (%dns each), by interpolation search in %dms (%dns each)",
+                                                 size,
+                                                 LOOKUPS,
+                                                 TimeUnit.NANOSECONDS.toMillis(binaryNanos),
+                                                 binaryNanos / LOOKUPS,
+                                                 TimeUnit.NANOSECONDS.toMillis(interpolatedNanos),
+                                                 interpolatedNanos / LOOKUPS));
+            }
+        }
+        finally
+        {
+            summary.close();
+        }
+    }
+
+    /**
+     * Builds a summary with an entry for each of the even integers below 2 * size, so that half the lookups of
+     * the integers below 2 * size find an entry. Only primitive arrays are kept on heap for the keys, so that large
+     * summaries can be built.
+     */
+    private static IndexSummary buildSummary(int size) throws Exception
+    {
+        long[] tokens = new long[size];
+        for (int i = 0; i < size; i++)
+            tokens[i] = partitioner.getToken(ByteBufferUtil.bytes(2L * i)).token;
+        long[] sorted = tokens.clone();
+        Arrays.sort(sorted);
+
+        // the (even) integer of each entry in token order
+        long[] values = new long[size];
+        boolean[] used = new boolean[size];
+        for (int i = 0; i < size; i++)
+        {
+            int index = Arrays.binarySearch(sorted, tokens[i]);
+            // in the unlikely case of a token collision, go over its entries to find a free one
+            while (index > 0 && sorted[index - 1] == tokens[i])
+                index--;
+            while (used[index])
+                index++;
+            used[index] = true;
+            values[index] = 2L * i;
+        }
+
+        try (IndexSummaryBuilder builder = new IndexSummaryBuilder(size, 1, BASE_SAMPLING_LEVEL))
+        {
+            for (int i = 0; i < size; i++)
+                builder.maybeAddEntry(partitioner.decorateKey(ByteBufferUtil.bytes(values[i])), i);
+            return builder.build(partitioner);
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.compaction.LeveledCompactionStrategy;
 import org.apache.cassandra.db.index.PerRowSecondaryIndexTest;
 import org.apache.cassandra.db.index.SecondaryIndex;
+import org.apache.cassandra.db.index.sstable.SSTableAttachedSecondaryIndex;
 import org.apache.cassandra.db.marshal.*;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.gms.Gossiper;
@@ -124,6 +125,8 @@ public class SchemaLoader
         String ks_ccs = "CounterCacheSpace";
         String ks_nocommit = "NoCommitlogSpace";
         String ks_prsi = "PerRowSecondaryIndex";
+        String ks_sasi = "SSTableAttachedSecondaryIndex";
+        String ks_sis = "SecondaryIndexSearcher";
         String ks_cql = "cql_keyspace";
 
         Class<? extends AbstractReplicationStrategy> simple = SimpleStrategy.class;
@@ -289,6 +292,18 @@ public class SchemaLoader
                                            opts_rf1,
                                            perRowIndexedCFMD(ks_prsi, "Indexed1")));
 
+        // SSTableAttachedSecondaryIndexTest
+        schema.add(KSMetaData.testMetadata(ks_sasi,
+                                           simple,
+                                           opts_rf1,
+                                           sstableAttachedIndexCFMD(ks_sasi, "Indexed1")));
+
+        // SecondaryIndexSearcherTest
+        schema.add(KSMetaData.testMetadata(ks_sis,
+                                           simple,
+                                           opts_rf1,
+                                           doubleCompositeIndexCFMD(ks_sis, "Indexed1")));
+
         // CQLKeyspace
         schema.add(KSMetaData.testMetadata(ks_cql,
                                            simple,
@@ -368,6 +383,20 @@ public class SchemaLoader
                                                                 .setIndex("indexe1", IndexType.CUSTOM, indexOptions));
     }
 
+    private static CFMetaData sstableAttachedIndexCFMD(String ksName, String cfName)
+    {
+        final Map<String, String> indexOptions = Collections.singletonMap(
+                                                      SecondaryIndex.CUSTOM_INDEX_OPTION_NAME,
+                                                      SSTableAttachedSecondaryIndex.class.getName());
+
+        final CompositeType composite = CompositeType.getInstance(Arrays.asList(new AbstractType<?>[]{UTF8Type.instance, UTF8Type.instance}));
+        CFMetaData cfm = CFMetaData.sparseCFMetaData(ksName, cfName, composite);
+
+        ByteBuffer cName = ByteBufferUtil.bytes("col1");
+        return cfm.addOrReplaceColumnDefinition(ColumnDefinition.regularDef(cfm, cName, UTF8Type.instance, 1)
+                                                                .setIndex("col1_idx", IndexType.CUSTOM, indexOptions));
+    }
+
     private static void useCompression(List<KSMetaData> schema, Integer chunkLength) throws ConfigurationException
     {
         for (KSMetaData ksm : schema)
@@ -413,6 +442,15 @@ public class SchemaLoader
                                                        .setIndex(withIdxType ? "col1_idx" : null, idxType, Collections.<String, String>emptyMap()));
     }
     
+    private static CFMetaData doubleCompositeIndexCFMD(String ksName, String cfName) throws ConfigurationException
+    {
+        CFMetaData cfm = compositeIndexCFMD(ksName, cfName, true);
+
+        ByteBuffer cName = ByteBufferUtil.bytes("col2");
+        return cfm.addColumnDefinition(ColumnDefinition.regularDef(cfm, cName, UTF8Type.instance, 1)
+                                                       .setIndex("col2_idx", IndexType.COMPOSITES, Collections.<String, String>emptyMap()));
+    }
+
     private static CFMetaData jdbcCFMD(String ksName, String cfName, AbstractType comp)
     {
         return CFMetaData.denseCFMetaData(ksName, cfName, comp).defaultValidator(comp);
@@ -63,4 +63,35 @@ public class AutoSavingCacheTest extends SchemaLoader
         for (SSTableReader sstable : cfs.getSSTables())
             Assert.assertNotNull(keyCache.get(new KeyCacheKey(cfs.metadata.ksAndCFName, sstable.descriptor, ByteBufferUtil.bytes("key1"))));
     }
+
+    @Test
+    public void testSerializeAndLoadKeyCacheSegments() throws Exception
+    {
+        ColumnFamilyStore cfs1 = Keyspace.open("Keyspace1").getColumnFamilyStore("Standard1");
+        ColumnFamilyStore cfs2 = Keyspace.open("Keyspace1").getColumnFamilyStore("Standard2");
+        for (ColumnFamilyStore cfs : new ColumnFamilyStore[]{ cfs1, cfs2 })
+        {
+            Mutation rm = new Mutation("Keyspace1", ByteBufferUtil.bytes("key2"));
+            rm.add(cfs.name, Util.cellname("c1"), ByteBufferUtil.bytes(0), 0);
+            rm.apply();
+            cfs.forceBlockingFlush();
+            for (SSTableReader sstable : cfs.getSSTables())
+                sstable.getPosition(Util.dk("key2"), SSTableReader.Operator.EQ);
+        }
+
+        AutoSavingCache<KeyCacheKey, RowIndexEntry> keyCache = CacheService.instance.keyCache;
+        keyCache.submitWrite(keyCache.size()).get();
+
+        // each table is saved to a segment of its own
+        Assert.assertTrue(keyCache.getSegmentPath(cfs1.metadata.ksAndCFName).exists());
+        Assert.assertTrue(keyCache.getSegmentPath(cfs2.metadata.ksAndCFName).exists());
+
+        keyCache.clear();
+        keyCache.loadSavedAsync().get();
+        for (ColumnFamilyStore cfs : new ColumnFamilyStore[]{ cfs1, cfs2 })
+        {
+            for (SSTableReader sstable : cfs.getSSTables())
+                Assert.assertNotNull(keyCache.get(new KeyCacheKey(cfs.metadata.ksAndCFName, sstable.descriptor, ByteBufferUtil.bytes("key2"))));
+        }
+    }
 }
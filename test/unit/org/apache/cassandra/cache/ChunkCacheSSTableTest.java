@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.io.compress.CompressionParameters;
+import org.apache.cassandra.io.compress.LZ4Compressor;
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+import static org.apache.cassandra.Util.cellname;
+import static org.apache.cassandra.utils.ByteBufferUtil.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads a compressed sstable through the chunk cache.
+ */
+public class ChunkCacheSSTableTest extends SchemaLoader
+{
+    private static final String KEYSPACE = "Keyspace1";
+    private static final String CF = "Standard2";
+    private static final int ROWS = 1000;
+
+    static
+    {
+        // the cache is sized when it is first used
+        DatabaseDescriptor.setChunkCacheSizeInMB(16);
+    }
+
+    @Test
+    public void testReadThroughCache() throws Exception
+    {
+        ChunkCache cache = ChunkCache.instance;
+        assertNotNull(cache);
+
+        Keyspace keyspace = Keyspace.open(KEYSPACE);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(CF);
+        cfs.metadata.compressionParameters(new CompressionParameters(LZ4Compressor.instance, 4096, Collections.<String, String>emptyMap()));
+        cfs.disableAutoCompaction();
+
+        for (int i = 0; i < ROWS; i++)
+        {
+            Mutation mutation = new Mutation(KEYSPACE, bytes("key" + i));
+            mutation.add(CF, cellname("c"), bytes("value" + i), 0);
+            mutation.apply();
+        }
+        cfs.forceBlockingFlush();
+        assertEquals(1, cfs.getSSTables().size());
+        SSTableReader sstable = cfs.getSSTables().iterator().next();
+        assertTrue(sstable.compression);
+        String path = sstable.getFilename();
+
+        // the first reads decompress the chunks and cache them
+        checkRows(keyspace);
+        int chunks = cachedChunks(cache, path);
+        assertTrue(chunks > 1);
+
+        // the next ones are served from the cache
+        long hits = cache.metrics.hits.count();
+        checkRows(keyspace);
+        assertTrue(cache.metrics.hits.count() > hits);
+        assertEquals(chunks, cachedChunks(cache, path));
+
+        // the chunks are dropped once the sstable is released, which completes in the background
+        cfs.truncateBlocking();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (cachedChunks(cache, path) > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, cachedChunks(cache, path));
+    }
+
+    private static void checkRows(Keyspace keyspace)
+    {
+        for (int i = 0; i < ROWS; i++)
+        {
+            DecoratedKey key = Util.dk("key" + i);
+            ColumnFamily cf = Util.getColumnFamily(keyspace, key, CF);
+            assertNotNull(cf);
+            assertEquals(bytes("value" + i), cf.getColumn(cellname("c")).value());
+        }
+    }
+
+    private static int cachedChunks(ChunkCache cache, String path)
+    {
+        int chunks = 0;
+        for (ChunkCache.Key key : cache.keySet())
+        {
+            if (key.path.equals(path))
+                chunks++;
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChunkCacheTest
+{
+    private static RefCountedMemory chunk(int size, byte value)
+    {
+        RefCountedMemory chunk = new RefCountedMemory(size);
+        chunk.setMemory(0, size, value);
+        return chunk;
+    }
+
+    @Test
+    public void testPutGet()
+    {
+        ChunkCache cache = new ChunkCache(1024 * 1024);
+        ChunkCache.Key key = new ChunkCache.Key("a-Data.db", 0);
+        assertNull(cache.get(key));
+
+        cache.put(key, chunk(1024, (byte) 1));
+        RefCountedMemory cached = cache.get(key);
+        assertNotNull(cached);
+        assertEquals(1024, cached.size());
+        assertEquals(1, cached.getByte(1023));
+        cached.unreference();
+
+        assertFalse(cache.putIfAbsent(new ChunkCache.Key("a-Data.db", 0), chunk(1024, (byte) 2)));
+        cached = cache.get(key);
+        assertEquals(1, cached.getByte(0));
+        cached.unreference();
+        assertEquals(1024, cache.weightedSize());
+
+        cache.remove(key);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testReferencedChunkOutlivesRemoval()
+    {
+        ChunkCache cache = new ChunkCache(1024 * 1024);
+        ChunkCache.Key key = new ChunkCache.Key("a-Data.db", 0);
+        cache.put(key, chunk(1024, (byte) 1));
+
+        RefCountedMemory cached = cache.get(key);
+        cache.remove(key);
+        // still readable until the reader releases it
+        assertEquals(1, cached.getByte(0));
+        cached.unreference();
+        assertFalse(cached.reference());
+    }
+
+    @Test
+    public void testInvalidateFile()
+    {
+        ChunkCache cache = new ChunkCache(1024 * 1024);
+        for (int i = 0; i < 10; i++)
+        {
+            cache.put(new ChunkCache.Key("a-Data.db", i * 1024), chunk(1024, (byte) i));
+            cache.put(new ChunkCache.Key("b-Data.db", i * 1024), chunk(1024, (byte) i));
+            cache.put(new ChunkCache.Key("a-Data.db2", i * 1024), chunk(1024, (byte) i));
+        }
+        assertEquals(30, cache.size());
+
+        cache.invalidateFile("a-Data.db");
+        assertEquals(20, cache.size());
+        for (ChunkCache.Key key : cache.keySet())
+            assertFalse(key.path.equals("a-Data.db"));
+
+        // the chunks put again after being invalidated are found by the next invalidation
+        cache.put(new ChunkCache.Key("a-Data.db", 0), chunk(1024, (byte) 0));
+        cache.invalidateFile("a-Data.db");
+        assertEquals(20, cache.size());
+    }
+
+    @Test
+    public void testCapacity()
+    {
+        ChunkCache cache = new ChunkCache(10 * 1024);
+        for (int i = 0; i < 100; i++)
+            cache.put(new ChunkCache.Key("a-Data.db", i * 1024), chunk(1024, (byte) i));
+        assertTrue(cache.weightedSize() <= 10 * 1024);
+        assertTrue(cache.size() <= 10);
+
+        // the evicted chunks are no longer indexed, the others still are
+        cache.invalidateFile("a-Data.db");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+    }
+}
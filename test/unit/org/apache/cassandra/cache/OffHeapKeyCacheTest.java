@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
+
+import static org.junit.Assert.*;
+
+public class OffHeapKeyCacheTest extends SchemaLoader
+{
+    private static final Pair<String, String> KS_AND_CF = Pair.create("Keyspace1", "Standard1");
+    private static final Descriptor DESC1 = new Descriptor(new File("."), "Keyspace1", "Standard1", 1, Descriptor.Type.FINAL);
+    private static final Descriptor DESC2 = new Descriptor(new File("."), "Keyspace1", "Standard1", 2, Descriptor.Type.FINAL);
+
+    private static KeyCacheKey key(Descriptor desc, String key)
+    {
+        return new KeyCacheKey(KS_AND_CF, desc, ByteBufferUtil.bytes(key));
+    }
+
+    @Test
+    public void testPutGetRemove()
+    {
+        OffHeapKeyCache cache = OffHeapKeyCache.create(1024 * 1024);
+        cache.put(key(DESC1, "k1"), new RowIndexEntry(42));
+        cache.put(key(DESC2, "k1"), new RowIndexEntry(43));
+
+        assertEquals(42, cache.get(key(DESC1, "k1")).position);
+        assertEquals(43, cache.get(key(DESC2, "k1")).position);
+        assertNull(cache.get(key(DESC1, "k2")));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.keySet().size());
+
+        assertFalse(cache.putIfAbsent(key(DESC1, "k1"), new RowIndexEntry(44)));
+        assertEquals(42, cache.get(key(DESC1, "k1")).position);
+        assertTrue(cache.replace(key(DESC1, "k1"), new RowIndexEntry(42), new RowIndexEntry(44)));
+        assertEquals(44, cache.get(key(DESC1, "k1")).position);
+
+        cache.remove(key(DESC1, "k1"));
+        assertNull(cache.get(key(DESC1, "k1")));
+        assertEquals(43, cache.get(key(DESC2, "k1")).position);
+        assertEquals(Collections.singleton(key(DESC2, "k1")), cache.keySet());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+        assertNull(cache.get(key(DESC2, "k1")));
+    }
+
+    @Test
+    public void testReleaseSSTable()
+    {
+        OffHeapKeyCache cache = OffHeapKeyCache.create(1024 * 1024);
+        cache.put(key(DESC1, "k1"), new RowIndexEntry(42));
+        cache.put(key(DESC2, "k1"), new RowIndexEntry(43));
+
+        cache.releaseSSTable(KS_AND_CF, DESC1);
+        assertNull(cache.get(key(DESC1, "k1")));
+        assertFalse(cache.containsKey(key(DESC1, "k1")));
+        assertEquals(43, cache.get(key(DESC2, "k1")).position);
+        assertEquals(Collections.singleton(key(DESC2, "k1")), cache.keySet());
+
+        // the released entry stays in the cache until evicted, but is not mistaken for one of a new id
+        assertEquals(2, cache.size());
+        cache.put(key(DESC1, "k2"), new RowIndexEntry(44));
+        assertNull(cache.get(key(DESC1, "k1")));
+        assertEquals(44, cache.get(key(DESC1, "k2")).position);
+
+        cache.setCapacity(0);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        OffHeapKeyCache cache = OffHeapKeyCache.create(64 * 1024);
+        for (int i = 0; i < 100000; i++)
+            cache.put(key(DESC1, "key" + i), new RowIndexEntry(i));
+
+        assertTrue(cache.weightedSize() <= cache.capacity());
+        assertTrue(cache.size() > 0);
+        for (KeyCacheKey key : cache.keySet())
+            assertEquals(ByteBufferUtil.bytes("key" + cache.get(key).position), ByteBuffer.wrap(key.key));
+
+        cache.setCapacity(0);
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cql3.validation.entities;
+
+import org.junit.Test;
+
+import org.apache.cassandra.cql3.CQLTester;
+
+/**
+ * Queries with several indexed predicates, forcing the searcher to intersect the indexes
+ * of all of them rather than filtering the hits of the most selective one.
+ */
+public class SecondaryIndexIntersectionTest extends CQLTester
+{
+    static
+    {
+        System.setProperty("cassandra.index_merge_join_min_rows", "0");
+    }
+
+    @Test
+    public void testIntersectSkinnyPartitions() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k int PRIMARY KEY, a int, b int, c int)");
+        createIndex("CREATE INDEX ON %s(a)");
+        createIndex("CREATE INDEX ON %s(b)");
+        createIndex("CREATE INDEX ON %s(c)");
+
+        for (int i = 0; i < 100; i++)
+            execute("INSERT INTO %s (k, a, b, c) VALUES (?, ?, ?, ?)", i, i % 2, i % 3, i % 5);
+
+        checkSkinnyPartitions();
+        flush();
+        checkSkinnyPartitions();
+
+        // stale entries in one of the intersected indexes must not make us miss or return rows
+        execute("UPDATE %s SET b = 1 WHERE k = 0");
+        execute("UPDATE %s SET b = 0 WHERE k = 10");
+        assertRowCount(execute("SELECT k FROM %s WHERE a = 0 AND b = 0 ALLOW FILTERING"), 17);
+        assertRowCount(execute("SELECT k FROM %s WHERE a = 0 AND b = 0 AND c = 0 ALLOW FILTERING"), 4);
+    }
+
+    private void checkSkinnyPartitions() throws Throwable
+    {
+        assertRowCount(execute("SELECT k FROM %s WHERE a = 0 AND b = 0 ALLOW FILTERING"), 17);
+        assertRowCount(execute("SELECT k FROM %s WHERE a = 0 AND b = 0 AND c = 0 ALLOW FILTERING"), 4);
+        assertRowCount(execute("SELECT k FROM %s WHERE a = 0 AND b = 0 AND c = 0 LIMIT 2 ALLOW FILTERING"), 2);
+        assertRows(execute("SELECT k FROM %s WHERE a = 1 AND b = 2 AND c = 4 AND k = 29 ALLOW FILTERING"),
+                   row(29));
+        assertEmpty(execute("SELECT k FROM %s WHERE a = 2 AND b = 0 ALLOW FILTERING"));
+    }
+
+    @Test
+    public void testIntersectWidePartitions() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k int, ck int, a int, b int, PRIMARY KEY (k, ck))");
+        createIndex("CREATE INDEX ON %s(a)");
+        createIndex("CREATE INDEX ON %s(b)");
+
+        // Only partitions 0 and 3 have rows matching a = 0, and only rows with an even ck in
+        // partition 0 match b = 0
+        for (int ck = 0; ck < 10; ck++)
+        {
+            execute("INSERT INTO %s (k, ck, a, b) VALUES (?, ?, ?, ?)", 0, ck, 0, ck % 2);
+            execute("INSERT INTO %s (k, ck, a, b) VALUES (?, ?, ?, ?)", 1, ck, 1, 0);
+            execute("INSERT INTO %s (k, ck, a, b) VALUES (?, ?, ?, ?)", 2, ck, 1, ck % 2);
+            execute("INSERT INTO %s (k, ck, a, b) VALUES (?, ?, ?, ?)", 3, ck, 0, 1);
+        }
+        flush();
+
+        assertRows(execute("SELECT k, ck FROM %s WHERE a = 0 AND b = 0 ALLOW FILTERING"),
+                   row(0, 0),
+                   row(0, 2),
+                   row(0, 4),
+                   row(0, 6),
+                   row(0, 8));
+        assertRows(execute("SELECT k, ck FROM %s WHERE a = 0 AND b = 0 AND ck > 5 ALLOW FILTERING"),
+                   row(0, 6),
+                   row(0, 8));
+        assertRowCount(execute("SELECT k, ck FROM %s WHERE a = 0 AND b = 1 ALLOW FILTERING"), 15);
+    }
+}
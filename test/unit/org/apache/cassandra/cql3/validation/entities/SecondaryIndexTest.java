@@ -182,6 +182,33 @@ public class SecondaryIndexTest extends CQLTester
                    row(0, 0, 0));
     }
 
+    @Test
+    public void testTokenOrderedIndex() throws Throwable
+    {
+        createTable("CREATE TABLE %s (k int, ck int, a int, s set<int>, PRIMARY KEY (k, ck))");
+        createIndex("CREATE INDEX ON %s (a) WITH OPTIONS = {'token_ordered': 'true'}");
+        createIndex("CREATE INDEX ON %s (s) WITH OPTIONS = {'token_ordered': 'true'}");
+
+        for (int k = 0; k < 10; k++)
+            for (int ck = 0; ck < 4; ck++)
+                execute("INSERT INTO %s (k, ck, a, s) VALUES (?, ?, ?, ?)", k, ck, ck % 2, set(ck));
+
+        for (int k = 0; k < 10; k++)
+        {
+            assertRows(execute("SELECT k, ck FROM %s WHERE a = 0 AND token(k) >= token(?) AND token(k) <= token(?) ALLOW FILTERING", k, k),
+                       row(k, 0),
+                       row(k, 2));
+            assertRows(execute("SELECT k, ck FROM %s WHERE s CONTAINS 3 AND token(k) >= token(?) AND token(k) <= token(?) ALLOW FILTERING", k, k),
+                       row(k, 3));
+        }
+        assertRowCount(execute("SELECT k, ck FROM %s WHERE a = 1"), 20);
+        assertRows(execute("SELECT k, ck FROM %s WHERE a = 1 AND k = 3 AND ck > 1"),
+                   row(3, 3));
+
+        assertInvalid("CREATE INDEX ON %s (ck) WITH OPTIONS = {'token_ordered': 'true', 'prefix_size': '1'}");
+        assertInvalidThrow(ConfigurationException.class, "CREATE INDEX ON %s (ck) WITH OPTIONS = {'token_ordered': 'yes'}");
+    }
+
     /**
      * Check for unknown compression parameters options (#4266),
      * migrated from cql_tests.py:TestCQL.compression_option_validation_test()
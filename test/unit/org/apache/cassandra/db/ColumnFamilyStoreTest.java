@@ -29,6 +29,7 @@ import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -128,6 +129,59 @@ public class ColumnFamilyStoreTest extends SchemaLoader
         assertNull(cf);
     }
 
+    @Test
+    public void testGetColumnFamilies()
+    {
+        Keyspace keyspace = Keyspace.open("Keyspace1");
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore("Standard1");
+        cfs.truncateBlocking();
+
+        // spread the partitions over two sstables and the memtable, one of them being deleted
+        for (int i = 0; i < 20; i += 2)
+        {
+            Mutation rm = new Mutation("Keyspace1", ByteBufferUtil.bytes("key" + i));
+            rm.add("Standard1", cellname("Column1"), ByteBufferUtil.bytes("a" + i), 0);
+            rm.apply();
+        }
+        cfs.forceBlockingFlush();
+        for (int i = 0; i < 10; i++)
+        {
+            Mutation rm = new Mutation("Keyspace1", ByteBufferUtil.bytes("key" + i));
+            rm.add("Standard1", cellname("Column2"), ByteBufferUtil.bytes("b" + i), 1);
+            rm.apply();
+        }
+        cfs.forceBlockingFlush();
+        Mutation rm = new Mutation("Keyspace1", ByteBufferUtil.bytes("key4"));
+        rm.delete("Standard1", 2);
+        rm.apply();
+        rm = new Mutation("Keyspace1", ByteBufferUtil.bytes("key12"));
+        rm.add("Standard1", cellname("Column1"), ByteBufferUtil.bytes("c"), 2);
+        rm.apply();
+
+        List<DecoratedKey> keys = new ArrayList<>();
+        for (int i = 0; i < 25; i++)
+            keys.add(dk("key" + i));
+        Collections.sort(keys);
+
+        long now = System.currentTimeMillis();
+        List<QueryFilter> sliceFilters = new ArrayList<>();
+        List<QueryFilter> namesFilters = new ArrayList<>();
+        for (DecoratedKey key : keys)
+        {
+            sliceFilters.add(QueryFilter.getIdentityFilter(key, "Standard1", now));
+            namesFilters.add(Util.namesQueryFilter(cfs, key, "Column1"));
+        }
+
+        for (List<QueryFilter> filters : Arrays.asList(sliceFilters, namesFilters))
+        {
+            List<ColumnFamily> results = cfs.getColumnFamilies(filters);
+            assertEquals(filters.size(), results.size());
+            for (int i = 0; i < filters.size(); i++)
+                assertEquals(cfs.getColumnFamily(filters.get(i)), results.get(i));
+        }
+        assertNull(cfs.getColumnFamilies(sliceFilters).get(keys.indexOf(dk("key21"))));
+    }
+
     @Test
     public void testEmptyRow() throws Exception
     {
@@ -728,6 +782,102 @@ public class ColumnFamilyStoreTest extends SchemaLoader
         queryBirthdate(keyspace);
     }
 
+    @Test
+    public void testIndexBuildResume() throws IOException
+    {
+        Keyspace keyspace = Keyspace.open("Keyspace2");
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore("Indexed1");
+        cfs.truncateBlocking();
+
+        Mutation rm = new Mutation("Keyspace2", ByteBufferUtil.bytes("k1"));
+        rm.add("Indexed1", cellname("birthdate"), ByteBufferUtil.bytes(1L), 0);
+        rm.apply();
+        cfs.forceBlockingFlush();
+
+        // drop the index entries, as if the index had not been built yet
+        SecondaryIndex index = cfs.indexManager.getIndexForColumn(ByteBufferUtil.bytes("birthdate"));
+        index.forceBlockingFlush();
+        index.truncateBlocking(System.currentTimeMillis());
+        IndexExpression expr = new IndexExpression(ByteBufferUtil.bytes("birthdate"), Operator.EQ, ByteBufferUtil.bytes(1L));
+        List<IndexExpression> clause = Arrays.asList(expr);
+        assertEquals(0, cfs.search(Util.range("", ""), clause, new IdentityQueryFilter(), 100).size());
+
+        // a resumed build skips the ranges recorded as built by the interrupted one
+        Set<String> idxNames = Collections.singleton(index.getIndexName());
+        Token minimum = StorageService.getPartitioner().getMinimumToken();
+        SystemKeyspace.setIndexBuildRange("Keyspace2", index.getIndexName(), new Range<>(minimum, minimum), true);
+        cfs.indexManager.buildIndexesBlocking(cfs.getSSTables(), idxNames, true);
+        assertEquals(0, cfs.search(Util.range("", ""), clause, new IdentityQueryFilter(), 100).size());
+        assertTrue(SystemKeyspace.getIndexBuildProgress("Keyspace2", index.getIndexName()).isEmpty());
+
+        // while a new one builds them all
+        SystemKeyspace.setIndexBuildRange("Keyspace2", index.getIndexName(), new Range<>(minimum, minimum), true);
+        cfs.indexManager.buildIndexesBlocking(cfs.getSSTables(), idxNames, false);
+        List<Row> rows = cfs.search(Util.range("", ""), clause, new IdentityQueryFilter(), 100);
+        assertEquals(1, rows.size());
+        assertEquals("k1", ByteBufferUtil.string(rows.get(0).key.getKey()));
+        assertTrue(SystemKeyspace.getIndexBuildProgress("Keyspace2", index.getIndexName()).isEmpty());
+    }
+
+    @Test
+    public void testIndexBuildResumeRanges() throws IOException
+    {
+        Keyspace keyspace = Keyspace.open("Keyspace2");
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore("Indexed1");
+        cfs.truncateBlocking();
+
+        for (int i = 0; i < 20; i++)
+        {
+            Mutation rm = new Mutation("Keyspace2", ByteBufferUtil.bytes("k" + i));
+            rm.add("Indexed1", cellname("birthdate"), ByteBufferUtil.bytes(1L), 0);
+            rm.apply();
+        }
+        cfs.forceBlockingFlush();
+
+        SecondaryIndex index = cfs.indexManager.getIndexForColumn(ByteBufferUtil.bytes("birthdate"));
+        index.forceBlockingFlush();
+        index.truncateBlocking(System.currentTimeMillis());
+
+        // split the ring at the tokens of two of the keys
+        List<DecoratedKey> keys = new ArrayList<>();
+        try (ReducingKeyIterator iter = new ReducingKeyIterator(cfs.getSSTables()))
+        {
+            Iterators.addAll(keys, iter);
+        }
+        assertEquals(20, keys.size());
+        Token minimum = StorageService.getPartitioner().getMinimumToken();
+        List<Range<Token>> ranges = Arrays.asList(new Range<>(minimum, keys.get(5).getToken()),
+                                                  new Range<>(keys.get(5).getToken(), keys.get(12).getToken()),
+                                                  new Range<>(keys.get(12).getToken(), minimum));
+
+        // the key iterators of the ranges exclude their left bound and include their right one, so each key is
+        // returned by exactly one of them
+        List<DecoratedKey> rangeKeys = new ArrayList<>();
+        for (Range<Token> range : ranges)
+        {
+            try (ReducingKeyIterator iter = new ReducingKeyIterator(cfs.getSSTables(), range))
+            {
+                Iterators.addAll(rangeKeys, iter);
+            }
+        }
+        assertEquals(keys, rangeKeys);
+
+        // a resumed build only indexes the keys of the ranges that aren't recorded as built
+        String idxName = index.getIndexName();
+        SystemKeyspace.setIndexBuildRange("Keyspace2", idxName, ranges.get(0), true);
+        SystemKeyspace.setIndexBuildRange("Keyspace2", idxName, ranges.get(1), false);
+        SystemKeyspace.setIndexBuildRange("Keyspace2", idxName, ranges.get(2), false);
+        cfs.indexManager.buildIndexesBlocking(cfs.getSSTables(), Collections.singleton(idxName), true);
+
+        IndexExpression expr = new IndexExpression(ByteBufferUtil.bytes("birthdate"), Operator.EQ, ByteBufferUtil.bytes(1L));
+        List<Row> rows = cfs.search(Util.range("", ""), Arrays.asList(expr), new IdentityQueryFilter(), 100);
+        Set<DecoratedKey> indexed = new HashSet<>();
+        for (Row row : rows)
+            indexed.add(row.key);
+        assertEquals(new HashSet<>(keys.subList(6, 20)), indexed);
+        assertTrue(SystemKeyspace.getIndexBuildProgress("Keyspace2", idxName).isEmpty());
+    }
+
     private void queryBirthdate(Keyspace keyspace) throws CharacterCodingException
     {
         IndexExpression expr = new IndexExpression(ByteBufferUtil.bytes("birthdate"), Operator.EQ, ByteBufferUtil.bytes(1L));
@@ -21,6 +21,10 @@ package org.apache.cassandra.db;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.zip.CRC32;
@@ -43,6 +47,7 @@ import org.apache.cassandra.db.composites.CellNameType;
 import org.apache.cassandra.db.filter.NamesQueryFilter;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.CassandraDaemon;
 import org.apache.cassandra.service.StorageService;
@@ -225,6 +230,122 @@ public class CommitLogTest extends SchemaLoader
         }
     }
 
+    @Test
+    public void testRecoveryCompressedLZ4() throws Exception
+    {
+        testRecoveryCompressed("LZ4Compressor");
+    }
+
+    @Test
+    public void testRecoveryCompressedSnappy() throws Exception
+    {
+        testRecoveryCompressed("SnappyCompressor");
+    }
+
+    private void testRecoveryCompressed(String compression) throws Exception
+    {
+        final int count = 10;
+
+        // a whole segment
+        CompressedSegment segment = writeCompressedSegment(compression, "whole", count);
+        Assert.assertEquals(count, segment.sections.size());
+        Assert.assertEquals(count, CommitLog.instance.recover(segment.copy(segment.bytes)));
+        ColumnFamilyStore cfs = Keyspace.open("Keyspace1").getColumnFamilyStore("Standard1");
+        for (int i = 0; i < count; i++)
+        {
+            ColumnFamily cf = cfs.getColumnFamily(Util.namesQueryFilter(cfs, Util.dk(compression + "whole" + i), "c1"));
+            Assert.assertEquals(bytes(i), cf.getColumn(Util.cellname("c1")).value());
+        }
+
+        // a segment whose last section was torn while being written
+        segment = writeCompressedSegment(compression, "torn", count);
+        int tornAt = segment.sections.get(count - 1) + SECTION_HEADER_SIZE + 2;
+        Assert.assertEquals(count - 1, CommitLog.instance.recover(segment.copy(Arrays.copyOf(segment.bytes, tornAt))));
+
+        // a segment with a corrupted section header, whose following sections cannot be trusted
+        segment = writeCompressedSegment(compression, "header", count);
+        byte[] bytes = segment.bytes.clone();
+        bytes[segment.sections.get(5) + 4] ^= 1; // the header crc
+        Assert.assertEquals(5, CommitLog.instance.recover(segment.copy(bytes)));
+
+        // a segment with a corrupted section pointing past its end
+        segment = writeCompressedSegment(compression, "pointer", count);
+        bytes = segment.bytes.clone();
+        ByteBuffer.wrap(bytes).putInt(segment.sections.get(3), bytes.length + 1); // the next section position
+        Assert.assertEquals(3, CommitLog.instance.recover(segment.copy(bytes)));
+    }
+
+    // the next section position, the crc of the header, and the uncompressed length
+    private static final int SECTION_HEADER_SIZE = 4 + 4 + 4;
+
+    private static class CompressedSegment
+    {
+        final String name;
+        final byte[] bytes;
+        // the file position of each section header
+        final List<Integer> sections = new ArrayList<>();
+
+        CompressedSegment(String name, byte[] bytes)
+        {
+            this.name = name;
+            this.bytes = bytes;
+
+            // the header ends with the name of the compressor, preceded by its length, and followed by the header crc
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int position = 4 + 8 + 2 + buffer.getShort(4 + 8) + 4;
+            while (position < bytes.length)
+            {
+                sections.add(position);
+                position = buffer.getInt(position);
+            }
+        }
+
+        File copy(byte[] contents) throws IOException
+        {
+            File directory = Files.createTempDirectory("CommitLogTest").toFile();
+            directory.deleteOnExit();
+            File file = new File(directory, name);
+            file.deleteOnExit();
+            Files.write(file.toPath(), contents);
+            return file;
+        }
+    }
+
+    /**
+     * Writes count mutations, each synced to a section of its own by the batch sync mode, to a fresh segment
+     * compressed with the given compressor, and returns the segment once closed.
+     */
+    private static CompressedSegment writeCompressedSegment(String compression, String prefix, int count) throws IOException
+    {
+        String previous = DatabaseDescriptor.getCommitLogCompression();
+        DatabaseDescriptor.setCommitLogCompression(compression);
+        try
+        {
+            CommitLog.instance.resetUnsafe();
+            for (int i = 0; i < count; i++)
+            {
+                Mutation rm = new Mutation("Keyspace1", bytes(compression + prefix + i));
+                rm.add("Standard1", Util.cellname("c1"), bytes(i), 0);
+                CommitLog.instance.add(rm);
+            }
+            Assert.assertEquals(1, CommitLog.instance.activeSegments());
+            CommitLogSegment segment = CommitLog.instance.allocator.getActiveSegments().iterator().next();
+            Assert.assertEquals(compression, segment.descriptor.compression);
+
+            // closing the segment writes what is left of it
+            CommitLog.instance.resetUnsafe();
+            File file = new File(segment.getPath());
+            CompressedSegment written = new CompressedSegment(file.getName(), Files.readAllBytes(file.toPath()));
+            FileUtils.deleteWithConfirm(file);
+            return written;
+        }
+        finally
+        {
+            DatabaseDescriptor.setCommitLogCompression(previous);
+            CommitLog.instance.resetUnsafe();
+        }
+    }
+
     protected void testRecoveryWithBadSizeArgument(int size, int dataSize) throws Exception
     {
         Checksum checksum = new CRC32();
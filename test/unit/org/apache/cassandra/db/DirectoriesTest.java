@@ -144,6 +144,17 @@ public class DirectoriesTest
         }
     }
 
+    @Test
+    public void testWriteableLocations()
+    {
+        for (CFMetaData cfm : CFM)
+        {
+            Directories directories = new Directories(cfm);
+            assertEquals(Arrays.asList(Directories.dataDirectories), directories.getWriteableLocations(0));
+            assertTrue(directories.getWriteableLocations(Long.MAX_VALUE).isEmpty());
+        }
+    }
+
     @Test
     public void testSSTableLister()
     {
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+import static org.apache.cassandra.Util.cellname;
+import static org.apache.cassandra.utils.ByteBufferUtil.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemtableShardsTest extends SchemaLoader
+{
+    private static final String KEYSPACE = "Keyspace1";
+    private static final int SHARDS = 4;
+    private static final int ROWS = 1000;
+
+    static
+    {
+        // the memtables are only sharded with the Murmur3Partitioner
+        DatabaseDescriptor.setPartitioner(new Murmur3Partitioner());
+        DatabaseDescriptor.setMemtableShards(SHARDS);
+    }
+
+    @Test
+    public void testWriteFlushRead() throws Exception
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore("Standard1");
+        cfs.disableAutoCompaction();
+
+        for (int i = 0; i < ROWS; i++)
+        {
+            Mutation mutation = new Mutation(KEYSPACE, bytes("key" + i));
+            mutation.add("Standard1", cellname("c"), bytes("value" + i), 0);
+            mutation.apply();
+        }
+
+        // the reads merge the shards of the memtable
+        checkRows(keyspace, cfs);
+
+        cfs.forceBlockingFlush();
+        // each shard is flushed to its own sstables, which don't overlap
+        List<SSTableReader> sstables = new ArrayList<>(cfs.getSSTables());
+        assertTrue(sstables.size() >= SHARDS);
+        Collections.sort(sstables, new Comparator<SSTableReader>()
+        {
+            public int compare(SSTableReader o1, SSTableReader o2)
+            {
+                return o1.first.compareTo(o2.first);
+            }
+        });
+        for (int i = 1; i < sstables.size(); i++)
+            assertTrue(sstables.get(i - 1).last.compareTo(sstables.get(i).first) < 0);
+
+        checkRows(keyspace, cfs);
+    }
+
+    private static void checkRows(Keyspace keyspace, ColumnFamilyStore cfs)
+    {
+        for (int i = 0; i < ROWS; i++)
+        {
+            ColumnFamily cf = Util.getColumnFamily(keyspace, Util.dk("key" + i), "Standard1");
+            assertNotNull(cf);
+            assertEquals(bytes("value" + i), cf.getColumn(cellname("c")).value());
+        }
+
+        List<Row> rows = Util.getRangeSlice(cfs);
+        assertEquals(ROWS, rows.size());
+        for (int i = 1; i < rows.size(); i++)
+            assertTrue(rows.get(i - 1).key.compareTo(rows.get(i).key) < 0);
+    }
+}
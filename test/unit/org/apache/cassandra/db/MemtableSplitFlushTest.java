@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+import static org.apache.cassandra.Util.cellname;
+import static org.apache.cassandra.utils.ByteBufferUtil.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemtableSplitFlushTest extends SchemaLoader
+{
+    private static final String KEYSPACE = "Keyspace1";
+
+    static
+    {
+        // two data directories, and a flush threshold that a test can reach quickly
+        System.setProperty("cassandra.memtable_min_split_flush_size_in_mb", "1");
+        String location = DatabaseDescriptor.getAllDataFileLocations()[0];
+        DatabaseDescriptor.setAllDataFileLocations(new String[]{ location, location + "2" });
+    }
+
+    @Test
+    public void testLargeFlushIsSplit() throws Exception
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore("Standard1");
+        cfs.disableAutoCompaction();
+
+        // about 2MB, above the threshold
+        int rows = 2000;
+        write(cfs, rows, ByteBuffer.allocate(1024));
+        cfs.forceBlockingFlush();
+
+        // the sstables cover distinct token ranges, on both directories
+        List<SSTableReader> sstables = new ArrayList<>(cfs.getSSTables());
+        assertTrue(sstables.size() >= 2);
+        Collections.sort(sstables, new Comparator<SSTableReader>()
+        {
+            public int compare(SSTableReader o1, SSTableReader o2)
+            {
+                return o1.first.compareTo(o2.first);
+            }
+        });
+        Set<File> directories = new HashSet<>();
+        for (int i = 0; i < sstables.size(); i++)
+        {
+            if (i > 0)
+                assertTrue(sstables.get(i - 1).last.compareTo(sstables.get(i).first) < 0);
+            directories.add(sstables.get(i).descriptor.directory);
+        }
+        assertEquals(2, directories.size());
+
+        checkRows(keyspace, cfs, rows);
+    }
+
+    @Test
+    public void testSmallFlushIsNotSplit() throws Exception
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE);
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore("Standard2");
+        cfs.disableAutoCompaction();
+
+        int rows = 100;
+        write(cfs, rows, bytes("value"));
+        cfs.forceBlockingFlush();
+
+        assertEquals(1, cfs.getSSTables().size());
+        checkRows(keyspace, cfs, rows);
+    }
+
+    private static void write(ColumnFamilyStore cfs, int rows, ByteBuffer value)
+    {
+        for (int i = 0; i < rows; i++)
+        {
+            Mutation mutation = new Mutation(KEYSPACE, bytes("key" + i));
+            mutation.add(cfs.name, cellname("c"), bytes("value" + i), 0);
+            mutation.add(cfs.name, cellname("v"), value, 0);
+            mutation.apply();
+        }
+    }
+
+    private static void checkRows(Keyspace keyspace, ColumnFamilyStore cfs, int rows)
+    {
+        for (int i = 0; i < rows; i++)
+        {
+            ColumnFamily cf = Util.getColumnFamily(keyspace, Util.dk("key" + i), cfs.name);
+            assertNotNull(cf);
+            assertEquals(bytes("value" + i), cf.getColumn(cellname("c")).value());
+            assertEquals(2, cf.getColumnCount());
+        }
+        assertEquals(rows, Util.getRangeSlice(cfs).size());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.io.IVersionedSerializer;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.apache.cassandra.Util.column;
+import static org.apache.cassandra.Util.dk;
+import static org.junit.Assert.assertEquals;
+
+public class RangeSliceReplyTest extends SchemaLoader
+{
+    private static List<Row> makeRows(int count)
+    {
+        List<Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            ColumnFamily cf = ArrayBackedSortedColumns.factory.create("Keyspace1", "Standard1");
+            cf.addColumn(column("c" + i, "v" + i, i));
+            rows.add(new Row(dk("key" + i), cf));
+        }
+        return rows;
+    }
+
+    private static List<Row> roundTrip(RangeSliceReply reply, int version) throws IOException
+    {
+        IVersionedSerializer<RangeSliceReply> serializer = RangeSliceReply.serializer;
+        DataOutputBuffer out = new DataOutputBuffer();
+        serializer.serialize(reply, out, version);
+        assertEquals(out.getLength(), serializer.serializedSize(reply, version));
+        return RangeSliceReply.read(out.toByteArray(), version).rows;
+    }
+
+    @Test
+    public void testSerializeFromIterator() throws IOException
+    {
+        List<Row> rows = makeRows(10);
+        RangeSliceReply reply = RangeSliceReply.serialize(FBUtilities.closeableIterator(rows.iterator()), MessagingService.current_version);
+
+        assertRows(rows, roundTrip(reply, MessagingService.current_version));
+        // the rows are re-serialized if the reply ends up being sent with another version
+        assertRows(rows, roundTrip(reply, MessagingService.VERSION_20));
+    }
+
+    @Test
+    public void testSerializeEmptyIterator() throws IOException
+    {
+        RangeSliceReply reply = RangeSliceReply.serialize(FBUtilities.closeableIterator(new ArrayList<Row>().iterator()), MessagingService.current_version);
+        assertEquals(0, roundTrip(reply, MessagingService.current_version).size());
+    }
+
+    private static void assertRows(List<Row> expected, List<Row> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals(expected.get(i).key, actual.get(i).key);
+            assertEquals(expected.get(i).cf, actual.get(i).cf);
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.cassandra.db;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
@@ -29,8 +30,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.commitlog.CommitLogArchiver;
+import org.apache.cassandra.utils.ByteBufferUtil;
 
 import static org.apache.cassandra.Util.column;
 import static org.apache.cassandra.db.KeyspaceTest.assertColumns;
@@ -39,6 +42,12 @@ import static org.apache.cassandra.Util.cellname;
 @RunWith(OrderedJUnit4ClassRunner.class)
 public class RecoveryManagerTest extends SchemaLoader
 {
+    static
+    {
+        // read the segments of the multi segment replays concurrently
+        System.setProperty("cassandra.commitlog_replay_threads", "4");
+    }
+
     @Test
     public void testNothingToRecover() throws IOException
     {
@@ -77,6 +86,52 @@ public class RecoveryManagerTest extends SchemaLoader
         assertColumns(Util.getColumnFamily(keyspace2, dk, "Standard3"), "col2");
     }
 
+    @Test
+    public void testRecoverSegmentsConcurrently() throws IOException
+    {
+        CommitLog.instance.resetUnsafe();
+        Keyspace keyspace1 = Keyspace.open("Keyspace1");
+        Keyspace keyspace2 = Keyspace.open("Keyspace2");
+
+        // each mutation takes a fifth of a segment, so they span several segments
+        ByteBuffer value = ByteBuffer.allocate(DatabaseDescriptor.getCommitLogSegmentSize() / 5);
+        int keys = 16;
+        for (int i = 0; i < keys; i++)
+        {
+            DecoratedKey dk = Util.dk("key" + i);
+            ColumnFamily cf = ArrayBackedSortedColumns.factory.create("Keyspace1", "Standard1");
+            cf.addColumn(column("col" + i, "val" + i, 1L));
+            if (i % 2 == 0)
+                cf.addColumn(new BufferCell(cellname("large"), value, 1L));
+            new Mutation("Keyspace1", dk.getKey(), cf).apply();
+
+            cf = ArrayBackedSortedColumns.factory.create("Keyspace2", "Standard3");
+            cf.addColumn(column("col" + i, "val" + i, 1L));
+            if (i % 2 == 1)
+                cf.addColumn(new BufferCell(cellname("large"), value, 1L));
+            new Mutation("Keyspace2", dk.getKey(), cf).apply();
+        }
+        Assert.assertTrue(CommitLog.instance.activeSegments() > 2);
+
+        keyspace1.getColumnFamilyStore("Standard1").clearUnsafe();
+        keyspace2.getColumnFamilyStore("Standard3").clearUnsafe();
+
+        CommitLog.instance.resetUnsafe(); // disassociate segments from live CL
+        Assert.assertTrue(CommitLog.instance.recover() >= 2 * keys);
+
+        for (int i = 0; i < keys; i++)
+        {
+            DecoratedKey dk = Util.dk("key" + i);
+            ColumnFamily cf = Util.getColumnFamily(keyspace1, dk, "Standard1");
+            Assert.assertEquals(ByteBufferUtil.bytes("val" + i), cf.getColumn(cellname("col" + i)).value());
+            Assert.assertEquals(i % 2 == 0 ? 2 : 1, cf.getColumnCount());
+
+            cf = Util.getColumnFamily(keyspace2, dk, "Standard3");
+            Assert.assertEquals(ByteBufferUtil.bytes("val" + i), cf.getColumn(cellname("col" + i)).value());
+            Assert.assertEquals(i % 2 == 1 ? 2 : 1, cf.getColumnCount());
+        }
+    }
+
     @Test
     public void testRecoverCounter() throws IOException
     {
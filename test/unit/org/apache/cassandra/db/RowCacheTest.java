@@ -32,6 +32,8 @@ import org.junit.Test;
 import org.apache.cassandra.SchemaLoader;
 import org.apache.cassandra.Util;
 import org.apache.cassandra.cache.RowCacheKey;
+import org.apache.cassandra.cache.RowCacheSlices;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.composites.*;
 import org.apache.cassandra.db.compaction.CompactionManager;
@@ -320,6 +322,138 @@ public class RowCacheTest extends SchemaLoader
         }
     }
 
+    @Test
+    public void testRowCacheSlices()
+    {
+        CompactionManager.instance.disableAutoCompaction();
+
+        Keyspace keyspace = Keyspace.open(KEYSPACE);
+        String cf = "CachedIntCF";
+        ColumnFamilyStore cachedStore  = keyspace.getColumnFamilyStore(cf);
+        long startRowCacheHits = cachedStore.metric.rowCacheHit.count();
+        long startRowCacheOutOfRange = cachedStore.metric.rowCacheHitOutOfRange.count();
+        CacheService.instance.invalidateRowCache();
+        CacheService.instance.setRowCacheCapacityInMB(1);
+
+        ByteBuffer key = ByteBufferUtil.bytes("rowcacheslices");
+        DecoratedKey dk = cachedStore.partitioner.decorateKey(key);
+        RowCacheKey rck = new RowCacheKey(cachedStore.metadata.ksAndCFName, dk);
+        Mutation mutation = new Mutation(KEYSPACE, key);
+        for (int i = 0; i < 200; i++)
+            mutation.add(cf, Util.cellname(i), ByteBufferUtil.bytes("val" + i), System.currentTimeMillis());
+        mutation.applyUnsafe();
+        cachedStore.forceBlockingFlush();
+
+        // the latest 10 rows before 150 are not in the head of the partition, only the slice read gets cached
+        ColumnFamily result = latest(cachedStore, dk, 150, 10);
+        assertEquals(10, result.getColumnCount());
+        assertEquals(startRowCacheHits, cachedStore.metric.rowCacheHit.count());
+        RowCacheSlices cached = (RowCacheSlices)CacheService.instance.rowCache.get(rck);
+        assertEquals(1, cached.slices.length);
+        assertEquals(10, cached.data.getColumnCount());
+
+        // rows 148 to 144 are within the cached slice
+        result = latest(cachedStore, dk, 148, 5);
+        assertEquals(++startRowCacheHits, cachedStore.metric.rowCacheHit.count());
+        assertEquals(Util.cellname(148), result.getReverseSortedColumns().iterator().next().name());
+        assertEquals(5, result.getColumnCount());
+
+        // rows 145 to 136 are only partly cached, the slice read extends the cached one
+        result = latest(cachedStore, dk, 145, 10);
+        assertEquals(10, result.getColumnCount());
+        assertEquals(startRowCacheHits, cachedStore.metric.rowCacheHit.count());
+        assertEquals(++startRowCacheOutOfRange, cachedStore.metric.rowCacheHitOutOfRange.count());
+        cached = (RowCacheSlices)CacheService.instance.rowCache.get(rck);
+        assertEquals(1, cached.slices.length);
+        assertEquals(15, cached.data.getColumnCount());
+
+        latest(cachedStore, dk, 150, 15);
+        assertEquals(++startRowCacheHits, cachedStore.metric.rowCacheHit.count());
+
+        // a disjoint slice is cached alongside
+        ColumnFamily slice = cachedStore.getColumnFamily(QueryFilter.getSliceFilter(dk, cf,
+                                                                                    Util.cellname(10),
+                                                                                    Util.cellname(19),
+                                                                                    false, 100, System.currentTimeMillis()));
+        assertEquals(10, slice.getColumnCount());
+        assertEquals(++startRowCacheOutOfRange, cachedStore.metric.rowCacheHitOutOfRange.count());
+        cached = (RowCacheSlices)CacheService.instance.rowCache.get(rck);
+        assertEquals(2, cached.slices.length);
+        assertEquals(25, cached.data.getColumnCount());
+
+        int i = 10;
+        for (Cell c : cachedStore.getColumnFamily(QueryFilter.getSliceFilter(dk, cf,
+                                                                             Util.cellname(10),
+                                                                             Util.cellname(19),
+                                                                             false, 100, System.currentTimeMillis())))
+            assertEquals(Util.cellname(i++), c.name());
+        assertEquals(20, i);
+        assertEquals(++startRowCacheHits, cachedStore.metric.rowCacheHit.count());
+
+        // writing to the partition invalidates its cached slices
+        mutation = new Mutation(KEYSPACE, key);
+        mutation.add(cf, Util.cellname(147), ByteBufferUtil.bytes("new"), System.currentTimeMillis());
+        mutation.apply();
+        assertEquals(null, CacheService.instance.rowCache.get(rck));
+    }
+
+    private ColumnFamily latest(ColumnFamilyStore cachedStore, DecoratedKey dk, int before, int count)
+    {
+        return cachedStore.getColumnFamily(QueryFilter.getSliceFilter(dk, cachedStore.name,
+                                                                      Util.cellname(before),
+                                                                      Composites.EMPTY,
+                                                                      true, count, System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testRowCacheAsyncPopulation() throws Exception
+    {
+        CompactionManager.instance.disableAutoCompaction();
+
+        Keyspace keyspace = Keyspace.open(KEYSPACE);
+        String cf = "CachedIntCF";
+        ColumnFamilyStore cachedStore  = keyspace.getColumnFamilyStore(cf);
+        CacheService.instance.invalidateRowCache();
+        CacheService.instance.setRowCacheCapacityInMB(1);
+
+        ByteBuffer key = ByteBufferUtil.bytes("rowcacheasync");
+        DecoratedKey dk = cachedStore.partitioner.decorateKey(key);
+        RowCacheKey rck = new RowCacheKey(cachedStore.metadata.ksAndCFName, dk);
+        Mutation mutation = new Mutation(KEYSPACE, key);
+        for (int i = 0; i < 200; i++)
+            mutation.add(cf, Util.cellname(i), ByteBufferUtil.bytes("val" + i), System.currentTimeMillis());
+        mutation.applyUnsafe();
+
+        DatabaseDescriptor.setRowCacheAsyncPopulation(true);
+        try
+        {
+            // the query is answered without the row cache, which gets populated in the background
+            ColumnFamily result = cachedStore.getColumnFamily(QueryFilter.getSliceFilter(dk, cf,
+                                                                                         Composites.EMPTY,
+                                                                                         Composites.EMPTY,
+                                                                                         false, 10, System.currentTimeMillis()));
+            assertEquals(10, result.getColumnCount());
+
+            long timeout = System.currentTimeMillis() + 10000;
+            while (!(CacheService.instance.rowCache.get(rck) instanceof ColumnFamily) && System.currentTimeMillis() < timeout)
+                Thread.sleep(10);
+
+            ColumnFamily cachedCf = (ColumnFamily)CacheService.instance.rowCache.get(rck);
+            assertEquals(100, cachedCf.getColumnCount());
+
+            long startRowCacheHits = cachedStore.metric.rowCacheHit.count();
+            cachedStore.getColumnFamily(QueryFilter.getSliceFilter(dk, cf,
+                                                                   Composites.EMPTY,
+                                                                   Composites.EMPTY,
+                                                                   false, 20, System.currentTimeMillis()));
+            assertEquals(startRowCacheHits + 1, cachedStore.metric.rowCacheHit.count());
+        }
+        finally
+        {
+            DatabaseDescriptor.setRowCacheAsyncPopulation(false);
+        }
+    }
+
     @Test
     public void testSSTablesPerReadHistogramWhenRowCache()
     {
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.commitlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.io.util.DataOutputByteBuffer;
+import org.apache.cassandra.metrics.CommitLogMetrics;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.PureJavaCrc32;
+
+import static org.apache.cassandra.utils.ByteBufferUtil.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitLogServiceTest extends SchemaLoader
+{
+    private static final int WRITERS = 8;
+    private static final int WRITES = 500;
+
+    @Test
+    public void testAckAfterSync() throws Exception
+    {
+        GroupCommitLogService service = new GroupCommitLogService(CommitLog.instance);
+        try
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                CommitLogSegment.Allocation alloc = write(i);
+                service.finishWriteFor(alloc);
+                assertTrue(alloc.isSynced());
+            }
+        }
+        finally
+        {
+            service.shutdown();
+            service.awaitTermination();
+        }
+    }
+
+    @Test
+    public void testGroupedSyncsUnderLoad() throws Exception
+    {
+        final CommitLogMetrics metrics = CommitLog.instance.metrics;
+        long syncsBefore = metrics.syncDuration.count();
+        metrics.syncBatchSize.clear();
+
+        final GroupCommitLogService service = new GroupCommitLogService(CommitLog.instance);
+        final AtomicInteger acked = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        try
+        {
+            for (int t = 0; t < WRITERS; t++)
+            {
+                final int writer = t;
+                Thread thread = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            for (int i = 0; i < WRITES; i++)
+                            {
+                                CommitLogSegment.Allocation alloc = write(writer * WRITES + i);
+                                service.finishWriteFor(alloc);
+                                // the write must not be acked before the sync that covers it
+                                if (!alloc.isSynced())
+                                    throw new AssertionError("write acked before being synced");
+                                acked.incrementAndGet();
+                            }
+                        }
+                        catch (Throwable e)
+                        {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                };
+                writers.add(thread);
+                thread.start();
+            }
+            for (Thread thread : writers)
+                thread.join();
+        }
+        finally
+        {
+            service.shutdown();
+            service.awaitTermination();
+        }
+
+        assertNull(failure.get());
+        assertEquals(WRITERS * WRITES, acked.get());
+        assertTrue(metrics.syncDuration.count() > syncsBefore);
+        assertTrue(metrics.syncBatchSize.count() > 0);
+        // writers waiting during a sync are covered by the next one, which starts as soon as the previous completes
+        assertTrue(metrics.syncBatchSize.max() > 1);
+    }
+
+    /**
+     * Appends a mutation to the commit log as CommitLog.add does, but leaves waiting for its sync to the caller.
+     */
+    private static CommitLogSegment.Allocation write(int key) throws IOException
+    {
+        Mutation mutation = new Mutation("Keyspace1", bytes(key));
+        mutation.add("Standard1", Util.cellname("c"), bytes(key), 0);
+
+        int size = (int) Mutation.serializer.serializedSize(mutation, MessagingService.current_version);
+        CommitLogSegment.Allocation alloc = CommitLog.instance.allocator.allocate(mutation, size + CommitLogSegment.ENTRY_OVERHEAD_SIZE);
+        try
+        {
+            PureJavaCrc32 checksum = new PureJavaCrc32();
+            ByteBuffer buffer = alloc.getBuffer();
+            DataOutputByteBuffer out = new DataOutputByteBuffer(buffer);
+
+            out.writeInt(size);
+            checksum.update(buffer, buffer.position() - 4, 4);
+            buffer.putInt(checksum.getCrc());
+
+            int start = buffer.position();
+            Mutation.serializer.serialize(mutation, out, MessagingService.current_version);
+            checksum.update(buffer, start, size);
+            buffer.putInt(checksum.getCrc());
+        }
+        finally
+        {
+            alloc.markWritten();
+        }
+        return alloc;
+    }
+}
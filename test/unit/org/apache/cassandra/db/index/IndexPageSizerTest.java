@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.db.ArrayBackedSortedColumns;
+import org.apache.cassandra.db.BufferCell;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.metrics.ColumnFamilyMetrics;
+
+import static org.apache.cassandra.Util.cellname;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IndexPageSizerTest extends SchemaLoader
+{
+    private static ColumnFamilyMetrics metrics()
+    {
+        return Keyspace.open("Keyspace1").getColumnFamilyStore("Standard1").metric;
+    }
+
+    @Test
+    public void testFirstPage()
+    {
+        assertEquals(10, new IndexPageSizer(metrics(), 10).nextPageSize());
+        // paging needs at least 2 cells per page, and unbounded searches shouldn't read the whole index row at once
+        assertEquals(IndexPageSizer.MIN_PAGE_SIZE, new IndexPageSizer(metrics(), 1).nextPageSize());
+        assertTrue(new IndexPageSizer(metrics(), Integer.MAX_VALUE).nextPageSize() < Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testGrowsGeometricallyOnLowHitRatio()
+    {
+        IndexPageSizer sizer = new IndexPageSizer(metrics(), 10);
+        assertEquals(10, sizer.nextPageSize());
+        sizer.onPageRead(10);
+        sizer.onReturned(1);
+        assertEquals(20, sizer.nextPageSize());
+        sizer.onPageRead(20);
+        assertEquals(40, sizer.nextPageSize());
+    }
+
+    @Test
+    public void testShrinksToRemainingResults()
+    {
+        IndexPageSizer sizer = new IndexPageSizer(metrics(), 100);
+        assertEquals(100, sizer.nextPageSize());
+        sizer.onPageRead(100);
+        sizer.onReturned(90);
+        // 10 more results are expected from the next 12 entries
+        assertEquals(12, sizer.nextPageSize());
+    }
+
+    @Test
+    public void testShrinksOnLargeBaseRows()
+    {
+        IndexPageSizer sizer = new IndexPageSizer(metrics(), 10);
+        assertEquals(10, sizer.nextPageSize());
+        ColumnFamily cf = ArrayBackedSortedColumns.factory.create("Keyspace1", "Standard1");
+        cf.addColumn(new BufferCell(cellname("c"), ByteBuffer.allocate(4 * 1024 * 1024), 0));
+        sizer.onPageRead(10);
+        sizer.onBaseRowFetched(cf);
+        sizer.onReturned(5);
+        int size = sizer.nextPageSize();
+        assertTrue(size < 10 && size >= IndexPageSizer.MIN_PAGE_SIZE);
+    }
+
+    @Test
+    public void testMetrics()
+    {
+        ColumnFamilyMetrics metrics = metrics();
+        long cellsRead = metrics.indexCellsRead.count();
+        long fetched = metrics.indexBaseRowsFetched.count();
+        long returned = metrics.indexRowsReturned.count();
+
+        IndexPageSizer sizer = new IndexPageSizer(metrics, 10);
+        sizer.onPageRead(10);
+        sizer.onBaseRowFetched(null);
+        sizer.onBaseRowFetched(null);
+        sizer.onReturned(1);
+
+        assertEquals(cellsRead + 10, metrics.indexCellsRead.count());
+        assertEquals(fetched + 2, metrics.indexBaseRowsFetched.count());
+        assertEquals(returned + 1, metrics.indexRowsReturned.count());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.cql3.Operator;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.IndexExpression;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.Mutation;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+
+public class SecondaryIndexSearcherTest extends SchemaLoader
+{
+    private static final String KEYSPACE = "SecondaryIndexSearcher";
+    private static final String CF = "Indexed1";
+    private static final ByteBuffer COL1 = ByteBufferUtil.bytes("col1");
+    private static final ByteBuffer COL2 = ByteBufferUtil.bytes("col2");
+
+    private ColumnFamilyStore cfs;
+
+    @Before
+    public void truncate()
+    {
+        cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(CF);
+        cfs.truncateBlocking();
+    }
+
+    private void insert(String key, String col1, String col2)
+    {
+        Mutation rm = new Mutation(KEYSPACE, ByteBufferUtil.bytes(key));
+        rm.add(CF, cfs.getComparator().makeCellName(ByteBufferUtil.bytes("c"), COL1), ByteBufferUtil.bytes(col1), 0);
+        rm.add(CF, cfs.getComparator().makeCellName(ByteBufferUtil.bytes("c"), COL2), ByteBufferUtil.bytes(col2), 0);
+        rm.apply();
+    }
+
+    private SecondaryIndexSearcher searcher()
+    {
+        return cfs.indexManager.getIndexForColumn(COL1).createSecondaryIndexSearcher(new HashSet<>(Arrays.asList(COL1, COL2)));
+    }
+
+    private static IndexExpression eq(ByteBuffer column, String value)
+    {
+        return new IndexExpression(column, Operator.EQ, ByteBufferUtil.bytes(value));
+    }
+
+    @Test
+    public void testMemtableRowsAreEstimated()
+    {
+        // col2 = x is flushed for 5 rows, while col1 = b is only in the memtable, for 20 rows
+        for (int i = 0; i < 5; i++)
+            insert("k" + i, "a", "x");
+        cfs.forceBlockingFlush();
+        for (int i = 5; i < 25; i++)
+            insert("k" + i, "b", "y");
+
+        SecondaryIndex col1Index = cfs.indexManager.getIndexForColumn(COL1);
+        SecondaryIndex col2Index = cfs.indexManager.getIndexForColumn(COL2);
+        assertEquals(20, col1Index.estimateResultRows(ByteBufferUtil.bytes("b")));
+        assertEquals(5, col2Index.estimateResultRows(ByteBufferUtil.bytes("x")));
+
+        List<IndexExpression> clause = Arrays.asList(eq(COL1, "b"), eq(COL2, "x"));
+        assertEquals(COL2, searcher().highestSelectivityPredicate(clause, false).column);
+    }
+
+    @Test
+    public void testIntersectsMemtableRows()
+    {
+        // both values are only in the memtable, for more rows than a single index is selective for
+        for (int i = 0; i < 1000; i++)
+            insert("k" + i, "a", "x");
+
+        SecondaryIndexSearcher searcher = searcher();
+        List<IndexExpression> clause = Arrays.asList(eq(COL1, "a"), eq(COL2, "x"));
+        IndexExpression primary = searcher.highestSelectivityPredicate(clause, false);
+        List<IndexExpression> intersecting = searcher.intersectingPredicates(clause, primary);
+        assertEquals(1, intersecting.size());
+        assertEquals(primary.column.equals(COL1) ? COL2 : COL1, intersecting.get(0).column);
+    }
+}
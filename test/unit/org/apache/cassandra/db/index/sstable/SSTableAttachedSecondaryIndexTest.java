@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.index.sstable;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.cql3.Operator;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.columniterator.IdentityQueryFilter;
+import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
+import org.apache.cassandra.db.composites.CellName;
+import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SSTableAttachedSecondaryIndexTest extends SchemaLoader
+{
+    private static final String KEYSPACE = "SSTableAttachedSecondaryIndex";
+    private static final String CF = "Indexed1";
+    private static final ByteBuffer COLUMN = ByteBufferUtil.bytes("col1");
+    private static final Component SEGMENT = new Component(Component.Type.CUSTOM, "SI_col1_idx.db");
+
+    private ColumnFamilyStore cfs;
+
+    @Before
+    public void truncate()
+    {
+        cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(CF);
+        cfs.truncateBlocking();
+    }
+
+    private void insert(String key, String clustering, String value, long timestamp)
+    {
+        CellName name = cfs.getComparator().makeCellName(ByteBufferUtil.bytes(clustering), COLUMN);
+        Mutation rm = new Mutation(KEYSPACE, ByteBufferUtil.bytes(key));
+        rm.add(CF, name, ByteBufferUtil.bytes(value), timestamp);
+        rm.apply();
+    }
+
+    private SSTableAttachedSecondaryIndex getIndex()
+    {
+        return (SSTableAttachedSecondaryIndex) cfs.indexManager.getIndexForColumn(COLUMN);
+    }
+
+    private Set<String> search(String value) throws CharacterCodingException
+    {
+        return search(new IndexExpression(COLUMN, Operator.EQ, ByteBufferUtil.bytes(value)));
+    }
+
+    private Set<String> search(IndexExpression... expressions) throws CharacterCodingException
+    {
+        List<IndexExpression> clause = Arrays.asList(expressions);
+        List<Row> rows = cfs.search(Util.range("", ""), clause, new IdentityQueryFilter(), 100);
+        Set<String> keys = new HashSet<>();
+        for (Row row : rows)
+            keys.add(ByteBufferUtil.string(row.key.getKey()));
+        return keys;
+    }
+
+    @Test
+    public void testMemtableAndFlushedData() throws Exception
+    {
+        insert("k1", "c1", "v1", 0);
+        insert("k2", "c1", "v1", 0);
+        insert("k3", "c1", "v2", 0);
+
+        assertEquals(new HashSet<>(Arrays.asList("k1", "k2")), search("v1"));
+        assertEquals(new HashSet<>(Arrays.asList("k3")), search("v2"));
+
+        cfs.forceBlockingFlush();
+        assertEquals(new HashSet<>(Arrays.asList("k1", "k2")), search("v1"));
+        assertEquals(new HashSet<>(Arrays.asList("k3")), search("v2"));
+
+        SSTableReader sstable = cfs.getSSTables().iterator().next();
+        assertTrue(new File(sstable.descriptor.filenameFor(SEGMENT)).exists());
+
+        // the flushed entry of k1 is stale once the value is overwritten in the memtable
+        insert("k1", "c1", "v2", 1);
+        assertEquals(new HashSet<>(Arrays.asList("k2")), search("v1"));
+        assertEquals(new HashSet<>(Arrays.asList("k1", "k3")), search("v2"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception
+    {
+        insert("k1", "c1", "v1", 0);
+        insert("k2", "c1", "v1", 0);
+        cfs.forceBlockingFlush();
+        insert("k1", "c1", "v2", 1);
+        insert("k3", "c1", "v1", 0);
+        cfs.forceBlockingFlush();
+
+        assertEquals(new HashSet<>(Arrays.asList("k2", "k3")), search("v1"));
+
+        Util.compactAll(cfs, Integer.MAX_VALUE).get();
+        assertEquals(1, cfs.getSSTables().size());
+        assertEquals(new HashSet<>(Arrays.asList("k2", "k3")), search("v1"));
+        assertEquals(new HashSet<>(Arrays.asList("k1")), search("v2"));
+
+        // the segment of the compacted sstable is written by the compaction, without the overwritten entry of k1
+        SSTableReader sstable = cfs.getSSTables().iterator().next();
+        assertTrue(new File(sstable.descriptor.filenameFor(SEGMENT)).exists());
+        SSTableAttachedSecondaryIndex index = getIndex();
+        assertEquals(2, index.getSegment(sstable).rowCount(ValueBounds.point(ByteBufferUtil.bytes("v1"))));
+        assertEquals(1, index.getSegment(sstable).rowCount(ValueBounds.point(ByteBufferUtil.bytes("v2"))));
+    }
+
+    @Test
+    public void testSegmentFile() throws Exception
+    {
+        for (int i = 0; i < 10; i++)
+            insert("k" + i, "c1", "v" + (i % 3), 0);
+        cfs.forceBlockingFlush();
+
+        SSTableReader sstable = cfs.getSSTables().iterator().next();
+        File file = new File(sstable.descriptor.filenameFor(SEGMENT));
+        SSTableAttachedSecondaryIndex index = getIndex();
+        ValueBounds bounds = ValueBounds.of(Arrays.asList(new IndexExpression(COLUMN, Operator.GTE, ByteBufferUtil.bytes("v1"))),
+                                            COLUMN,
+                                            index.getValueType());
+        AbstractBounds<RowPosition> range = Util.range("", "");
+
+        // the rows read from the mapped segment are the ones read from the data of the sstable
+        IndexSegment segment = IndexSegment.open(file, COLUMN, index.getValueType(), cfs.getComparator(), cfs.partitioner);
+        List<IndexedRow> indexed = Lists.newArrayList(segment.rows(bounds, range.left, index.getRowComparator()));
+        List<IndexedRow> read = Lists.newArrayList(index.unindexedRows(sstable, bounds, range));
+        assertEquals(6, indexed.size());
+        assertEquals(read.size(), indexed.size());
+        for (int i = 0; i < indexed.size(); i++)
+            assertEquals(0, index.getRowComparator().compare(read.get(i), indexed.get(i)));
+
+        // a segment of another version is ignored
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.writeInt(IndexSegment.VERSION + 1);
+        }
+        assertNull(IndexSegment.open(file, COLUMN, index.getValueType(), cfs.getComparator(), cfs.partitioner));
+    }
+
+    @Test
+    public void testSpilledSegment() throws Exception
+    {
+        for (int i = 0; i < 20; i++)
+            insert("k" + i, "c" + (i % 2), "v" + (i % 3), 0);
+        cfs.forceBlockingFlush();
+
+        SSTableReader sstable = cfs.getSSTables().iterator().next();
+        SSTableAttachedSecondaryIndex index = getIndex();
+        File directory = sstable.descriptor.directory;
+        IndexSegment.Builder onHeap = new IndexSegment.Builder(index, directory, Long.MAX_VALUE);
+        // spills the entries of every row on its own
+        IndexSegment.Builder spilled = new IndexSegment.Builder(index, directory, 0);
+        try (ISSTableScanner scanner = sstable.getScanner())
+        {
+            while (scanner.hasNext())
+            {
+                OnDiskAtomIterator partition = scanner.next();
+                while (partition.hasNext())
+                {
+                    OnDiskAtom atom = partition.next();
+                    if (atom instanceof Cell)
+                    {
+                        onHeap.add(partition.getKey(), (Cell) atom);
+                        spilled.add(partition.getKey(), (Cell) atom);
+                    }
+                }
+            }
+        }
+        assertEquals(20, spillCount(index, directory));
+
+        // merging the runs writes the same segment as the one written from the heap
+        DataOutputBuffer expected = new DataOutputBuffer();
+        onHeap.serialize(COLUMN, expected);
+        DataOutputBuffer actual = new DataOutputBuffer();
+        spilled.serialize(COLUMN, actual);
+        assertEquals(expected.asByteBuffer(), actual.asByteBuffer());
+
+        spilled.release();
+        assertEquals(0, spillCount(index, directory));
+    }
+
+    private static int spillCount(final SSTableAttachedSecondaryIndex index, File directory)
+    {
+        return directory.listFiles(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith(index.spillPrefix());
+            }
+        }).length;
+    }
+
+    @Test
+    public void testRange() throws Exception
+    {
+        insert("k1", "c1", "v1", 0);
+        insert("k2", "c1", "v2", 0);
+        cfs.forceBlockingFlush();
+        insert("k3", "c1", "v3", 0);
+        insert("k4", "c1", "v4", 0);
+
+        IndexExpression gtV1 = new IndexExpression(COLUMN, Operator.GT, ByteBufferUtil.bytes("v1"));
+        IndexExpression lteV3 = new IndexExpression(COLUMN, Operator.LTE, ByteBufferUtil.bytes("v3"));
+        IndexExpression gteV3 = new IndexExpression(COLUMN, Operator.GTE, ByteBufferUtil.bytes("v3"));
+        IndexExpression ltV2 = new IndexExpression(COLUMN, Operator.LT, ByteBufferUtil.bytes("v2"));
+
+        assertEquals(new HashSet<>(Arrays.asList("k2", "k3", "k4")), search(gtV1));
+        assertEquals(new HashSet<>(Arrays.asList("k2", "k3")), search(gtV1, lteV3));
+        assertEquals(new HashSet<>(Arrays.asList("k3", "k4")), search(gteV3));
+        assertEquals(new HashSet<>(Arrays.asList("k1")), search(ltV2));
+        assertEquals(new HashSet<String>(), search(gteV3, ltV2));
+
+        // the flushed entry of k2 is stale once the value is overwritten in the memtable
+        insert("k2", "c1", "v0", 1);
+        assertEquals(new HashSet<>(Arrays.asList("k1", "k2")), search(ltV2));
+        assertEquals(new HashSet<>(Arrays.asList("k3")), search(gtV1, lteV3));
+    }
+
+    @Test
+    public void testMemtableOnlyEstimate() throws Exception
+    {
+        for (int i = 0; i < 6; i++)
+            insert("k" + i, "c1", i < 4 ? "v1" : "v2", 0);
+
+        SSTableAttachedSecondaryIndex index = getIndex();
+        assertEquals(4, index.estimateResultRows(ByteBufferUtil.bytes("v1")));
+        assertEquals(0, index.estimateResultRows(ByteBufferUtil.bytes("v3")));
+        assertEquals(3, index.estimateResultRows());
+
+        IndexExpression eqV1 = new IndexExpression(COLUMN, Operator.EQ, ByteBufferUtil.bytes("v1"));
+        assertEquals(4, cfs.indexManager.getIndexSearchersForQuery(Arrays.asList(eqV1)).get(0).estimateResultRows(Arrays.asList(eqV1)));
+    }
+
+    @Test
+    public void testRangeOverManyValues() throws Exception
+    {
+        // each value is shared by two rows, the first five values are flushed and the others stay in the memtable
+        for (int i = 0; i < 20; i++)
+        {
+            insert("k" + i, "c1", String.format("v%02d", i / 2), 0);
+            if (i == 9)
+                cfs.forceBlockingFlush();
+        }
+
+        IndexExpression gteV02 = new IndexExpression(COLUMN, Operator.GTE, ByteBufferUtil.bytes("v02"));
+        IndexExpression ltV07 = new IndexExpression(COLUMN, Operator.LT, ByteBufferUtil.bytes("v07"));
+        Set<String> expected = new HashSet<>();
+        for (int i = 4; i < 14; i++)
+            expected.add("k" + i);
+        assertEquals(expected, search(gteV02, ltV07));
+
+        // the estimate counts the flushed rows, of v02 to v04, and the ones of the memtable, of v05 and v06
+        SSTableAttachedSecondaryIndex index = getIndex();
+        ValueBounds bounds = ValueBounds.of(Arrays.asList(gteV02, ltV07), COLUMN, index.getValueType());
+        assertEquals(10, index.estimateResultRows(bounds));
+        assertEquals(2, index.estimateResultRows());
+
+        cfs.forceBlockingFlush();
+        assertEquals(10, index.estimateResultRows(bounds));
+        assertEquals(expected, search(gteV02, ltV07));
+    }
+}
@@ -18,6 +18,7 @@
 */
 package org.apache.cassandra.io.sstable;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,6 +29,7 @@ import org.junit.Test;
 import org.apache.cassandra.Util;
 import org.apache.cassandra.db.composites.*;
 import org.apache.cassandra.db.marshal.IntegerType;
+import org.apache.cassandra.io.util.DataOutputBuffer;
 import static org.apache.cassandra.io.sstable.IndexHelper.IndexInfo;
 
 public class IndexHelperTest
@@ -37,16 +39,44 @@ public class IndexHelperTest
         return Util.cellname(l);
     }
 
-    @Test
-    public void testIndexHelper()
+    private static List<IndexInfo> indexes()
     {
         List<IndexInfo> indexes = new ArrayList<IndexInfo>();
         indexes.add(new IndexInfo(cn(0L), cn(5L), 0, 0));
         indexes.add(new IndexInfo(cn(10L), cn(15L), 0, 0));
         indexes.add(new IndexInfo(cn(20L), cn(25L), 0, 0));
+        return indexes;
+    }
+
+    @Test
+    public void testIndexHelper()
+    {
+        testIndexFor(indexes(), new SimpleDenseCellNameType(IntegerType.instance));
+    }
 
+    @Test
+    public void testSerializedIndex() throws IOException
+    {
         CellNameType comp = new SimpleDenseCellNameType(IntegerType.instance);
+        List<IndexInfo> indexes = indexes();
+        DataOutputBuffer out = new DataOutputBuffer();
+        for (IndexInfo info : indexes)
+            comp.indexSerializer().serialize(info, out);
+
+        IndexHelper.SerializedIndex serialized = IndexHelper.SerializedIndex.create(out.toByteArray(), indexes.size(), comp);
+        assertEquals(indexes.size(), serialized.size());
+        assertEquals(out.getLength(), serialized.serializedSize());
+        for (int i = 0; i < indexes.size(); i++)
+        {
+            assertEquals(indexes.get(i).firstName, serialized.get(i).firstName);
+            assertEquals(indexes.get(i).lastName, serialized.get(i).lastName);
+        }
 
+        testIndexFor(serialized, comp);
+    }
+
+    private static void testIndexFor(List<IndexInfo> indexes, CellNameType comp)
+    {
         assertEquals(0, IndexHelper.indexFor(cn(-1L), indexes, comp, false, -1));
         assertEquals(0, IndexHelper.indexFor(cn(5L), indexes, comp, false, -1));
         assertEquals(1, IndexHelper.indexFor(cn(12L), indexes, comp, false, -1));
@@ -29,6 +29,8 @@ import org.junit.Test;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.LongToken;
+import org.apache.cassandra.dht.Murmur3Partitioner;
 import org.apache.cassandra.dht.RandomPartitioner;
 import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.io.util.FileUtils;
@@ -61,6 +63,34 @@ public class IndexSummaryTest
         random.right.close();
     }
 
+    @Test
+    public void testInterpolationSearch() throws Exception
+    {
+        // only every other key has an entry, so half the searches find an insertion point
+        IPartitioner p = new Murmur3Partitioner();
+        List<DecoratedKey> keys = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++)
+            keys.add(p.decorateKey(ByteBufferUtil.bytes(i)));
+        Collections.sort(keys);
+
+        try (IndexSummaryBuilder builder = new IndexSummaryBuilder(keys.size(), 1, BASE_SAMPLING_LEVEL))
+        {
+            for (int i = 0; i < keys.size(); i += 2)
+                builder.maybeAddEntry(keys.get(i), i);
+            IndexSummary summary = builder.build(p);
+            for (DecoratedKey key : keys)
+            {
+                for (RowPosition position : Arrays.asList(key, key.getToken().minKeyBound(), key.getToken().maxKeyBound()))
+                    assertEquals(summary.binarySearch(position, 0, summary.size() - 1), summary.binarySearch(position));
+            }
+            assertEquals(0, summary.binarySearch(keys.get(0)));
+            assertEquals(-2, summary.binarySearch(keys.get(1)));
+            assertEquals(-1, summary.binarySearch(p.getMinimumToken().minKeyBound()));
+            assertEquals(-summary.size() - 1, summary.binarySearch(new LongToken(Long.MAX_VALUE).maxKeyBound()));
+            summary.close();
+        }
+    }
+
     @Test
     public void testGetPosition()
     {
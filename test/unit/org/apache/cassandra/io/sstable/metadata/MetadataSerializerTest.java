@@ -35,9 +35,11 @@ import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.util.DataOutputStreamAndChannel;
 import org.apache.cassandra.io.util.RandomAccessReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.EstimatedHistogram;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class MetadataSerializerTest
 {
@@ -86,4 +88,38 @@ public class MetadataSerializerTest
             }
         }
     }
+
+    @Test
+    public void testValueFrequencySerialization() throws IOException
+    {
+        MetadataCollector collector = new MetadataCollector(new SimpleDenseCellNameType(BytesType.instance)).trackValueFrequencies();
+        // a skewed distribution: one very frequent value, a few common ones, and lots of rare ones
+        collector.addValueFrequency(ByteBufferUtil.bytes("frequent"), 100000);
+        for (int i = 0; i < 10; i++)
+            collector.addValueFrequency(ByteBufferUtil.bytes("common" + i), 1000);
+        for (int i = 0; i < 10000; i++)
+            collector.addValueFrequency(ByteBufferUtil.bytes("rare" + i), 1);
+
+        // the frequencies are kept out of Statistics.db, whose components older versions must still be able to read
+        Map<MetadataType, MetadataComponent> metadata = collector.finalizeMetadata(RandomPartitioner.class.getCanonicalName(), 0.1, 0);
+        assertEquals(EnumSet.allOf(MetadataType.class), metadata.keySet());
+
+        File file = File.createTempFile(Component.VALUE_FREQUENCY.name, null);
+        try (DataOutputStreamAndChannel out = new DataOutputStreamAndChannel(new FileOutputStream(file)))
+        {
+            ValueFrequencyMetadata.serializer.serialize(collector.finalizeValueFrequencies(), out);
+        }
+
+        try (RandomAccessReader in = RandomAccessReader.open(file))
+        {
+            ValueFrequencyMetadata frequencies = ValueFrequencyMetadata.serializer.deserialize(in);
+            assertEquals(100000 + 10 * 1000 + 10000, frequencies.totalCount());
+            assertEquals(100000, frequencies.estimateCount(ByteBufferUtil.bytes("frequent")));
+            assertEquals(1000, frequencies.estimateCount(ByteBufferUtil.bytes("common3")));
+            // estimates never under-estimate, and rare values are bounded by the least frequent heavy hitter
+            long rare = frequencies.estimateCount(ByteBufferUtil.bytes("rare42"));
+            assertTrue(rare >= 1 && rare <= 1000);
+            assertTrue(frequencies.estimateCount(ByteBufferUtil.bytes("absent")) <= 1000);
+        }
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.composites.SimpleDenseCellNameType;
+import org.apache.cassandra.db.marshal.BytesType;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.compress.CompressedSequentialWriter;
+import org.apache.cassandra.io.compress.CompressionMetadata;
+import org.apache.cassandra.io.compress.CompressionParameters;
+import org.apache.cassandra.io.compress.SnappyCompressor;
+import org.apache.cassandra.io.sstable.CorruptSSTableException;
+import org.apache.cassandra.io.sstable.metadata.MetadataCollector;
+
+import static org.junit.Assert.*;
+
+/**
+ * Relies on the mmap disk_access_mode of the test configuration.
+ */
+public class CompressedPoolingSegmentedFileTest
+{
+    private static final int CHUNK_LENGTH = 64;
+    // holds two chunks of random data along with their checksums, but not three
+    private static final long MAX_SEGMENT_SIZE = 200;
+    private static final int CHUNKS = 40;
+
+    private static CompressedSequentialWriter newWriter(File f) throws ConfigurationException
+    {
+        CompressionParameters parameters = new CompressionParameters(SnappyCompressor.instance, CHUNK_LENGTH, Collections.<String, String>emptyMap());
+        MetadataCollector collector = new MetadataCollector(new SimpleDenseCellNameType(BytesType.instance));
+        return new CompressedSequentialWriter(f, f.getAbsolutePath() + ".metadata", parameters, collector);
+    }
+
+    private static byte[] randomData()
+    {
+        // random data doesn't compress, so that every chunk is a bit longer than CHUNK_LENGTH
+        byte[] data = new byte[CHUNKS * CHUNK_LENGTH];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private static void delete(File f)
+    {
+        f.delete();
+        new File(f.getAbsolutePath() + ".metadata").delete();
+    }
+
+    private static void assertReads(SegmentedFile file, byte[] data, int length) throws IOException
+    {
+        try (RandomAccessReader reader = file.createReader())
+        {
+            assertEquals(length, reader.length());
+            byte[] read = new byte[length];
+            reader.readFully(read);
+            for (int i = 0; i < length; i++)
+                assertEquals(data[i], read[i]);
+        }
+    }
+
+    // every chunk is in a single segment, some of them being placed in the next segment as they cross a multiple of
+    // the segment size
+    private static void assertSegments(CompressedPoolingSegmentedFile file)
+    {
+        TreeMap<Long, MappedByteBuffer> segments = file.chunkSegments();
+        assertTrue(segments.size() > 1);
+        for (MappedByteBuffer segment : segments.values())
+            assertTrue(segment.capacity() <= MAX_SEGMENT_SIZE);
+
+        boolean crosses = false;
+        CompressionMetadata metadata = file.getMetadata();
+        for (long position = 0; position < metadata.dataLength; position += CHUNK_LENGTH)
+        {
+            CompressionMetadata.Chunk chunk = metadata.chunkFor(position);
+            long chunkEnd = chunk.offset + chunk.length + 4;
+            Map.Entry<Long, MappedByteBuffer> segment = segments.floorEntry(chunk.offset);
+            assertTrue(segment.getKey() + segment.getValue().capacity() >= chunkEnd);
+            crosses |= chunk.offset / MAX_SEGMENT_SIZE != (chunkEnd - 1) / MAX_SEGMENT_SIZE;
+        }
+        assertTrue(crosses);
+    }
+
+    @Test
+    public void testEarlyOpenedSegments() throws IOException, ConfigurationException
+    {
+        File f = File.createTempFile("segments", ".db");
+        String path = f.getAbsolutePath();
+        byte[] data = randomData();
+        try
+        {
+            CompressedSequentialWriter writer = newWriter(f);
+            CompressedPoolingSegmentedFile.Builder builder = new CompressedPoolingSegmentedFile.Builder(writer, MAX_SEGMENT_SIZE);
+
+            int half = data.length / 2;
+            writer.write(data, 0, half);
+            writer.sync();
+            CompressedPoolingSegmentedFile early = (CompressedPoolingSegmentedFile) builder.complete(path, half);
+            assertSegments(early);
+            assertReads(early, data, half);
+
+            writer.write(data, half, data.length - half);
+            writer.close();
+            CompressedPoolingSegmentedFile complete = (CompressedPoolingSegmentedFile) builder.complete(path);
+            assertSegments(complete);
+
+            // the segments fixed by the early opening are shared rather than mapped again, and outlive it
+            int shared = 0;
+            for (Map.Entry<Long, MappedByteBuffer> segment : early.chunkSegments().entrySet())
+            {
+                if (complete.chunkSegments().get(segment.getKey()) == segment.getValue())
+                    shared++;
+            }
+            assertEquals(early.chunkSegments().size() - 1, shared);
+            early.close();
+            assertReads(complete, data, data.length);
+
+            // once no file uses the fixed segments anymore, they are mapped again
+            complete.close();
+            CompressedPoolingSegmentedFile reopened = (CompressedPoolingSegmentedFile) builder.complete(path);
+            assertSegments(reopened);
+            assertReads(reopened, data, data.length);
+            reopened.close();
+        }
+        finally
+        {
+            delete(f);
+        }
+    }
+
+    @Test
+    public void testCorruptedChecksum() throws IOException, ConfigurationException
+    {
+        File f = File.createTempFile("corrupted", ".db");
+        String path = f.getAbsolutePath();
+        byte[] data = randomData();
+        try
+        {
+            CompressedSequentialWriter writer = newWriter(f);
+            CompressedPoolingSegmentedFile.Builder builder = new CompressedPoolingSegmentedFile.Builder(writer, MAX_SEGMENT_SIZE);
+            writer.write(data);
+            writer.close();
+
+            // corrupts the checksum of the third chunk, the first one of the second segment
+            CompressedPoolingSegmentedFile file = (CompressedPoolingSegmentedFile) builder.complete(path);
+            CompressionMetadata.Chunk chunk = file.getMetadata().chunkFor(2 * CHUNK_LENGTH);
+            assertTrue(file.chunkSegments().containsKey(chunk.offset));
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw"))
+            {
+                raf.seek(chunk.offset + chunk.length);
+                int checksum = raf.readInt();
+                raf.seek(chunk.offset + chunk.length);
+                raf.writeInt(~checksum);
+            }
+
+            try (RandomAccessReader reader = file.createReader())
+            {
+                byte[] read = new byte[2 * CHUNK_LENGTH];
+                reader.readFully(read);
+                reader.readFully(read);
+                fail("the corrupted chunk should not be read");
+            }
+            catch (CorruptSSTableException e)
+            {
+                // expected
+            }
+            file.close();
+        }
+        finally
+        {
+            delete(f);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.RangeSliceCommand;
+import org.apache.cassandra.db.RangeSliceReply;
+import org.apache.cassandra.db.Row;
+import org.apache.cassandra.db.columniterator.IdentityQueryFilter;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RangeRequestWindowTest extends SchemaLoader
+{
+    private static final String KEYSPACE = "Keyspace1";
+    private static final int REQUESTS = 10;
+    private static final int MAX_IN_FLIGHT = 3;
+
+    @Test
+    public void testRefillOnAnyCompletion() throws Exception
+    {
+        final List<ReadCallback<RangeSliceReply, Iterable<Row>>> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++)
+            requests.add(newRequest());
+
+        // sent by the thread consuming the window, while the test thread checks them
+        final List<ReadCallback<RangeSliceReply, Iterable<Row>>> sent = new CopyOnWriteArrayList<>();
+        final StorageProxy.RangeRequestWindow window = new StorageProxy.RangeRequestWindow(MAX_IN_FLIGHT, 10000)
+        {
+            boolean hasMoreToSend()
+            {
+                return sent.size() < requests.size();
+            }
+
+            ReadCallback<RangeSliceReply, Iterable<Row>> send()
+            {
+                ReadCallback<RangeSliceReply, Iterable<Row>> request = requests.get(sent.size());
+                sent.add(request);
+                assertTrue(inFlight(sent) <= MAX_IN_FLIGHT);
+                return request;
+            }
+        };
+
+        assertTrue(window.hasNext());
+        assertEquals(MAX_IN_FLIGHT, sent.size());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Callable<ReadCallback<RangeSliceReply, Iterable<Row>>> next = new Callable<ReadCallback<RangeSliceReply, Iterable<Row>>>()
+            {
+                public ReadCallback<RangeSliceReply, Iterable<Row>> call() throws Exception
+                {
+                    return window.next();
+                }
+            };
+
+            // the completion of a request that isn't the oldest sends the next one, while the oldest is awaited
+            Future<ReadCallback<RangeSliceReply, Iterable<Row>>> first = executor.submit(next);
+            complete(requests.get(1));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (sent.size() == MAX_IN_FLIGHT && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(MAX_IN_FLIGHT + 1, sent.size());
+            assertFalse(first.isDone());
+
+            // the requests are still consumed in the order they were sent
+            complete(requests.get(0));
+            assertSame(requests.get(0), first.get(10, TimeUnit.SECONDS));
+            assertSame(requests.get(1), executor.submit(next).get(10, TimeUnit.SECONDS));
+            assertEquals(MAX_IN_FLIGHT + 2, sent.size());
+
+            for (int i = 2; i < REQUESTS; i++)
+            {
+                Future<ReadCallback<RangeSliceReply, Iterable<Row>>> request = executor.submit(next);
+                complete(requests.get(i));
+                assertSame(requests.get(i), request.get(10, TimeUnit.SECONDS));
+            }
+            assertFalse(window.hasNext());
+            assertEquals(REQUESTS, sent.size());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception
+    {
+        final ReadCallback<RangeSliceReply, Iterable<Row>> request = newRequest();
+        StorageProxy.RangeRequestWindow window = new StorageProxy.RangeRequestWindow(MAX_IN_FLIGHT, 100)
+        {
+            boolean sent = false;
+
+            boolean hasMoreToSend()
+            {
+                return !sent;
+            }
+
+            ReadCallback<RangeSliceReply, Iterable<Row>> send()
+            {
+                sent = true;
+                return request;
+            }
+        };
+
+        // a request that never completes is handed out once its timeout elapses, for its get() to report it
+        assertTrue(window.hasNext());
+        assertSame(request, window.next());
+        assertFalse(request.isComplete());
+    }
+
+    private static ReadCallback<RangeSliceReply, Iterable<Row>> newRequest()
+    {
+        RangeSliceCommand command = new RangeSliceCommand(KEYSPACE,
+                                                          "Standard1",
+                                                          System.currentTimeMillis(),
+                                                          new IdentityQueryFilter(),
+                                                          Util.range("", ""),
+                                                          100);
+        RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(KEYSPACE, command.timestamp);
+        resolver.setSources(Collections.singletonList(FBUtilities.getBroadcastAddress()));
+        return new ReadCallback<>(resolver,
+                                  ConsistencyLevel.ONE,
+                                  1,
+                                  command,
+                                  Keyspace.open(KEYSPACE),
+                                  Collections.singletonList(FBUtilities.getBroadcastAddress()));
+    }
+
+    private static void complete(ReadCallback<RangeSliceReply, Iterable<Row>> request)
+    {
+        request.response(new RangeSliceReply(Collections.<Row>emptyList()));
+    }
+
+    private static int inFlight(List<ReadCallback<RangeSliceReply, Iterable<Row>>> sent)
+    {
+        int inFlight = 0;
+        for (ReadCallback<RangeSliceReply, Iterable<Row>> request : sent)
+        {
+            if (!request.isComplete())
+                inFlight++;
+        }
+        return inFlight;
+    }
+}